@@ -0,0 +1,66 @@
+package io.compgen.ngsutils.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.compgen.ngsutils.annotation.BedAnnotationSource;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bed.BedRecord;
+
+/**
+ * Annotation lookups (AbstractAnnotationSource.findAnnotation) using a BED annotation source
+ * 
+ * @author mbreese
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationBenchmark {
+    private static final int REGIONS_PER_REF = 20000;
+    private static final int QUERIES = 4096;
+
+    private BedAnnotationSource bed;
+    private GenomeSpan[] points = new GenomeSpan[QUERIES];
+    private GenomeSpan[] spans = new GenomeSpan[QUERIES];
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        bed = new BedAnnotationSource(Fixtures.writeBED(Fixtures.tempDir(), REGIONS_PER_REF).getAbsolutePath());
+
+        Random rand = new Random(Fixtures.SEED);
+        for (int i=0; i<QUERIES; i++) {
+            String ref = Fixtures.REFS[rand.nextInt(Fixtures.REFS.length)];
+            int pos = rand.nextInt(Fixtures.REF_LENGTH - 10000);
+            points[i] = new GenomeSpan(ref, pos);
+            spans[i] = new GenomeSpan(ref, pos, pos + 10000);
+        }
+    }
+
+    @Benchmark
+    public List<BedRecord> findAnnotationPoint() {
+        return bed.findAnnotation(points[next++ % QUERIES]);
+    }
+
+    @Benchmark
+    public List<BedRecord> findAnnotationSpan() {
+        return bed.findAnnotation(spans[next++ % QUERIES]);
+    }
+}
@@ -0,0 +1,248 @@
+package io.compgen.ngsutils.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+/**
+ * Synthetic input files for the benchmarks. Everything is generated from a fixed seed, so
+ * each run (and each version) is benchmarked against the same data.
+ * 
+ * @author mbreese
+ *
+ */
+public class Fixtures {
+    public static final String[] REFS = new String[] { "chr1", "chr2", "chr3" };
+    public static final int REF_LENGTH = 2000000;
+    public static final long SEED = 42;
+
+    private static final char[] BASES = new char[] {'A', 'C', 'G', 'T'};
+
+    /**
+     * Creates a temporary directory for fixture files (removed at exit).
+     */
+    public static File tempDir() throws IOException {
+        File dir = File.createTempFile("ngsutilsj-bench", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    public static String randomSeq(Random rand, int len) {
+        char[] seq = new char[len];
+        for (int i=0; i<len; i++) {
+            seq[i] = BASES[rand.nextInt(4)];
+        }
+        return new String(seq);
+    }
+
+    public static String randomQual(Random rand, int len) {
+        char[] qual = new char[len];
+        for (int i=0; i<len; i++) {
+            qual[i] = (char) (35 + rand.nextInt(40));
+        }
+        return new String(qual);
+    }
+
+    /**
+     * One VCF record line (no newline). Positions are one-based.
+     */
+    public static String vcfLine(Random rand, String ref, int pos) {
+        char refBase = BASES[rand.nextInt(4)];
+        char altBase = BASES[(rand.nextInt(3) + 1 + refBase) % 4];
+        return ref + "\t" + pos + "\trs" + pos + "\t" + refBase + "\t" + altBase + "\t" + rand.nextInt(100) + "\t" + (rand.nextInt(4) == 0 ? "q10": "PASS")
+                + "\tDP=" + rand.nextInt(200) + ";AF=" + String.format("%.3f", rand.nextDouble()) + (rand.nextBoolean() ? ";DB": "")
+                + "\tGT:AD:DP\t0/1:" + rand.nextInt(50) + "," + rand.nextInt(50) + ":" + rand.nextInt(100)
+                + "\t0/0:" + rand.nextInt(50) + ",0:" + rand.nextInt(100);
+    }
+
+    public static String vcfHeader() {
+        return "##fileformat=VCFv4.1\n"
+                + "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+                + "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">\n"
+                + "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP\">\n"
+                + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+                + "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depth\">\n"
+                + "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+                + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2\n";
+    }
+
+    /**
+     * Writes a sorted, BGZF compressed VCF file with a tabix (.tbi) index.
+     */
+    public static File writeVCF(File dir, int recordsPerRef) throws IOException {
+        File file = new File(dir, "bench.vcf.gz");
+        Random rand = new Random(SEED);
+
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(file);
+        TabixIndexCreator indexer = new TabixIndexCreator(TabixFormat.VCF);
+
+        out.write(vcfHeader().getBytes());
+        for (String ref: REFS) {
+            int pos = 1;
+            int step = REF_LENGTH / recordsPerRef;
+            for (int i=0; i<recordsPerRef; i++) {
+                pos += 1 + rand.nextInt(step * 2 - 1);
+                long offset = out.getFilePointer();
+                out.write((vcfLine(rand, ref, pos) + "\n").getBytes());
+                indexer.addFeature(new SimpleFeature(ref, pos, pos), offset);
+            }
+        }
+        out.flush();
+        TabixIndex index = (TabixIndex) indexer.finalizeIndex(out.getFilePointer());
+        out.close();
+        index.writeBasedOnFeatureFile(file);
+
+        file.deleteOnExit();
+        new File(file.getAbsolutePath() + ".tbi").deleteOnExit();
+        return file;
+    }
+
+    public static File writeFASTQ(File dir, int reads, int readLength) throws IOException {
+        File file = new File(dir, "bench.fastq");
+        Random rand = new Random(SEED);
+        OutputStream out = new FileOutputStream(file);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<reads; i++) {
+            sb.setLength(0);
+            sb.append("@read");
+            sb.append(i);
+            sb.append(" 1:N:0:ACGTAC\n");
+            sb.append(randomSeq(rand, readLength));
+            sb.append("\n+\n");
+            sb.append(randomQual(rand, readLength));
+            sb.append("\n");
+            out.write(sb.toString().getBytes());
+        }
+        out.close();
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Writes a FASTA file (60 bases per line) with a FAI index.
+     */
+    public static File writeFASTA(File dir) throws IOException {
+        File file = new File(dir, "bench.fa");
+        Random rand = new Random(SEED);
+        OutputStream out = new FileOutputStream(file);
+        StringBuilder fai = new StringBuilder();
+        long offset = 0;
+        for (String ref: REFS) {
+            String header = ">" + ref + "\n";
+            out.write(header.getBytes());
+            offset += header.length();
+            fai.append(ref + "\t" + REF_LENGTH + "\t" + offset + "\t60\t61\n");
+            for (int i=0; i<REF_LENGTH; i+=60) {
+                String line = randomSeq(rand, Math.min(60, REF_LENGTH - i)) + "\n";
+                out.write(line.getBytes());
+                offset += line.length();
+            }
+        }
+        out.close();
+
+        File faiFile = new File(dir, "bench.fa.fai");
+        OutputStream faiOut = new FileOutputStream(faiFile);
+        faiOut.write(fai.toString().getBytes());
+        faiOut.close();
+
+        file.deleteOnExit();
+        faiFile.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Writes a BED6 file with overlapping regions (like a gene annotation).
+     */
+    public static File writeBED(File dir, int regionsPerRef) throws IOException {
+        File file = new File(dir, "bench.bed");
+        Random rand = new Random(SEED);
+        OutputStream out = new FileOutputStream(file);
+        for (String ref: REFS) {
+            for (int i=0; i<regionsPerRef; i++) {
+                int start = rand.nextInt(REF_LENGTH - 50000);
+                int end = start + 100 + rand.nextInt(50000);
+                out.write((ref + "\t" + start + "\t" + end + "\tregion" + i + "\t" + rand.nextInt(1000) + "\t" + (rand.nextBoolean() ? "+": "-") + "\n").getBytes());
+            }
+        }
+        out.close();
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * One samtools mpileup line for two samples (no newline).
+     */
+    public static String pileupLine(Random rand, String ref, int pos, int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(ref);
+        sb.append("\t");
+        sb.append(pos);
+        sb.append("\t");
+        sb.append(BASES[rand.nextInt(4)]);
+        for (int sample=0; sample<2; sample++) {
+            StringBuilder calls = new StringBuilder();
+            for (int i=0; i<depth; i++) {
+                int r = rand.nextInt(20);
+                if (r == 0) {
+                    calls.append("^I");
+                }
+                if (r < 12) {
+                    calls.append('.');
+                } else if (r < 18) {
+                    calls.append(',');
+                } else if (r == 18) {
+                    calls.append(".+2AC");
+                } else {
+                    calls.append(Character.toLowerCase(BASES[rand.nextInt(4)]));
+                }
+                if (r == 1) {
+                    calls.append('$');
+                }
+            }
+            sb.append("\t");
+            sb.append(depth);
+            sb.append("\t");
+            sb.append(calls);
+            sb.append("\t");
+            sb.append(randomQual(rand, depth));
+        }
+        return sb.toString();
+    }
+
+    private static class SimpleFeature implements Feature {
+        private final String ref;
+        private final int start;
+        private final int end;
+
+        private SimpleFeature(String ref, int start, int end) {
+            this.ref = ref;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String getChr() {
+            return ref;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.compgen.ngsutils.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.compgen.ngsutils.pileup.PileupRecord;
+import io.compgen.ngsutils.vcf.VCFParseException;
+import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFRecordEncoder;
+
+/**
+ * Line parsers (VCFRecord.parseLine, PileupRecord.parse) and the VCF record encoder. Lines
+ * (and records) are generated once, so only the parsing or encoding is measured.
+ * 
+ * @author mbreese
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int LINES = 4096;
+    private static final int PILEUP_DEPTH = 60;
+
+    private String[] vcfLines = new String[LINES];
+    private String[] pileupLines = new String[LINES];
+    private VCFRecord[] vcfRecords = new VCFRecord[LINES];
+    private VCFRecordEncoder encoder = new VCFRecordEncoder();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws VCFParseException {
+        Random rand = new Random(Fixtures.SEED);
+        for (int i=0; i<LINES; i++) {
+            vcfLines[i] = Fixtures.vcfLine(rand, "chr1", 1000 + i * 100);
+            pileupLines[i] = Fixtures.pileupLine(rand, "chr1", 1000 + i, PILEUP_DEPTH);
+            vcfRecords[i] = VCFRecord.parseLine(vcfLines[i]);
+        }
+    }
+
+    @Benchmark
+    public VCFRecord vcfParseLine() throws VCFParseException {
+        return VCFRecord.parseLine(vcfLines[next++ % LINES]);
+    }
+
+    @Benchmark
+    public int vcfEncode() {
+        encoder.reset();
+        encoder.encode(vcfRecords[next++ % LINES]);
+        return encoder.size();
+    }
+
+    @Benchmark
+    public PileupRecord pileupParse() {
+        return PileupRecord.parse(pileupLines[next++ % LINES]);
+    }
+}
@@ -0,0 +1,86 @@
+package io.compgen.ngsutils.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.compgen.ngsutils.fasta.IndexedFastaFile;
+import io.compgen.ngsutils.fastq.Fastq;
+import io.compgen.ngsutils.fastq.FastqRead;
+import io.compgen.ngsutils.fastq.FastqReader;
+
+/**
+ * File readers (FastqTextReader, IndexedFastaFile.fetchSequence)
+ * 
+ * @author mbreese
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+    private static final int FASTQ_READS = 100000;
+    private static final int FASTQ_READ_LENGTH = 150;
+    private static final int FETCHES = 4096;
+    private static final int FETCH_LENGTH = 150;
+
+    private File fastq;
+    private IndexedFastaFile fasta;
+    private String[] fetchRefs = new String[FETCHES];
+    private int[] fetchPos = new int[FETCHES];
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        File dir = Fixtures.tempDir();
+        fastq = Fixtures.writeFASTQ(dir, FASTQ_READS, FASTQ_READ_LENGTH);
+        fasta = new IndexedFastaFile(Fixtures.writeFASTA(dir).getAbsolutePath());
+
+        Random rand = new Random(Fixtures.SEED);
+        for (int i=0; i<FETCHES; i++) {
+            fetchRefs[i] = Fixtures.REFS[rand.nextInt(Fixtures.REFS.length)];
+            fetchPos[i] = rand.nextInt(Fixtures.REF_LENGTH - FETCH_LENGTH);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fasta.close();
+    }
+
+    /**
+     * Reads the entire FASTQ file (score is files/sec, FASTQ_READS reads per file)
+     */
+    @Benchmark
+    public long fastqReadAll() throws IOException {
+        FastqReader reader = Fastq.open(fastq.getAbsolutePath(), true);
+        long bases = 0;
+        for (FastqRead read: reader) {
+            bases += read.getSeq().length();
+        }
+        reader.close();
+        return bases;
+    }
+
+    @Benchmark
+    public String fastaFetchSequence() throws IOException {
+        int i = next++ % FETCHES;
+        return fasta.fetchSequence(fetchRefs[i], fetchPos[i], fetchPos[i] + FETCH_LENGTH);
+    }
+}
@@ -0,0 +1,94 @@
+package io.compgen.ngsutils.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.compgen.ngsutils.tabix.BGZFile;
+import io.compgen.ngsutils.tabix.BGZFile.BGZBlock;
+import io.compgen.ngsutils.tabix.TabixFile;
+
+/**
+ * BGZF decompression and tabix queries (BGZFile, TabixQueryIterator)
+ * 
+ * @author mbreese
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TabixBenchmark {
+    private static final int RECORDS_PER_REF = 100000;
+    private static final int QUERIES = 4096;
+
+    private File vcf;
+    private TabixFile tabix;
+    private String[] queryRefs = new String[QUERIES];
+    private int[] queryPos = new int[QUERIES];
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        vcf = Fixtures.writeVCF(Fixtures.tempDir(), RECORDS_PER_REF);
+        tabix = new TabixFile(vcf.getAbsolutePath());
+
+        Random rand = new Random(Fixtures.SEED);
+        for (int i=0; i<QUERIES; i++) {
+            queryRefs[i] = Fixtures.REFS[rand.nextInt(Fixtures.REFS.length)];
+            queryPos[i] = rand.nextInt(Fixtures.REF_LENGTH);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tabix.close();
+    }
+
+    /**
+     * Inflates every block in the file (uncached, sequential)
+     */
+    @Benchmark
+    public long bgzfReadAllBlocks() throws IOException {
+        BGZFile bgzf = new BGZFile(vcf.getAbsolutePath());
+        long total = 0;
+        BGZBlock block;
+        while ((block = bgzf.readCurrentBlock()) != null) {
+            total += block.uBuf.length;
+        }
+        bgzf.close();
+        return total;
+    }
+
+    /**
+     * 1kb region queries at random positions
+     */
+    @Benchmark
+    public int tabixQuery() throws IOException, DataFormatException {
+        int i = next++ % QUERIES;
+        Iterator<String> it = tabix.query(queryRefs[i], queryPos[i], queryPos[i] + 1000);
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -1,12 +1,14 @@
 package io.compgen.ngsutils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import io.compgen.cmdline.Help;
 import io.compgen.cmdline.License;
 import io.compgen.cmdline.MainBuilder;
-import io.compgen.cmdline.exceptions.MissingCommandException;
+import io.compgen.cmdline.exceptions.MissingExecException;
 import io.compgen.cmdline.exceptions.UnknownArgumentException;
 import io.compgen.common.StringUtils;
 import io.compgen.common.progress.SocketProgress;
@@ -58,6 +60,7 @@ import io.compgen.ngsutils.cli.fasta.FastaSplit;
 import io.compgen.ngsutils.cli.fasta.FastaSubseq;
 import io.compgen.ngsutils.cli.fasta.FastaTag;
 import io.compgen.ngsutils.cli.fasta.FastaTri;
+import io.compgen.ngsutils.cli.fasta.FastaToTwoBit;
 import io.compgen.ngsutils.cli.fasta.FastaWrap;
 import io.compgen.ngsutils.cli.fastq.FastqBarcode;
 import io.compgen.ngsutils.cli.fastq.FastqCheck;
@@ -91,7 +94,10 @@ import io.compgen.ngsutils.cli.vcf.VCFToBED;
 import io.compgen.ngsutils.cli.vcf.VCFToBEDPE;
 import io.compgen.ngsutils.cli.vcf.VCFToCount;
 import io.compgen.ngsutils.cli.vcf.VCFTsTvRatio;
+import io.compgen.ngsutils.server.ServerClient;
+import io.compgen.ngsutils.server.ServerCmd;
 import io.compgen.ngsutils.support.DigestCmd;
+import io.compgen.ngsutils.support.Metrics;
 import io.compgen.ngsutils.support.stats.FisherCli;
 import io.compgen.ngsutils.support.stats.YatesChiSqCli;
 import io.compgen.ngsutils.tabix.BGZFCat;
@@ -107,14 +113,42 @@ public class NGSUtils {
     }
     
     public static void main(String[] args) {
+        String server = System.getenv("NGSUTILSJ_SERVER");
+        if (server != null && !server.equals("") && args.length > 0 && (!args[0].equals("server") || ServerCmd.isClear(args))) {
+            int ret = ServerClient.run(server, args);
+            if (ret > -1) {
+                System.exit(ret);
+            }
+            // couldn't connect to the server, so run it here.
+        }
+
         NGSUtils.args = StringUtils.join(" ", args);
+        try {
+            args = startMetrics(args, true);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("ERROR: Unable to setup --metrics: " + e.getMessage());
+            System.exit(1);
+        }
         
         SocketProgress.setHeader("ngsutilsj - " + NGSUtils.args);
-        MainBuilder main = new MainBuilder(false)
+
+        int ret = 1;
+        try {
+            ret = run(buildMain(), args, true);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (ret != 0) {
+            System.exit(ret);
+        }
+    }
+
+    public static MainBuilder buildMain() throws MissingExecException {
+        return new MainBuilder(false)
             .setProgName("ngsutilsj")
             .setHelpHeader("ngsutilsj - Data wrangling for NGS\n---------------------------------------")
             .setDefaultUsage("Usage: ngsutilsj cmd [options]")
-            .setHelpFooter("http://compgen.io/ngsutilsj\n" + getVersion())
+            .setHelpFooter("Any command can also write timing/counter metrics (JSON) with: --metrics FILE {--metrics-interval secs}\nParsed GTF files are cached in $NGSUTILSJ_GTF_CACHE (if set)\n\nhttp://compgen.io/ngsutilsj\n" + getVersion())
             .setCategoryOrder(new String[] { "bam", "bed", "fasta", "fastq", "gtf", "annotation", "vcf", "help"})
             .addCommand(License.class)
             .addCommand(Help.class)
@@ -155,6 +189,7 @@ public class NGSUtils {
             .addCommand(FastaMask.class)
             .addCommand(FastaFilter.class)
             .addCommand(FastaWrap.class)
+            .addCommand(FastaToTwoBit.class)
             .addCommand(BedResize.class)
             .addCommand(BedReduce.class)
             .addCommand(BedCount.class)
@@ -202,13 +237,21 @@ public class NGSUtils {
     		.addCommand(VCFMerge.class)
     		.addCommand(FastaPWM.class)
 			.addCommand(FastaRandom.class)
-			.addCommand(VCFCheck.class);
+			.addCommand(VCFCheck.class)
+			.addCommand(ServerCmd.class);
+    }
 
+    /**
+     * Runs a command.
+     *
+     * @return the exit status
+     */
+    public static int run(MainBuilder main, String[] args, boolean updateCheck) {
         try {
             if (args.length == 0) {
                 main.showCommands();
             } else {
-                if (!getBuild().equals("dev")) {
+                if (updateCheck && !getBuild().equals("dev")) {
                     UpdateCheck uc = new UpdateCheck("http://updates.compgen.io/versions.txt", "NGSUTILSJ_NO_UPDATECHECK", "io.compgen.ngsutilsj.no_upatecheck");
                     uc.setValue("cmd", args[0]);
                     uc.setValue("os", System.getProperty("os.name"));
@@ -231,15 +274,60 @@ public class NGSUtils {
         } catch (UnknownArgumentException e) {
             System.err.println("ERROR: " + e.getMessage());
             System.err.println();
-            System.exit(1);
-            try {
-                main.showCommandHelp(e.clazz);
-            } catch (MissingCommandException e1) {
-            }
+            return 1;
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(1);
+            return 1;
         }
+        return 0;
+    }
+
+    /**
+     * Looks for --metrics FILE (and --metrics-interval SECS) in the arguments for a command.
+     * These are valid for all commands, so they are handled here and removed from the
+     * arguments that the command sees.
+     *
+     * If start is false, --metrics is ignored (with a warning).
+     */
+    public static String[] startMetrics(String[] args, boolean start) throws IOException {
+        String filename = null;
+        int interval = 60;
+        List<String> cmdArgs = new ArrayList<String>();
+        for (int i=0; i<args.length; i++) {
+            if (i > 0 && args[i].equals("--metrics") && i + 1 < args.length) {
+                filename = args[++i];
+            } else if (i > 0 && args[i].startsWith("--metrics=")) {
+                filename = args[i].substring("--metrics=".length());
+            } else if (i > 0 && args[i].equals("--metrics-interval") && i + 1 < args.length) {
+                interval = Integer.parseInt(args[++i]);
+            } else if (i > 0 && args[i].startsWith("--metrics-interval=")) {
+                interval = Integer.parseInt(args[i].substring("--metrics-interval=".length()));
+            } else {
+                cmdArgs.add(args[i]);
+            }
+        }
+
+        if (filename != null) {
+            if (start) {
+                Metrics.start(filename, interval);
+            } else {
+                System.err.println("WARNING: --metrics is ignored");
+            }
+        }
+
+        return cmdArgs.toArray(new String[cmdArgs.size()]);
+    }
+
+    /**
+     * @return true if the arguments include --metrics
+     */
+    public static boolean hasMetrics(String[] args) {
+        for (int i=1; i<args.length; i++) {
+            if (args[i].equals("--metrics") || args[i].startsWith("--metrics=")) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static String getVersionCode() {
@@ -261,4 +349,11 @@ public class NGSUtils {
 	public static String getArgs() {
 	    return args;
 	}
+
+	/**
+	 * Args for the command running in a server worker
+	 */
+	public static void setArgs(String val) {
+	    args = val;
+	}
 }
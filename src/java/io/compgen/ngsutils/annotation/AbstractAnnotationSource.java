@@ -21,6 +21,12 @@ abstract public class AbstractAnnotationSource<T> implements AnnotationSource<T>
             this.ref = ref;
             this.bin = bin;
         }
+        public String getRef() {
+            return ref;
+        }
+        public int getBin() {
+            return bin;
+        }
         @Override
         public String toString() {
             return ref+"/"+bin;
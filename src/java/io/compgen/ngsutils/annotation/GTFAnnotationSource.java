@@ -1,9 +1,21 @@
 package io.compgen.ngsutils.annotation;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -19,6 +31,7 @@ import io.compgen.common.StringUtils;
 import io.compgen.ngsutils.annotation.GTFAnnotationSource.GTFGene;
 import io.compgen.ngsutils.bam.Orientation;
 import io.compgen.ngsutils.bam.Strand;
+import io.compgen.ngsutils.support.ResourceCache;
 
 /**
  * Class to extract gene annotations stored in a GTF file.
@@ -347,6 +360,26 @@ public class GTFAnnotationSource extends AbstractAnnotationSource<GTFGene> {
     final private boolean hasBioType;
     final private boolean hasStatus;
 
+    // genes in the order they were added to the index (needed to write the cache)
+    final private List<GTFGene> genes = new ArrayList<GTFGene>();
+
+    /**
+     * Loads a GTF file. If the ResourceCache is enabled (server mode), the parsed annotations
+     * are shared between commands, so they should be treated as read-only.
+     *
+     * If a cache directory is set (NGSUTILSJ_GTF_CACHE), the parsed annotations are also saved
+     * to a binary cache file in that directory the first time a GTF file is loaded. After that,
+     * the cache is used instead of parsing the GTF file again. The cache stores the path, size,
+     * and modification time of the GTF file, so if the GTF file changes, the cache is rebuilt.
+     */
+    public static GTFAnnotationSource load(final String filename) throws NumberFormatException, IOException {
+        return ResourceCache.get("gtf", filename, new ResourceCache.Loader<GTFAnnotationSource>() {
+            @Override
+            public GTFAnnotationSource load() throws IOException {
+                return loadCached(filename);
+            }});
+    }
+
     public GTFAnnotationSource(String filename) throws NumberFormatException, IOException {
         final Map<String, GTFGene> cache = new HashMap<String, GTFGene>();
         
@@ -373,10 +406,7 @@ public class GTFAnnotationSource extends AbstractAnnotationSource<GTFGene> {
              */
             if (!chrom.equals(lastChrom) ) {
                 for (final String geneId : cache.keySet()) {
-                    final GTFGene gene = cache.get(geneId);
-                    final GenomeSpan coord = new GenomeSpan(gene.getRef(),
-                            gene.getStart(), gene.getEnd(), gene.getStrand());
-                    addAnnotation(coord, gene);
+                    addGene(cache.get(geneId));
                 }
                 cache.clear();
                 lastChrom = chrom;
@@ -451,16 +481,377 @@ public class GTFAnnotationSource extends AbstractAnnotationSource<GTFGene> {
         }
 
         for (final String geneId : cache.keySet()) {
-            final GTFGene gene = cache.get(geneId);
-            final GenomeSpan coord = new GenomeSpan(gene.getRef(),
-                    gene.getStart(), gene.getEnd(), gene.getStrand());
-            addAnnotation(coord, gene);
+            addGene(cache.get(geneId));
         }
 
         this.hasBioType = hasBioType;
         this.hasStatus = hasStatus;
     }
 
+    private void addGene(GTFGene gene) {
+        final GenomeSpan coord = new GenomeSpan(gene.getRef(),
+                gene.getStart(), gene.getEnd(), gene.getStrand());
+        addAnnotation(coord, gene);
+        genes.add(gene);
+    }
+
+    /*
+     * Binary cache files
+     *
+     * The parsed annotations can be saved to a binary cache file, so that the GTF file
+     * doesn't need to be parsed again. Cache files are only used if a cache directory is
+     * set (with the NGSUTILSJ_GTF_CACHE environment variable, or setCacheDir()), and are
+     * named by the SHA-1 of the canonical path of the GTF file. Nothing is written next to
+     * the GTF file.
+     *
+     * The cache is big-endian. All values are stored in flat int arrays (length, then values),
+     * so each section can be read in bulk:
+     *
+     *   header:      magic, version, GTF path, GTF size, GTF modification time, hasBioType, hasStatus
+     *   strings:     count, then (length, UTF-8 bytes) for each string. Every other string in the
+     *                file is an index in this table (-1 for null).
+     *   genes:       ref, gene_id, gene_name, biotype, status, strand, start, end, transcript count
+     *                (in the order they were added to the index)
+     *   transcripts: transcript_id, start, end, cds start, cds end, exon count, CDS count
+     *                (in gene order)
+     *   exons:       start, end, attribute count (in transcript order, exons then CDS)
+     *   attributes:  string indexes for all exon attributes (in exon order)
+     *   bins:        ref, bin, gene count, then the gene indexes for all bins (sorted, as in
+     *                the bin lists of the index)
+     */
+    public static final String CACHE_ENV = "NGSUTILSJ_GTF_CACHE";
+    private static final String CACHE_SUFFIX = ".gtfcache";
+    private static final int CACHE_MAGIC = 0x47544643; // "GTFC"
+    private static final int CACHE_VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Strand[] STRANDS = Strand.values();
+
+    private static File cacheDir = System.getenv(CACHE_ENV) == null || System.getenv(CACHE_ENV).isEmpty() ? null : new File(System.getenv(CACHE_ENV));
+
+    /**
+     * Sets the directory for GTF cache files (null to disable the cache). The default is
+     * the value of NGSUTILSJ_GTF_CACHE.
+     */
+    public static void setCacheDir(File dir) {
+        cacheDir = dir;
+    }
+
+    public static File getCacheDir() {
+        return cacheDir;
+    }
+
+    private static GTFAnnotationSource loadCached(String filename) throws IOException {
+        File gtf = new File(filename);
+        File dir = cacheDir;
+        if (dir == null || !gtf.isFile()) {
+            return new GTFAnnotationSource(filename);
+        }
+
+        String path = gtf.getCanonicalPath();
+        File cache = new File(dir, cacheName(path));
+
+        if (cache.isFile() && cache.length() < Integer.MAX_VALUE) {
+            try {
+                GTFAnnotationSource ann = readCache(cache, path, gtf.length(), gtf.lastModified());
+                if (ann != null) {
+                    return ann;
+                }
+            } catch (IOException | RuntimeException e) {
+                // the cache is invalid (or truncated), so rebuild it
+            }
+        }
+
+        GTFAnnotationSource ann = new GTFAnnotationSource(filename);
+        try {
+            if (dir.isDirectory() || dir.mkdirs()) {
+                ann.writeCache(cache, path, gtf.length(), gtf.lastModified());
+            }
+        } catch (IOException e) {
+            // we might not be able to write to the cache directory, so just skip the cache
+        }
+        return ann;
+    }
+
+    private static String cacheName(String path) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes(UTF8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b: digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString() + CACHE_SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the cached annotations, or null if the cache is out of date
+     */
+    private static GTFAnnotationSource readCache(File cache, String path, long size, long mtime) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(cache, "r");
+        try {
+            ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != CACHE_MAGIC || buf.getInt() != CACHE_VERSION) {
+                return null;
+            }
+            if (!path.equals(readString(buf)) || buf.getLong() != size || buf.getLong() != mtime) {
+                return null;
+            }
+            return new GTFAnnotationSource(buf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, UTF8);
+    }
+
+    private static int[] readInts(ByteBuffer buf) {
+        int[] vals = new int[buf.getInt()];
+        buf.asIntBuffer().get(vals);
+        buf.position(buf.position() + vals.length * 4);
+        return vals;
+    }
+
+    private static String lookup(String[] strings, int idx) {
+        return idx == -1 ? null : strings[idx];
+    }
+
+    /**
+     * Loads the annotations from a cache file (positioned after the header)
+     */
+    private GTFAnnotationSource(ByteBuffer buf) {
+        this.hasBioType = buf.get() == 1;
+        this.hasStatus = buf.get() == 1;
+
+        String[] strings = new String[buf.getInt()];
+        for (int i=0; i<strings.length; i++) {
+            strings[i] = readString(buf);
+        }
+
+        int[] geneRef = readInts(buf);
+        int[] geneId = readInts(buf);
+        int[] geneName = readInts(buf);
+        int[] geneBioType = readInts(buf);
+        int[] geneStatus = readInts(buf);
+        int[] geneStrand = readInts(buf);
+        int[] geneStart = readInts(buf);
+        int[] geneEnd = readInts(buf);
+        int[] geneTxptCount = readInts(buf);
+
+        int[] txptId = readInts(buf);
+        int[] txptStart = readInts(buf);
+        int[] txptEnd = readInts(buf);
+        int[] txptCdsStart = readInts(buf);
+        int[] txptCdsEnd = readInts(buf);
+        int[] txptExonCount = readInts(buf);
+        int[] txptCdsCount = readInts(buf);
+
+        int[] exonStart = readInts(buf);
+        int[] exonEnd = readInts(buf);
+        int[] exonAttrCount = readInts(buf);
+        int[] attrs = readInts(buf);
+
+        int[] binRef = readInts(buf);
+        int[] binNum = readInts(buf);
+        int[] binCount = readInts(buf);
+        int[] binGenes = readInts(buf);
+
+        GenomeAnnotation<GTFGene>[] gas = newAnnotationArray(geneRef.length);
+        int t = 0;
+        int e = 0;
+        int a = 0;
+        for (int i=0; i<gas.length; i++) {
+            GTFGene gene = new GTFGene(strings[geneId[i]], strings[geneName[i]], strings[geneRef[i]], STRANDS[geneStrand[i]],
+                    lookup(strings, geneBioType[i]), lookup(strings, geneStatus[i]));
+            gene.start = geneStart[i];
+            gene.end = geneEnd[i];
+
+            for (int j=0; j<geneTxptCount[i]; j++, t++) {
+                GTFTranscript txpt = new GTFTranscript(gene, strings[txptId[t]]);
+                txpt.start = txptStart[t];
+                txpt.end = txptEnd[t];
+                txpt.cdsStart = txptCdsStart[t];
+                txpt.cdsEnd = txptCdsEnd[t];
+                for (int k=0; k<txptExonCount[t] + txptCdsCount[t]; k++, e++) {
+                    String[] attributes = new String[exonAttrCount[e]];
+                    for (int l=0; l<attributes.length; l++) {
+                        attributes[l] = strings[attrs[a++]];
+                    }
+                    GTFExon exon = new GTFExon(txpt, exonStart[e], exonEnd[e], attributes);
+                    if (k < txptExonCount[t]) {
+                        txpt.exons.add(exon);
+                    } else {
+                        txpt.cds.add(exon);
+                    }
+                }
+                gene.transcripts.put(txpt.getTranscriptId(), txpt);
+            }
+
+            genes.add(gene);
+            gas[i] = new GenomeAnnotation<GTFGene>(gene.getCoord(), gene);
+            annotations.add(gas[i]);
+        }
+
+        int g = 0;
+        for (int i=0; i<binRef.length; i++) {
+            List<GenomeAnnotation<GTFGene>> list = new ArrayList<GenomeAnnotation<GTFGene>>(binCount[i]);
+            for (int j=0; j<binCount[i]; j++) {
+                list.add(gas[binGenes[g++]]);
+            }
+            annotationBins.put(new RefBin(strings[binRef[i]], binNum[i]), list);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static GenomeAnnotation<GTFGene>[] newAnnotationArray(int size) {
+        return new GenomeAnnotation[size];
+    }
+
+    /**
+     * A growable int array (for writing the cache)
+     */
+    private static class IntArray {
+        private int[] vals = new int[16];
+        private int size = 0;
+
+        public void add(int val) {
+            if (size == vals.length) {
+                vals = Arrays.copyOf(vals, vals.length * 2);
+            }
+            vals[size++] = val;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i=0; i<size; i++) {
+                out.writeInt(vals[i]);
+            }
+        }
+    }
+
+    private void writeCache(File cache, String path, long size, long mtime) throws IOException {
+        // all strings are written to a table first, then referenced by index
+        final Map<String, Integer> stringIdx = new HashMap<String, Integer>();
+        final List<String> strings = new ArrayList<String>();
+        final Map<GTFGene, Integer> geneIdx = new IdentityHashMap<GTFGene, Integer>();
+
+        IntArray[] geneCols = new IntArray[9];
+        IntArray[] txptCols = new IntArray[7];
+        IntArray[] exonCols = new IntArray[3];
+        IntArray attrs = new IntArray();
+        IntArray[] binCols = new IntArray[4];
+        for (IntArray[] cols: new IntArray[][] { geneCols, txptCols, exonCols, binCols }) {
+            for (int i=0; i<cols.length; i++) {
+                cols[i] = new IntArray();
+            }
+        }
+
+        for (GTFGene gene: genes) {
+            geneIdx.put(gene, geneIdx.size());
+            geneCols[0].add(addString(stringIdx, strings, gene.ref));
+            geneCols[1].add(addString(stringIdx, strings, gene.geneId));
+            geneCols[2].add(addString(stringIdx, strings, gene.geneName));
+            geneCols[3].add(addString(stringIdx, strings, gene.bioType));
+            geneCols[4].add(addString(stringIdx, strings, gene.status));
+            geneCols[5].add(gene.strand.ordinal());
+            geneCols[6].add(gene.start);
+            geneCols[7].add(gene.end);
+            geneCols[8].add(gene.transcripts.size());
+
+            for (GTFTranscript txpt: gene.transcripts.values()) {
+                txptCols[0].add(addString(stringIdx, strings, txpt.transcriptId));
+                txptCols[1].add(txpt.start);
+                txptCols[2].add(txpt.end);
+                txptCols[3].add(txpt.cdsStart);
+                txptCols[4].add(txpt.cdsEnd);
+                txptCols[5].add(txpt.exons.size());
+                txptCols[6].add(txpt.cds.size());
+
+                for (List<GTFExon> exons: Arrays.asList(txpt.exons, txpt.cds)) {
+                    for (GTFExon exon: exons) {
+                        exonCols[0].add(exon.start);
+                        exonCols[1].add(exon.end);
+                        exonCols[2].add(exon.attributes.length);
+                        for (String attr: exon.attributes) {
+                            attrs.add(addString(stringIdx, strings, attr));
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<RefBin, List<GenomeAnnotation<GTFGene>>> entry: annotationBins.entrySet()) {
+            binCols[0].add(addString(stringIdx, strings, entry.getKey().getRef()));
+            binCols[1].add(entry.getKey().getBin());
+            binCols[2].add(entry.getValue().size());
+            for (GenomeAnnotation<GTFGene> ga: entry.getValue()) {
+                binCols[3].add(geneIdx.get(ga.getValue()));
+            }
+        }
+
+        // write to a temp file first, so that a partial cache is never read
+        File tmp = File.createTempFile(".ngsutilsj-gtf", ".tmp", cache.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 1024));
+
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            writeString(out, path);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeByte(hasBioType ? 1 : 0);
+            out.writeByte(hasStatus ? 1 : 0);
+
+            out.writeInt(strings.size());
+            for (String str: strings) {
+                writeString(out, str);
+            }
+
+            for (IntArray[] cols: new IntArray[][] { geneCols, txptCols, exonCols, { attrs }, binCols }) {
+                for (IntArray col: cols) {
+                    col.write(out);
+                }
+            }
+            out.close();
+
+            if (!tmp.renameTo(cache)) {
+                cache.delete();
+                if (!tmp.renameTo(cache)) {
+                    throw new IOException("Unable to write cache file: "+cache);
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the index of the string in the string table (adding it if needed), or -1 for null
+     */
+    private static int addString(Map<String, Integer> stringIdx, List<String> strings, String val) {
+        if (val == null) {
+            return -1;
+        }
+        Integer idx = stringIdx.get(val);
+        if (idx == null) {
+            idx = strings.size();
+            stringIdx.put(val, idx);
+            strings.add(val);
+        }
+        return idx;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] b = str.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
     @Override
     public String[] getAnnotationNames() {
         if (hasBioType && hasStatus) {
@@ -636,6 +1027,113 @@ public class GTFAnnotationSource extends AbstractAnnotationSource<GTFGene> {
             return GenicRegion.MITOCHONDRIAL;
         }
 
+        if (geneId == null && pos.strand != null && pos.start >= 0 && pos.end == pos.start + 1) {
+            return getGenicSegments(pos.ref).find(pos.start, pos.strand);
+        }
+        return calcGenicRegionForPos(pos, geneId);
+    }
+
+    /**
+     * The genic regions for one reference. The reference is split into segments at every
+     * position where a gene, transcript, exon, or CDS boundary could change the result of
+     * calcGenicRegionForPos(), so all positions in a segment are in the same region. The
+     * region for a segment/strand is calculated the first time it is needed and then kept.
+     */
+    private class GenicSegments {
+        private static final byte UNKNOWN = -1;
+
+        private final String ref;
+        private final int[] starts;
+        private final byte[][] regions;
+
+        private GenicSegments(String ref, int[] starts) {
+            this.ref = ref;
+            this.starts = starts;
+            this.regions = new byte[Strand.values().length][starts.length];
+            for (byte[] r: regions) {
+                Arrays.fill(r, UNKNOWN);
+            }
+        }
+
+        private GenicRegion find(int pos, Strand strand) {
+            int idx = Arrays.binarySearch(starts, pos);
+            if (idx < 0) {
+                // the first segment always starts at 0
+                idx = -idx - 2;
+            }
+
+            byte[] strandRegions = regions[strand.ordinal()];
+            if (strandRegions[idx] == UNKNOWN) {
+                GenicRegion region = calcGenicRegionForPos(new GenomeSpan(ref, starts[idx], strand), null);
+                strandRegions[idx] = (byte) region.ordinal();
+                return region;
+            }
+            return GENIC_REGIONS[strandRegions[idx]];
+        }
+    }
+
+    private static final GenicRegion[] GENIC_REGIONS = GenicRegion.values();
+    private final Map<String, GenicSegments> genicSegments = new HashMap<String, GenicSegments>();
+
+    private synchronized GenicSegments getGenicSegments(String ref) {
+        if (genicSegments.containsKey(ref)) {
+            return genicSegments.get(ref);
+        }
+
+        // the containment checks compare the position to each boundary with a +/-1 offset,
+        // so start a new segment at boundary-1, boundary, and boundary+1.
+        int[] bounds = new int[1024];
+        int count = 0;
+        bounds[count++] = 0;
+
+        for (GenomeAnnotation<GTFGene> ga: annotations) {
+            GTFGene gene = ga.getValue();
+            if (!gene.getRef().equals(ref)) {
+                continue;
+            }
+
+            List<Integer> coords = new ArrayList<Integer>();
+            coords.add(ga.getCoordinates().start);
+            coords.add(ga.getCoordinates().end);
+            for (GTFTranscript txpt: gene.getTranscripts()) {
+                coords.add(txpt.getCdsStart());
+                coords.add(txpt.getCdsEnd());
+                for (GTFExon exon: txpt.exons) {
+                    coords.add(exon.getStart());
+                    coords.add(exon.getEnd());
+                }
+                for (GTFExon cds: txpt.cds) {
+                    coords.add(cds.getStart());
+                    coords.add(cds.getEnd());
+                }
+            }
+
+            for (int coord: coords) {
+                for (int i=-1; i<=1; i++) {
+                    if (coord + i >= 0) {
+                        if (count == bounds.length) {
+                            bounds = Arrays.copyOf(bounds, count * 2);
+                        }
+                        bounds[count++] = coord + i;
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(bounds, 0, count);
+        int uniq = 1;
+        for (int i=1; i<count; i++) {
+            if (bounds[i] != bounds[uniq-1]) {
+                bounds[uniq++] = bounds[i];
+            }
+        }
+
+        GenicSegments segments = new GenicSegments(ref, Arrays.copyOf(bounds, uniq));
+        genicSegments.put(ref, segments);
+        return segments;
+    }
+
+    private GenicRegion calcGenicRegionForPos(GenomeSpan pos, String geneId) {
         boolean isGene = false;
         boolean isExon = false;
         boolean isCoding = false;
@@ -1,39 +1,35 @@
 package io.compgen.ngsutils.annotation;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import htsjdk.samtools.SAMRecord;
 import io.compgen.ngsutils.bam.Orientation;
 
 public class GeneRegionCounter {
     protected final GTFAnnotationSource gtf;
-    protected Map<GenicRegion, Long> regionCounts = new HashMap<GenicRegion, Long>();
+    // indexed by GenicRegion.ordinal()
+    protected final long[] regionCounts = new long[GenicRegion.values().length];
     
     public GeneRegionCounter(String filename) throws NumberFormatException, IOException {
         System.err.print("Loading GTF annotation: "+filename+"...");
-        gtf = new GTFAnnotationSource(filename);
+        gtf = GTFAnnotationSource.load(filename);
         System.err.println(" done");
-        for (GenicRegion region: GenicRegion.values()) {
-            regionCounts.put(region, 0L);
-        }
     }
     
     public void addRead(SAMRecord read, Orientation orient) {
         GenicRegion reg = gtf.findGenicRegion(read, orient);
-        regionCounts.put(reg, regionCounts.get(reg) + 1);
+        regionCounts[reg.ordinal()]++;
         
     }
 
     public long getRegionCount(GenicRegion reg) {
-        return regionCounts.get(reg);
+        return regionCounts[reg.ordinal()];
     }
 
     public long getRegionCount(GenicRegion... regs) {
         long acc = 0;
         for (GenicRegion reg: regs) {
-            acc += regionCounts.get(reg);
+            acc += regionCounts[reg.ordinal()];
         }
         return acc;
     }
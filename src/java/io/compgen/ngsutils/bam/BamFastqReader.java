@@ -19,13 +19,13 @@ import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
-import io.compgen.common.RadixSet;
 import io.compgen.common.StringUtils;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
 import io.compgen.common.progress.ProgressUtils;
 import io.compgen.ngsutils.fastq.FastqRead;
 import io.compgen.ngsutils.fastq.FastqReader;
+import io.compgen.ngsutils.support.FingerprintSet;
 import io.compgen.ngsutils.support.SeqUtils;
 
 public class BamFastqReader implements FastqReader {
@@ -54,6 +54,13 @@ public class BamFastqReader implements FastqReader {
     // include unmapped reads in export (default true)
     private boolean includeUnmapped = true;
     
+    // max number of unpaired reads to keep in memory before writing them to
+    // temporary files (-1 to keep everything in memory)
+    private int maxUnpaired = -1;
+    private File tmpdir = null;
+    private int threads = 1;
+    private FastqPairSpill spill = null;
+
 
     public BamFastqReader(String filename) throws FileNotFoundException {
         if (filename.equals("-")) {
@@ -98,6 +105,37 @@ public class BamFastqReader implements FastqReader {
         }
     }
 
+    /**
+     * Keep at most this many unpaired reads in memory. Once this is reached, all remaining
+     * unpaired reads are written to temporary files (partitioned by read name) and paired
+     * after the rest of the file has been read. Pairs from the temporary files are returned
+     * last, so the output order differs, but the pairs are the same.
+     *
+     * When pairing the temporary files, at most this many reads are kept in memory for
+     * each thread. With deduplicate, the names of the reads that have already been returned
+     * are also moved to the temporary files.
+     */
+    public void setMaxUnpaired(int val) {
+        if (samIterator == null) {
+            this.maxUnpaired = val;
+        }
+    }
+
+    public void setTmpDir(File tmpdir) {
+        if (samIterator == null) {
+            this.tmpdir = tmpdir;
+        }
+    }
+
+    /**
+     * Number of threads to use for pairing reads from temporary files
+     */
+    public void setThreads(int threads) {
+        if (samIterator == null) {
+            this.threads = threads;
+        }
+    }
+
     public void setFirst(boolean val) {
         if (samIterator == null) {
             this.first = val;
@@ -145,8 +183,9 @@ public class BamFastqReader implements FastqReader {
             Map<String, FastqRead> firstReads = new HashMap<String, FastqRead>();
             Map<String, FastqRead> secondReads = new HashMap<String, FastqRead>();
 
-//            Set<String> exported = new HashSet<String>();
-            RadixSet exported = new RadixSet();
+            FingerprintSet exported = new FingerprintSet();
+            boolean spillFinished = false;
+            long readCount = 0;
 
             private void populate() {
                 if (buf == null) {
@@ -155,6 +194,7 @@ public class BamFastqReader implements FastqReader {
                 int len = buf.size();
                 while (buf.size() == len && samIterator.hasNext()) {
                     SAMRecord read = samIterator.next();
+                    readCount++;
                     
 //                    if (read.getReadFailsVendorQualityCheckFlag()) {
 //                        // Skip QC failed reads.
@@ -231,7 +271,12 @@ public class BamFastqReader implements FastqReader {
                         } else if (first && second && (!deduplicate || !exported.contains(name))) {
                             // export both
 
-                            if (firstReads.containsKey(name) && read.getSecondOfPairFlag()) {
+                            if (spill != null) {
+                                // too many unpaired reads, these are paired at the end
+                                if (read.getFirstOfPairFlag() || read.getSecondOfPairFlag()) {
+                                    addSpill(fq, read.getFirstOfPairFlag());
+                                }
+                            } else if (firstReads.containsKey(name) && read.getSecondOfPairFlag()) {
                                 // already found the first, this is the second
                                 buf.add(firstReads.remove(name));
                                 buf.add(fq);
@@ -250,7 +295,14 @@ public class BamFastqReader implements FastqReader {
                             } else if (read.getSecondOfPairFlag()) {
                                 secondReads.put(name, fq);
                             }
+                            
+                            if (maxUnpaired > -1 && spill == null && firstReads.size() + secondReads.size() > maxUnpaired) {
+                                startSpill();
+                            }
                         }
+                    } else if (spill != null && deduplicate) {
+                        // duplicates are removed when the temp files are paired
+                        addSpill(fq, null);
                     } else if (!deduplicate || !exported.contains(name)) {
                         // export all unpaired reads
                         buf.add(fq);
@@ -259,6 +311,69 @@ public class BamFastqReader implements FastqReader {
                         }
                     }
                 }
+                
+                if (buf.size() == len && spill != null) {
+                    // all reads have been read, now pair the reads in the temp files
+                    try {
+                        if (!spillFinished) {
+                            spill.finish();
+                            spillFinished = true;
+                        }
+                        FastqRead paired = spill.next();
+                        if (paired != null) {
+                            buf.add(paired);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            
+            private void startSpill() {
+                // estimate the number of reads left from how much of the file has been read
+                long remaining = -1;
+                if (channel != null) {
+                    try {
+                        if (channel.position() > 0) {
+                            remaining = (long) (readCount * ((double) (channel.size() - channel.position()) / channel.position()));
+                        }
+                    } catch (IOException e) {
+                        // size isn't known, use the default number of partitions
+                    }
+                }
+                try {
+                    int partitions = FastqPairSpill.partitionCount(remaining < 0 ? -1 : remaining + firstReads.size() + secondReads.size(), maxUnpaired);
+                    spill = new FastqPairSpill(partitions, maxUnpaired, tmpdir, deduplicate, threads);
+                    for (FastqRead fq: firstReads.values()) {
+                        spill.add(fq, true);
+                    }
+                    for (FastqRead fq: secondReads.values()) {
+                        spill.add(fq, false);
+                    }
+                    // the exported names are also moved to the temp files, so that they
+                    // don't need to be kept in memory
+                    spill.addExported(exported);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                firstReads.clear();
+                secondReads.clear();
+                exported.clear();
+            }
+
+            /**
+             * @param firstOfPair - true/false for paired reads, null for single reads
+             */
+            private void addSpill(FastqRead fq, Boolean firstOfPair) {
+                try {
+                    if (firstOfPair == null) {
+                        spill.addSingle(fq);
+                    } else {
+                        spill.add(fq, firstOfPair);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
 
             @Override
@@ -302,6 +417,9 @@ public class BamFastqReader implements FastqReader {
         if (reader != null) {
             reader.close();
         }
+        if (spill != null) {
+            spill.close();
+        }
     }
 
     @Override
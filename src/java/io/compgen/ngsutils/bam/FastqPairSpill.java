@@ -0,0 +1,444 @@
+package io.compgen.ngsutils.bam;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.compgen.ngsutils.fastq.FastqRead;
+import io.compgen.ngsutils.support.FingerprintSet;
+
+/**
+ * Bounded memory read pairing. Unpaired reads are partitioned by read name into
+ * temporary files, so that both reads from a pair end up in the same partition. Once all
+ * reads have been written, each partition is paired on its own (optionally in parallel),
+ * and the pairs are written to another temporary file, which is then read back in order.
+ *
+ * Partitions are sized so that each has at most maxPartitionSize reads. The number of
+ * partitions is set up front (see partitionCount()), but if a partition ends up larger
+ * than this, it is split again (using a different hash) before it is paired. So, at most
+ * maxPartitionSize reads are held in memory for each thread.
+ *
+ * Pairs are matched with the same rules as BamFastqReader: the first read of a pair is
+ * returned before the second, reads without a mate are dropped, and (with deduplicate)
+ * only the first pair (or single read) for a read name is returned. Read names that have
+ * already been returned are tracked by their fingerprint (see FingerprintSet).
+ *
+ * @author mbreese
+ *
+ */
+public class FastqPairSpill {
+    public static final int DEFAULT_PARTITIONS = 64;
+    public static final int MAX_PARTITIONS = 256;
+
+    // partitions are only split this many times (reads with the same name can't be split)
+    private static final int MAX_SPLITS = 3;
+
+    private static final byte SINGLE = 0;
+    private static final byte FIRST = 1;
+    private static final byte SECOND = 2;
+    private static final byte EXPORTED = 3;
+
+    private final File tmpdir;
+    private final File[] files;
+    private final DataOutputStream[] outs;
+    private final long[] counts;
+    private final int maxPartitionSize;
+    private final boolean deduplicate;
+    private final int threads;
+
+    private ExecutorService pool = null;
+    private int nextPartition = 0;
+    private final Deque<Future<File>> pending = new ArrayDeque<Future<File>>();
+
+    private File current = null;
+    private DataInputStream currentIn = null;
+
+    /**
+     * Returns the number of partitions needed so that each has about maxPartitionSize reads
+     * (between 2 and MAX_PARTITIONS). If the number of reads isn't known (-1), DEFAULT_PARTITIONS
+     * is used.
+     */
+    public static int partitionCount(long reads, int maxPartitionSize) {
+        if (reads < 0) {
+            return DEFAULT_PARTITIONS;
+        }
+        return (int) Math.max(2, Math.min(MAX_PARTITIONS, reads / Math.max(maxPartitionSize, 1) + 1));
+    }
+
+    public FastqPairSpill(int partitions, int maxPartitionSize, File tmpdir, boolean deduplicate, int threads) throws IOException {
+        this.tmpdir = tmpdir;
+        this.files = new File[partitions];
+        this.outs = new DataOutputStream[partitions];
+        this.counts = new long[partitions];
+        this.maxPartitionSize = maxPartitionSize;
+        this.deduplicate = deduplicate;
+        this.threads = threads;
+
+        for (int i=0; i<partitions; i++) {
+            files[i] = createTempFile();
+            outs[i] = open(files[i]);
+        }
+    }
+
+    /**
+     * Add a paired read
+     */
+    public void add(FastqRead read, boolean firstOfPair) throws IOException {
+        int idx = partition(FingerprintSet.fingerprint(read.getName()), 0, outs.length);
+        writeRead(outs[idx], firstOfPair ? FIRST: SECOND, read);
+        counts[idx]++;
+    }
+
+    /**
+     * Add a single (not paired) read. This is only needed when deduplicating, otherwise
+     * single reads can be returned directly.
+     */
+    public void addSingle(FastqRead read) throws IOException {
+        int idx = partition(FingerprintSet.fingerprint(read.getName()), 0, outs.length);
+        writeRead(outs[idx], SINGLE, read);
+        counts[idx]++;
+    }
+
+    /**
+     * Add the read names that have already been returned (deduplicate only). Later
+     * reads with these names will be skipped.
+     */
+    public void addExported(FingerprintSet exported) throws IOException {
+        PrimitiveIterator.OfLong it = exported.fingerprints();
+        while (it.hasNext()) {
+            long fp = it.nextLong();
+            int idx = partition(fp, 0, outs.length);
+            outs[idx].writeByte(EXPORTED);
+            outs[idx].writeLong(fp);
+            counts[idx]++;
+        }
+    }
+
+    /**
+     * Call after the last read has been added. No more reads can be added.
+     */
+    public void finish() throws IOException {
+        for (DataOutputStream out: outs) {
+            out.close();
+        }
+        if (threads > 1) {
+            pool = Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * Returns the next paired read (reads from a pair are returned together, first read
+     * first), or null when all partitions have been returned.
+     */
+    public FastqRead next() throws IOException {
+        while (true) {
+            if (currentIn != null) {
+                try {
+                    currentIn.readByte();
+                    return readRead(currentIn);
+                } catch (EOFException e) {
+                    currentIn.close();
+                    currentIn = null;
+                    current.delete();
+                    current = null;
+                }
+            }
+
+            current = nextPartition();
+            if (current == null) {
+                return null;
+            }
+            currentIn = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(current))));
+        }
+    }
+
+    /**
+     * Returns the temporary file with the pairs from the next partition (in order), or
+     * null when all partitions have been returned.
+     */
+    private File nextPartition() throws IOException {
+        if (pool == null) {
+            if (nextPartition >= files.length) {
+                return null;
+            }
+            return pairPartition(nextPartition++);
+        }
+
+        // keep a few partitions ahead (the pairs are written to disk, so they don't use memory)
+        while (nextPartition < files.length && pending.size() < threads * 2) {
+            final int idx = nextPartition++;
+            pending.add(pool.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return pairPartition(idx);
+                }}));
+        }
+
+        if (pending.isEmpty()) {
+            pool.shutdown();
+            return null;
+        }
+
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // partitions that were already paired (but not returned)
+            for (Future<File> future: pending) {
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        future.get().delete();
+                    } catch (InterruptedException | ExecutionException e) {
+                        // this partition wasn't written
+                    }
+                }
+            }
+            pending.clear();
+        }
+        if (currentIn != null) {
+            try {
+                currentIn.close();
+            } catch (IOException e) {
+            }
+            current.delete();
+        }
+        for (File f: files) {
+            f.delete();
+        }
+    }
+
+    private File pairPartition(int idx) throws IOException {
+        File paired = createTempFile();
+        try {
+            DataOutputStream out = open(paired);
+            try {
+                pairPartition(files[idx], counts[idx], 0, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            paired.delete();
+            throw e;
+        }
+        return paired;
+    }
+
+    /**
+     * Pairs the reads in a partition file, writing the pairs to out. If the partition is
+     * too large to pair in memory, it is split into smaller partitions first.
+     */
+    private void pairPartition(File file, long count, int splits, DataOutputStream out) throws IOException {
+        if (count > maxPartitionSize && splits < MAX_SPLITS) {
+            int partitions = partitionCount(count, maxPartitionSize);
+            File[] subFiles = new File[partitions];
+            DataOutputStream[] subOuts = new DataOutputStream[partitions];
+            long[] subCounts = new long[partitions];
+            try {
+                for (int i=0; i<partitions; i++) {
+                    subFiles[i] = createTempFile();
+                    subOuts[i] = open(subFiles[i]);
+                }
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (type == EXPORTED) {
+                        long fp = in.readLong();
+                        int i = partition(fp, splits + 1, partitions);
+                        subOuts[i].writeByte(EXPORTED);
+                        subOuts[i].writeLong(fp);
+                        subCounts[i]++;
+                    } else {
+                        FastqRead fq = readRead(in);
+                        int i = partition(FingerprintSet.fingerprint(fq.getName()), splits + 1, partitions);
+                        writeRead(subOuts[i], type, fq);
+                        subCounts[i]++;
+                    }
+                }
+                in.close();
+                file.delete();
+
+                for (int i=0; i<partitions; i++) {
+                    subOuts[i].close();
+                    pairPartition(subFiles[i], subCounts[i], splits + 1, out);
+                }
+            } finally {
+                for (File f: subFiles) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+            return;
+        }
+
+        Map<String, FastqRead> firstReads = new HashMap<String, FastqRead>();
+        Map<String, FastqRead> secondReads = new HashMap<String, FastqRead>();
+        FingerprintSet exported = new FingerprintSet();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+        while (true) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                break;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // close() was called
+                in.close();
+                throw new InterruptedIOException();
+            }
+            if (type == EXPORTED) {
+                exported.addFingerprint(in.readLong());
+                continue;
+            }
+
+            FastqRead fq = readRead(in);
+            String name = fq.getName();
+
+            if (deduplicate && exported.contains(name)) {
+                continue;
+            }
+
+            if (type == SINGLE) {
+                writeRead(out, SINGLE, fq);
+                if (deduplicate) {
+                    exported.add(name);
+                }
+            } else if (type == SECOND && firstReads.containsKey(name)) {
+                writeRead(out, FIRST, firstReads.remove(name));
+                writeRead(out, SECOND, fq);
+                if (deduplicate) {
+                    exported.add(name);
+                }
+            } else if (type == FIRST && secondReads.containsKey(name)) {
+                writeRead(out, FIRST, fq);
+                writeRead(out, SECOND, secondReads.remove(name));
+                if (deduplicate) {
+                    exported.add(name);
+                }
+            } else if (type == FIRST) {
+                firstReads.put(name, fq);
+            } else {
+                secondReads.put(name, fq);
+            }
+        }
+        in.close();
+        file.delete();
+    }
+
+    /**
+     * The partition for a read name (fingerprint). Each level of splitting uses a different
+     * hash, so that the reads from one partition are spread across all of its sub-partitions.
+     */
+    private static int partition(long fp, int splits, int partitions) {
+        int h = (int) (fp ^ (fp >>> 32));
+        for (int i=0; i<splits; i++) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+        }
+        return (h & 0x7fffffff) % partitions;
+    }
+
+    private File createTempFile() throws IOException {
+        File f;
+        if (tmpdir == null) {
+            f = Files.createTempFile(".fastq-pair-", ".gz").toFile();
+        } else {
+            f = Files.createTempFile(tmpdir.toPath(), ".fastq-pair-", ".gz").toFile();
+        }
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static DataOutputStream open(File f) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f))));
+    }
+
+    /*
+     * Strings are written as a length and UTF-8 bytes (-1 for null), because writeUTF()
+     * is limited to 64KB.
+     */
+    private static void writeRead(DataOutputStream out, byte type, FastqRead read) throws IOException {
+        out.writeByte(type);
+        writeString(out, read.getName());
+        writeString(out, read.getSeq());
+        writeString(out, read.getQual());
+        writeString(out, read.getComment());
+        writeString(out, read.getAttribute("RGID"));
+    }
+
+    private static FastqRead readRead(DataInputStream in) throws IOException {
+        String name = readString(in);
+        String seq = readString(in);
+        String qual = readString(in);
+        String comment = readString(in);
+        String rgid = readString(in);
+
+        FastqRead fq = new FastqRead(name, seq, qual, comment);
+        if (rgid != null) {
+            fq.setAttribute("RGID", rgid);
+        }
+        return fq;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len == -1) {
+            return null;
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
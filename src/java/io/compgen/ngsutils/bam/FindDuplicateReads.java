@@ -4,12 +4,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
-import io.compgen.common.RadixSet;
+import io.compgen.ngsutils.support.FingerprintSet;
 
 public class FindDuplicateReads {
     public abstract static class ScoringMethod {
@@ -47,8 +46,8 @@ public class FindDuplicateReads {
     // Store a copy of all "duplicate" reads that have inter-chromosomal mappings...
     // These will be harder to call, so we'll keep track of what we've already done
 
-    private Set<String> splitDuplicates = new RadixSet(); // more memory efficient than HashSet
-    private Set<String> pairedDuplicates = new RadixSet();
+    private FingerprintSet splitDuplicates = new FingerprintSet(); // more memory efficient than HashSet
+    private FingerprintSet pairedDuplicates = new FingerprintSet();
     
     private long unmapped = 0;
     private long duplicateSites = 0;
@@ -6,6 +6,7 @@ import java.util.Iterator;
 
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
+import io.compgen.ngsutils.support.Metrics;
 
 public abstract class AbstractBamFilter implements BamFilter, Iterable<SAMRecord> {
     protected BamFilter parent;
@@ -21,6 +22,8 @@ public abstract class AbstractBamFilter implements BamFilter, Iterable<SAMRecord
     protected long total = 0;
     protected long removed = 0;
     
+    protected final Metrics.Timer timer = Metrics.timer("bam.filter." + getClass().getSimpleName());
+    
     protected AbstractBamFilter(BamFilter parent, boolean verbose) {
         this.parent = parent;
         this.verbose = verbose;
@@ -28,6 +31,14 @@ public abstract class AbstractBamFilter implements BamFilter, Iterable<SAMRecord
     
     public abstract boolean keepRead(SAMRecord read);
     
+    /**
+     * If keepRead() only depends on the read itself, reads can be checked in any order
+     * (and in parallel). Filters that track state between reads should return false.
+     */
+    public boolean isStateless() {
+        return true;
+    }
+    
     protected SAMRecord nextRead = null;
 //    protected Map<String, SAMRecord> pairs = new HashMap<String, SAMRecord>();
 //    protected Set<String> keptpairs = new HashSet<String>();
@@ -76,7 +87,10 @@ public abstract class AbstractBamFilter implements BamFilter, Iterable<SAMRecord
                 boolean failed = false;
                 boolean passed = false;
                 for (SAMRecord read: nextReadBuffer) {
-                    if (keepRead(read)) {
+                    long t = timer.start();
+                    boolean keep = keepRead(read);
+                    timer.stop(t);
+                    if (keep) {
                         passed = true;
                     } else {
                         failed = true;
@@ -123,7 +137,10 @@ public abstract class AbstractBamFilter implements BamFilter, Iterable<SAMRecord
     
                 total++;
                 
-                if (!keepRead(nextRead)) {
+                long t = timer.start();
+                boolean keep = keepRead(nextRead);
+                timer.stop(t);
+                if (!keep) {
                     if (verbose) {
                         System.err.println(" REMOVED");
                     }
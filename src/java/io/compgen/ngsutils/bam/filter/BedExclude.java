@@ -15,8 +15,12 @@ public class BedExclude extends AbstractBamFilter {
     protected boolean startPos = false;
     
     public BedExclude(BamFilter parent, boolean verbose, String filename, Orientation orient) throws FileNotFoundException, IOException {
+        this(parent, verbose, new BedAnnotationSource(filename), orient);
+    }
+    
+    public BedExclude(BamFilter parent, boolean verbose, BedAnnotationSource bed, Orientation orient) {
         super(parent, verbose);
-        this.bed = new BedAnnotationSource(filename);
+        this.bed = bed;
         this.orient = orient;
     }
     
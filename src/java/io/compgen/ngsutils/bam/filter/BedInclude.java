@@ -2,16 +2,51 @@ package io.compgen.ngsutils.bam.filter;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import io.compgen.ngsutils.annotation.BedAnnotationSource;
+import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.bam.Orientation;
 
 public class BedInclude extends BedExclude {
     public BedInclude(BamFilter parent, boolean verbose, String filename, Orientation orient) throws FileNotFoundException, IOException {
         super(parent, verbose, filename, orient);
     }
+    public BedInclude(BamFilter parent, boolean verbose, BedAnnotationSource bed, Orientation orient) {
+        super(parent, verbose, bed, orient);
+    }
     @Override
     public boolean keepRead(SAMRecord read) {
         return !super.keepRead(read);
     }
+    
+    /**
+     * Returns the (merged) intervals to query from an indexed BAM file to find all of the 
+     * reads that could overlap the BED regions. Intervals are padded by one base on either side, 
+     * so that reads whose start position (--bed-incl-start-pos) is the base just past the end of 
+     * the alignment are included. The reads still need to be checked with keepRead().
+     * 
+     * This isn't valid for only-within, since reads without any alignment blocks (unmapped) 
+     * are kept in that case.
+     */
+    public static QueryInterval[] getQueryIntervals(BedAnnotationSource bed, SAMSequenceDictionary dict) {
+        List<QueryInterval> intervals = new ArrayList<QueryInterval>();
+        Iterator<GenomeSpan> it = bed.regionsIterator();
+        while (it.hasNext()) {
+            GenomeSpan span = it.next();
+            int refIdx = dict.getSequenceIndex(span.ref);
+            if (refIdx < 0) {
+                continue;
+            }
+            // BED is 0-based, QueryInterval is 1-based, inclusive
+            intervals.add(new QueryInterval(refIdx, Math.max(1, span.start), span.end + 1));
+        }
+        QueryInterval[] ar = intervals.toArray(new QueryInterval[intervals.size()]);
+        return QueryInterval.optimizeIntervals(ar);
+    }
 }
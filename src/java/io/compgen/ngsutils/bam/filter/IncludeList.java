@@ -2,21 +2,23 @@ package io.compgen.ngsutils.bam.filter;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
 import htsjdk.samtools.SAMRecord;
-import io.compgen.common.StringLineReader;
-import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.support.ReadNameSet;
 
 public class IncludeList extends AbstractBamFilter {
-    final private Set<String> readNames = new HashSet<String>();
+    final private ReadNameSet readNames;
     
     public IncludeList(BamFilter parent, boolean verbose, String filename) throws FileNotFoundException, IOException {
+        this(parent, verbose, filename, false);
+    }
+
+    /**
+     * @param saveIndex - save an index of the list (see ReadNameSet) so that it loads faster next time
+     */
+    public IncludeList(BamFilter parent, boolean verbose, String filename, boolean saveIndex) throws FileNotFoundException, IOException {
         super(parent, verbose);
-        for (String s: new StringLineReader(filename)) {
-            readNames.add(StringUtils.strip(s));
-        }
+        readNames = ReadNameSet.load(filename, saveIndex);
     }
     
     @Override
@@ -0,0 +1,254 @@
+package io.compgen.ngsutils.bam.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Applies a chain of filters using a thread pool. Reads are pulled from the source
+ * in batches, and the stateless filters are evaluated for each batch in parallel.
+ * Stateful filters (see AbstractBamFilter.isStateless()) are then applied in order on
+ * the calling thread, but only to reads that passed the filters before them.
+ *
+ * Reads are returned in the same order as the input, and the total/removed counts for
+ * each filter (and failed reads) are the same as iterating over the chain directly.
+ *
+ * This can't be used with --pair-keep or --pair-remove, since those filters need to see
+ * all of the reads for a name together.
+ *
+ * @author mbreese
+ *
+ */
+public class ParallelBamFilter implements BamFilter {
+    public static final int BATCH_SIZE = 10000;
+
+    private final BamFilter source;
+    private final AbstractBamFilter[] filters;
+    private final boolean[] stateless;
+    private final int threads;
+    private final ExecutorService pool;
+    private final Deque<Future<Batch>> pending = new ArrayDeque<Future<Batch>>();
+
+    private Batch current = null;
+    private int pos = 0;
+    private SAMRecord nextRead = null;
+    private boolean isfirst = true;
+
+    private long total = 0;
+    private long removed = 0;
+
+    private class Batch {
+        private final List<SAMRecord> reads;
+        // index of the first stateless filter that failed each read (filters.length if none)
+        private final int[] failed;
+
+        private Batch(List<SAMRecord> reads) {
+            this.reads = reads;
+            this.failed = new int[reads.size()];
+        }
+    }
+
+    /**
+     * @param top - the last filter in the chain
+     */
+    public ParallelBamFilter(BamFilter top, int threads) {
+        List<AbstractBamFilter> chain = new ArrayList<AbstractBamFilter>();
+        BamFilter cur = top;
+        while (cur.getParent() != null) {
+            if (!(cur instanceof AbstractBamFilter)) {
+                throw new IllegalArgumentException("Unsupported filter: " + cur.getClass().getSimpleName());
+            }
+            chain.add(0, (AbstractBamFilter) cur);
+            cur = cur.getParent();
+        }
+
+        this.source = cur;
+        this.filters = chain.toArray(new AbstractBamFilter[chain.size()]);
+        this.stateless = new boolean[filters.length];
+        for (int i=0; i<filters.length; i++) {
+            stateless[i] = filters[i].isStateless();
+        }
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public static boolean isSupported(BamFilter top) {
+        BamFilter cur = top;
+        while (cur.getParent() != null) {
+            if (!(cur instanceof AbstractBamFilter)) {
+                return false;
+            }
+            AbstractBamFilter filter = (AbstractBamFilter) cur;
+            if (filter.pairedKeep || filter.pairedRemove) {
+                return false;
+            }
+            cur = cur.getParent();
+        }
+        return true;
+    }
+
+    private void fillQueue() {
+        while (pending.size() < threads * 2 && source.hasNext()) {
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>(BATCH_SIZE);
+            while (reads.size() < BATCH_SIZE && source.hasNext()) {
+                reads.add(source.next());
+            }
+            pending.add(pool.submit(new Callable<Batch>() {
+                @Override
+                public Batch call() throws Exception {
+                    Batch batch = new Batch(reads);
+                    for (int i=0; i<reads.size(); i++) {
+                        batch.failed[i] = filters.length;
+                        for (int j=0; j<filters.length; j++) {
+                            if (stateless[j]) {
+                                long t = filters[j].timer.start();
+                                boolean keep = filters[j].keepRead(reads.get(i));
+                                filters[j].timer.stop(t);
+                                if (!keep) {
+                                    batch.failed[i] = j;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    return batch;
+                }}));
+        }
+    }
+
+    private void checkNext() {
+        while (nextRead == null) {
+            if (current == null || pos >= current.reads.size()) {
+                fillQueue();
+                if (pending.isEmpty()) {
+                    pool.shutdown();
+                    return;
+                }
+                try {
+                    current = pending.poll().get();
+                } catch (InterruptedException | ExecutionException e) {
+                    pool.shutdownNow();
+                    throw new RuntimeException(e);
+                }
+                pos = 0;
+                fillQueue();
+            }
+
+            SAMRecord read = current.reads.get(pos);
+            int failedIdx = current.failed[pos];
+            pos++;
+
+            // stateful filters only see reads that passed all of the filters before them
+            for (int j=0; j<failedIdx; j++) {
+                if (!stateless[j]) {
+                    long t = filters[j].timer.start();
+                    boolean keep = filters[j].keepRead(read);
+                    filters[j].timer.stop(t);
+                    if (!keep) {
+                        failedIdx = j;
+                        break;
+                    }
+                }
+            }
+
+            total++;
+            for (int j=0; j<filters.length && j<=failedIdx; j++) {
+                filters[j].total++;
+            }
+
+            if (failedIdx < filters.length) {
+                filters[failedIdx].removed++;
+                removed++;
+                if (getFailedWriter() != null) {
+                    getFailedWriter().addAlignment(read);
+                }
+            } else {
+                nextRead = read;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (isfirst) {
+            checkNext();
+            isfirst = false;
+        }
+        return nextRead != null;
+    }
+
+    @Override
+    public SAMRecord next() {
+        if (isfirst) {
+            checkNext();
+            isfirst = false;
+        }
+        SAMRecord retval = nextRead;
+        nextRead = null;
+        checkNext();
+        return retval;
+    }
+
+    @Override
+    public void remove() {
+        // no-op
+    }
+
+    @Override
+    public Iterator<SAMRecord> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean keepRead(SAMRecord read) {
+        for (AbstractBamFilter filter: filters) {
+            if (!filter.keepRead(read)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long getTotal() {
+        return total;
+    }
+
+    @Override
+    public long getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public BamFilter getParent() {
+        if (filters.length > 0) {
+            return filters[filters.length - 1];
+        }
+        return source;
+    }
+
+    @Override
+    public SAMFileWriter getFailedWriter() {
+        return source.getFailedWriter();
+    }
+
+    @Override
+    public void setPairedKeep() {
+        throw new UnsupportedOperationException("Paired filtering can't be run in parallel");
+    }
+
+    @Override
+    public void setPairedRemove() {
+        throw new UnsupportedOperationException("Paired filtering can't be run in parallel");
+    }
+}
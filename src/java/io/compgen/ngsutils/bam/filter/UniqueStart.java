@@ -14,6 +14,12 @@ public class UniqueStart extends AbstractBamFilter {
         super(parent, verbose);
     }
 
+    @Override
+    public boolean isStateless() {
+        // reads must be checked in order
+        return false;
+    }
+
     @Override
     public boolean keepRead(SAMRecord read) {
         if (read.getReadUnmappedFlag()) {
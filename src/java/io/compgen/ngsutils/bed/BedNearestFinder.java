@@ -0,0 +1,320 @@
+package io.compgen.ngsutils.bed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.compgen.ngsutils.annotation.BadReferenceException;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bam.Strand;
+
+/**
+ * Streaming nearest-feature search for coordinate-sorted BED files.
+ *
+ * Both the reference features and the queries must be sorted by position within
+ * a chromosome, and the chromosomes must be in the same order in both files (chromosomes
+ * missing from either file are fine). Queries are passed to findNearest() in order.
+ *
+ * The reference features for each strand (+, -, and none) are streamed separately, each
+ * with its own reader of the reference file (readers are only opened for the strands
+ * that are used, so the file is read at most four times, including a first pass to find
+ * the chromosome order). This way, finding the next downstream feature for a stranded
+ * query doesn't need to keep the features from the other strand in memory.
+ *
+ * For each strand, only a small window of features is kept in memory: the feature with
+ * the furthest end among those starting at or before the current query (any other such
+ * feature is always at least as far away from this and all later queries), the features
+ * overlapping the query, and the next feature downstream.
+ *
+ * Distances are the same as GenomeSpan.distanceTo() (relative to the reference feature).
+ * The up/down limits are strand-specific (relative to the reference feature); use -1 for
+ * no limit.
+ *
+ * @author mbreese
+ *
+ */
+public class BedNearestFinder {
+    private static class Feature {
+        private final BedRecord rec;
+        // position in the reference file (used to pick between features at the same distance)
+        private final long order;
+
+        private Feature(BedRecord rec, long order) {
+            this.rec = rec;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Streams the reference features for one strand.
+     */
+    private class Cursor {
+        private final Strand strand;
+        private final Iterator<BedRecord> it;
+        private final Set<String> passedRefs = new HashSet<String>();
+        private long order = 0;
+        private Feature next = null;
+        private GenomeSpan lastFeature = null;
+
+        // the feature with the furthest end, starting at or before the last query
+        private Feature anchor = null;
+        // features starting after the last query, and features for the current query
+        private final List<Feature> window = new ArrayList<Feature>();
+
+        private Cursor(Strand strand) throws IOException {
+            this.strand = strand;
+            this.it = BedReader.readFile(refFilename);
+            readNext();
+        }
+
+        private void readNext() throws IOException {
+            while (it.hasNext()) {
+                BedRecord rec = it.next();
+                order++;
+                if (rec.getCoord().strand != strand) {
+                    continue;
+                }
+
+                GenomeSpan coord = rec.getCoord();
+                if (lastFeature != null && !lastFeature.ref.equals(coord.ref)) {
+                    passedRefs.add(lastFeature.ref);
+                }
+                if (lastFeature != null && lastFeature.ref.equals(coord.ref) && coord.start < lastFeature.start) {
+                    throw new IOException("Reference BED file is not sorted: " + coord + " found after " + lastFeature);
+                }
+                lastFeature = coord;
+                next = new Feature(rec, order);
+                return;
+            }
+            next = null;
+        }
+
+        /**
+         * Skip forward to the features for this chromosome
+         */
+        private void startRef(String ref) throws IOException {
+            anchor = null;
+            window.clear();
+            if (!refOrder.containsKey(ref)) {
+                return;
+            }
+            if (passedRefs.contains(ref)) {
+                throw new IOException("Chromosome order differs between the query and reference BED files: " + ref);
+            }
+            // stop at a later chromosome (there may not be any features on this strand for ref)
+            int idx = refOrder.get(ref);
+            while (next != null && refOrder.get(next.rec.getCoord().ref) < idx) {
+                readNext();
+            }
+        }
+
+        /**
+         * Adds the features that start before the end of the query.
+         */
+        private void advance(GenomeSpan query) throws IOException {
+            while (next != null && next.rec.getCoord().ref.equals(query.ref) && next.rec.getCoord().start <= query.end) {
+                window.add(next);
+                readNext();
+            }
+        }
+
+        /**
+         * Adds the next feature downstream of the query (unless it is past the limits).
+         */
+        private void readAhead(GenomeSpan query) throws IOException {
+            for (Feature f: window) {
+                if (f.rec.getCoord().start > query.end) {
+                    return;
+                }
+            }
+
+            // all of the features here are on the same strand, so if the next one isn't
+            // usable (past the limits), none of the later ones are either.
+            if (next != null && next.rec.getCoord().ref.equals(query.ref) && next.rec.getCoord().start - query.end <= Math.max(maxUp, maxDown)) {
+                window.add(next);
+                readNext();
+            }
+        }
+
+        /**
+         * Drops any feature starting at/before the query that is dominated by another feature
+         * with a further end.
+         */
+        private void prune(GenomeSpan query) {
+            List<Feature> keep = new ArrayList<Feature>();
+            for (Feature f: window) {
+                GenomeSpan coord = f.rec.getCoord();
+                if (coord.start <= query.start) {
+                    if (anchor == null || anchor.rec.getCoord().end < coord.end) {
+                        anchor = f;
+                    }
+                } else {
+                    keep.add(f);
+                }
+            }
+            window.clear();
+            window.addAll(keep);
+        }
+    }
+
+    private final String refFilename;
+    // chromosome -> order in the reference file
+    private final Map<String, Integer> refOrder = new HashMap<String, Integer>();
+    private final int maxUp;
+    private final int maxDown;
+
+    // one per strand, opened when first needed
+    private final Cursor[] cursors = new Cursor[Strand.values().length];
+
+    private String curRef = null;
+    private final Set<String> finishedRefs = new HashSet<String>();
+    private GenomeSpan lastQuery = null;
+
+    public BedNearestFinder(String refFilename, int maxUp, int maxDown) throws IOException {
+        if (refFilename.equals("-")) {
+            throw new IOException("The reference BED file can not be read from stdin");
+        }
+        this.refFilename = refFilename;
+        for (String ref: BedReader.readRefNames(refFilename)) {
+            refOrder.put(ref, refOrder.size());
+        }
+        this.maxUp = maxUp < 0 ? Integer.MAX_VALUE : maxUp;
+        this.maxDown = maxDown < 0 ? Integer.MAX_VALUE : maxDown;
+    }
+
+    /**
+     * Returns the nearest reference feature for this query (or null if there isn't one within the limits).
+     * If the query is stranded, only features on the same strand (or unstranded features) are considered.
+     */
+    public BedRecord findNearest(GenomeSpan query) throws IOException {
+        GenomeSpan prev = lastQuery;
+        checkQueryOrder(query);
+
+        if (!query.ref.equals(curRef)) {
+            if (curRef != null) {
+                finishedRefs.add(curRef);
+            }
+            curRef = query.ref;
+            prev = null;
+            for (Cursor cursor: cursors) {
+                if (cursor != null) {
+                    cursor.startRef(curRef);
+                }
+            }
+        }
+
+        List<Cursor> used = new ArrayList<Cursor>();
+        for (Strand strand: Strand.values()) {
+            if (!query.strand.matches(strand)) {
+                continue;
+            }
+
+            Cursor cursor = cursors[strand.ordinal()];
+            if (cursor == null) {
+                // catch up to the previous query, as if this cursor was always open
+                cursor = new Cursor(strand);
+                cursor.startRef(curRef);
+                if (prev != null) {
+                    cursor.advance(prev);
+                    cursor.prune(prev);
+                }
+                cursors[strand.ordinal()] = cursor;
+            }
+            used.add(cursor);
+        }
+
+        // every open cursor is kept up to date (so that the same features are picked
+        // no matter which cursors were used for earlier queries), but only the
+        // cursors for this query read ahead downstream
+        for (Cursor cursor: cursors) {
+            if (cursor != null) {
+                cursor.advance(query);
+            }
+        }
+        for (Cursor cursor: used) {
+            cursor.readAhead(query);
+        }
+
+        // for features at the same distance, anchors (by strand) are picked first, then
+        // the feature that is first in the reference file
+        Feature best = null;
+        int bestDist = 0;
+        for (Cursor cursor: used) {
+            Feature f = cursor.anchor;
+            if (f != null && isUsable(f.rec, query)) {
+                int dist = Math.abs(distance(f.rec, query));
+                if (best == null || dist < bestDist) {
+                    best = f;
+                    bestDist = dist;
+                }
+            }
+        }
+        boolean bestIsAnchor = best != null;
+        for (Cursor cursor: used) {
+            for (Feature f: cursor.window) {
+                if (isUsable(f.rec, query)) {
+                    int dist = Math.abs(distance(f.rec, query));
+                    if (best == null || dist < bestDist || (dist == bestDist && !bestIsAnchor && f.order < best.order)) {
+                        best = f;
+                        bestDist = dist;
+                        bestIsAnchor = false;
+                    }
+                }
+            }
+        }
+
+        for (Cursor cursor: cursors) {
+            if (cursor != null) {
+                cursor.prune(query);
+            }
+        }
+
+        return best == null ? null : best.rec;
+    }
+
+    private boolean isUsable(BedRecord rec, GenomeSpan query) {
+        if (!query.strand.matches(rec.getCoord().strand)) {
+            return false;
+        }
+
+        int dist = distance(rec, query);
+        if (rec.getCoord().strand == Strand.PLUS || rec.getCoord().strand == Strand.NONE) {
+            if (dist < 0) {
+                return dist >= -maxUp;
+            }
+            return dist <= maxDown;
+        } else {
+            if (dist > 0) {
+                return dist <= maxUp;
+            }
+            return dist >= -maxDown;
+        }
+    }
+
+    private static int distance(BedRecord rec, GenomeSpan query) {
+        try {
+            return rec.getCoord().distanceTo(query);
+        } catch (BadReferenceException e) {
+            // the window only ever holds features from the query's chromosome
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkQueryOrder(GenomeSpan query) throws IOException {
+        if (lastQuery != null) {
+            if (lastQuery.ref.equals(query.ref)) {
+                if (query.start < lastQuery.start) {
+                    throw new IOException("Query BED file is not sorted: " + query + " found after " + lastQuery);
+                }
+            } else if (finishedRefs.contains(query.ref)) {
+                throw new IOException("Query BED file is not sorted: " + query.ref + " found in more than one block");
+            }
+        }
+        lastQuery = query;
+    }
+}
@@ -4,11 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
+import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
 import io.compgen.common.StringUtils;
 import io.compgen.common.io.PeekableInputStream;
@@ -26,6 +31,26 @@ public class BedReader {
         return readFile(new File(filename), ignoreStrand);
     }
 
+    /**
+     * Returns the reference names in the order they first appear in the file.
+     */
+    public static List<String> readRefNames(String filename) throws IOException {
+        List<String> refs = new ArrayList<String>();
+        Set<String> seen = new HashSet<String>();
+        String last = null;
+        for (BedRecord rec: IterUtils.wrap(readFile(filename, true))) {
+            String ref = rec.getCoord().ref;
+            if (!ref.equals(last)) {
+                if (!seen.contains(ref)) {
+                    refs.add(ref);
+                    seen.add(ref);
+                }
+                last = ref;
+            }
+        }
+        return refs;
+    }
+
     public static Iterator<BedRecord> readFile(File file) throws IOException {
         return readInputStream(new FileInputStream(file), false);
     }
@@ -58,6 +58,13 @@ public class BedRecord implements Annotation, Comparable<BedRecord> {
         write(os, false);
     }
     public void write(OutputStream os, boolean forceScoreInt) throws IOException {
+        write(os, forceScoreInt, false);
+    }
+
+    /**
+     * @param dotForNoStrand - write regions without a strand with a '.' strand (otherwise, '+')
+     */
+    public void write(OutputStream os, boolean forceScoreInt, boolean dotForNoStrand) throws IOException {
         List<String> outs = new ArrayList<String>();
         outs.add(coord.ref);
         outs.add(""+coord.start);
@@ -77,6 +84,8 @@ public class BedRecord implements Annotation, Comparable<BedRecord> {
             
             if (coord.strand != Strand.NONE) {
                 outs.add(coord.strand.toString());
+            } else if (dotForNoStrand) {
+                outs.add(".");
             } else {
                 // always need to output a valid strand...
                 outs.add(Strand.PLUS.toString());
@@ -0,0 +1,248 @@
+package io.compgen.ngsutils.bed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import io.compgen.common.SetBuilder;
+import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bam.Strand;
+
+/**
+ * Merges overlapping BED records in a single pass over a sorted stream (sweep-line).
+ *
+ * The input must be sorted by position within each chromosome (all records for a
+ * chromosome together). Only open regions are kept in memory.
+ *
+ * As with bed-reduce, regions without a strand overlap regions on either strand, and
+ * merging regions from different strands results in a region without a strand. So a new
+ * region is merged with every open region it overlaps (until nothing else overlaps). A
+ * region is only closed once it ends before the current position and it isn't connected
+ * (through overlapping regions on the other strand) to a region that is still open, as a
+ * later region without a strand could join them. A chromosome that appears again after
+ * another chromosome is an error.
+ *
+ * Regions are merged when their extended coordinates overlap, and merged regions are
+ * returned in order of their extended coordinates. Names and scores are combined the
+ * same way as bed-reduce (see mergeRecords()).
+ *
+ * @author mbreese
+ *
+ */
+public class BedReducer implements Iterator<BedRecord> {
+    private class Region {
+        final GenomeSpan effectiveCoord;
+        final BedRecord record;
+
+        Region(GenomeSpan effectiveCoord, BedRecord record) {
+            this.effectiveCoord = effectiveCoord;
+            this.record = record;
+        }
+    }
+
+    private final Iterator<BedRecord> it;
+    private final int extend;
+    private final boolean noStrand;
+    private final boolean scoreIsCount;
+
+    // regions that can still be merged with later regions
+    private final List<Region> open = new ArrayList<Region>();
+
+    // closed regions that can't be returned until earlier open regions are closed
+    private final PriorityQueue<Region> closed = new PriorityQueue<Region>(11, new Comparator<Region>() {
+        @Override
+        public int compare(Region o1, Region o2) {
+            return o1.effectiveCoord.compareTo(o2.effectiveCoord);
+        }});
+
+    private final Deque<BedRecord> ready = new ArrayDeque<BedRecord>();
+
+    private GenomeSpan lastCoord = null;
+    private final Set<String> seenRefs = new HashSet<String>();
+
+    public BedReducer(Iterator<BedRecord> it, int extend, boolean noStrand, boolean scoreIsCount) {
+        this.it = it;
+        this.extend = extend;
+        this.noStrand = noStrand;
+        this.scoreIsCount = scoreIsCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !ready.isEmpty();
+    }
+
+    @Override
+    public BedRecord next() {
+        fill();
+        if (ready.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return ready.poll();
+    }
+
+    @Override
+    public void remove() {
+    }
+
+    private void fill() {
+        while (ready.isEmpty() && it.hasNext()) {
+            BedRecord rec = it.next();
+            if (scoreIsCount) {
+                rec = new BedRecord(rec.getCoord(), rec.getName(), 1, rec.getExtras());
+            }
+
+            GenomeSpan coord = rec.getCoord();
+            if (lastCoord != null && lastCoord.ref.equals(coord.ref) && coord.start < lastCoord.start) {
+                throw new RuntimeException("BED file is not sorted: " + coord + " found after " + lastCoord);
+            }
+            if (lastCoord == null || !lastCoord.ref.equals(coord.ref)) {
+                if (!seenRefs.add(coord.ref)) {
+                    throw new RuntimeException("BED file is not sorted: " + coord.ref + " found again after " + lastCoord.ref);
+                }
+                closeAll();
+            }
+            lastCoord = coord;
+
+            if (extend > 0) {
+                coord = coord.extend5(extend);
+                coord = coord.extend3(extend);
+            }
+            if (noStrand) {
+                coord = coord.clone(Strand.NONE);
+            }
+
+            int pos = coord.start;
+
+            // merge with every open region that overlaps (NONE overlaps both strands)
+            boolean merged = true;
+            while (merged) {
+                merged = false;
+                for (Iterator<Region> regionIt = open.iterator(); regionIt.hasNext(); ) {
+                    Region r = regionIt.next();
+                    if (r.effectiveCoord.overlaps(coord)) {
+                        coord = coord.combine(r.effectiveCoord);
+                        rec = mergeRecords(rec, r.record);
+                        regionIt.remove();
+                        merged = true;
+                    }
+                }
+            }
+            open.add(new Region(coord, rec));
+
+            closeFinished(pos);
+            releaseClosed();
+        }
+
+        if (ready.isEmpty() && !it.hasNext()) {
+            closeAll();
+        }
+    }
+
+    /**
+     * Closes the open regions that can't be merged with a region starting at or after pos.
+     * Regions that end after pos can still be merged, and so can any region that overlaps
+     * them (on another strand), as a later region without a strand could join them.
+     */
+    private void closeFinished(int pos) {
+        boolean[] keep = new boolean[open.size()];
+        boolean changed = false;
+        for (int i=0; i<keep.length; i++) {
+            if (open.get(i).effectiveCoord.end > pos) {
+                keep[i] = true;
+                changed = true;
+            }
+        }
+        while (changed) {
+            changed = false;
+            for (int i=0; i<keep.length; i++) {
+                if (keep[i]) {
+                    continue;
+                }
+                GenomeSpan a = open.get(i).effectiveCoord;
+                for (int j=0; j<keep.length; j++) {
+                    GenomeSpan b = open.get(j).effectiveCoord;
+                    if (keep[j] && a.start < b.end && b.start < a.end) {
+                        keep[i] = true;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int i=keep.length-1; i>=0; i--) {
+            if (!keep[i]) {
+                closed.add(open.remove(i));
+            }
+        }
+    }
+
+    /**
+     * Closed regions can be returned once no open region starts before them.
+     */
+    private void releaseClosed() {
+        while (!closed.isEmpty()) {
+            Region head = closed.peek();
+            for (Region r: open) {
+                if (r != null && r.effectiveCoord.start < head.effectiveCoord.start) {
+                    return;
+                }
+            }
+            ready.add(closed.poll().record);
+        }
+    }
+
+    private void closeAll() {
+        closed.addAll(open);
+        open.clear();
+        while (!closed.isEmpty()) {
+            ready.add(closed.poll().record);
+        }
+    }
+
+    public static BedRecord mergeRecords(BedRecord one, BedRecord two) {
+        GenomeSpan coord = one.getCoord().combine(two.getCoord());
+        String name = StringUtils.join("|", new SetBuilder<String>().add(one.getName()).add(two.getName()).build());
+        double score = one.getScore() + two.getScore();
+
+
+        String[] extras = null;
+
+        if (one.getExtras()!=null || two.getExtras()!=null) {
+            int max = 0;
+            if (one.getExtras() != null) {
+                max = one.getExtras().length;
+            }
+            if (two.getExtras()!=null) {
+                max = Math.max(max,  two.getExtras().length);
+            }
+
+            extras = new String[max];
+            for (int i=0; i<max; i++) {
+                String s = "";
+                if (one.getExtras() != null && one.getExtras().length<i) {
+                    s = one.getExtras()[i];
+                }
+                if (two.getExtras() != null && two.getExtras().length<i) {
+                    if (!s.equals("")) {
+                        s += "|";
+                    }
+                    s += two.getExtras()[i];
+                }
+                extras[i] = s;
+            }
+        }
+
+        return new BedRecord(coord, name, score, extras);
+    }
+}
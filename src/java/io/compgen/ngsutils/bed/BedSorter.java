@@ -0,0 +1,229 @@
+package io.compgen.ngsutils.bed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bam.Strand;
+
+/**
+ * External merge sort for BED records. Records are sorted in memory in blocks of
+ * bufferSize records; if there is more than one block, each block is spilled to a
+ * (compressed) temporary file and the blocks are merged.
+ *
+ * Records are sorted by reference (natural order), start, end, and strand. The sort is stable.
+ *
+ * @author mbreese
+ *
+ */
+public class BedSorter {
+    public static final Comparator<BedRecord> COMPARATOR = new Comparator<BedRecord>() {
+        @Override
+        public int compare(BedRecord o1, BedRecord o2) {
+            GenomeSpan one = o1.getCoord();
+            GenomeSpan two = o2.getCoord();
+            if (!one.ref.equals(two.ref)) {
+                return StringUtils.naturalCompare(one.ref, two.ref);
+            }
+            if (one.start != two.start) {
+                return Integer.compare(one.start, two.start);
+            }
+            if (one.end != two.end) {
+                return Integer.compare(one.end, two.end);
+            }
+            return Integer.compare(one.strand.ordinal(), two.strand.ordinal());
+        }
+    };
+
+    private final int bufferSize;
+    private final File tmpdir;
+    private final List<File> tempFiles = new ArrayList<File>();
+
+    public BedSorter(int bufferSize, File tmpdir) {
+        this.bufferSize = bufferSize;
+        this.tmpdir = tmpdir;
+    }
+
+    public Iterator<BedRecord> sort(Iterator<BedRecord> it) throws IOException {
+        List<BedRecord> buffer = new ArrayList<BedRecord>();
+        while (it.hasNext()) {
+            buffer.add(it.next());
+            if (buffer.size() >= bufferSize) {
+                writeTemp(buffer);
+                buffer.clear();
+            }
+        }
+
+        Collections.sort(buffer, COMPARATOR);
+        if (tempFiles.size() == 0) {
+            return buffer.iterator();
+        }
+
+        writeTemp(buffer);
+        buffer.clear();
+        return new MergeIterator();
+    }
+
+    /**
+     * Removes any temporary files.
+     */
+    public void close() {
+        for (File f: tempFiles) {
+            f.delete();
+        }
+        tempFiles.clear();
+    }
+
+    private void writeTemp(List<BedRecord> buffer) throws IOException {
+        Collections.sort(buffer, COMPARATOR);
+
+        File temp;
+        if (tmpdir == null) {
+            temp = Files.createTempFile(".bed-sort-", ".gz").toFile();
+        } else {
+            temp = Files.createTempFile(tmpdir.toPath(), ".bed-sort-", ".gz").toFile();
+        }
+        temp.deleteOnExit();
+        tempFiles.add(temp);
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))));
+        for (BedRecord rec: buffer) {
+            writeRecord(dos, rec);
+        }
+        dos.close();
+    }
+
+    /*
+     * The temp files use a simple binary format instead of BED lines so that records
+     * (including unstranded records and scores) round trip exactly.
+     */
+    private static void writeRecord(DataOutputStream dos, BedRecord rec) throws IOException {
+        GenomeSpan coord = rec.getCoord();
+        dos.writeUTF(coord.ref);
+        dos.writeInt(coord.start);
+        dos.writeInt(coord.end);
+        dos.writeByte(coord.strand.ordinal());
+        dos.writeBoolean(rec.getName() != null);
+        if (rec.getName() != null) {
+            dos.writeUTF(rec.getName());
+        }
+        dos.writeDouble(rec.getScore());
+        if (rec.getExtras() == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(rec.getExtras().length);
+            for (String extra: rec.getExtras()) {
+                dos.writeUTF(extra);
+            }
+        }
+    }
+
+    private static BedRecord readRecord(DataInputStream dis) throws IOException {
+        String ref;
+        try {
+            ref = dis.readUTF();
+        } catch (EOFException e) {
+            return null;
+        }
+        int start = dis.readInt();
+        int end = dis.readInt();
+        Strand strand = Strand.values()[dis.readByte()];
+        String name = null;
+        if (dis.readBoolean()) {
+            name = dis.readUTF();
+        }
+        double score = dis.readDouble();
+        String[] extras = null;
+        int extraCount = dis.readInt();
+        if (extraCount > -1) {
+            extras = new String[extraCount];
+            for (int i=0; i<extraCount; i++) {
+                extras[i] = dis.readUTF();
+            }
+        }
+        return new BedRecord(new GenomeSpan(ref, start, end, strand), name, score, extras);
+    }
+
+    private class MergeIterator implements Iterator<BedRecord> {
+        private class Head implements Comparable<Head> {
+            final int idx;
+            final DataInputStream dis;
+            BedRecord rec;
+
+            Head(int idx, DataInputStream dis) {
+                this.idx = idx;
+                this.dis = dis;
+            }
+
+            @Override
+            public int compareTo(Head o) {
+                int cmp = COMPARATOR.compare(rec, o.rec);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                // earlier blocks first, to keep the sort stable
+                return Integer.compare(idx, o.idx);
+            }
+        }
+
+        private final PriorityQueue<Head> queue = new PriorityQueue<Head>();
+
+        MergeIterator() throws IOException {
+            for (int i=0; i<tempFiles.size(); i++) {
+                Head head = new Head(i, new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(tempFiles.get(i))))));
+                advance(head);
+            }
+        }
+
+        private void advance(Head head) throws IOException {
+            head.rec = readRecord(head.dis);
+            if (head.rec != null) {
+                queue.add(head);
+            } else {
+                head.dis.close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public BedRecord next() {
+            if (queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Head head = queue.poll();
+            BedRecord rec = head.rec;
+            try {
+                advance(head);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return rec;
+        }
+
+        @Override
+        public void remove() {
+        }
+    }
+}
@@ -211,7 +211,7 @@ public class GTFAnnotate extends AbstractOutputCommand {
             System.err.print("Reading GTF annotation file: " + gtfFilename);
         }
 
-        GTFAnnotationSource ann = new GTFAnnotationSource(gtfFilename);
+        GTFAnnotationSource ann = GTFAnnotationSource.load(gtfFilename);
         if (verbose) {
             System.err.println(" [done]");
         }
@@ -10,6 +10,9 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -21,6 +24,7 @@ import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.CloseableIterator;
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
@@ -52,6 +56,8 @@ import io.compgen.ngsutils.support.CloseableFinalizer;
         )
 
 public class BamBest extends AbstractCommand {
+    private static final int QUEUE_SIZE = 10000;
+
     private class OrderedTag {
         public final String name;
         public final boolean ascending;
@@ -73,56 +79,6 @@ public class BamBest extends AbstractCommand {
         }
     }
     
-    private class OrderedTagValues implements Comparable<OrderedTagValues>{
-        public final OrderedTag[] tags;
-        public final int[] values;
-        
-        private OrderedTagValues(OrderedTag[] tags, int[] values) {
-            this.tags = tags;
-            this.values = values;
-        }
-
-        @Override
-        public int compareTo(OrderedTagValues o) {
-            if (o == null) {
-                return -1;
-            }
-            if (o == this) {
-                return 0;
-            }
-            
-            for (int i=0; i<tags.length; i++) {
-                if (tags[i].ascending) {
-                    if (values[i] > o.values[i]) {
-                        return -1;
-                    } else if (values[i] < o.values[i]) {
-                        return 1;
-                    }
-                } else {
-                    if (values[i] > o.values[i]) {
-                        return 1;
-                    } else if (values[i] < o.values[i]) {
-                        return -1;
-                    }
-                }
-            }
-            
-            return 0;
-        }
-        
-        public String toString() {
-            String s = "";
-            for (int i=0; i < tags.length; i++) {
-                if (i != 0) {
-                    s += ",";
-                }
-                s += tags[i].name+":"+values[i];
-            }
-            return s;
-        }
-    }
-
-    
     private String[] inputs = null;
     private String[] outputs = null;
     private OrderedTag[] tags = null;
@@ -276,7 +232,8 @@ public class BamBest extends AbstractCommand {
         }
 
         // setup outputs
-        SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        // compress each output on its own thread
+        SAMFileWriterFactory factory = new SAMFileWriterFactory().setUseAsyncIo(true);
         SAMFileWriter[] writers = new SAMFileWriter[outputs.length];
         SAMFileWriter unmappedWriter = null;
         if (unmappedFilename != null) {
@@ -324,139 +281,144 @@ public class BamBest extends AbstractCommand {
             }
         }
         
-        SAMRecord[] buffer = new SAMRecord[iterators.size()];
-        
-        // Pre-load the buffer with one read
-        boolean hasNext = true;
-        int i = 0;
-        for (Iterator<SAMRecord> it: iterators) {
-            if (!it.hasNext()) {
-                hasNext = false;
-            } else {
-                buffer[i++] = it.next();
-            }
+        // each input is read (and grouped by read name) on its own thread
+        List<GroupReader> groupReaders = new ArrayList<GroupReader>();
+        for (int j=0; j<iterators.size(); j++) {
+            GroupReader groupReader = new GroupReader(iterators.get(j));
+            groupReader.start();
+            groupReaders.add(groupReader);
         }
-        
-        while (hasNext) {
-            String currentReadName = null;
-            int bestIdx = -1;
-            OrderedTagValues bestValues = null;
-            List<SAMRecord> bestList = null;
-            boolean tie = false;
-            
-            int idx = 0;
-            for (Iterator<SAMRecord> it: iterators) {
-                if (currentReadName == null) {
-                    currentReadName = buffer[idx].getReadName();
-                    if (verbose) {
-                        System.err.println(currentReadName);
+
+        int i;
+
+        try {
+            ReadGroup[] groups = new ReadGroup[groupReaders.size()];
+
+            while (true) {
+                // stop when any of the inputs is finished
+                boolean hasNext = true;
+                for (int idx=0; idx<groups.length; idx++) {
+                    groups[idx] = groupReaders.get(idx).take();
+                    if (groups[idx] == ReadGroup.END) {
+                        hasNext = false;
                     }
-                } else if (!buffer[idx].getReadName().equals(currentReadName)) {
-                    System.err.println("Read name mismatch!");
-                    System.err.println("Expected: " + currentReadName);
-                    System.err.println("Got     : " + buffer[idx].getReadName());
-                    System.err.println("Input   : " + inputs[idx]);
-                    System.exit(1);
                 }
+                if (!hasNext) {
+                    break;
+                }
+
+                String currentReadName = groups[0].name;
                 if (verbose) {
-                    System.err.println(inputs[idx]);
+                    System.err.println(currentReadName);
                 }
-                List<SAMRecord> curList = new ArrayList<SAMRecord>();
-                curList.add(buffer[idx]);
-                buffer[idx] = null;
-
-                while (it.hasNext()) {
-                    SAMRecord next = it.next();
-                    if (!next.getReadName().equals(currentReadName)) {
-                        buffer[idx] = next;
-                        break;
-                    }
-                    if (!it.hasNext()) {
-                        hasNext = false;
+
+                int bestIdx = -1;
+                int[] bestValues = null;
+                List<SAMRecord> bestList = null;
+                boolean tie = false;
+            
+                for (int idx=0; idx<groups.length; idx++) {
+                    if (!groups[idx].name.equals(currentReadName)) {
+                        System.err.println("Read name mismatch!");
+                        System.err.println("Expected: " + currentReadName);
+                        System.err.println("Got     : " + groups[idx].name);
+                        System.err.println("Input   : " + inputs[idx]);
+                        System.exit(1);
                     }
-                    curList.add(next);
-                }
-                
-                for (SAMRecord read: curList) {
                     if (verbose) {
-                        System.err.print(read.getReadName()+"\t"+inputs[idx]+"*\t"+"");
+                        System.err.println(inputs[idx]);
                     }
-                    if (!keepRead(read)) {
+
+                    List<SAMRecord> curList = groups[idx].reads;
+                    for (int j=0; j<curList.size(); j++) {
+                        SAMRecord read = curList.get(j);
                         if (verbose) {
-                            System.err.println("  -- unmapped");
+                            System.err.print(read.getReadName()+"\t"+inputs[idx]+"*\t"+"");
                         }
-                        if (unmappedWriter != null) {
-                            unmappedWriter.addAlignment(read);
+                        int[] tagValues = groups[idx].values[j];
+                        if (tagValues == null) {
+                            if (verbose) {
+                                System.err.println("  -- unmapped");
+                            }
+                            if (unmappedWriter != null) {
+                                unmappedWriter.addAlignment(read);
+                            }
+                            continue;
                         }
-                        continue;
-                    }
 
-                    OrderedTagValues tagValues = extractTagValues(read);
-                    if (verbose) {
-                        System.err.print(tagValues);
-                    }
-                    
-                    // if bestValues is null, this returns -1
-                    int compareToVal = tagValues.compareTo(bestValues);
-                    
-                    if (compareToVal < 0) {
-                        bestIdx = idx;
-                        bestValues = tagValues;
-                        bestList = curList;
-                        tie = false;
                         if (verbose) {
-                            System.err.print(" *best*");
+                            System.err.print(tagValuesToString(tagValues));
                         }
-                    } else if (compareToVal == 0) {
-                        // tie goes to the first input, so we don't reset bestIdx
-                        // check to see that we aren't in the same as the bestIdx, 
-                        // if we have paired reads, they can have the same scores.
-                        if (bestIdx != idx) {
-                            tie = true;
+                    
+                        // if bestValues is null, this returns -1
+                        int compareToVal = compareTagValues(tagValues, bestValues);
+                    
+                        if (compareToVal < 0) {
+                            bestIdx = idx;
+                            bestValues = tagValues;
+                            bestList = curList;
+                            tie = false;
                             if (verbose) {
-                                System.err.print(" // tie");
+                                System.err.print(" *best*");
+                            }
+                        } else if (compareToVal == 0) {
+                            // tie goes to the first input, so we don't reset bestIdx
+                            // check to see that we aren't in the same as the bestIdx, 
+                            // if we have paired reads, they can have the same scores.
+                            if (bestIdx != idx) {
+                                tie = true;
+                                if (verbose) {
+                                    System.err.print(" // tie");
+                                }
                             }
                         }
-                    }
-                    if (verbose) {
-                        System.err.println();
+                        if (verbose) {
+                            System.err.println();
+                        }
                     }
                 }
-                idx++;
-            }
 
-            if (tie) {
-                inputCounts[inputs.length]++;
-                if (!noTies) {
+                if (tie) {
+                    inputCounts[inputs.length]++;
+                    if (!noTies) {
+                        if (writers.length > bestIdx) {
+                            for (SAMRecord read: bestList) {
+                                writers[bestIdx].addAlignment(read);
+                            }
+                        }
+                    }
+                } else if (bestIdx > -1) {
+                    inputCounts[bestIdx]++;
                     if (writers.length > bestIdx) {
                         for (SAMRecord read: bestList) {
                             writers[bestIdx].addAlignment(read);
                         }
                     }
+                } else {
+                    unmapped++;
                 }
-            } else if (bestIdx > -1) {
-                inputCounts[bestIdx]++;
-                if (writers.length > bestIdx) {
-                    for (SAMRecord read: bestList) {
-                        writers[bestIdx].addAlignment(read);
-                    }
-                }
-            } else {
-                unmapped++;
-            }
 
-            if (verbose) {
-                System.err.print(currentReadName+" => ");
-                if (tie) {
-                    System.err.println("best: tie / "+inputs[bestIdx]);
-                } else {
-                    if (bestIdx > -1) {
-                        System.err.println("best: "+inputs[bestIdx]);
+                if (verbose) {
+                    System.err.print(currentReadName+" => ");
+                    if (tie) {
+                        System.err.println("best: tie / "+inputs[bestIdx]);
                     } else {
-                        System.err.println("best: unmapped");
+                        if (bestIdx > -1) {
+                            System.err.println("best: "+inputs[bestIdx]);
+                        } else {
+                            System.err.println("best: unmapped");
+                        }
                     }
                 }
             }
+        } finally {
+            // stops the reader threads (if an input wasn't finished or there was an error)
+            for (GroupReader groupReader: groupReaders) {
+                groupReader.finish();
+            }
+            for (SamReader reader:readers) {
+                reader.close();
+            }
         }
         
         if (statsFilename != null) {
@@ -478,10 +440,6 @@ public class BamBest extends AbstractCommand {
             System.err.println("unmapped\t"+unmapped);
         }
         
-        for (SamReader reader:readers) {
-            reader.close();
-        }        
-
         for (SAMFileWriter writer: writers) {
             writer.close();
         }
@@ -508,7 +466,13 @@ public class BamBest extends AbstractCommand {
         return true;
     }
 
-    public OrderedTagValues extractTagValues(SAMRecord read) {
+    /**
+     * Returns the tag values for a read, or null if the read isn't mapped (see keepRead).
+     */
+    private int[] extractTagValues(SAMRecord read) {
+        if (!keepRead(read)) {
+            return null;
+        }
         int[] values = new int[tags.length];
         for (int i=0; i< tags.length; i++) {
             if (tags[i].name.equals("MAPQ")) {
@@ -522,9 +486,152 @@ public class BamBest extends AbstractCommand {
                 }
             }
         }
-        return new OrderedTagValues(tags, values);
+        return values;
     }
-    
+
+    /**
+     * Returns -1 if values is better than other (or other is null), 1 if other is better, 0 if tied.
+     */
+    private int compareTagValues(int[] values, int[] other) {
+        if (other == null) {
+            return -1;
+        }
+        if (other == values) {
+            return 0;
+        }
+        for (int i=0; i<tags.length; i++) {
+            if (values[i] != other[i]) {
+                if (tags[i].ascending) {
+                    return values[i] > other[i] ? -1 : 1;
+                } else {
+                    return values[i] > other[i] ? 1 : -1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private String tagValuesToString(int[] values) {
+        String s = "";
+        for (int i=0; i < tags.length; i++) {
+            if (i != 0) {
+                s += ",";
+            }
+            s += tags[i].name+":"+values[i];
+        }
+        return s;
+    }
+
+    /**
+     * All of the alignments for one read (from one input), with the tag values for each.
+     */
+    private static class ReadGroup {
+        public static final ReadGroup END = new ReadGroup(null, null, null);
+
+        public final String name;
+        public final List<SAMRecord> reads;
+        public final int[][] values;
+
+        private ReadGroup(String name, List<SAMRecord> reads, int[][] values) {
+            this.name = name;
+            this.reads = reads;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Reads one input, groups the alignments by read name, and extracts the tag values.
+     * Groups are passed to the main thread with a bounded queue.
+     */
+    private class GroupReader extends Thread {
+        private final Iterator<SAMRecord> it;
+        private final BlockingQueue<ReadGroup> queue = new ArrayBlockingQueue<ReadGroup>(QUEUE_SIZE);
+        private volatile Throwable error = null;
+        private volatile boolean done = false;
+
+        private GroupReader(Iterator<SAMRecord> it) {
+            this.it = it;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                String curName = null;
+                List<SAMRecord> curList = null;
+                while (it.hasNext() && !done) {
+                    SAMRecord read = it.next();
+                    if (curName != null && !read.getReadName().equals(curName)) {
+                        queue.put(buildGroup(curName, curList));
+                        curList = null;
+                    }
+                    if (curList == null) {
+                        curName = read.getReadName();
+                        curList = new ArrayList<SAMRecord>();
+                    }
+                    curList.add(read);
+                }
+                if (curList != null && !done) {
+                    queue.put(buildGroup(curName, curList));
+                }
+            } catch (InterruptedException e) {
+                // finish() was called
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                if (it instanceof CloseableIterator) {
+                    ((CloseableIterator<SAMRecord>) it).close();
+                }
+            }
+
+            // the main thread might have stopped reading, so don't block forever
+            try {
+                while (!done && !queue.offer(ReadGroup.END, 100, TimeUnit.MILLISECONDS)) {
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private ReadGroup buildGroup(String name, List<SAMRecord> reads) {
+            int[][] values = new int[reads.size()][];
+            for (int i=0; i<reads.size(); i++) {
+                values[i] = extractTagValues(reads.get(i));
+            }
+            return new ReadGroup(name, reads, values);
+        }
+
+        public ReadGroup take() throws IOException {
+            ReadGroup group;
+            try {
+                group = queue.take();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (group == ReadGroup.END && error != null) {
+                throw new IOException(error);
+            }
+            return group;
+        }
+
+        /**
+         * Stops reading (if this input wasn't finished) and waits for the thread to exit
+         */
+        public void finish() {
+            done = true;
+            interrupt();
+            // unblock the thread if it is waiting on a full queue
+            queue.clear();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     public boolean isListEmpty(List<?> items) {
         if (items == null) {
             return true;
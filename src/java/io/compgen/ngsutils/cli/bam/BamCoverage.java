@@ -15,15 +15,27 @@ import io.compgen.common.TallyCounts;
 import io.compgen.ngsutils.annotation.BedAnnotationSource;
 import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.bam.support.ReadUtils;
+import io.compgen.ngsutils.bed.BedReader;
 import io.compgen.ngsutils.bed.BedRecord;
+import io.compgen.ngsutils.pileup.BAMDepth;
+import io.compgen.ngsutils.pileup.BAMDepth.DepthHandler;
 import io.compgen.ngsutils.pileup.BAMPileup;
 import io.compgen.ngsutils.pileup.PileupRecord;
+import io.compgen.ngsutils.support.WeightedTallyCounts;
 
 @Command(name="bam-coverage", desc="Scans an aligned BAM file and calculates the number of reads covering each base", category="bam", experimental=true, 
-    doc = "Note: This will not properly count bases with zero coverage at the start/end \n"
-        + "of a chrom/reference. Those will be silently ignored. Zero coverage bases \n"
-        + "within a chromosome or BED region will be properly tallied. Zero coverage \n"
-        + "bases at the start/end of BED regions will also be properly tallied.\n")
+    doc = "Depth is calculated directly from the BAM file, and all bases within the \n"
+        + "BED regions, region, or genome (including zero coverage bases) are tallied.\n"
+        + "\n"
+        + "Depth is the number of base calls at each position. Reads with a reference \n"
+        + "skip (RNA splice junction) are counted unless --no-gaps is given. Reads with a \n"
+        + "deletion aren't counted. (This is different from bam-tobedgraph, which counts \n"
+        + "both, like the depth column from samtools mpileup.)\n"
+        + "\n"
+        + "Note: With --mpileup, this will not properly count bases with zero coverage \n"
+        + "at the start/end of a chrom/reference. Those will be silently ignored. Zero \n"
+        + "coverage bases within a chromosome or BED region will be properly tallied. \n"
+        + "Zero coverage bases at the start/end of BED regions will also be properly tallied.\n")
 public class BamCoverage extends AbstractOutputCommand {
     private String filename = null;
     private String bedFilename = null;
@@ -40,13 +52,19 @@ public class BamCoverage extends AbstractOutputCommand {
     
     private boolean paired = false;
     private boolean nogaps = false;
+    private boolean mpileup = false;
+
+    @Option(desc="Use samtools mpileup to calculate depth (default: read the BAM file directly)", name="mpileup")
+    public void setMpileup(boolean mpileup) {
+        this.mpileup = mpileup;
+    }
 
     @UnnamedArg(name = "FILE")
     public void setFilename(String filename) {
         this.filename = filename;
     }
 
-    @Option(desc="Max depth for pileup", name="max-depth", defaultValue="8000")
+    @Option(desc="Max depth for pileup (--mpileup only)", name="max-depth", defaultValue="8000")
     public void setMaxDepth(int maxDepth) {
         this.maxDepth = maxDepth;
     }
@@ -104,14 +122,19 @@ public class BamCoverage extends AbstractOutputCommand {
             throw new CommandArgumentException("You must specify an input BAM filename!");
         }
         
-        TallyCounts tally = new TallyCounts();
-        BAMPileup pileup = new BAMPileup(filename);
-        
         if (paired) {
             requiredFlags |= ReadUtils.PROPER_PAIR_FLAG | ReadUtils.READ_PAIRED_FLAG;
             filterFlags |= ReadUtils.READ_UNMAPPED_FLAG | ReadUtils.MATE_UNMAPPED_FLAG; 
         }
 
+        if (!mpileup) {
+            execNative();
+            return;
+        }
+
+        TallyCounts tally = new TallyCounts();
+        BAMPileup pileup = new BAMPileup(filename);
+
         pileup.setMinMappingQual(minMappingQual);
         pileup.setMinBaseQual(minBaseQual);
         pileup.setFlagFilter(filterFlags);
@@ -187,4 +210,49 @@ public class BamCoverage extends AbstractOutputCommand {
         }
         out.write(("Max\t"+tally.getMax()+"\n").getBytes());
     }
+
+    private void execNative() throws IOException {
+        final WeightedTallyCounts tally = new WeightedTallyCounts();
+
+        BAMDepth depth = new BAMDepth(filename);
+        depth.setMinMappingQual(minMappingQual);
+        depth.setMinBaseQual(minBaseQual);
+        depth.setFlagFilter(filterFlags);
+        depth.setFlagRequired(requiredFlags);
+        // same as the number of base calls from mpileup (--mpileup): reference skips are
+        // counted unless --no-gaps, but deletions aren't counted
+        depth.setCountGaps(!nogaps);
+        depth.setCountDeletions(false);
+
+        DepthHandler handler = new DepthHandler() {
+            @Override
+            public void depth(String ref, int start, int end, int count) {
+                tally.incr(count, end - start);
+            }};
+
+        if (bedFilename != null) {
+            for (BedRecord record: IterUtils.wrap(BedReader.readFile(bedFilename))) {
+                GenomeSpan span = record.getCoord();
+                if (verbose) {
+                    System.err.println(span);
+                }
+                depth.depth(new GenomeSpan(span.ref, span.start, span.end), handler);
+            }
+        } else if (region != null) {
+            depth.depth(region, handler);
+        } else {
+            depth.depth(handler);
+        }
+
+        if (all != null) {
+            FileOutputStream allOut = new FileOutputStream(all);
+            tally.write(allOut);
+            allOut.close();
+        }
+        out.write(("Min\t"+tally.getMin()+"\n").getBytes());
+        for (double pct: new double[]{0.05, 0.25, 0.5, 0.75, 0.95}) {
+            out.write((pct+"\t" + tally.getQuantile(pct)+"\n").getBytes());
+        }
+        out.write(("Max\t"+tally.getMax()+"\n").getBytes());
+    }
 }
@@ -1,5 +1,7 @@
 package io.compgen.ngsutils.cli.bam;
 
+import java.io.IOException;
+
 import htsjdk.samtools.util.CloseableIterator;
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -9,6 +11,8 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.TabWriter;
+import io.compgen.ngsutils.pileup.BAMDepth;
+import io.compgen.ngsutils.pileup.BAMDepth.DepthHandler;
 import io.compgen.ngsutils.pileup.BAMPileup;
 import io.compgen.ngsutils.pileup.PileupRecord;
 
@@ -29,6 +33,12 @@ public class BamExpressedRegions extends AbstractOutputCommand {
     private int minMapQ = 0;
 
     private boolean properPairs = false;
+    private boolean mpileup = false;
+
+    @Option(desc = "Use samtools mpileup to calculate depth (default: read the BAM file directly)", name = "mpileup")
+    public void setMpileup(boolean mpileup) {
+        this.mpileup = mpileup;
+    }
 
     @Option(desc = "Only count properly-paired reads", name = "paired")
     public void setProperPairs(boolean properPairs) {
@@ -74,7 +84,13 @@ public class BamExpressedRegions extends AbstractOutputCommand {
             throw new CommandArgumentException("You must specify a BAM file for input.");
         }
 
-        TabWriter writer = new TabWriter(out);
+        final TabWriter writer = new TabWriter(out);
+
+        if (!mpileup) {
+            execNative(writer);
+            writer.close();
+            return;
+        }
 
         BAMPileup pileup = new BAMPileup(bamFilename);
         pileup.setDisableBAQ(true);
@@ -144,4 +160,81 @@ public class BamExpressedRegions extends AbstractOutputCommand {
         writer.close();
     }
 
+    /**
+     * Threshold pass over depth runs -- same logic as the pileup version above, but per run of
+     * positions instead of per position.
+     */
+    private void execNative(final TabWriter writer) throws IOException {
+        BAMDepth depth = new BAMDepth(bamFilename);
+        depth.setFlagRequired(properPairs ? 0x2 : 0);
+        depth.setMinBaseQual(minBaseQual);
+        depth.setMinMappingQual(minMapQ);
+        // same as the mpileup depth column (reads with a deletion or RNA splice junction
+        // at a position are counted)
+        depth.setCountDeletions(true);
+        depth.setCountGaps(true);
+
+        RegionWriter regions = new RegionWriter(writer);
+        depth.depth(regions);
+        regions.close();
+    }
+
+    private class RegionWriter implements DepthHandler {
+        private final TabWriter writer;
+        private String curRef=null;
+        private int curStart = -1;
+        private int curEnd = -1;
+        private int peak = -1;
+        private int regionCount = 0;
+
+        public RegionWriter(TabWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void depth(String ref, int start, int end, int count) throws IOException {
+            if (curRef == null || !ref.equals(curRef)) {
+                if (curRef != null) {
+                    writeRegion();
+                }
+                if (verbose) {
+                    System.err.println(ref);
+                }
+                curRef = ref;
+                curStart = -1;
+                curEnd = -1;
+                peak = -1;
+            }
+
+            // mpileup doesn't report positions without any reads
+            if (count == 0 || count < minDepth) {
+                return;
+            }
+
+            if (curStart == -1 || curEnd + 1 + windowExtend < start) {
+                writeRegion();
+                curStart = start;
+                peak = count;
+            }
+
+            if (count > peak) {
+                peak = count;
+            }
+
+            curEnd = end - 1;
+        }
+
+        private void writeRegion() throws IOException {
+            if (curStart > -1 && curEnd - curStart > minSize) {
+                writer.write(curRef, ""+curStart, ""+curEnd, "region_"+(++regionCount),""+peak);
+                writer.eol();
+            }
+        }
+
+        public void close() throws IOException {
+            if (curRef != null) {
+                writeRegion();
+            }
+        }
+    }
 }
@@ -5,14 +5,19 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMFormatException;
 import htsjdk.samtools.SAMProgramRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -32,6 +37,7 @@ import io.compgen.ngsutils.bam.support.BamHeaderUtils;
 import io.compgen.ngsutils.bam.support.ReadUtils;
 import io.compgen.ngsutils.bed.BedReader;
 import io.compgen.ngsutils.bed.BedRecord;
+import io.compgen.ngsutils.support.FingerprintSet;
 import io.compgen.ngsutils.vcf.VCFParseException;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
@@ -65,7 +71,9 @@ public class BamExtract extends AbstractOutputCommand {
     private SamReader reader = null;
     private SamReader reader2 = null;
 
-    private Set<String> readsWritten = new HashSet<String>();
+    private FingerprintSet readsWritten = new FingerprintSet();
+    private List<Candidate> batch = new ArrayList<Candidate>();
+    private int mateBatchSize = 100000;
     private boolean unique = false;
 
     private int flanking = 0;
@@ -158,6 +166,14 @@ public class BamExtract extends AbstractOutputCommand {
         this.paired = paired;
     }
 
+    @Option(desc="Number of reads to find mates for at once (--paired)", name="mate-batch", defaultValue="100000")
+    public void setMateBatchSize(int mateBatchSize) throws CommandArgumentException {
+        if (mateBatchSize < 1) {
+            throw new CommandArgumentException("--mate-batch must be at least 1");
+        }
+        this.mateBatchSize = mateBatchSize;
+    }
+
     @Option(desc="Use lenient validation strategy", name="lenient")
     public void setLenient(boolean lenient) {
         this.lenient = lenient;
@@ -292,10 +308,12 @@ public class BamExtract extends AbstractOutputCommand {
         pgRecords.add(0, pg);
         header.setProgramRecords(pgRecords);
 
+        // mates and reads from more than one region aren't written in order, so these need to be sorted
+        boolean presorted = region != null && !paired;
         if (outfile != null) {
-            writer = factory.makeBAMWriter(header, true, outfile);
+            writer = factory.makeBAMWriter(header, presorted, outfile);
         } else {
-            writer = factory.makeBAMWriter(header, true, outStream);
+            writer = factory.makeBAMWriter(header, presorted, outStream);
         }
 
 
@@ -306,7 +324,7 @@ public class BamExtract extends AbstractOutputCommand {
         	Iterator<BedRecord> it = BedReader.readFile(bedFile);
         	while (it.hasNext()) {
         		BedRecord rec = it.next();
-            	extractReads(region.ref, region.start, region.end, rec.getCoord().strand);
+            	extractReads(rec.getCoord().ref, rec.getCoord().start, rec.getCoord().end, rec.getCoord().strand);
         	}
         } else if (vcfFile != null) {
         	VCFReader vcfReader = new VCFReader(vcfFile);
@@ -325,6 +343,10 @@ public class BamExtract extends AbstractOutputCommand {
         	vcfReader.close();
         }
 
+        if (paired) {
+        	writeBatch();
+        }
+
         writer.close();
         reader.close();
         if (reader2 != null) {
@@ -375,45 +397,8 @@ public class BamExtract extends AbstractOutputCommand {
         	// this is R1
     		if (!readsWritten.contains(read.getReadName())) {
         		if (paired) {
-                	SAMRecord mate = reader2.queryMate(read);
-                	if (mate != null) {
-
-                    	boolean passing = !spanning;
-                        if (spanning) {
-                        	if (read.getAlignmentStart() <= start && read.getAlignmentEnd() >= end) {
-                        		// split read
-                        		passing = true;
-                        	}
-                        	if (mate.getAlignmentStart() <= start && mate.getAlignmentEnd() >= end) {
-                        		// split read
-                        		passing = true;
-                        	}
-                        	
-                        	if (read.getReferenceName().equals(mate.getReferenceName())) {
-                        		if (read.getAlignmentStart() < mate.getAlignmentStart()) {
-                                	if (read.getAlignmentStart() <= start && mate.getAlignmentEnd() >= end) {
-                                		// split read
-                                		passing = true;
-                                	}
-                        		} else {
-                                	if (mate.getAlignmentStart() <= start && read.getAlignmentEnd() >= end) {
-                                		// split read
-                                		passing = true;
-                                	}
-                        		}
-                        	}
-                        }
-
-                        if (passing) {
-	                		readsWritten.add(read.getReadName());
-	                        writer.addAlignment(read);
-	                        writer.addAlignment(mate);
-                        }
-                	} else {
-                		if (verbose) {
-                        	System.err.println("Read missing pair (not written): " + read.getReadName());
-                		}
-                	}
+        			// mates are looked up in batches (see findMates)
+        			batch.add(new Candidate(read, start, end));
         		} else {
                 	boolean passing = !spanning;
                     if (spanning) {
@@ -431,6 +416,162 @@ public class BamExtract extends AbstractOutputCommand {
     		}
         }
         it.close();
+
+        if (batch.size() >= mateBatchSize) {
+        	writeBatch();
+        }
+    }
+
+    /**
+     * Writes the reads (and mates) for the current batch, in the order they were found.
+     */
+    protected void writeBatch() {
+    	Map<String, SAMRecord> mates = findMates();
+
+    	for (Candidate candidate: batch) {
+    		SAMRecord read = candidate.read;
+    		int start = candidate.start;
+    		int end = candidate.end;
+
+    		if (readsWritten.contains(read.getReadName())) {
+    			continue;
+    		}
+
+        	SAMRecord mate = mates.get(mateKey(read));
+        	if (mate != null) {
+
+            	boolean passing = !spanning;
+                if (spanning) {
+                	if (read.getAlignmentStart() <= start && read.getAlignmentEnd() >= end) {
+                		// split read
+                		passing = true;
+                	}
+                	if (mate.getAlignmentStart() <= start && mate.getAlignmentEnd() >= end) {
+                		// split read
+                		passing = true;
+                	}
+                	
+                	if (read.getReferenceName().equals(mate.getReferenceName())) {
+                		if (read.getAlignmentStart() < mate.getAlignmentStart()) {
+                        	if (read.getAlignmentStart() <= start && mate.getAlignmentEnd() >= end) {
+                        		// split read
+                        		passing = true;
+                        	}
+                		} else {
+                        	if (mate.getAlignmentStart() <= start && read.getAlignmentEnd() >= end) {
+                        		// split read
+                        		passing = true;
+                        	}
+                		}
+                	}
+                }
+
+                if (passing) {
+            		readsWritten.add(read.getReadName());
+                    writer.addAlignment(read);
+                    writer.addAlignment(mate);
+                }
+        	} else {
+        		if (verbose) {
+                	System.err.println("Read missing pair (not written): " + read.getReadName());
+        		}
+        	}
+    	}
+    	batch.clear();
+    }
+
+    /**
+     * Finds the mates for all reads in the batch. Instead of calling queryMate() for
+     * each read (one index lookup per mate), the mate positions are sorted and merged so
+     * that all of the mates can be read in one pass through the file.
+     *
+     * Mates are matched the same way as SamReader.queryMate(): same name, starts at
+     * the mate position, primary alignment, and the other read in the pair.
+     */
+    protected Map<String, SAMRecord> findMates() {
+    	Set<String> wanted = new HashSet<String>();
+    	List<QueryInterval> intervals = new ArrayList<QueryInterval>();
+    	boolean unmappedMates = false;
+
+    	for (Candidate candidate: batch) {
+    		SAMRecord read = candidate.read;
+    		if (!read.getReadPairedFlag() || read.getFirstOfPairFlag() == read.getSecondOfPairFlag()) {
+    			continue;
+    		}
+    		wanted.add(mateKey(read));
+    		if (read.getMateReferenceIndex() == -1) {
+    			unmappedMates = true;
+    		} else {
+    			intervals.add(new QueryInterval(read.getMateReferenceIndex(), read.getMateAlignmentStart(), read.getMateAlignmentStart()));
+    		}
+    	}
+
+    	Map<String, SAMRecord> mates = new HashMap<String, SAMRecord>();
+    	if (intervals.size() > 0) {
+    		QueryInterval[] query = intervals.toArray(new QueryInterval[intervals.size()]);
+    		Arrays.sort(query);
+    		SAMRecordIterator it = reader2.queryOverlapping(QueryInterval.optimizeIntervals(query));
+    		while (it.hasNext()) {
+    			addMate(it.next(), wanted, mates);
+    		}
+    		it.close();
+    	}
+    	if (unmappedMates) {
+    		SAMRecordIterator it = reader2.queryUnmapped();
+    		while (it.hasNext()) {
+    			addMate(it.next(), wanted, mates);
+    		}
+    		it.close();
+    	}
+    	return mates;
     }
 
+    private static void addMate(SAMRecord rec, Set<String> wanted, Map<String, SAMRecord> mates) {
+    	if (!rec.getReadPairedFlag() || rec.getNotPrimaryAlignmentFlag()) {
+    		return;
+    	}
+    	// this record can be the mate of a first read, second read, or both (if neither flag is set)
+    	if (!rec.getFirstOfPairFlag()) {
+    		addMate(rec, positionKey(rec) + "\t1", wanted, mates);
+    	}
+    	if (!rec.getSecondOfPairFlag()) {
+    		addMate(rec, positionKey(rec) + "\t2", wanted, mates);
+    	}
+    }
+
+    private static void addMate(SAMRecord rec, String key, Set<String> wanted, Map<String, SAMRecord> mates) {
+    	if (wanted.contains(key)) {
+    		if (mates.containsKey(key)) {
+    			throw new SAMFormatException("Multiple SAMRecord with read name " + rec.getReadName() + " for " + (key.endsWith("1") ? "second" : "first") + " end.");
+    		}
+    		mates.put(key, rec);
+    	}
+    }
+
+    /**
+     * name, position of the mate, and which read this is (1 or 2).
+     */
+    private static String mateKey(SAMRecord read) {
+    	int refIdx = read.getMateReferenceIndex();
+    	int pos = refIdx == -1 ? 0 : read.getMateAlignmentStart();
+    	return read.getReadName() + "\t" + refIdx + "\t" + pos + "\t" + (read.getFirstOfPairFlag() ? "1" : "2");
+    }
+
+    private static String positionKey(SAMRecord rec) {
+    	int refIdx = rec.getReferenceIndex();
+    	int pos = refIdx == -1 ? 0 : rec.getAlignmentStart();
+    	return rec.getReadName() + "\t" + refIdx + "\t" + pos;
+    }
+
+    private class Candidate {
+    	final SAMRecord read;
+    	final int start;
+    	final int end;
+
+    	Candidate(SAMRecord read, int start, int end) {
+    		this.read = read;
+    		this.start = start;
+    		this.end = end;
+    	}
+    }
 }
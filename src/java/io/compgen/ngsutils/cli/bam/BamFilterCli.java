@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
@@ -30,6 +31,7 @@ import io.compgen.cmdline.impl.AbstractCommand;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
 import io.compgen.common.progress.ProgressUtils;
+import io.compgen.ngsutils.annotation.BedAnnotationSource;
 import io.compgen.ngsutils.bam.Orientation;
 import io.compgen.ngsutils.bam.filter.BamFilter;
 import io.compgen.ngsutils.bam.filter.BedExclude;
@@ -38,6 +40,7 @@ import io.compgen.ngsutils.bam.filter.FilterFlags;
 import io.compgen.ngsutils.bam.filter.JunctionIncludeList;
 import io.compgen.ngsutils.bam.filter.NullFilter;
 import io.compgen.ngsutils.bam.filter.PairingSanityFilter;
+import io.compgen.ngsutils.bam.filter.ParallelBamFilter;
 import io.compgen.ngsutils.bam.filter.RefExclude;
 import io.compgen.ngsutils.bam.filter.RefInclude;
 import io.compgen.ngsutils.bam.filter.RequiredFlags;
@@ -73,6 +76,7 @@ public class BamFilterCli extends AbstractCommand {
 
     private String junctionIncludeList = null;
     private String includeList = null;
+    private boolean saveListIndex = false;
     private String failedFilename = null;
     private String excludeRefs = null;
     private String includeRefs = null;
@@ -98,6 +102,8 @@ public class BamFilterCli extends AbstractCommand {
 
     private Orientation orient = Orientation.UNSTRANDED;
 
+    private int threads = 1;
+
     @UnnamedArg(name = "INFILE OUTFILE")
     public void setFilename(List<String> filenames) throws CommandArgumentException {
         if (filenames.size() != 2) {
@@ -112,6 +118,14 @@ public class BamFilterCli extends AbstractCommand {
         this.tmpDir = tmpDir;
     }
 
+    @Option(desc = "Number of threads to use for filtering (not used with --pair-keep/--pair-remove)", name = "threads", defaultValue = "1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @Option(desc = "Force sanity checking of read pairing (simple - same chromosome, reversed orientation)", name = "sane-pairs")
     public void setPairRef(boolean val) {
         pairRef = val;
@@ -137,6 +151,11 @@ public class BamFilterCli extends AbstractCommand {
         this.includeList = includeList;
     }
 
+    @Option(desc = "Save an index of the --include list (fname.fpset) so that it loads faster next time", name = "save-list-index")
+    public void setSaveListIndex(boolean saveListIndex) {
+        this.saveListIndex = saveListIndex;
+    }
+
     @Option(desc = "Write failed reads to this file (BAM)", name = "failed", helpValue = "fname")
     public void setFailedFilename(String failedFilename) {
         this.failedFilename = failedFilename;
@@ -378,18 +397,43 @@ public class BamFilterCli extends AbstractCommand {
             readerFactory.validationStringency(ValidationStringency.SILENT);
         }
 
+        BedAnnotationSource bedInclude = null;
+        if (bedIncludeFile != null) {
+            bedInclude = new BedAnnotationSource(bedIncludeFile);
+        }
+
         SamReader reader = null;
         String name;
         FileChannel channel = null;
+        QueryInterval[] queryIntervals = null;
         if (filenames.get(0).equals("-")) {
             reader = readerFactory.open(SamInputResource.of(System.in));
             name = "<stdin>";
         } else {
             final File f = new File(filenames.get(0));
-            final FileInputStream fis = new FileInputStream(f);
-            channel = fis.getChannel();
-            reader = readerFactory.open(SamInputResource.of(fis));
             name = f.getName();
+
+            // If we are only keeping reads in BED regions, and the BAM file is indexed, then
+            // only read the parts of the file that overlap the BED regions. (If we need to write
+            // the failed reads, we still need to read everything.)
+            if (bedInclude != null && !bedIncludeOnlyWithin && failedFilename == null) {
+                final SamReader indexed = readerFactory.open(f);
+                if (indexed.hasIndex() && indexed.getFileHeader().getSortOrder() == SortOrder.coordinate) {
+                    reader = indexed;
+                    queryIntervals = BedInclude.getQueryIntervals(bedInclude, reader.getFileHeader().getSequenceDictionary());
+                    if (verbose) {
+                        System.err.println("BEDInclude: querying " + queryIntervals.length + " regions from BAM index");
+                    }
+                } else {
+                    indexed.close();
+                }
+            }
+
+            if (reader == null) {
+                final FileInputStream fis = new FileInputStream(f);
+                channel = fis.getChannel();
+                reader = readerFactory.open(SamInputResource.of(fis));
+            }
         }
 
         if ((pairKeep || pairRemove)
@@ -399,6 +443,10 @@ public class BamFilterCli extends AbstractCommand {
         }
 
         final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        if (threads > 1) {
+            // compress the output on a separate thread
+            factory.setUseAsyncIo(true);
+        }
 
         final String outFilename = filenames.get(1);
         File outfile = null;
@@ -440,7 +488,9 @@ public class BamFilterCli extends AbstractCommand {
         }
 
         BamFilter parent;
-        if (channel == null) {
+        if (queryIntervals != null) {
+            parent = new NullFilter(reader.query(queryIntervals, false), failedWriter);
+        } else if (channel == null) {
             parent = new NullFilter(reader.iterator(), failedWriter);
 
         } else {
@@ -488,7 +538,7 @@ public class BamFilterCli extends AbstractCommand {
             }
         }
         if (bedIncludeFile != null) {
-            parent = new BedInclude(parent, false, bedIncludeFile, orient);
+            parent = new BedInclude(parent, false, bedInclude, orient);
             ((BedInclude) parent).setOnlyWithin(bedIncludeOnlyWithin);
             // ((BedInclude)parent).setRequireOnePair(bedIncludeRequireOne);
             // ((BedInclude)parent).setRequireBothPairs(bedIncludeRequireBoth);
@@ -527,7 +577,7 @@ public class BamFilterCli extends AbstractCommand {
         }
 
         if (includeList != null) {
-            parent = new IncludeList(parent, false, includeList);
+            parent = new IncludeList(parent, false, includeList, saveListIndex);
             if (verbose) {
                 System.err.println("IncludeList: " + includeList);
             }
@@ -597,7 +647,15 @@ public class BamFilterCli extends AbstractCommand {
             parent.setPairedRemove();
         }
 
-        for (final SAMRecord read : parent) {
+        BamFilter filter = parent;
+        if (threads > 1 && ParallelBamFilter.isSupported(parent)) {
+            if (verbose) {
+                System.err.println("Filtering with " + threads + " threads");
+            }
+            filter = new ParallelBamFilter(parent, threads);
+        }
+
+        for (final SAMRecord read : filter) {
             if (read != null) {
                 out.addAlignment(read);
             }
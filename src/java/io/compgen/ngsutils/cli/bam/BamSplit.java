@@ -4,11 +4,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -16,6 +27,7 @@ import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMProgramRecord;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
@@ -35,12 +47,15 @@ import io.compgen.ngsutils.support.CloseableFinalizer;
 
 @Command(name="bam-split", desc="Split a BAM file into smaller files", category="bam")
 public class BamSplit extends AbstractCommand {
+    private static final int CHUNK_QUEUE_SIZE = 10000;
+
     private String filename = null;
     private boolean lenient = false;
     private boolean silent = false;
     private boolean byRef = false;
     private boolean unmapped = false;
     private int readCount = -1;
+    private int threads = 1;
     private String outTemplate = null;
 
     @UnnamedArg(name = "FILE")
@@ -68,6 +83,14 @@ public class BamSplit extends AbstractCommand {
         this.outTemplate = outTemplate;
     }
 
+    @Option(desc = "Number of threads to use (--by-ref requires an indexed, coordinate-sorted BAM file)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @Option(desc = "Use lenient validation strategy", name="lenient")
     public void setLenient(boolean lenient) {
         this.lenient = lenient;
@@ -98,6 +121,14 @@ public class BamSplit extends AbstractCommand {
             readerFactory.validationStringency(ValidationStringency.SILENT);
         }
 
+        if (byRef && threads > 1) {
+            if (filename.equals("-")) {
+                throw new CommandArgumentException("Splitting by reference with more than one thread requires an indexed BAM file (not stdin)!");
+            }
+            splitByRefParallel(readerFactory);
+            return;
+        }
+
         SamReader reader = null;
         String name;
         FileChannel channel = null;
@@ -128,7 +159,8 @@ public class BamSplit extends AbstractCommand {
         pgRecords.add(0, pg);
         header.setProgramRecords(pgRecords);
 
-        SAMFileWriter out = null;
+        ChunkWriters chunkWriters = new ChunkWriters(factory, header, threads);
+        ChunkWriter out = null;
         String lastRef = null;
         int curPos = -1;
         
@@ -145,62 +177,333 @@ public class BamSplit extends AbstractCommand {
             }
         }
 
-        
-        while (it.hasNext()) {
-            SAMRecord read = it.next();
-            if (read.getReadUnmappedFlag() && !unmapped) {
-                continue;
-            }
-            
-            if (byRef) {
-                String ref = read.getReferenceName();
-                if (ref == null || read.getReadUnmappedFlag()) {
-                    ref = "UNMAPPED";                    
+        try {
+            while (it.hasNext()) {
+                SAMRecord read = it.next();
+                if (read.getReadUnmappedFlag() && !unmapped) {
+                    continue;
                 }
-                refWriters.get(ref).addAlignment(read);
-                if (header.getSortOrder() == SortOrder.coordinate) {
-                    if (lastRef != null && !ref.equals(lastRef)) {
-                        refWriters.get(lastRef).close();
-                        refWriters.remove(lastRef);
+
+                if (byRef) {
+                    String ref = read.getReferenceName();
+                    if (ref == null || read.getReadUnmappedFlag()) {
+                        ref = "UNMAPPED";                    
                     }
-                    lastRef = read.getReferenceName();
-                }
-            } else {
-                if (out == null) {
-                    chunk++;
-                    i = 0;
-                    out = factory.makeBAMWriter(header, true, new File(outTemplate+"."+chunk+".bam"));
-                } else if (header.getSortOrder() == SortOrder.coordinate) {
-                    // If the BAM file is sorted, keep all reads that start at the same position together...
-                    if (!lastRef.equals(read.getReferenceName()) || (i >= readCount && read.getAlignmentStart() != curPos)) {
-                        out.close();
-                        chunk++;
-                        i = 0;
-                        out = factory.makeBAMWriter(header, true, new File(outTemplate+"."+chunk+".bam"));
+                    refWriters.get(ref).addAlignment(read);
+                    if (header.getSortOrder() == SortOrder.coordinate && !ref.equals("UNMAPPED")) {
+                        // unmapped reads can be placed anywhere, so that writer stays open until the end
+                        if (lastRef != null && !ref.equals(lastRef)) {
+                            refWriters.get(lastRef).close();
+                            refWriters.remove(lastRef);
+                        }
+                        lastRef = ref;
                     }
                 } else {
-                    // If the BAM file isn't sorted, just make it a firm split.
-                    if (i >= readCount) {
-                        out.close();
+                    if (out == null) {
                         chunk++;
                         i = 0;
-                        out = factory.makeBAMWriter(header, true, new File(outTemplate+"."+chunk+".bam"));
+                        out = chunkWriters.open(new File(outTemplate+"."+chunk+".bam"));
+                    } else if (header.getSortOrder() == SortOrder.coordinate) {
+                        // If the BAM file is sorted, keep all reads that start at the same position together...
+                        if (!lastRef.equals(read.getReferenceName()) || (i >= readCount && read.getAlignmentStart() != curPos)) {
+                            out.close();
+                            chunk++;
+                            i = 0;
+                            out = chunkWriters.open(new File(outTemplate+"."+chunk+".bam"));
+                        }
+                    } else {
+                        // If the BAM file isn't sorted, just make it a firm split.
+                        if (i >= readCount) {
+                            out.close();
+                            chunk++;
+                            i = 0;
+                            out = chunkWriters.open(new File(outTemplate+"."+chunk+".bam"));
+                        }
                     }
+                    i++;
+                    out.addAlignment(read);
+                    curPos = read.getAlignmentStart();
+                    lastRef = read.getReferenceName();
                 }
-                i++;
-                out.addAlignment(read);
-                curPos = read.getAlignmentStart();
-                lastRef = read.getReferenceName();
             }
+
+            for (String ref: refWriters.keySet()) {
+                refWriters.get(ref).close();
+            }
+
+            if (out != null) {
+                out.close();
+            }
+            chunkWriters.finish();
+        } catch (IOException | RuntimeException e) {
+            // stop any chunk writers that are still waiting for reads
+            chunkWriters.abort();
+            throw e;
         }
-        
-        for (String ref: refWriters.keySet()) {
-            refWriters.get(ref).close();
+        reader.close();
+    }
+
+    /**
+     * Each reference is written by a separate task, using an index query and its own
+     * writer. Each worker thread opens the BAM file (and loads the index) once, and reuses
+     * that reader for each of its references. Unmapped reads that are placed on a reference are written to a temporary
+     * file by that reference's task, and are added to the UNMAPPED file (in reference order)
+     * before the unplaced unmapped reads.
+     */
+    private void splitByRefParallel(final SamReaderFactory readerFactory) throws IOException {
+        final File bamFile = new File(filename);
+        SamReader reader = readerFactory.open(bamFile);
+        if (!reader.hasIndex()) {
+            reader.close();
+            throw new IOException("Splitting by reference with more than one thread requires an indexed BAM file!");
         }
-        
-        if (out != null) {
-            out.close();
+        if (reader.getFileHeader().getSortOrder() != SortOrder.coordinate) {
+            reader.close();
+            throw new IOException("Splitting by reference with more than one thread requires a coordinate-sorted BAM file!");
         }
+
+        final SAMFileHeader header = reader.getFileHeader().clone();
         reader.close();
+
+        SAMProgramRecord pg = BamHeaderUtils.buildSAMProgramRecord("bam-split", header);
+        List<SAMProgramRecord> pgRecords = new ArrayList<SAMProgramRecord>(header.getProgramRecords());
+        pgRecords.add(0, pg);
+        header.setProgramRecords(pgRecords);
+
+        final List<SamReader> readers = Collections.synchronizedList(new ArrayList<SamReader>());
+        final ThreadLocal<SamReader> threadReader = new ThreadLocal<SamReader>() {
+            @Override
+            protected SamReader initialValue() {
+                SamReader reader = readerFactory.open(bamFile);
+                readers.add(reader);
+                return reader;
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+
+        for (final SAMSequenceRecord ref: header.getSequenceDictionary().getSequences()) {
+            futures.add(pool.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    SAMFileWriterFactory factory = new SAMFileWriterFactory();
+                    SAMFileWriter writer = factory.makeBAMWriter(header.clone(), true, new File(outTemplate+"."+ref.getSequenceName()+".bam"));
+
+                    File tmp = null;
+                    SAMFileWriter unmappedWriter = null;
+
+                    // only one iterator can be open for a reader, so this is closed before the next query
+                    SAMRecordIterator it = threadReader.get().query(ref.getSequenceName(), 0, 0, false);
+                    try {
+                        while (it.hasNext()) {
+                            SAMRecord read = it.next();
+                            if (read.getReadUnmappedFlag()) {
+                                if (unmapped) {
+                                    if (unmappedWriter == null) {
+                                        tmp = Files.createTempFile(new File(outTemplate).getAbsoluteFile().getParentFile().toPath(), ".bam-split-", ".bam").toFile();
+                                        tmp.deleteOnExit();
+                                        unmappedWriter = factory.makeBAMWriter(header.clone(), true, tmp);
+                                    }
+                                    unmappedWriter.addAlignment(read);
+                                }
+                                continue;
+                            }
+                            writer.addAlignment(read);
+                        }
+                    } finally {
+                        it.close();
+                    }
+
+                    writer.close();
+                    if (unmappedWriter != null) {
+                        unmappedWriter.close();
+                    }
+                    if (verbose) {
+                        System.err.println("Finished: " + ref.getSequenceName());
+                    }
+                    return tmp;
+                }}));
+        }
+
+        pool.shutdown();
+
+        List<File> placedUnmapped = new ArrayList<File>();
+        try {
+            for (Future<File> future: futures) {
+                File tmp = future.get();
+                if (tmp != null) {
+                    placedUnmapped.add(tmp);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            pool.shutdownNow();
+            throw new IOException(e);
+        } finally {
+            synchronized (readers) {
+                for (SamReader r: readers) {
+                    r.close();
+                }
+            }
+        }
+
+        if (unmapped) {
+            SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, new File(outTemplate+"."+"UNMAPPED"+".bam"));
+            for (File tmp: placedUnmapped) {
+                SamReader tmpReader = readerFactory.open(tmp);
+                for (SAMRecord read: tmpReader) {
+                    writer.addAlignment(read);
+                }
+                tmpReader.close();
+                tmp.delete();
+            }
+
+            SamReader reader2 = readerFactory.open(bamFile);
+            SAMRecordIterator it = reader2.queryUnmapped();
+            while (it.hasNext()) {
+                writer.addAlignment(it.next());
+            }
+            it.close();
+            reader2.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes each chunk on a separate thread (BAM compression is the slow part), so that
+     * up to {threads} chunks are written at once. Reads are passed to the writing thread
+     * with a bounded queue, so the reading thread will wait if the writers are behind.
+     */
+    private class ChunkWriters {
+        private final SAMFileWriterFactory factory;
+        private final SAMFileHeader header;
+        private final ExecutorService pool;
+        private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        public ChunkWriters(SAMFileWriterFactory factory, SAMFileHeader header, int threads) {
+            this.factory = factory;
+            this.header = header;
+            if (threads > 1) {
+                pool = Executors.newFixedThreadPool(threads);
+            } else {
+                pool = null;
+            }
+        }
+
+        public ChunkWriter open(File file) throws IOException {
+            if (pool == null) {
+                return new ChunkWriter(factory.makeBAMWriter(header, true, file));
+            }
+            ChunkWriter writer = new ChunkWriter(factory.makeBAMWriter(header.clone(), true, file), new ArrayBlockingQueue<SAMRecord>(CHUNK_QUEUE_SIZE));
+            writer.future = pool.submit(writer);
+            futures.add(writer.future);
+            checkErrors();
+            return writer;
+        }
+
+        private void checkErrors() throws IOException {
+            // stop early if any chunk failed
+            for (Future<Void> future: futures) {
+                if (future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        pool.shutdownNow();
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+
+        public void abort() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        public void finish() throws IOException {
+            if (pool == null) {
+                return;
+            }
+            pool.shutdown();
+            try {
+                for (Future<Void> future: futures) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                pool.shutdownNow();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class ChunkWriter implements Callable<Void> {
+        private static final SAMRecord END = new SAMRecord(null);
+
+        // how long to wait for space in the queue before checking that the writer is still running
+        private static final long QUEUE_WAIT_MS = 500;
+
+        private final SAMFileWriter writer;
+        private final BlockingQueue<SAMRecord> queue;
+        private Future<Void> future = null;
+
+        public ChunkWriter(SAMFileWriter writer) {
+            this(writer, null);
+        }
+
+        public ChunkWriter(SAMFileWriter writer, BlockingQueue<SAMRecord> queue) {
+            this.writer = writer;
+            this.queue = queue;
+        }
+
+        public void addAlignment(SAMRecord read) throws IOException {
+            if (queue == null) {
+                writer.addAlignment(read);
+                return;
+            }
+            put(read);
+        }
+
+        public void close() throws IOException {
+            if (queue == null) {
+                writer.close();
+                return;
+            }
+            put(END);
+        }
+
+        /**
+         * Adds a read to the queue. If the writer fails, it stops reading from the queue, so
+         * instead of blocking forever, the error from the writer is thrown.
+         */
+        private void put(SAMRecord read) throws IOException {
+            try {
+                while (!queue.offer(read, QUEUE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    if (future != null && future.isDone()) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            throw new IOException("Error writing chunk: " + e.getCause().getMessage(), e.getCause());
+                        } catch (CancellationException e) {
+                            throw new IOException("Chunk writer was cancelled");
+                        }
+                        throw new IOException("Chunk writer stopped early");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Void call() throws Exception {
+            SAMRecord read = queue.take();
+            while (read != END) {
+                writer.addAlignment(read);
+                read = queue.take();
+            }
+            writer.close();
+            return null;
+        }
     }
 }
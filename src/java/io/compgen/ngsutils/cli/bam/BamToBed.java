@@ -4,9 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
 
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamInputResource;
@@ -19,14 +17,13 @@ import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
-import io.compgen.common.StringLineReader;
-import io.compgen.common.StringUtils;
 import io.compgen.common.TabWriter;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
 import io.compgen.common.progress.ProgressUtils;
 import io.compgen.ngsutils.NGSUtils;
 import io.compgen.ngsutils.support.CloseableFinalizer;
+import io.compgen.ngsutils.support.ReadNameSet;
 
 @Command(name="bam-tobed", desc="Writes read positions to a BED6 file", category="bam", experimental=true, 
 doc="The mapped position of a read is writen to a 6 column BED file.\n" 
@@ -72,12 +69,9 @@ public class BamToBed extends AbstractOutputCommand {
             throw new CommandArgumentException("You must specify an input BAM filename!");
         }
 
-        Set<String> includeReadNames = null;
+        ReadNameSet includeReadNames = null;
         if (includeList != null) {
-            includeReadNames = new HashSet<String>();
-            for (String s: new StringLineReader(includeList)) {
-                includeReadNames.add(StringUtils.strip(s));
-            }
+            includeReadNames = ReadNameSet.load(includeList, false);
         }
 
         SamReaderFactory readerFactory = SamReaderFactory.makeDefault();
@@ -20,6 +20,10 @@ import io.compgen.common.StringLineReader;
 import io.compgen.common.StringUtils;
 import io.compgen.common.TabWriter;
 import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bed.BedReader;
+import io.compgen.ngsutils.bed.BedRecord;
+import io.compgen.ngsutils.pileup.BAMDepth;
+import io.compgen.ngsutils.pileup.BAMDepth.DepthHandler;
 import io.compgen.ngsutils.pileup.BAMPileup;
 import io.compgen.ngsutils.pileup.PileupRecord;
 
@@ -39,13 +43,19 @@ public class BamToBedGraph extends AbstractOutputCommand {
 	private int minMapQ = 0;
 
    private boolean properPairs = false;
+   private boolean mpileup = false;
+
+   @Option(desc="Use samtools mpileup to calculate depth (default: read the BAM file directly)", name="mpileup")
+   public void setMpileup(boolean mpileup) {
+       this.mpileup = mpileup;
+   }
 
    @Option(desc="Only count properly-paired reads", name="paired")
    public void setProperPairs(boolean properPairs) {
        this.properPairs = properPairs;
    }
    
-   @Option(desc="Maximum depth for samtools mpileup (default: use samtools default)", name="max-depth", defaultValue="-1")
+   @Option(desc="Maximum depth for samtools mpileup (--mpileup only, default: use samtools default)", name="max-depth", defaultValue="-1")
    public void setMaxDepth(int maxDepth) {
        this.maxDepth = maxDepth;
    }
@@ -91,6 +101,13 @@ public class BamToBedGraph extends AbstractOutputCommand {
 
         SamReader bam = SamReaderFactory.makeDefault().open(new File(bamFilename));
         final SAMFileHeader header = bam.getFileHeader();
+        bam.close();
+
+        if (!mpileup) {
+            execNative(header, writer);
+            writer.close();
+            return;
+        }
         
         BAMPileup pileup = new BAMPileup(bamFilename);
         pileup.setDisableBAQ(true);
@@ -150,6 +167,47 @@ public class BamToBedGraph extends AbstractOutputCommand {
 		writer.close();
 	}
 
+    private void execNative(SAMFileHeader header, final TabWriter writer) throws IOException {
+        BAMDepth depth = new BAMDepth(bamFilename);
+        depth.setFlagRequired(properPairs ? 0x2:0);
+        depth.setMinBaseQual(minBaseQual);
+        depth.setMinMappingQual(minMapQ);
+        // same as the mpileup depth column (reads with a deletion or RNA splice junction
+        // at a position are counted)
+        depth.setCountDeletions(true);
+        depth.setCountGaps(true);
+
+        DepthHandler handler = new DepthHandler() {
+            @Override
+            public void depth(String ref, int start, int end, int count) throws IOException {
+                if (count > 0) {
+                    writeLine(writer, ref, start, end, count);
+                }
+            }};
+
+        if (region != null) {
+            depth.depth(GenomeSpan.parse(region), handler);
+        } else if (bedFilename != null) {
+            Set<String> chromMissingError = new HashSet<String>();
+            for (BedRecord record: IterUtils.wrap(BedReader.readFile(bedFilename))) {
+                GenomeSpan span = record.getCoord();
+                if (header.getSequence(span.ref) == null) {
+                    if (!chromMissingError.contains(span.ref)) {
+                        System.err.println("BAM file missing reference: " + span.ref);
+                        chromMissingError.add(span.ref);
+                    }
+                    continue;
+                }
+                if (verbose) {
+                    System.err.println(record.getName()+" "+span);
+                }
+                depth.depth(new GenomeSpan(span.ref, span.start, span.end), handler);
+            }
+        } else {
+            depth.depth(handler);
+        }
+    }
+
     private void writePileupRecords(CloseableIterator<PileupRecord> it, SAMFileHeader header, TabWriter writer) throws IOException {
         String lastChrom = null;
         int curStart = -1;
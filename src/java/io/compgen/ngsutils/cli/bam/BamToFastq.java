@@ -48,6 +48,10 @@ public class BamToFastq extends AbstractCommand {
     
     private boolean lenient = false;
     private boolean silent = false;
+    
+    private int maxUnpaired = -1;
+    private String tmpDir = null;
+    private int threads = 1;
 
     @UnnamedArg(name = "INFILE")
     public void setFilename(String filename) {
@@ -124,6 +128,24 @@ public class BamToFastq extends AbstractCommand {
         this.silent = silent;
     }
    
+    @Option(desc="Maximum number of unpaired reads to keep in memory (per thread). Past this, reads are paired using temporary files (output order will change)", name="max-unpaired", helpValue="N")
+    public void setMaxUnpaired(int maxUnpaired) {
+        this.maxUnpaired = maxUnpaired;
+    }
+
+    @Option(desc="Write temporary files here", name="tmpdir", helpValue="dir")
+    public void setTmpDir(String tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    @Option(desc="Number of threads to use for pairing reads from temporary files", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @Option(desc="Include comments tag from BAM file", name="comments")
     public void setComments(boolean val) {
         this.comments = val;
@@ -188,6 +210,11 @@ public class BamToFastq extends AbstractCommand {
         bfq.setComments(comments);
         bfq.setIncludeUnmapped(unmapped);
         bfq.setIncludeMapped(mapped);
+        bfq.setMaxUnpaired(maxUnpaired);
+        bfq.setThreads(threads);
+        if (tmpDir != null) {
+            bfq.setTmpDir(new File(tmpDir));
+        }
         if (!readNameSorted) {
             bfq.setDeduplicate(mapped); // if we only have mapped reads, we need to deduplicate
         } else {
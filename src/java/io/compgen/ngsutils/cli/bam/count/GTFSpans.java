@@ -21,7 +21,7 @@ public class GTFSpans  implements SpanSource {
         if (TTY.isattyStdErr()) {
             System.err.print("Loading GTF annotation: "+filename+"... ");
         }
-        gtf = new GTFAnnotationSource(filename);
+        gtf = GTFAnnotationSource.load(filename);
         if (TTY.isattyStdErr()) {
             System.err.println("done");
         }
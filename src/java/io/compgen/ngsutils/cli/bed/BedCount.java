@@ -1,6 +1,11 @@
 package io.compgen.ngsutils.cli.bed;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -24,6 +29,7 @@ public class BedCount extends AbstractOutputCommand {
     private String queryFilename = null;
     
     private boolean ignoreStrand = false;
+    private boolean sorted = false;
     
     @UnnamedArg(name = "REF QUERY")
     public void setFilenames(String[] filenames) throws CommandArgumentException {
@@ -39,12 +45,22 @@ public class BedCount extends AbstractOutputCommand {
         this.ignoreStrand = val;
     }
 
+    @Option(name="sorted", desc="Inputs are sorted by position (same chromosome order); stream both files instead of loading the reference regions")
+    public void setSorted(boolean val) {
+        this.sorted = val;
+    }
+
     @Exec
     public void exec() throws IOException, CommandArgumentException {
         if (refFilename == null || queryFilename == null) {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
 
+        if (sorted) {
+            execSorted();
+            return;
+        }
+
         BedCountAnnotationSource ann = new BedCountAnnotationSource(refFilename);
         
         for (BedRecord record: IterUtils.wrap(BedReader.readFile(queryFilename))) {
@@ -61,4 +77,78 @@ public class BedCount extends AbstractOutputCommand {
             ga.getValue().write(out);
         }
     }
+
+    /**
+     * Sweep over both sorted files. Reference regions are added to the window as queries
+     * reach them, and written (in input order) once no later query can overlap them.
+     */
+    private void execSorted() throws IOException, CommandArgumentException {
+        if (refFilename.equals("-")) {
+            throw new CommandArgumentException("The reference BED file can not be read from stdin with --sorted");
+        }
+        // the reference is read twice -- once to find the chromosome order
+        Set<String> refNames = new HashSet<String>(BedReader.readRefNames(refFilename));
+        Iterator<BedRecord> refIt = BedReader.readFile(refFilename);
+        BedRecord nextRef = refIt.hasNext() ? refIt.next() : null;
+        Deque<BedRecordCount> window = new ArrayDeque<BedRecordCount>();
+        Set<String> finishedRefs = new HashSet<String>();
+        GenomeSpan last = null;
+
+        for (BedRecord record: IterUtils.wrap(BedReader.readFile(queryFilename))) {
+            GenomeSpan coord = record.getCoord();
+            if (ignoreStrand) {
+                coord = coord.clone(Strand.NONE);
+            }
+
+            if (last != null && last.ref.equals(coord.ref) && coord.start < last.start) {
+                throw new IOException("Query BED file is not sorted: " + coord + " found after " + last);
+            }
+
+            if (last == null || !last.ref.equals(coord.ref)) {
+                if (last != null) {
+                    finishedRefs.add(last.ref);
+                }
+                if (finishedRefs.contains(coord.ref)) {
+                    throw new IOException("Query BED file is not sorted: " + coord.ref + " found in more than one block");
+                }
+                while (!window.isEmpty()) {
+                    window.poll().write(out);
+                }
+                if (refNames.contains(coord.ref)) {
+                    // write out any regions before this chromosome
+                    while (nextRef != null && !nextRef.getCoord().ref.equals(coord.ref)) {
+                        new BedRecordCount(nextRef).write(out);
+                        nextRef = refIt.hasNext() ? refIt.next() : null;
+                    }
+                    if (nextRef == null) {
+                        throw new IOException("Chromosome order differs between the query and reference BED files: " + coord.ref);
+                    }
+                }
+            }
+            last = coord;
+
+            while (nextRef != null && nextRef.getCoord().ref.equals(coord.ref) && nextRef.getCoord().start <= coord.end) {
+                window.add(new BedRecordCount(nextRef));
+                nextRef = refIt.hasNext() ? refIt.next() : null;
+            }
+
+            while (!window.isEmpty() && window.peek().getCoord().end < coord.start) {
+                window.poll().write(out);
+            }
+
+            for (BedRecordCount rec: window) {
+                if (rec.getCoord().overlaps(coord)) {
+                    rec.incr();
+                }
+            }
+        }
+
+        while (!window.isEmpty()) {
+            window.poll().write(out);
+        }
+        while (nextRef != null) {
+            new BedRecordCount(nextRef).write(out);
+            nextRef = refIt.hasNext() ? refIt.next() : null;
+        }
+    }
 }
@@ -16,6 +16,7 @@ import io.compgen.ngsutils.annotation.BadReferenceException;
 import io.compgen.ngsutils.annotation.BedAnnotationSource;
 import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.bam.Strand;
+import io.compgen.ngsutils.bed.BedNearestFinder;
 import io.compgen.ngsutils.bed.BedReader;
 import io.compgen.ngsutils.bed.BedRecord;
 
@@ -25,10 +26,12 @@ public class BedNearest extends AbstractOutputCommand {
     private String refFilename = null;
     private String queryFilename = null;
     
-    private int extendUp = 0;
-    private int extendDown = 0;
+    // -1 means no value was given (no extension, unless --sorted is used)
+    private int extendUp = -1;
+    private int extendDown = -1;
 
     private boolean ignoreStrand = false;
+    private boolean sorted = false;
     
     @UnnamedArg(name = "REF QUERY")
     public void setFilenames(String[] filenames) throws CommandArgumentException {
@@ -44,6 +47,11 @@ public class BedNearest extends AbstractOutputCommand {
         this.ignoreStrand = val;
     }
 
+    @Option(name="sorted", desc="Inputs are coordinate-sorted (same chromosome order); stream both files, and find the nearest region at any distance unless --up/--down are given")
+    public void setSorted(boolean val) {
+        this.sorted = val;
+    }
+
     @Option(name="up", desc="Allow at most this distance upstream of a reference region (strand-specific)")
     public void setExtendUp(int extendUp) throws CommandArgumentException {
         if (extendUp < 0) {
@@ -66,6 +74,18 @@ public class BedNearest extends AbstractOutputCommand {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
 
+        if (sorted) {
+            execSorted();
+            return;
+        }
+
+        if (extendUp < 0) {
+            extendUp = 0;
+        }
+        if (extendDown < 0) {
+            extendDown = 0;
+        }
+
         BedAnnotationSource ann = new BedAnnotationSource(refFilename);
         int extend = Math.max(extendUp, extendDown);
         
@@ -75,7 +95,8 @@ public class BedNearest extends AbstractOutputCommand {
                 coord = coord.clone(Strand.NONE);
             }
             
-            GenomeSpan queryCoord = new GenomeSpan(coord.ref, coord.start - extend, coord.end + extend, coord.strand);
+            // +1, so that regions exactly at the limit are found (findAnnotation() looks for overlaps)
+            GenomeSpan queryCoord = new GenomeSpan(coord.ref, Math.max(0, coord.start - extend - 1), coord.end + extend + 1, coord.strand);
             BedRecord  best = null;
             int bestDist = 0;
             
@@ -115,34 +136,49 @@ public class BedNearest extends AbstractOutputCommand {
                 }
             }
             
-            List<String> cols = new ArrayList<String>();
-            cols.add(record.getCoord().ref);
-            cols.add(""+record.getCoord().start);
-            cols.add(""+record.getCoord().end);
-            cols.add(""+record.getName());
-            cols.add(""+record.getScore());
-            cols.add(record.getCoord().strand.toString());
-            if (best != null) {
-                cols.add(best.getName());
-                if (best.getCoord().strand == Strand.PLUS || best.getCoord().strand == Strand.NONE) {
-                    try {
-                        cols.add(""+best.getCoord().distanceTo(coord));
-                    } catch (BadReferenceException e) {
-                    }
-                    cols.add("+");
-                } else {
-                    try {
-                        cols.add(""+(-best.getCoord().distanceTo(coord)));
-                    } catch (BadReferenceException e) {
-                    }
-                    cols.add("-");
+            writeResult(record, coord, best);
+        }
+    }
+
+    private void execSorted() throws IOException {
+        BedNearestFinder finder = new BedNearestFinder(refFilename, extendUp, extendDown);
+        for (BedRecord record: IterUtils.wrap(BedReader.readFile(queryFilename))) {
+            GenomeSpan coord = record.getCoord();
+            if (ignoreStrand) {
+                coord = coord.clone(Strand.NONE);
+            }
+            writeResult(record, coord, finder.findNearest(coord));
+        }
+    }
+
+    private void writeResult(BedRecord record, GenomeSpan coord, BedRecord best) throws IOException {
+        List<String> cols = new ArrayList<String>();
+        cols.add(record.getCoord().ref);
+        cols.add(""+record.getCoord().start);
+        cols.add(""+record.getCoord().end);
+        cols.add(""+record.getName());
+        cols.add(""+record.getScore());
+        cols.add(record.getCoord().strand.toString());
+        if (best != null) {
+            cols.add(best.getName());
+            if (best.getCoord().strand == Strand.PLUS || best.getCoord().strand == Strand.NONE) {
+                try {
+                    cols.add(""+best.getCoord().distanceTo(coord));
+                } catch (BadReferenceException e) {
                 }
+                cols.add("+");
             } else {
-                cols.add("*");
-                cols.add("");
-                cols.add("");
+                try {
+                    cols.add(""+(-best.getCoord().distanceTo(coord)));
+                } catch (BadReferenceException e) {
+                }
+                cols.add("-");
             }
-            out.write((StringUtils.join("\t", cols)+"\n").getBytes());
+        } else {
+            cols.add("*");
+            cols.add("");
+            cols.add("");
         }
+        out.write((StringUtils.join("\t", cols)+"\n").getBytes());
     }
 }
@@ -1,9 +1,11 @@
 package io.compgen.ngsutils.cli.bed;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.List;
 
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -11,31 +13,24 @@ import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
-import io.compgen.common.SetBuilder;
-import io.compgen.common.StringUtils;
-import io.compgen.ngsutils.annotation.GenomeSpan;
-import io.compgen.ngsutils.bam.Strand;
+import io.compgen.common.IterUtils;
 import io.compgen.ngsutils.bed.BedReader;
 import io.compgen.ngsutils.bed.BedRecord;
+import io.compgen.ngsutils.bed.BedReducer;
+import io.compgen.ngsutils.bed.BedSorter;
 
 @Command(name="bed-reduce", desc="Merge overlaping BED regions", category="bed")
 public class BedReduce extends AbstractOutputCommand {
     
-    public class MutableBedRecord {
-        public final GenomeSpan effectiveCoord;
-        public final BedRecord bedRecord;
-        
-        public MutableBedRecord(GenomeSpan effectiveCoord, BedRecord record) {
-            this.effectiveCoord = effectiveCoord;
-            this.bedRecord = record;
-        }
-    }
-    
     private String filename = null;
     private int extend = 0;
     private boolean scoreIsCount = false;
     private boolean noStrand = false;
     private boolean rename = false;
+    private boolean sorted = false;
+    private boolean external = false;
+    private int bufferSize = 1000000;
+    private File tmpdir = null;
     
     @Option(name="extend", desc="Extend a regions N bases in both directions to find an overlap.")
     public void setExtend(int extend) {
@@ -57,6 +52,29 @@ public class BedReduce extends AbstractOutputCommand {
         this.noStrand = noStrand;
     }
 
+    @Option(name="sorted", desc="Input is sorted by position (all regions for a chromosome together); merge regions in one streaming pass")
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    @Option(name="external", desc="Sort the input using temporary files, then merge regions in one streaming pass (for large files)")
+    public void setExternal(boolean external) {
+        this.external = external;
+    }
+
+    @Option(name="buf", desc="Number of regions to sort in memory (--external)", defaultValue="1000000")
+    public void setBufferSize(int bufferSize) throws CommandArgumentException {
+        if (bufferSize < 1) {
+            throw new CommandArgumentException("--buf must be greater than 0");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    @Option(desc="Write temporary files here", name="tmpdir", helpValue="dir")
+    public void setTmpDir(String tmpdir) {
+        this.tmpdir = new File(tmpdir);
+    }
+
     @UnnamedArg(name = "FILE")
     public void setFilename(String filename) throws CommandArgumentException {
         this.filename = filename;
@@ -68,104 +86,34 @@ public class BedReduce extends AbstractOutputCommand {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
 
-        TreeMap<GenomeSpan, BedRecord> records = new TreeMap<GenomeSpan, BedRecord>();
-        
+        // all modes merge with BedReducer, so they give the same output for the same
+        // (sorted) regions. In-memory and --external sort the regions first.
+        BedSorter sorter = null;
         Iterator<BedRecord> it = BedReader.readFile(filename);
-        MutableBedRecord record = null;
-        
-        while (it.hasNext() || record != null) {
-            if (record == null && it.hasNext()) {
-                BedRecord rec = it.next();
-                if (scoreIsCount) {
-                    rec = new BedRecord(rec.getCoord(), rec.getName(), 1, rec.getExtras());
-                }
-                GenomeSpan coord = rec.getCoord();
-                if (extend > 0) {
-                    coord = coord.extend5(extend);
-                    coord = coord.extend3(extend);
-                }
-                
-                if (noStrand) {
-                    coord = coord.clone(Strand.NONE);
-                }
-                record = new MutableBedRecord(coord, rec);
-            }
-
-            
-            GenomeSpan floor = records.floorKey(record.effectiveCoord);
-            SortedMap<GenomeSpan, BedRecord> tail;
-            if (floor != null) {
-                tail = records.tailMap(floor);
-            } else {
-                tail = records;
-            }
-            
-            GenomeSpan mergeWith = null;
-            for (GenomeSpan test: tail.keySet()) {
-                if (record.effectiveCoord.overlaps(test)) {
-                    mergeWith = test;
-                    break;
-                }
-            }
-            
-            if (mergeWith == null) {
-                records.put(record.effectiveCoord,  record.bedRecord);
-                record = null;
-            } else {
-                GenomeSpan mergedCoord = record.effectiveCoord.combine(mergeWith);
-                BedRecord rec = mergeRecords(record.bedRecord, records.get(mergeWith));
-                records.remove(mergeWith);
-                record = new MutableBedRecord(mergedCoord, rec);
+        if (external) {
+            sorter = new BedSorter(bufferSize, tmpdir);
+            it = sorter.sort(it);
+        } else if (!sorted) {
+            List<BedRecord> records = new ArrayList<BedRecord>();
+            for (BedRecord rec: IterUtils.wrap(it)) {
+                records.add(rec);
             }
+            Collections.sort(records, BedSorter.COMPARATOR);
+            it = records.iterator();
         }
-        
+
         int i=1;
-        for (GenomeSpan coord: records.keySet()) {
-            BedRecord rec;
+        for (BedRecord rec: IterUtils.wrap(new BedReducer(it, extend, noStrand, scoreIsCount))) {
             if (rename) {
-                BedRecord tmp = records.get(coord);
-                rec = new BedRecord(tmp.getCoord(), "region_"+i, tmp.getScore(), tmp.getExtras());
-            } else {
-                rec = records.get(coord);
+                rec = new BedRecord(rec.getCoord(), "region_"+i, rec.getScore(), rec.getExtras());
             }
-            rec.write(out);
+            // regions without a strand (merged from both strands, or unstranded input) are written as '.'
+            rec.write(out, false, true);
             i++;
         }
-    }
-    
-    protected BedRecord mergeRecords(BedRecord one, BedRecord two) {
-        GenomeSpan coord = one.getCoord().combine(two.getCoord());
-        String name = StringUtils.join("|", new SetBuilder<String>().add(one.getName()).add(two.getName()).build());
-        double score = one.getScore() + two.getScore();
 
-        
-        String[] extras = null;
-        
-        if (one.getExtras()!=null || two.getExtras()!=null) {
-            int max = 0;
-            if (one.getExtras() != null) {
-                max = one.getExtras().length;
-            }
-            if (two.getExtras()!=null) {
-                max = Math.max(max,  two.getExtras().length);
-            }
-            
-            extras = new String[max];
-            for (int i=0; i<max; i++) {
-                String s = "";
-                if (one.getExtras() != null && one.getExtras().length<i) {
-                    s = one.getExtras()[i];
-                }
-                if (two.getExtras() != null && two.getExtras().length<i) {
-                    if (!s.equals("")) {
-                        s += "|";
-                    }
-                    s += two.getExtras()[i];
-                }
-                extras[i] = s;
-            }
+        if (sorter != null) {
+            sorter.close();
         }
-        
-        return new BedRecord(coord, name, score, extras);
     }
 }
@@ -14,6 +14,7 @@ import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
 import io.compgen.common.progress.ProgressMessage;
+import io.compgen.ngsutils.fasta.FastaReader;
 
 @Command(name="fasta-filter", desc="Filter out sequences from a FASTA file", category="fasta")
 public class FastaFilter extends AbstractOutputCommand {
@@ -79,7 +80,7 @@ public class FastaFilter extends AbstractOutputCommand {
 
         String buffer = "";
         
-        StringLineReader reader = new StringLineReader(filename);
+        StringLineReader reader = FastaReader.lineReader(filename);
         for (String line: IterUtils.wrap(reader.progress(new ProgressMessage<String>(){
                 @Override
                 public String msg(String s) {
@@ -78,7 +78,7 @@ public class FastaGC extends AbstractOutputCommand {
 
         } else {
             
-            StringLineReader reader = new StringLineReader(filename);
+            StringLineReader reader = FastaReader.lineReader(filename);
             String ref = null;
             int currentBinStart = 0;
             String buf = null;
@@ -1,6 +1,24 @@
 package io.compgen.ngsutils.cli.fasta;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -11,14 +29,21 @@ import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
 import io.compgen.common.progress.ProgressMessage;
+import io.compgen.ngsutils.fasta.FastaReader;
 
-@Command(name="fasta-genreads", desc="Generate mock reads from a reference FASTA file (DNA)", category="fasta", experimental=true)
+@Command(name="fasta-genreads", desc="Generate mock reads from a reference FASTA file (DNA)", category="fasta", experimental=true, doc="With --threads, each sequence is processed separately (in parallel). This requires an indexed FASTA file (.fai) or a 2bit file. The output is the same as with one thread.")
 public class FastaGenerateReads extends AbstractOutputCommand {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // bases fetched at a time for each sequence (--threads)
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
     private String filename = null;
     private int readLength = 100;
     private int windowStep = 1;
     private int maxWildcard = 0;
     private char qualScore = 30+33;
+    private int threads = 1;
 
     @Option(name="read-length", charName="l", desc="Read length", defaultValue="100")
     public void setReadLength(int readLength) {
@@ -40,73 +65,236 @@ public class FastaGenerateReads extends AbstractOutputCommand {
         this.qualScore = (char)(qualScore + 33);
     }
 
+    @Option(desc="Number of threads to use (the input file must be indexed (.fai) or a 2bit file)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @UnnamedArg(name = "FILE")
     public void setFilename(String filename) throws CommandArgumentException {
         this.filename = filename;
     }
 
+    /**
+     * Splits a sequence into reads (fixed length windows). Bases are added to a byte buffer
+     * as they are read, and each window is written directly from the buffer. When the buffer
+     * is full, the remaining bases are moved to the start, so adding bases is linear.
+     *
+     * Like the original String version, a window is only written if there are more bases
+     * after it (so the last window for a sequence may be skipped).
+     */
+    private static class ReadTiler {
+        private final OutputStream out;
+        private final int readLength;
+        private final int windowStep;
+        private final int maxWildcard;
+        private final byte[] qualTemplate;
+        private final byte[] qualBuf;
+
+        private byte[] buf;
+        private int start = 0;
+        private int end = 0;
+        private long pos = 0;
+        private byte[] prefix = null;
+
+        public ReadTiler(OutputStream out, int readLength, int windowStep, int maxWildcard, char qualScore) {
+            this.out = out;
+            this.readLength = readLength;
+            this.windowStep = windowStep;
+            this.maxWildcard = maxWildcard;
+            this.qualTemplate = new byte[readLength];
+            Arrays.fill(qualTemplate, (byte) qualScore);
+            this.qualBuf = new byte[readLength];
+            this.buf = new byte[Math.max(readLength * 2, 64 * 1024)];
+        }
+
+        public void startSequence(String name) {
+            start = 0;
+            end = 0;
+            pos = 0;
+            prefix = ("@"+name+":").getBytes(StandardCharsets.UTF_8);
+        }
+
+        public void addBases(CharSequence bases) throws IOException {
+            int n = bases.length();
+            if (end + n > buf.length) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+                if (end + n > buf.length) {
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, end + n));
+                }
+            }
+            for (int i=0; i<n; i++) {
+                buf[end++] = (byte) bases.charAt(i);
+            }
+
+            while (end - start > readLength) {
+                writeRead();
+                start += windowStep;
+                pos += windowStep;
+            }
+        }
+
+        private void writeRead() throws IOException {
+            byte[] qual = qualTemplate;
+            int count = 0;
+            for (int i=0; i<readLength; i++) {
+                byte b = buf[start + i];
+                if (b == 'N' || b == 'n') {
+                    if (count == 0) {
+                        System.arraycopy(qualTemplate, 0, qualBuf, 0, readLength);
+                        qual = qualBuf;
+                    }
+                    qualBuf[i] = '#';
+                    count++;
+                }
+            }
+
+            if (count <= maxWildcard) {
+                out.write(prefix);
+                out.write((pos+"-"+(pos+readLength)+"\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(buf, start, readLength);
+                out.write('\n');
+                out.write('+');
+                out.write('\n');
+                out.write(qual);
+                out.write('\n');
+            }
+        }
+    }
+
     @Exec
     public void exec() throws IOException, CommandArgumentException {
         if (filename == null) {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
-        
+
         if (windowStep > readLength) {
             throw new CommandArgumentException("Window-step must be smaller than or equal to read-length!");
         }
-        
-        final String[] current = new String[1];
-        String qualString = "";
-        for (int i=0; i<readLength; i++) {
-            qualString += qualScore;
+
+        if (threads > 1) {
+            execThreads();
+            return;
         }
 
-        String buffer = "";
-        int pos = 0;
-        
-        StringLineReader reader = new StringLineReader(filename);
+        final String[] current = new String[1];
+        OutputStream bufOut = new BufferedOutputStream(out, BUFFER_SIZE);
+        ReadTiler tiler = new ReadTiler(bufOut, readLength, windowStep, maxWildcard, qualScore);
+
+        StringLineReader reader = FastaReader.lineReader(filename);
         for (String line: IterUtils.wrap(reader.progress(new ProgressMessage<String>(){
                 @Override
                 public String msg(String s) {
                     return current[0];
                 }
             }))) {
+            if (line.length() == 0) {
+                continue;
+            }
             if (line.charAt(0) == '>') {
-                if (!buffer.equals("")) {
-                    buffer = "";
-                    pos = 0;
-                }
                 current[0] = line.substring(1).split("\\W",2)[0];
+                tiler.startSequence(current[0]);
             } else {
-                buffer += line;
-                while (buffer.length() > readLength) {
-                    String read = buffer.substring(0, readLength);
-                    String qual = qualString;
-                    
-                    int count = 0;
-                    if (read.indexOf('N')>-1 || read.indexOf('n') > -1) {
-                        qual = "";
-                        for (int i=0;i<readLength; i++) {
-                            if (read.charAt(i) == 'N' || read.charAt(i) == 'n') {
-                                qual+='#';
-                                count ++;
-                            } else {
-                                qual += qualScore;
+                tiler.addBases(line);
+            }
+        }
+        reader.close();
+        bufOut.flush();
+    }
+
+    /**
+     * Each sequence is split into reads in a separate thread (written to a temp file), and the
+     * temp files are copied to the output in order. Only a few sequences are processed ahead
+     * of the one being copied, so the temp files don't need space for the whole output.
+     */
+    private void execThreads() throws IOException, CommandArgumentException {
+        FastaReader fasta = FastaReader.open(filename);
+        if (fasta.getReferenceNames() == null) {
+            fasta.close();
+            throw new CommandArgumentException("--threads requires an indexed FASTA file (.fai) or a 2bit file");
+        }
+        List<String> names = new ArrayList<String>(fasta.getReferenceNames());
+        fasta.close();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<File>> pending = new ArrayDeque<Future<File>>();
+        List<File> tmpFiles = new ArrayList<File>();
+        Iterator<String> it = names.iterator();
+
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (true) {
+                while (it.hasNext() && pending.size() < threads * 2) {
+                    final String name = it.next();
+                    final File tmp = File.createTempFile(".ngsutilsj-genreads", ".tmp");
+                    tmpFiles.add(tmp);
+
+                    pending.add(pool.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            OutputStream tmpOut = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+                            // each thread needs its own reader (IndexedFastaFile isn't thread-safe)
+                            FastaReader reader = FastaReader.open(filename);
+                            try {
+                                ReadTiler tiler = new ReadTiler(tmpOut, readLength, windowStep, maxWildcard, qualScore);
+                                tiler.startSequence(name.split("\\W",2)[0]);
+
+                                int length = (int) reader.getReferenceLength(name);
+                                for (int start=0; start<length; start+=CHUNK_SIZE) {
+                                    tiler.addBases(reader.fetchSequence(name, start, Math.min(start + CHUNK_SIZE, length)));
+                                }
+                            } finally {
+                                reader.close();
+                                tmpOut.close();
                             }
-                        }
-                    }
-                    
-                    if (count <= maxWildcard) {
-                        out.write(("@"+current[0]+":"+pos+"-"+(pos+readLength)+"\n").getBytes());
-                        out.write(read.getBytes());
-                        out.write(("\n+\n"+qual+"\n").getBytes());
+
+                            if (verbose) {
+                                System.err.println("Finished: "+name);
+                            }
+                            return tmp;
+                        }}));
+                }
+
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                File tmp;
+                try {
+                    tmp = pending.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
                     }
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
 
-                    buffer = buffer.substring(windowStep);
-                    pos += windowStep;
+                InputStream in = new FileInputStream(tmp);
+                try {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
                 }
+                tmp.delete();
+                tmpFiles.remove(tmp);
+            }
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+            for (File tmp: tmpFiles) {
+                tmp.delete();
             }
         }
-        reader.close();
     }
 }
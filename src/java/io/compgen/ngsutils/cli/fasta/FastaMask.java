@@ -15,6 +15,7 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
+import io.compgen.ngsutils.fasta.FastaReader;
 
 @Command(name="fasta-mask", desc="Mask regions of a FASTA reference", category="fasta")
 public class FastaMask extends AbstractOutputCommand {
@@ -135,7 +136,7 @@ public class FastaMask extends AbstractOutputCommand {
         }
         
         
-        StringLineReader reader = new StringLineReader(filename);
+        StringLineReader reader = FastaReader.lineReader(filename);
         String currentName = null;
         int pos = 0;
         
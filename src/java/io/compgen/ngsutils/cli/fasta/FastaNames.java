@@ -9,6 +9,7 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
+import io.compgen.ngsutils.fasta.FastaReader;
 
 @Command(name="fasta-names", desc="Display sequence names from a FASTA file", category="fasta")
 public class FastaNames extends AbstractOutputCommand {
@@ -26,7 +27,7 @@ public class FastaNames extends AbstractOutputCommand {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
         
-        StringLineReader reader = new StringLineReader(filename);
+        StringLineReader reader = FastaReader.lineReader(filename);
         for (String line: IterUtils.wrap(reader.iterator())) {
             if (line.charAt(0) == '>') {
                 String name = line.substring(1).split("\\W",2)[0];
@@ -1,5 +1,12 @@
 package io.compgen.ngsutils.cli.fasta;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
@@ -7,17 +14,20 @@ import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
-import io.compgen.common.TabWriter;
 import io.compgen.ngsutils.fasta.FastaReader;
 import io.compgen.ngsutils.fasta.FastaRecord;
 import io.compgen.ngsutils.pwm.JasparPWM;
+import io.compgen.ngsutils.pwm.PWMScanner;
+import io.compgen.ngsutils.pwm.PWMScanner.PWMHitHandler;
 import io.compgen.ngsutils.support.SeqUtils;
 
 @Command(name="fasta-pwm", desc="Scan a FASTA file for matches to a motif (DNA only)", category="fasta", doc=""
 		+ "Given a motif frequency matrix, this command will scan a FASTA file looking for \n"
 		+ "regions that match the motif. The frequency table is converted to a position \n"
 		+ "weight matrix and for each n-mer in the FASTA file, a score calculated. Scores \n"
-		+ "range from -1 to 1")
+		+ "range from -1 to 1.\n\n"
+		+ "Windows that contain non-ACGT bases are skipped. Soft-masked (lower case) \n"
+		+ "bases are scored normally.")
 public class FastaPWM extends AbstractOutputCommand {
     private String filename = null;
     private String jasparFilename = null;
@@ -25,6 +35,26 @@ public class FastaPWM extends AbstractOutputCommand {
     private boolean showAll = false;
     private boolean showPvalue = false;
     private double pvalueThres = 1.0;
+    private boolean exactPvalue = false;
+    private int threads = 1;
+    
+    private static final int CHUNK_SIZE = 1000000;
+    
+    @Option(desc="Number of threads to use", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }    
+
+    @Option(desc="Calculate exact p-values from the motif score distribution instead of permutations (assumes --pvalue)", name="exact-pvalue")
+    public void setExactPvalue(boolean val) {
+        if (val) {
+            showPvalue = true;
+        }
+        this.exactPvalue = val;
+    }    
     
     @Option(desc="Add this pseudocount to the frequency counts", name="pseudo", defaultValue="1")
     public void setPseudocount(int pseudocount) throws CommandArgumentException {
@@ -70,72 +100,109 @@ public class FastaPWM extends AbstractOutputCommand {
             throw new CommandArgumentException("Missing motif file!");
         }
         
-        JasparPWM pwm = new JasparPWM(jasparFilename, pseudocount);
-        
-        TabWriter writer = new TabWriter(out);
-        
-        writer.write("seq");
-        writer.write("start");
-        writer.write("end");
-        writer.write("strand");
-        writer.write("match");
-        writer.write("score");
+        final JasparPWM pwm = new JasparPWM(jasparFilename, pseudocount);
+        final PWMScanner scanner = new PWMScanner(pwm);
+
         if (showPvalue) {
-        	writer.write("pvalue");
+            // build the lookup table before any worker threads need it
+            pwm.preparePvalues(exactPvalue);
+        }
+
+        out.write(("seq\tstart\tend\tstrand\tmatch\tscore" + (showPvalue ? "\tpvalue": "") + "\n").getBytes());
+        
+        ExecutorService pool = null;
+        if (threads > 1) {
+            pool = Executors.newFixedThreadPool(threads);
         }
-        writer.eol();
         
-        FastaReader reader = FastaReader.open(filename);
-        for (FastaRecord rec: IterUtils.wrap(reader.iterator())) {
-        	for (int i=0; i<rec.seq.length()-pwm.getLength(); i++) {
-        		String sub = rec.seq.substring(i,i+pwm.getLength());
-        		
-        		double score = pwm.calcScore(sub);
-        		double pval = 0.0;
-        		if (showAll || score > 0) {
-        			if (showPvalue) {
-        				pval = pwm.calcPvalue(score);
-        			}
-
-        			if (pval <= pvalueThres) {
-	        	        writer.write(rec.name);
-	        	        writer.write(i);
-	        	        writer.write(i+pwm.getLength());
-	        	        writer.write("+");
-	        	        writer.write(sub);
-	        	        writer.write(score);
-	        	        if (showPvalue) {
-	        	        	writer.write(pval);
-	        	        }
-	        	        writer.eol();
-        			}
-        		}
-
-        		String revcomp = SeqUtils.revcomp(sub);
-        		double score2 = pwm.calcScore(revcomp);
-        		double pval2 = 0.0;
-        		if (showAll || score2 > 0) {
-        			if (showPvalue) {
-        				pval2 = pwm.calcPvalue(score2);
-        			}
-
-        			if (pval2 <= pvalueThres) {
-	        	        writer.write(rec.name);
-	        	        writer.write(i);
-	        	        writer.write(i+pwm.getLength());
-	        	        writer.write("-");
-	        	        writer.write(revcomp);
-	        	        writer.write(score2);
-	        	        if (showPvalue) {
-	        	        	writer.write(pval2);
-	        	        }
-	        	        writer.eol();
-        			}
-        		}
-        	}
+        FastaReader reader = null;
+        try {
+            // chunks are written in the order they were submitted, so output order doesn't depend on the thread count
+            Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+            reader = FastaReader.open(filename);
+            for (final FastaRecord rec: IterUtils.wrap(reader.iterator())) {
+                final byte[] encoded = PWMScanner.encode(rec.seq);
+                for (int from=0; from < encoded.length; from += CHUNK_SIZE) {
+                    Callable<byte[]> task = new ScanChunk(pwm, scanner, rec, encoded, from, Math.min(from + CHUNK_SIZE, encoded.length));
+                    if (pool == null) {
+                        out.write(task.call());
+                    } else {
+                        pending.add(pool.submit(task));
+                        while (pending.size() > threads * 4) {
+                            out.write(pending.poll().get());
+                        }
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.poll().get());
+            }
+        } finally {
+            // stops the worker threads (and any remaining chunks if there was an error)
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (reader != null) {
+                reader.close();
+            }
         }
-        reader.close();
-        writer.close();
+        out.flush();
     }
 
+    private class ScanChunk implements Callable<byte[]> {
+        private final JasparPWM pwm;
+        private final PWMScanner scanner;
+        private final FastaRecord rec;
+        private final byte[] encoded;
+        private final int from;
+        private final int to;
+        
+        public ScanChunk(JasparPWM pwm, PWMScanner scanner, FastaRecord rec, byte[] encoded, int from, int to) {
+            this.pwm = pwm;
+            this.scanner = scanner;
+            this.rec = rec;
+            this.encoded = encoded;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            final StringBuilder sb = new StringBuilder();
+            final int len = scanner.getLength();
+
+            scanner.scan(encoded, from, to, showAll ? Double.NEGATIVE_INFINITY : 0.0, new PWMHitHandler() {
+                @Override
+                public void hit(int start, boolean reverse, double score) {
+                    double pval = 0.0;
+                    if (showPvalue) {
+                        pval = exactPvalue ? pwm.calcExactPvalue(score) : pwm.calcPvalue(score);
+                    }
+                    if (pval > pvalueThres) {
+                        return;
+                    }
+
+                    String sub = rec.seq.substring(start, start+len);
+                    sb.append(rec.name);
+                    sb.append('\t');
+                    sb.append(start);
+                    sb.append('\t');
+                    sb.append(start+len);
+                    sb.append('\t');
+                    sb.append(reverse ? '-' : '+');
+                    sb.append('\t');
+                    sb.append(reverse ? SeqUtils.revcomp(sub): sub);
+                    sb.append('\t');
+                    sb.append(score);
+                    if (showPvalue) {
+                        sb.append('\t');
+                        sb.append(pval);
+                    }
+                    sb.append('\n');
+                }});
+            
+            return sb.toString().getBytes();
+        }
+    }
 }
@@ -12,6 +12,7 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringLineReader;
+import io.compgen.ngsutils.fasta.FastaReader;
 
 @Command(name="fasta-split", desc="Split a FASTA file into a new file for each sequence present", category="fasta")
 public class FastaSplit extends AbstractCommand {
@@ -36,7 +37,7 @@ public class FastaSplit extends AbstractCommand {
             throw new CommandArgumentException("Missing/invalid arguments!");
         }
         
-        StringLineReader reader = new StringLineReader(filename);
+        StringLineReader reader = FastaReader.lineReader(filename);
         BufferedOutputStream bos = null;
         
         for (String line: IterUtils.wrap(reader.iterator())) {
@@ -0,0 +1,54 @@
+package io.compgen.ngsutils.cli.fasta;
+
+import java.io.IOException;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+import io.compgen.common.IterUtils;
+import io.compgen.common.StringLineReader;
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.ngsutils.fasta.TwoBitWriter;
+
+@Command(name="fasta-to2bit", desc="Convert a FASTA file to a 2bit file (UCSC format)", category="fasta", doc="2bit files are packed (4 bases/byte) and memory-mapped when read, so they are much faster for random access than a FASTA file. They can be used in place of a FASTA file for any command that reads a reference (except for samtools based pileups). Soft-masked (lowercase) regions are kept, but bases other than A, C, G, T are converted to N.")
+public class FastaToTwoBit extends AbstractOutputCommand {
+    private String filename = null;
+
+    @UnnamedArg(name = "FILE")
+    public void setFilename(String filename) throws CommandArgumentException {
+        this.filename = filename;
+    }
+
+    @Exec
+    public void exec() throws IOException, CommandArgumentException {
+        if (filename == null) {
+            throw new CommandArgumentException("Missing/invalid arguments!");
+        }
+
+        final String[] current = new String[1];
+        TwoBitWriter writer = new TwoBitWriter(out);
+
+        StringLineReader reader = new StringLineReader(filename);
+        for (String line: IterUtils.wrap(reader.progress(new ProgressMessage<String>(){
+                @Override
+                public String msg(String s) {
+                    return current[0];
+                }
+            }))) {
+            if (line.length() > 0 && line.charAt(0) == '>') {
+                current[0] = line.substring(1).split("\\s",2)[0];
+                writer.startSequence(current[0]);
+            } else {
+                writer.addBases(line);
+            }
+        }
+        reader.close();
+        writer.close();
+
+        if (writer.getInvalidBases() > 0) {
+            System.err.println("WARNING: "+writer.getInvalidBases()+" bases (not A, C, G, T, or N) were converted to N");
+        }
+    }
+}
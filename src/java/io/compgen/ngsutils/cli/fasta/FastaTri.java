@@ -90,7 +90,7 @@ public class FastaTri extends AbstractOutputCommand {
 
         } else {
             
-            StringLineReader reader = new StringLineReader(filename);
+            StringLineReader reader = FastaReader.lineReader(filename);
             String buf = null;
             boolean includeThisSeq = false;
             final String seqName[] = new String[1];
@@ -9,8 +9,8 @@ import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
-import io.compgen.common.StringLineReader;
 import io.compgen.common.progress.ProgressMessage;
+import io.compgen.ngsutils.fasta.FastaReader;
 
 @Command(name="fasta-wrap", desc="Change the sequence wrapping length of a FASTA file", category="fasta")
 public class FastaWrap extends AbstractOutputCommand {
@@ -43,7 +43,7 @@ public class FastaWrap extends AbstractOutputCommand {
 
         String buffer = "";
         
-        for (String line: IterUtils.wrap(new StringLineReader(filename).progress(new ProgressMessage<String>(){
+        for (String line: IterUtils.wrap(FastaReader.lineReader(filename).progress(new ProgressMessage<String>(){
                 @Override
                 public String msg(String s) {
                     return current[0];
@@ -20,6 +20,7 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractCommand;
 import io.compgen.common.StringLineReader;
 import io.compgen.ngsutils.fastq.Fastq;
+import io.compgen.ngsutils.fastq.FastqQCStats;
 import io.compgen.ngsutils.fastq.FastqRead;
 import io.compgen.ngsutils.fastq.FastqReader;
 
@@ -33,6 +34,13 @@ public class FastqCheck extends AbstractCommand {
 
     private String digestFilename = null;
     private String digest = null;
+
+    private String statsFilename = null;
+    private FastqQCStats stats1 = null;
+    private FastqQCStats stats2 = null;
+    private long statsFragments = 0;
+    private boolean statsInterleaved = false;
+    private String statsLastName = null;
 	
 	public FastqCheck() {
 	}
@@ -76,6 +84,11 @@ public class FastqCheck extends AbstractCommand {
         this.gzip = value;
     }
 
+    @Option(name="stats", desc="Also write FASTQ stats (see fastq-stats) to this file", helpValue="fname")
+    public void setStats(String filename) {
+        this.statsFilename = filename;
+    }
+
     @Option(name="colorspace", desc="Reads are in color-space (default: base-space)")
     public void setColorspace(boolean value) {
         this.colorspace = value;
@@ -83,6 +96,11 @@ public class FastqCheck extends AbstractCommand {
 
 	@Exec
     public void exec() throws IOException, CommandArgumentException, NoSuchAlgorithmException {
+	    if (statsFilename != null) {
+	        stats1 = new FastqQCStats(null);
+	        stats2 = new FastqQCStats(null);
+	    }
+
 	    long[] counts;
 	    if (filenames.length == 1) {
 	        counts = execSingleFile(filenames[0]);
@@ -93,6 +111,12 @@ public class FastqCheck extends AbstractCommand {
 	        counts = execPairedFiles(filenames[0], filenames[1]);
 	    }
 	    
+	    if (statsFilename != null) {
+	        OutputStream statsOut = new FileOutputStream(statsFilename);
+	        FastqQCStats.writeReport(statsOut, statsFragments, stats1, statsInterleaved ? stats2: null, false);
+	        statsOut.close();
+	    }
+
 	    if (counts[0] == -1) {
 	        System.out.println("ERROR");
 	        System.exit(1);
@@ -104,6 +128,24 @@ public class FastqCheck extends AbstractCommand {
 	    }
 	}
 
+	/**
+	 * Adds a read to the stats (if --stats is set). Reads with the same name as the previous
+	 * read are counted as R2 (same as fastq-stats).
+	 */
+	protected void addStats(FastqRead read) {
+	    if (stats1 == null) {
+	        return;
+	    }
+	    if (statsLastName == null || !statsLastName.equals(read.getName())) {
+	        statsFragments++;
+	        statsLastName = read.getName();
+	        stats1.add(read);
+	    } else {
+	        statsInterleaved = true;
+	        stats2.add(read);
+	    }
+	}
+
 	protected boolean checkPaired(FastqRead read1, FastqRead read2) {
 	    if (read2 != null) {
             if (read1.getName().endsWith("/1") && read2.getName().endsWith("/2")) {
@@ -227,6 +269,13 @@ public class FastqCheck extends AbstractCommand {
         while (it1.hasNext() && it2.hasNext()) {
             FastqRead one = it1.next();
             FastqRead two = it2.next();
+
+            if (stats1 != null) {
+                statsFragments++;
+                statsInterleaved = true;
+                stats1.add(one);
+                stats2.add(two);
+            }
             
             boolean isGood = checkPair(one, two);
 
@@ -402,6 +451,7 @@ public class FastqCheck extends AbstractCommand {
         FastqRead second = null;
 		
 		for (FastqRead read : reader) {
+		    addStats(read);
 		    if (inHeader) {
 		        if (first == null) {
 		            first = read;
@@ -50,6 +50,7 @@ public class FastqFilterCli extends AbstractOutputCommand {
     
     private String includeList = null;
     private String excludeList = null;
+    private boolean saveListIndex = false;
     
     private String nameSubstr1 = null;
     private String nameSubstr2 = null;
@@ -176,6 +177,11 @@ public class FastqFilterCli extends AbstractOutputCommand {
         this.includeList = includeList;
     }
     
+    @Option(desc="Save an index of the include/exclude list (fname.fpset) so that it loads faster next time", name="save-list-index")
+    public void setSaveListIndex(boolean saveListIndex) {
+        this.saveListIndex = saveListIndex;
+    }
+    
     @Exec
     public void exec() throws IOException, CommandArgumentException, FilteringException {
         if (includeList != null && excludeList != null) {
@@ -201,12 +207,12 @@ public class FastqFilterCli extends AbstractOutputCommand {
         }
 
         if (includeList!=null) {
-            parent = new IncludeListFilter(parent, verbose, includeList);
+            parent = new IncludeListFilter(parent, verbose, includeList, saveListIndex);
             filters.add((FastqFilter) parent);
         }
 
         if (excludeList!=null) {
-            parent = new ExcludeListFilter(parent, verbose, excludeList);
+            parent = new ExcludeListFilter(parent, verbose, excludeList, saveListIndex);
             filters.add((FastqFilter) parent);
         }
 
@@ -1,12 +1,22 @@
 package io.compgen.ngsutils.cli.fastq;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
 import io.compgen.cmdline.annotation.Command;
@@ -18,7 +28,7 @@ import io.compgen.cmdline.impl.AbstractCommand;
 import io.compgen.ngsutils.fastq.Fastq;
 import io.compgen.ngsutils.fastq.FastqRead;
 import io.compgen.ngsutils.fastq.FastqReader;
-import io.compgen.ngsutils.support.SeqUtils;
+import io.compgen.ngsutils.fastq.ReadOverlap;
 
 @Command(name = "fastq-overlap", desc = "For paired FASTQ files, attempt to find overlapping reads", category="fastq")
 public class FastqOverlap extends AbstractCommand {
@@ -31,6 +41,11 @@ public class FastqOverlap extends AbstractCommand {
     private boolean gzip = false;
     private boolean interleaved = false;
     private boolean dovetail = false;
+    private int maxMismatches = 0;
+    private int threads = 1;
+    private boolean interleavedSplit = false;
+
+    private static final int BATCH_SIZE = 10000;
 
 	public FastqOverlap() {
 	}
@@ -48,10 +63,9 @@ public class FastqOverlap extends AbstractCommand {
         }
     }
 
-    @Option(name="dovetail", desc="Allow dovetailed reads")
-    public void setDovetail(boolean dovetail) throws IOException, CommandArgumentException {
-    	throw new CommandArgumentException("--dovetail is not yet implemented");
-//        this.dovetail = dovetail;
+    @Option(name="dovetail", desc="Allow dovetailed reads (the insert is shorter than the reads, adapter bases are removed from the merged read)")
+    public void setDovetail(boolean dovetail) {
+        this.dovetail = dovetail;
     }
 
     @Option(name="interleaved", desc="Input FASTQ file is interleaved")
@@ -64,6 +78,22 @@ public class FastqOverlap extends AbstractCommand {
         this.minOverlap = minOverlap;
     }
     
+    @Option(name="mismatches", desc="Maximum number of mismatches allowed in the overlap (mismatched bases use the base with the higher quality score)", defaultValue="0")
+    public void setMaxMismatches(int maxMismatches) throws CommandArgumentException {
+        if (maxMismatches < 0) {
+            throw new CommandArgumentException("--mismatches must be at least 0");
+        }
+        this.maxMismatches = maxMismatches;
+    }
+    
+    @Option(name="threads", desc="Number of threads to use", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+    
     @Option(name="overlap", charName="o", desc="Write all overlapping reads to this FASTQ file (filenames ending in .gz will be compressed, - for stdout)", required=true, helpValue="fname")
     public void setOverlap(String overlap) throws IOException {
         this.overlapFilename = overlap;
@@ -177,6 +207,23 @@ public class FastqOverlap extends AbstractCommand {
         	it2 = reader2.iterator();
         }
         
+        // split reads go to one interleaved file or to separate R1/R2 files 
+        interleavedSplit = outSplit != null;
+        if (interleavedSplit) {
+        	outSplit1 = outSplit;
+        }
+
+        ExecutorService pool = null;
+        if (threads > 1) {
+        	pool = Executors.newFixedThreadPool(threads);
+        }
+        
+        // batches are written in the order they were read
+        Deque<Future<byte[][]>> pending = new ArrayDeque<Future<byte[][]>>();
+
+        List<FastqRead> ones = new ArrayList<FastqRead>();
+        List<FastqRead> twos = new ArrayList<FastqRead>();
+
         while (it1.hasNext() && it2.hasNext()) {
             FastqRead one = it1.next();
             FastqRead two = it2.next();
@@ -185,29 +232,30 @@ public class FastqOverlap extends AbstractCommand {
             	throw new IOException("Unpaired FASTQ file(s) found!");
             }
             
-            FastqRead overlapRead = findOverlapRead(one, two, this.minOverlap, this.dovetail);
+            ones.add(one);
+            twos.add(two);
             
-            if (overlapRead != null) {
-            	// we found an overlapping read... write it out
-            	overlapRead.write(outOverlap); 
-            } else {
-            	// split read. 
-            	// write to interleaved output or to split R1/R2 outputs.            	
-            	if (outSplit != null) {
-            		one.write(outSplit);
-            		two.write(outSplit);
+            if (ones.size() >= BATCH_SIZE || !it1.hasNext() || !it2.hasNext()) {
+            	OverlapBatch batch = new OverlapBatch(ones, twos);
+            	if (pool == null) {
+            		writeBatch(batch.call(), outOverlap, outSplit1, outSplit2);
             	} else {
-	            	if (outSplit1 != null) {
-	            		one.write(outSplit1);
-	            	}
-	            	if (outSplit2 != null) {
-	            		two.write(outSplit2);
-	            	}
+            		pending.add(pool.submit(batch));
+            		while (pending.size() > threads * 2) {
+            			writeBatch(getBatch(pending.poll()), outOverlap, outSplit1, outSplit2);
+            		}
             	}
+            	ones = new ArrayList<FastqRead>();
+            	twos = new ArrayList<FastqRead>();
             }
-            
         }
         
+        while (!pending.isEmpty()) {
+        	writeBatch(getBatch(pending.poll()), outOverlap, outSplit1, outSplit2);
+        }
+        if (pool != null) {
+        	pool.shutdown();
+        }
         
         reader1.close();
         if (reader2 != null) {
@@ -222,7 +270,7 @@ public class FastqOverlap extends AbstractCommand {
         	outSplit.close();
         }
         
-        if (outSplit1 != null) {
+        if (outSplit1 != null && outSplit1 != outSplit) {
         	outSplit1.close();
         }
         
@@ -232,73 +280,77 @@ public class FastqOverlap extends AbstractCommand {
 	}
 
 	static public FastqRead findOverlapRead(FastqRead one, FastqRead two, int minOverlap, boolean dovetail) {
-		// this is a slow algorithm that walks each read across looking for the best overlap
+		return findOverlapRead(one, two, minOverlap, 0, dovetail);
+	}
+
+	static public FastqRead findOverlapRead(FastqRead one, FastqRead two, int minOverlap, int maxMismatches, boolean dovetail) {
 		// if there is a match, return a new FastqRead object that represents the overlapping sequence and qual values
 		
 		// R1-aaaaaaaaaaaccccc
 		//                 ccccc-R2           
+		//
+		// or with dovetail:
+		//
+		//   R1-aaaaaaaaaaaXXX
+		// XXXaaaaaaaaaaa-R2
 		
-		
-		String oneS = one.getSeq();
-		String twoC = SeqUtils.revcomp(two.getSeq());
+		return ReadOverlap.findOverlap(one, two, minOverlap, maxMismatches, dovetail);
+	}
 
-//		System.err.println("Two  : " + two.getSeq());
-//		System.err.println("Two-c: " + twoC);
-		
-		
-		int bestLength = -1;
-		
-		if (!dovetail) {
-		
-			for (int i = minOverlap; i <= one.getSeq().length() && i <= two.getSeq().length(); i++) {
-	//			System.err.println("=======================================");
-				
-	//			System.err.println(oneS);
-	//			for (int k=0; k < oneS.length() - i; k++ ) {
-	//				System.err.print(" ");
-	//			}
-	//			System.err.println(twoC);
-				
-				boolean match = true;
-				for (int j=0; j < i; j++) {
-	//				System.err.print(""+oneS.charAt(one.getSeq().length()-i+j) + "==" + twoC.charAt(j) + "? ") ;
-					if (oneS.charAt(one.getSeq().length()-i+j) != twoC.charAt(j)) {
-	//					System.err.println("no");
-						match = false;
-						break;
-	//				} else {
-	//					System.err.println("yes");
-					}
-				}
-				
-				if (match) {
-	//				System.err.println("match: " + i);
-					bestLength = i;
+	/**
+	 * Merges a batch of pairs. The output for each file is returned as a byte array so
+	 * that batches can be written in order.
+	 */
+	private class OverlapBatch implements Callable<byte[][]> {
+		private final List<FastqRead> ones;
+		private final List<FastqRead> twos;
+
+		public OverlapBatch(List<FastqRead> ones, List<FastqRead> twos) {
+			this.ones = ones;
+			this.twos = twos;
+		}
+
+		@Override
+		public byte[][] call() throws IOException {
+			ByteArrayOutputStream overlap = new ByteArrayOutputStream();
+			ByteArrayOutputStream split1 = new ByteArrayOutputStream();
+			ByteArrayOutputStream split2 = new ByteArrayOutputStream();
+
+			for (int i=0; i<ones.size(); i++) {
+				FastqRead one = ones.get(i);
+				FastqRead two = twos.get(i);
+
+				FastqRead overlapRead = findOverlapRead(one, two, minOverlap, maxMismatches, dovetail);
+				if (overlapRead != null) {
+					overlapRead.write(overlap);
+				} else if (interleavedSplit) {
+					// interleaved split output, both reads go in split1
+					one.write(split1);
+					two.write(split1);
+				} else {
+					one.write(split1);
+					two.write(split2);
 				}
-				
-			}
-	
-	//		System.err.println("best-match: " + bestLength);
-			if (bestLength > 0) {
-	//			System.err.println(oneS);
-	//			for (int k=0; k < oneS.length() - bestLength; k++ ) {
-	//				System.err.print(" ");
-	//			}
-	//			System.err.println(twoC);
-	
-				
-				String seq = oneS + twoC.substring(bestLength);
-				String qual = one.getQual() + two.getQual().substring(bestLength);
-	
-	//			System.err.println(seq);
-	//			System.err.println(qual);
-	
-				return new FastqRead(one.getName(), seq, qual);
 			}
-			
+			return new byte[][] { overlap.toByteArray(), split1.toByteArray(), split2.toByteArray() };
 		}
-		
-		return null;
 	}
 
+	private static byte[][] getBatch(Future<byte[][]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void writeBatch(byte[][] batch, OutputStream outOverlap, OutputStream outSplit1, OutputStream outSplit2) throws IOException {
+		outOverlap.write(batch[0]);
+		if (outSplit1 != null) {
+			outSplit1.write(batch[1]);
+		}
+		if (outSplit2 != null) {
+			outSplit2.write(batch[2]);
+		}
+	}
 }
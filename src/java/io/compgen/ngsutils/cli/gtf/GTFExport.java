@@ -267,7 +267,7 @@ public class GTFExport extends AbstractOutputCommand {
             System.err.print("Reading GTF annotation file: "+filename);
         }
 
-        AnnotationSource<GTFGene> ann = new GTFAnnotationSource(filename);
+        AnnotationSource<GTFGene> ann = GTFAnnotationSource.load(filename);
         
         if (verbose) {
             System.err.println(" [done]");
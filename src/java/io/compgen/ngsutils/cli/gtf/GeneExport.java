@@ -129,7 +129,7 @@ public class GeneExport extends AbstractOutputCommand {
             System.err.print("Reading GTF annotation file: "+filename);
         }
 
-        AnnotationSource<GTFGene> ann = new GTFAnnotationSource(filename);
+        AnnotationSource<GTFGene> ann = GTFAnnotationSource.load(filename);
 
         if (verbose) {
             System.err.println(" [done]");
@@ -1,9 +1,23 @@
 package io.compgen.ngsutils.cli.tab;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -12,7 +26,6 @@ import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
-import io.compgen.common.StringUtils;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
 import io.compgen.common.progress.ProgressUtils;
@@ -27,9 +40,14 @@ import io.compgen.ngsutils.tabix.annotate.TabixVCFAnnotator;
 public class TabAnnotate extends AbstractOutputCommand {
 	private String filename = "-";
 	private boolean hasHeader = false;
+	private int threads = 1;
+
+	private static final int BATCH_SIZE = 1000;
+	private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
 
 	
 	List<TabAnnotator> chain = new ArrayList<TabAnnotator>();
+	Map<Thread, List<TabAnnotator>> threadChains = new HashMap<Thread, List<TabAnnotator>>();
     
     @Option(desc="Add annotations from a Tabix indexed file (If col is left out, this is treaded as a flag)", name="tab", helpValue="NAME:FILENAME{,col,collapse,first}", allowMultiple=true)
     public void setTabix(String tab) throws CommandArgumentException {
@@ -183,6 +201,24 @@ public class TabAnnotate extends AbstractOutputCommand {
 //        }
 //    }
     
+    @Option(desc="Number of threads to use (each thread opens its own copy of the annotation files)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    @Option(desc="Output filename (optionally compressed, *.gz files are written with BGZF compression so they can be tabix indexed)", charName="o", defaultValue="-", name="output", helpValue="fname")
+    @Override
+    public void setOutputName(String outputName) throws IOException {
+        if (outputName.endsWith(".gz")) {
+            out = new BlockCompressedOutputStream(outputName);
+        } else {
+            super.setOutputName(outputName);
+        }
+    }
+
     @UnnamedArg(name = "input.tab", required=true)
     public void setFilename(String filename) throws CommandArgumentException {
     	this.filename = filename;
@@ -199,16 +235,30 @@ public class TabAnnotate extends AbstractOutputCommand {
 	                if (lineno[0] < tabix.getSkipLines()) {
 	                    return "<skip>";
 	                }
-	                String[] cols = line.split("\t");
-	                String chrom = cols[tabix.getColSeq()-1];
-	                int start = Integer.parseInt(cols[tabix.getColBegin()-1]);
+	                String chrom = column(line, tabix.getColSeq()-1);
+	                int start = Integer.parseInt(column(line, tabix.getColBegin()-1));
 	                if (tabix.getColEnd() > -1 && tabix.getColEnd() != tabix.getColBegin()) {
-                        return chrom+":"+start+"-"+Integer.parseInt(cols[tabix.getColEnd()-1]);
+                        return chrom+":"+start+"-"+Integer.parseInt(column(line, tabix.getColEnd()-1));
 	                } else {
                         return chrom+":"+start;
 	                }
 
 	            }});
+
+		final OutputStream bos = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+
+		ExecutorService pool = null;
+		Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		if (threads > 1) {
+		    pool = Executors.newFixedThreadPool(threads);
+		    // each worker thread uses its own copy of the annotators, so the files opened
+		    // by the original chain aren't needed (it is only used for names and copies)
+		    for (TabAnnotator ann: chain) {
+		        ann.close();
+		    }
+		}
+
+		Batch batch = new Batch(tabix);
 		
 		for (String line: IterUtils.wrap(it)) {
 		    if (lineno[0] < tabix.getSkipLines()) {
@@ -217,65 +267,179 @@ public class TabAnnotate extends AbstractOutputCommand {
 	            
 	            if (lineno[0] == tabix.getSkipLines() && hasHeader && !addedHeader) {
 	                addedHeader = true;
-                    System.out.println(tabix.getMeta()+"#ngsutilsj_tab_annotateCommand="+NGSUtils.getArgs());
-                    System.out.println(tabix.getMeta()+"#ngsutilsj_tab_annotateVersion="+NGSUtils.getVersion());
+	                batch.addLine(tabix.getMeta()+"#ngsutilsj_tab_annotateCommand="+NGSUtils.getArgs(), false);
+	                batch.addLine(tabix.getMeta()+"#ngsutilsj_tab_annotateVersion="+NGSUtils.getVersion(), false);
 	                
-	                System.out.print(line);
+	                String header = line;
 	                for (TabAnnotator ann: chain) {
-	                    System.out.print("\t"+ann.getName());
+	                    header += "\t"+ann.getName();
 	                }
-	                System.out.println();
+	                batch.addLine(header, false);
 	            } else {
-                    System.out.println(line);
+	                batch.addLine(line, false);
 	            }
 	            
                 continue;
 		    }
 		    
 		    if (line.length() > 0 && line.charAt(0) == tabix.getMeta()) {
-                System.out.println(line);
+		        batch.addLine(line, false);
                 continue;
 		    }
 		    
 		    if (!addedHeader) {
 		        addedHeader = true;
-                System.out.println(tabix.getMeta()+"#ngsutilsj_tab_annotateCommand="+NGSUtils.getArgs());
-                System.out.println(tabix.getMeta()+"#ngsutilsj_tab_annotateVersion="+NGSUtils.getVersion());
+		        batch.addLine(tabix.getMeta()+"#ngsutilsj_tab_annotateCommand="+NGSUtils.getArgs(), false);
+		        batch.addLine(tabix.getMeta()+"#ngsutilsj_tab_annotateVersion="+NGSUtils.getVersion(), false);
 		    }
-		    
-		    String[] cols = line.split("\t", -1);
-		    List<String> out = new ArrayList<String>();
-		    for (String s: cols) {
-		        out.add(s);
+
+		    batch.addLine(line, true);
+
+		    if (batch.size() >= BATCH_SIZE) {
+		        if (pool == null) {
+		            bos.write(batch.call().getBytes(StandardCharsets.UTF_8));
+		        } else {
+		            if (pending.size() >= threads * 2) {
+		                bos.write(getResult(pending.poll()).getBytes(StandardCharsets.UTF_8));
+		            }
+		            pending.add(pool.submit(batch));
+		        }
+		        batch = new Batch(tabix);
 		    }
-		    
-		    String chrom = cols[tabix.getColSeq()-1];
-            int start = Integer.parseInt(cols[tabix.getColBegin()-1]);
-            int end = -1;
-            if (tabix.getColEnd() > -1) {
-                end = Integer.parseInt(cols[tabix.getColEnd()-1]);
-            }
-            
-            if (!tabix.isZeroBased()) {
-                start = start - 1;
-            }
-            
-            for (TabAnnotator ann: chain) {
-                String val = ann.getValue(chrom, start, end, cols);
-                if (val == null) {
-                    out.add("");
-                } else {
-                    out.add(val);
-                }
-            }
-            
-            System.out.println(StringUtils.join("\t", out));
 		}
-		
-        for (TabAnnotator ann: chain) {
-            ann.close();
+
+		if (pool == null) {
+		    bos.write(batch.call().getBytes(StandardCharsets.UTF_8));
+		} else {
+		    pending.add(pool.submit(batch));
+		    while (!pending.isEmpty()) {
+		        bos.write(getResult(pending.poll()).getBytes(StandardCharsets.UTF_8));
+		    }
+		    pool.shutdown();
 		}
+		bos.flush();
+		close();
+
+		if (pool == null) {
+		    for (TabAnnotator ann: chain) {
+		        ann.close();
+		    }
+		}
+        for (List<TabAnnotator> threadChain: threadChains.values()) {
+            for (TabAnnotator ann: threadChain) {
+                ann.close();
+            }
+        }
         tabix.close();
 	}
 
+	private String getResult(Future<String> future) throws Exception {
+	    try {
+	        return future.get();
+	    } catch (ExecutionException e) {
+	        if (e.getCause() instanceof Exception) {
+	            throw (Exception) e.getCause();
+	        }
+	        throw e;
+	    }
+	}
+
+	/**
+	 * Each worker thread has its own copy of the annotators (with their own file handles).
+	 * With one thread, the main thread uses the original chain.
+	 */
+	private List<TabAnnotator> getChain() throws IOException {
+	    if (threads == 1) {
+	        return chain;
+	    }
+	    synchronized (threadChains) {
+	        List<TabAnnotator> threadChain = threadChains.get(Thread.currentThread());
+	        if (threadChain == null) {
+	            threadChain = new ArrayList<TabAnnotator>();
+	            for (TabAnnotator ann: chain) {
+	                threadChain.add(ann.copy());
+	            }
+	            threadChains.put(Thread.currentThread(), threadChain);
+	        }
+	        return threadChain;
+	    }
+	}
+
+	/**
+	 * A set of lines to annotate. Lines that aren't annotated (headers, comments) are
+	 * written as-is, so the output for a batch is in the same order as the input.
+	 */
+	private class Batch implements Callable<String> {
+	    private final TabixFile tabix;
+	    private final List<String> lines = new ArrayList<String>(BATCH_SIZE);
+	    private final List<Boolean> annotate = new ArrayList<Boolean>(BATCH_SIZE);
+
+	    private Batch(TabixFile tabix) {
+	        this.tabix = tabix;
+	    }
+
+	    private void addLine(String line, boolean annotateLine) {
+	        lines.add(line);
+	        annotate.add(annotateLine);
+	    }
+
+	    private int size() {
+	        return lines.size();
+	    }
+
+	    @Override
+	    public String call() throws Exception {
+	        List<TabAnnotator> chain = getChain();
+	        StringBuilder sb = new StringBuilder();
+
+	        for (int i=0; i<lines.size(); i++) {
+	            String line = lines.get(i);
+	            sb.append(line);
+
+	            if (annotate.get(i)) {
+	                String[] cols = line.split("\t", -1);
+
+	                String chrom = cols[tabix.getColSeq()-1];
+	                int start = Integer.parseInt(cols[tabix.getColBegin()-1]);
+	                int end = -1;
+	                if (tabix.getColEnd() > -1) {
+	                    end = Integer.parseInt(cols[tabix.getColEnd()-1]);
+	                }
+
+	                if (!tabix.isZeroBased()) {
+	                    start = start - 1;
+	                }
+
+	                for (TabAnnotator ann: chain) {
+	                    String val = ann.getValue(chrom, start, end, cols);
+	                    sb.append('\t');
+	                    if (val != null) {
+	                        sb.append(val);
+	                    }
+	                }
+	            }
+	            sb.append('\n');
+	        }
+	        return sb.toString();
+	    }
+	}
+
+	/**
+	 * Returns a column from a tab-delimited line (without splitting the entire line)
+	 */
+	private static String column(String line, int col) {
+	    int start = 0;
+	    for (int i=0; i<col; i++) {
+	        start = line.indexOf('\t', start) + 1;
+	        if (start == 0) {
+	            throw new ArrayIndexOutOfBoundsException(col);
+	        }
+	    }
+	    int end = line.indexOf('\t', start);
+	    if (end == -1) {
+	        end = line.length();
+	    }
+	    return line.substring(start, end);
+	}
+
 }
@@ -0,0 +1,41 @@
+package io.compgen.ngsutils.cli.vcf;
+
+import java.io.IOException;
+
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+import io.compgen.ngsutils.vcf.BCFWriter;
+import io.compgen.ngsutils.vcf.VCFHeader;
+import io.compgen.ngsutils.vcf.VCFWriter;
+
+/**
+ * Base class for commands that write a VCF file. Output is written as BCF with --bcf,
+ * or if the output filename ends with .bcf.
+ *
+ * @author mbreese
+ *
+ */
+public abstract class AbstractVCFOutputCommand extends AbstractOutputCommand {
+    private boolean bcf = false;
+
+    @Option(desc="Write output in BCF format (default for *.bcf output files)", name="bcf")
+    public void setBCF(boolean bcf) {
+        this.bcf = bcf;
+    }
+
+    @Option(desc="Output filename (optionally compressed, *.bcf files are written in BCF format)", charName="o", defaultValue="-", name="output", helpValue="fname")
+    @Override
+    public void setOutputName(String outputName) throws IOException {
+        if (outputName.endsWith(".bcf")) {
+            bcf = true;
+        }
+        super.setOutputName(outputName);
+    }
+
+    /**
+     * @return a VCF (or BCF) writer for the output stream
+     */
+    protected VCFWriter createWriter(VCFHeader header) throws IOException {
+        return bcf ? new BCFWriter(out, header) : new VCFWriter(out, header);
+    }
+}
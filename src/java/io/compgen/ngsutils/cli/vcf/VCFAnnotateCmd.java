@@ -1,7 +1,10 @@
 package io.compgen.ngsutils.cli.vcf;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import io.compgen.cmdline.annotation.Command;
@@ -9,11 +12,15 @@ import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
+import io.compgen.common.progress.FileChannelStats;
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressUtils;
 import io.compgen.ngsutils.NGSUtils;
+import io.compgen.ngsutils.support.CloseableFinalizer;
 import io.compgen.ngsutils.vcf.VCFHeader;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFShardExecutor;
 import io.compgen.ngsutils.vcf.VCFWriter;
 import io.compgen.ngsutils.vcf.annotate.BEDAnnotation;
 import io.compgen.ngsutils.vcf.annotate.ConstantTag;
@@ -34,8 +41,9 @@ import io.compgen.ngsutils.vcf.annotate.VariantDistance;
 
 
 @Command(name="vcf-annotate", desc="Annotate a VCF file", category="vcf")
-public class VCFAnnotateCmd extends AbstractOutputCommand {
+public class VCFAnnotateCmd extends AbstractVCFOutputCommand {
 	private String filename = "-";
+	private int threads = 1;
 	private boolean onlyPassing = false;
 	private String altChrom = null;
 	private String altPos = null;
@@ -105,7 +113,7 @@ public class VCFAnnotateCmd extends AbstractOutputCommand {
     	}
     	
     }
-    @Option(desc="Add flanking bases/normalized mutation (ex: A[C>A]A) from reference FASTA file (FAI indexed) (INFO:CG_FLANKING). By default 1 base on either side is used.", name="flanking", helpValue="ref.fa{:num_of_bases}")
+    @Option(desc="Add flanking bases/normalized mutation (ex: A[C>A]A) from reference FASTA file (FAI indexed, or a 2bit file) (INFO:CG_FLANKING). By default 1 base on either side is used.", name="flanking", helpValue="ref.fa{:num_of_bases}")
     public void setFlanking(String arg) throws CommandArgumentException {
     	try{
     	    String[] spl = arg.split(":");
@@ -282,6 +290,14 @@ public class VCFAnnotateCmd extends AbstractOutputCommand {
     }
 
     
+    @Option(desc="Number of threads to use (the input file must be bgzip compressed and tabix indexed)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @UnnamedArg(name = "input.vcf", required=true)
     public void setFilename(String filename) throws CommandArgumentException {
     	this.filename = filename;
@@ -296,8 +312,6 @@ public class VCFAnnotateCmd extends AbstractOutputCommand {
 			reader = new VCFReader(filename);
 		}
 		
-		NullAnnotator nullAnn = new NullAnnotator(reader, onlyPassing, true);
-
         if (altChrom != null) {
             for (int i=0; i< chain.size(); i++) {
                 chain.get(i).setAltChrom(altChrom);
@@ -317,12 +331,11 @@ public class VCFAnnotateCmd extends AbstractOutputCommand {
         }
         
 		VCFHeader header = reader.getHeader();
+		boolean wholeRefs = false;
 		for (int i=0; i< chain.size(); i++) {
 			chain.get(i).setHeader(header);
-			if (i == 0) {
-				chain.get(i).setParent(nullAnn);
-			} else {
-				chain.get(i).setParent(chain.get(i-1));
+			if (chain.get(i) instanceof VariantDistance) {
+				wholeRefs = true;
 			}
 		}
 		
@@ -331,20 +344,41 @@ public class VCFAnnotateCmd extends AbstractOutputCommand {
 			header.addLine("##ngsutilsj_vcf_annotateVersion="+NGSUtils.getVersion());
 		}
 		
-		VCFWriter writer = new VCFWriter(out, header);
-//		VCFWriter writer;
-//		if (out.equals("-")) {
-//			writer = new VCFWriter(System.out, header);
-//		} else {
-//			writer = new VCFWriter(out, header);
-//		}
+		final VCFWriter writer = createWriter(header);
+
+		FileChannel channel = reader.getChannel();
+		Iterator<VCFRecord> it = ProgressUtils.getIterator(reader.getFilename(), reader.iterator(), (channel == null)? null : new FileChannelStats(channel), new ProgressMessage<VCFRecord>() {
+            public String msg(VCFRecord current) {
+                return current.getChrom()+":"+current.getPos();
+            }}, new CloseableFinalizer<VCFRecord>());
+
+		// each shard has its own chain (VariantDistance needs to see all of the records for a chromosome)
+		VCFShardExecutor.run(reader, threads, wholeRefs, it, writer, new VCFShardExecutor.Task<Void>() {
+			@Override
+			public Void run(Iterator<VCFRecord> it, OutputStream shardOut) throws Exception {
+				VCFWriter shardWriter = writer.shardWriter(shardOut);
+				List<VCFAnnotator> shardChain = new ArrayList<VCFAnnotator>();
+				VCFAnnotator parent = new NullAnnotator(it, onlyPassing);
+				for (VCFAnnotator ann: chain) {
+					VCFAnnotator copy = ann.copy();
+					copy.setParent(parent);
+					shardChain.add(copy);
+					parent = copy;
+				}
+
+				VCFRecord rec = parent.next();
+				while (rec != null) {
+					shardWriter.write(rec);
+					rec = parent.next();
+				}
+
+				for (VCFAnnotator ann: shardChain) {
+					ann.close();
+				}
+				shardWriter.close();
+				return null;
+			}});
 
-		VCFRecord rec = chain.get(chain.size()-1).next();
-		while (rec != null) {
-			writer.write(rec);
-			rec = chain.get(chain.size()-1).next();
-		}
-		
 		for (int i=0; i< chain.size(); i++) {
 			chain.get(i).close();
 		}
@@ -9,7 +9,6 @@ import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.SetBuilder;
 import io.compgen.ngsutils.NGSUtils;
@@ -21,7 +20,7 @@ import io.compgen.ngsutils.vcf.VCFWriter;
 
 
 @Command(name="vcf-chrfix", desc="Changes the reference (chrom) format (Ensembl/UCSC)", category="vcf")
-public class VCFChrFix extends AbstractOutputCommand {
+public class VCFChrFix extends AbstractVCFOutputCommand {
 	private String filename = "-";
 	private boolean ucsc = false;
     private boolean ensembl = false;
@@ -125,7 +124,7 @@ public class VCFChrFix extends AbstractOutputCommand {
 		}
 
 	
-		VCFWriter writer = new VCFWriter(out, header);
+		VCFWriter writer = createWriter(header);
 //		VCFWriter writer;
 //		if (out.equals("-")) {
 //			writer = new VCFWriter(System.out, header);
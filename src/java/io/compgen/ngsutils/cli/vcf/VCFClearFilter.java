@@ -12,7 +12,6 @@ import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.TallyValues;
 import io.compgen.common.progress.FileChannelStats;
@@ -34,7 +33,7 @@ import io.compgen.ngsutils.vcf.VCFWriter;
 		+ "also be used to clear filters when they are the *only* filter set\n"
 		+ "for a variant. Cleared filters will be annotated in the CG_CLEARED_FILTER\n"
 		+ "INFO field.")
-public class VCFClearFilter extends AbstractOutputCommand {
+public class VCFClearFilter extends AbstractVCFOutputCommand {
 	private String filename = "-";
 	
     private boolean onlyOutputPass = false;
@@ -85,7 +84,7 @@ public class VCFClearFilter extends AbstractOutputCommand {
 			header.addLine("##ngsutilsj__clearfilterVersion="+NGSUtils.getVersion());
 		}
 		
-		VCFWriter writer = new VCFWriter(out, header);
+		VCFWriter writer = createWriter(header);
 		
 		
 		FileChannel channel = reader.getChannel();
@@ -2,8 +2,10 @@ package io.compgen.ngsutils.cli.vcf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -36,6 +38,7 @@ import io.compgen.ngsutils.vcf.VCFAttributeException;
 import io.compgen.ngsutils.vcf.VCFHeader;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFShardExecutor;
 
 
 @Command(name="vcf-count", desc="For each variant in a VCF file, count the number of ref and alt alleles in a BAM file", category="vcf")
@@ -67,6 +70,7 @@ public class VCFCount extends AbstractOutputCommand {
     private boolean outputPvalue = false;
     
     private boolean skipMissing = false;
+    private int threads = 1;
 
 
     @Option(desc = "Only keep properly paired reads", name = "proper-pairs")
@@ -173,6 +177,14 @@ public class VCFCount extends AbstractOutputCommand {
         this.skipMissing = val;
     }
 
+    @Option(desc="Number of threads to use (the input file must be bgzip compressed and tabix indexed)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @Option(desc="Reference FASTA file (optional, used to validate variant positions)", name="ref")
     public void setRefFilename(String refFilename) {
         this.refFilename = refFilename;
@@ -200,12 +212,9 @@ public class VCFCount extends AbstractOutputCommand {
 	          throw new CommandArgumentException("The VCF file must contain the \"AD\" format annotation to output allele frequencies from the VCF file.");
 		}
 
-		int sampleIdx = 0;
-        if (sampleName != null) {
-            sampleIdx = reader.getHeader().getSamplePosByName(sampleName);
-        }
+		final int sampleIdx = (sampleName != null) ? reader.getHeader().getSamplePosByName(sampleName) : 0;
 
-        Set<String> bamReferences = new HashSet<String>();
+        final Set<String> bamReferences = new HashSet<String>();
         SamReaderFactory readerFactory = SamReaderFactory.makeDefault();
         SamReader samreader = readerFactory.open(new File(bamFilename));
         for (SAMSequenceRecord samseq: samreader.getFileHeader().getSequenceDictionary().getSequences()) {
@@ -220,7 +229,7 @@ public class VCFCount extends AbstractOutputCommand {
         writer.write_line("## vcf-input: " + vcfFilename);
         writer.write_line("## bam-input: " + bamFilename);
 
-        BAMPileup pileup = new BAMPileup(bamFilename);
+        final BAMPileup pileup = new BAMPileup(bamFilename);
         pileup.setFlagFilter(filterFlags);
         pileup.setFlagRequired(requiredFlags);
         pileup.setMinBaseQual(minBaseQual);
@@ -269,7 +278,6 @@ public class VCFCount extends AbstractOutputCommand {
             total += reader.getHeader().getContigLength(chr);
         }
         
-        final List<VCFRecord> recordBlock = new ArrayList<VCFRecord>();
         final VCFHeader header = reader.getHeader();
         final long totalF = total;
         
@@ -309,71 +317,79 @@ public class VCFCount extends AbstractOutputCommand {
                 }};
         }
         
-		for (VCFRecord record: IterUtils.wrap(ProgressUtils.getIterator(vcfFilename.equals("-") ? "variants <stdin>": vcfFilename, reader.iterator(), progressStats, progressMessage))) {
-			if (onlyOutputPass && record.isFiltered()) {
-				continue;
-			}
-
-			if (onlySNVs && record.isIndel()) {
-				continue;
-			}
+		Iterator<VCFRecord> it = ProgressUtils.getIterator(vcfFilename.equals("-") ? "variants <stdin>": vcfFilename, reader.iterator(), progressStats, progressMessage);
+
+		VCFShardExecutor.run(reader, threads, it, VCFShardExecutor.streamOutput(System.out), new VCFShardExecutor.Task<Void>() {
+			@Override
+			public Void run(Iterator<VCFRecord> it, OutputStream out) throws Exception {
+				TabWriter shardWriter = new TabWriter(VCFShardExecutor.noClose(out));
+				List<VCFRecord> recordBlock = new ArrayList<VCFRecord>();
+
+				for (VCFRecord record: IterUtils.wrap(it)) {
+					if (onlyOutputPass && record.isFiltered()) {
+						continue;
+					}
+
+					if (onlySNVs && record.isIndel()) {
+						continue;
+					}
 			
-			if (skipMissing && !bamReferences.contains(record.getChrom())) {
-			    continue;
-			} else if (!bamReferences.contains(record.getChrom())) {
-			    throw new Exception("Contig/chromosome present in VCF file missing in BAM file ("+record.getChrom()+")");
-			}
+					if (skipMissing && !bamReferences.contains(record.getChrom())) {
+					    continue;
+					} else if (!bamReferences.contains(record.getChrom())) {
+					    throw new Exception("Contig/chromosome present in VCF file missing in BAM file ("+record.getChrom()+")");
+					}
 			
-			if (hetOnly) {
-			    if (!record.getSampleAttributes().get(sampleIdx).contains("GT")) {
-			        throw new CommandArgumentException("Missing GT field");
-			    }
-
-	            String val = record.getSampleAttributes().get(sampleIdx).get("GT").asString(null);
-
-	            // if 0/0 or 1/1, etc -- skip
-                if (val.indexOf('/')>-1) {
-                    String[] v2 = val.split("/");
-                    if (v2.length == 2 && v2[0].equals(v2[1])) {
-                        continue;
-                    }
-                } else if (val.indexOf('|')>-1) {
-                    String[] v2 = val.split("\\|");
-                    if (v2.length == 2 && v2[0].equals(v2[1])) {
-                        continue;
-                    }
-                }
-			}
+					if (hetOnly) {
+					    if (!record.getSampleAttributes().get(sampleIdx).contains("GT")) {
+					        throw new CommandArgumentException("Missing GT field");
+					    }
+
+			            String val = record.getSampleAttributes().get(sampleIdx).get("GT").asString(null);
+
+			            // if 0/0 or 1/1, etc -- skip
+		                if (val.indexOf('/')>-1) {
+		                    String[] v2 = val.split("/");
+		                    if (v2.length == 2 && v2[0].equals(v2[1])) {
+		                        continue;
+		                    }
+		                } else if (val.indexOf('|')>-1) {
+		                    String[] v2 = val.split("\\|");
+		                    if (v2.length == 2 && v2[0].equals(v2[1])) {
+		                        continue;
+		                    }
+		                }
+					}
 			
-			if (maxBatchLen > 0) {
-				// Batch processing
+					if (maxBatchLen > 0) {
+// Batch processing
 				
-                if (recordBlock.size() > 0) {
-                    if (!recordBlock.get(0).getChrom().equals(record.getChrom())) {
-                        processVariants(recordBlock, pileup, writer, sampleIdx);
-                        recordBlock.clear();
-                    } else if (record.getPos() - recordBlock.get(0).getPos() > maxBatchLen) {
-                        processVariants(recordBlock, pileup, writer, sampleIdx);
-                        recordBlock.clear();
-                    }
-                }
+		                if (recordBlock.size() > 0) {
+		                    if (!recordBlock.get(0).getChrom().equals(record.getChrom())) {
+		                        processVariants(recordBlock, pileup, shardWriter, sampleIdx);
+		                        recordBlock.clear();
+		                    } else if (record.getPos() - recordBlock.get(0).getPos() > maxBatchLen) {
+		                        processVariants(recordBlock, pileup, shardWriter, sampleIdx);
+		                        recordBlock.clear();
+		                    }
+		                }
     			
-                recordBlock.add(record);
-			} else {
-				// Single variant processing, but each pos could have multiple variants (lines), so we track this too
-                if (recordBlock.size() > 0) {
-                    if (!recordBlock.get(0).getChrom().equals(record.getChrom())) {
-                        processVariants(recordBlock, pileup, writer, sampleIdx);
-                        recordBlock.clear();
-                    } else if (record.getPos() != recordBlock.get(0).getPos()) {
-                        processVariants(recordBlock, pileup, writer, sampleIdx);
-                        recordBlock.clear();
-                    }
-                }
+		                recordBlock.add(record);
+					} else {
+// Single variant processing, but each pos could have multiple variants (lines), so we track this too
+		                if (recordBlock.size() > 0) {
+		                    if (!recordBlock.get(0).getChrom().equals(record.getChrom())) {
+		                        processVariants(recordBlock, pileup, shardWriter, sampleIdx);
+		                        recordBlock.clear();
+		                    } else if (record.getPos() != recordBlock.get(0).getPos()) {
+		                        processVariants(recordBlock, pileup, shardWriter, sampleIdx);
+		                        recordBlock.clear();
+		                    }
+		                }
     			
-                recordBlock.add(record);
+		                recordBlock.add(record);
 //			    processVariant(record, pileup, writer, sampleIdx);
-			}
+					}
             
 
 //            if (indel) {
@@ -384,11 +400,14 @@ public class VCFCount extends AbstractOutputCommand {
 //                System.out.println();
 //            }
 		
-		}
-
-		if (recordBlock.size() > 0) {
-		    processVariants(recordBlock, pileup, writer, sampleIdx);
-		}
+				}
+
+				if (recordBlock.size() > 0) {
+				    processVariants(recordBlock, pileup, shardWriter, sampleIdx);
+				}
+				shardWriter.close();
+				return null;
+			}});
 
 		reader.close();
 		writer.close();
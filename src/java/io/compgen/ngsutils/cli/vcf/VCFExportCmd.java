@@ -1,6 +1,7 @@
 package io.compgen.ngsutils.cli.vcf;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -20,6 +21,7 @@ import io.compgen.ngsutils.NGSUtils;
 import io.compgen.ngsutils.vcf.VCFHeader;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFShardExecutor;
 import io.compgen.ngsutils.vcf.export.ExportFormatField;
 import io.compgen.ngsutils.vcf.export.ExportInfoField;
 import io.compgen.ngsutils.vcf.export.FilterExport;
@@ -42,6 +44,7 @@ public class VCFExportCmd extends AbstractOutputCommand {
     private boolean onlySNVs = false;
     private boolean onlyIndel = false;
 	private boolean missingBlank = false;
+	private int threads = 1;
 	
     @Option(desc="Only output passing variants", name="passing")
     public void setOnlyOutputPass(boolean onlyOutputPass) {
@@ -63,6 +66,14 @@ public class VCFExportCmd extends AbstractOutputCommand {
         this.onlyIndel = onlyIndel;
     }
 
+    @Option(desc="Number of threads to use (the input file must be bgzip compressed and tabix indexed)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @Option(desc="Don't export the header line", name="no-header")
     public void setNoHeader(boolean noHeader) {
         this.noHeader = noHeader;
@@ -229,37 +240,44 @@ public class VCFExportCmd extends AbstractOutputCommand {
         }
 
         Iterator<VCFRecord> it = reader.iterator();
-		
-		for (VCFRecord rec: IterUtils.wrap(it)) {
-			if (onlyOutputPass && rec.isFiltered()) {
-				continue;
-			}
-			
-            if (onlySNVs && rec.isIndel()) {
-                continue;               
-            }
-
-            if (onlyIndel && !rec.isIndel()) {
-                continue;          
-            }
 
-			List<String> outs = new ArrayList<String>();
-
-	        for (String k: extras.keySet()) {
-	            outs.add(extras.get(k));
-	        }
-			
-			outs.add(rec.getChrom());
-			outs.add(""+rec.getPos());
-			outs.add(rec.getRef());
-			outs.add(StringUtils.join(",", rec.getAlt()));
-			
-			for (VCFExport export: chain) {
-				export.export(rec, outs);
-			}
-			writer.write(outs);
-			writer.eol();
-		}
+		VCFShardExecutor.run(reader, threads, it, VCFShardExecutor.streamOutput(System.out), new VCFShardExecutor.Task<Void>() {
+			@Override
+			public Void run(Iterator<VCFRecord> it, OutputStream out) throws Exception {
+				TabWriter shardWriter = new TabWriter(VCFShardExecutor.noClose(out));
+				for (VCFRecord rec: IterUtils.wrap(it)) {
+					if (onlyOutputPass && rec.isFiltered()) {
+						continue;
+					}
+					
+		            if (onlySNVs && rec.isIndel()) {
+		                continue;               
+		            }
+		
+		            if (onlyIndel && !rec.isIndel()) {
+		                continue;          
+		            }
+		
+					List<String> outs = new ArrayList<String>();
+		
+			        for (String k: extras.keySet()) {
+			            outs.add(extras.get(k));
+			        }
+					
+					outs.add(rec.getChrom());
+					outs.add(""+rec.getPos());
+					outs.add(rec.getRef());
+					outs.add(StringUtils.join(",", rec.getAlt()));
+					
+					for (VCFExport export: chain) {
+						export.export(rec, outs);
+					}
+					shardWriter.write(outs);
+					shardWriter.eol();
+				}
+				shardWriter.close();
+				return null;
+			}});
 		
 		reader.close();
 		writer.close();
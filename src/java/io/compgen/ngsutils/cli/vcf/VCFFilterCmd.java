@@ -1,5 +1,6 @@
 package io.compgen.ngsutils.cli.vcf;
 
+import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -11,7 +12,6 @@ import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringUtils;
 import io.compgen.common.TabWriter;
@@ -24,9 +24,11 @@ import io.compgen.ngsutils.support.CloseableFinalizer;
 import io.compgen.ngsutils.vcf.VCFHeader;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFShardExecutor;
 import io.compgen.ngsutils.vcf.VCFWriter;
 import io.compgen.ngsutils.vcf.filter.Contains;
 import io.compgen.ngsutils.vcf.filter.Equals;
+import io.compgen.ngsutils.vcf.filter.ExpressionFilter;
 import io.compgen.ngsutils.vcf.filter.FlagAbsent;
 import io.compgen.ngsutils.vcf.filter.FlagPresent;
 import io.compgen.ngsutils.vcf.filter.FormatValueMissing;
@@ -41,17 +43,19 @@ import io.compgen.ngsutils.vcf.filter.NotContains;
 import io.compgen.ngsutils.vcf.filter.NotEquals;
 import io.compgen.ngsutils.vcf.filter.QualityScore;
 import io.compgen.ngsutils.vcf.filter.SNVFilter;
-import io.compgen.ngsutils.vcf.filter.VCFFilter;
+import io.compgen.ngsutils.vcf.filter.VCFFilterChain;
+import io.compgen.ngsutils.vcf.filter.VCFFilterException;
 
 
 @Command(name="vcf-filter", desc="Filter a VCF file", category="vcf", doc="Note: This command will set filters in the VCF file, "
         + "which is what you'd normally use to EXCLUDE records. Passing records match no filters.\n\nFor arguments that take a value in the form"
         + "of KEY:VAL:SAMPLEID:ALLELE, the only required values are KEY:VALUE. The other two are optional. For ALLELE options, possible allele "
         + "values are: sum, min, max, ref, nref (not the ref alleles) or alt1 (the first alt allele)")
-public class VCFFilterCmd extends AbstractOutputCommand {
+public class VCFFilterCmd extends AbstractVCFOutputCommand {
 	private String filename = "-";
+	private int threads = 1;
 	
-	List<VCFFilter> filterChain = new ArrayList<VCFFilter>();
+	VCFFilterChain filterChain = new VCFFilterChain();
 	
     private boolean onlyOutputPass = false;
     private boolean onlyOutputFail = false;
@@ -261,6 +265,27 @@ public class VCFFilterCmd extends AbstractOutputCommand {
 		}
     }
     
+    @Option(desc="Filter records where {EXPR} is true (multiple allowed). Variables: CHROM, POS, ID, REF, ALT, QUAL, INFO.{KEY}, SAMPLE.{SAMPLEID}.{KEY}; missing values are null. Ex: INFO.DP < 10 && QUAL < 30", name="expr", helpValue="NAME:EXPR", allowMultiple=true)
+    public void setExpr(String val) throws CommandArgumentException {
+        int idx = val.indexOf(':');
+        if (idx < 1) {
+            throw new CommandArgumentException("Malformed argument. Should be in form => NAME:EXPR");
+        }
+        try {
+            filterChain.add(new ExpressionFilter(val.substring(0, idx), val.substring(idx+1)));
+        } catch (VCFFilterException e) {
+            throw new CommandArgumentException(e.getMessage());
+        }
+    }
+    
+    @Option(desc="Number of threads to use (the input file must be bgzip compressed and tabix indexed)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @UnnamedArg(name = "input.vcf", required=true)
     public void setFilename(String filename) throws CommandArgumentException {
     	this.filename = filename;
@@ -276,19 +301,17 @@ public class VCFFilterCmd extends AbstractOutputCommand {
 		}
 		
 		VCFHeader header = reader.getHeader();
-		for (VCFFilter filter: filterChain) {
-			filter.setHeader(header);
-		}
+		filterChain.setHeader(header);
 		
 		header.addLine("##ngsutilsj_vcf_filterCommand="+NGSUtils.getArgs());
 		if (!header.contains("##ngsutilsj_vcf_filterVersion="+NGSUtils.getVersion())) {
 			header.addLine("##ngsutilsj__filterVersion="+NGSUtils.getVersion());
 		}
 		
-		VCFWriter writer = new VCFWriter(out, header);
+		final VCFWriter writer = createWriter(header);
 		
-		TallyValues<String> filterCounts = new TallyValues<String>();
-		TallyValues<String> filterCounts2 = new TallyValues<String>();
+		final TallyValues<String> filterCounts = new TallyValues<String>();
+		final TallyValues<String> filterCounts2 = new TallyValues<String>();
 		
 		FileChannel channel = reader.getChannel();
 		
@@ -297,42 +320,51 @@ public class VCFFilterCmd extends AbstractOutputCommand {
                 return current.getChrom()+":"+current.getPos();
             }}, new CloseableFinalizer<VCFRecord>());
 
+		// each shard returns {written, filtered}
+		List<long[]> counts = VCFShardExecutor.run(reader, threads, it, writer, new VCFShardExecutor.Task<long[]>() {
+			@Override
+			public long[] run(Iterator<VCFRecord> it, OutputStream shardOut) throws Exception {
+				VCFFilterChain chain = filterChain.copy();
+				VCFWriter shardWriter = writer.shardWriter(shardOut);
+
+				long count = 0;
+				long filtered = 0;
+
+				for (VCFRecord rec: IterUtils.wrap(it)) {
+					chain.filter(rec);
+
+					if (!rec.isFiltered()) {
+						if (!onlyOutputFail) {
+							count++;
+							shardWriter.write(rec);
+						}
+					}
+					if (rec.isFiltered()) {
+						filtered++;
+						if (!onlyOutputPass) {
+							shardWriter.write(rec);
+						}
+						List<String> filters = new ArrayList<String>();
+						filters.addAll(rec.getFilters());
+						Collections.sort(filters);
+						String key = StringUtils.join(",", filters);
+						synchronized (filterCounts) {
+							for (String filter: rec.getFilters()) {
+								filterCounts.incr(filter);
+							}
+							filterCounts2.incr(key);
+						}
+					}
+				}
+				shardWriter.close();
+				return new long[] { count, filtered };
+			}});
 
-		
 		long count = 0;
 		long filtered = 0;
-		
-		for (VCFRecord rec: IterUtils.wrap(it)) {
-//			System.err.println(rec+" ;; " + !onlyOutputPass+" ;; "+!rec.isFiltered());
-			for (VCFFilter filter: filterChain) {
-				filter.filter(rec);
-//				System.err.println("filter: " + filter+ " rec = "+rec);
-				if (rec == null) {
-					break;
-				}
-			}
-			
-//			System.err.println(rec+" ;; " + !onlyOutputPass+" ;; "+!rec.isFiltered());
-			if (!rec.isFiltered()) {
-				if (!onlyOutputFail) {
-					count++;
-					writer.write(rec);
-				}
-			}
-			if (rec.isFiltered()) {
-				filtered++;
-				if (!onlyOutputPass) {
-					writer.write(rec);
-				}
-				for (String filter: rec.getFilters()) {
-					filterCounts.incr(filter);
-				}
-				List<String> filters = new ArrayList<String>();
-				filters.addAll(rec.getFilters());
-				Collections.sort(filters);
-				String key = StringUtils.join(",", filters);
-				filterCounts2.incr(key);
-			}
+		for (long[] c: counts) {
+			count += c[0];
+			filtered += c[1];
 		}
 		
 		System.err.println(    "Wrote   : " + count + " variants");
@@ -352,6 +384,7 @@ public class VCFFilterCmd extends AbstractOutputCommand {
 			}
 		}
 		
+		filterChain.close();
 		reader.close();
 		writer.close();
 	}
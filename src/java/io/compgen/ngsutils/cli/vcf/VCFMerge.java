@@ -9,7 +9,6 @@ import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringUtils;
 import io.compgen.ngsutils.NGSUtils;
@@ -30,7 +29,7 @@ import io.compgen.ngsutils.vcf.VCFWriter;
 		+ "on the command-line wins. If a variant is missing from any of the VCF files, \n"
 		+ "an error will be thrown.")
 
-public class VCFMerge extends AbstractOutputCommand {
+public class VCFMerge extends AbstractVCFOutputCommand {
 	private String[] filenames = null;
     
     @UnnamedArg(name = "input1.vcf...", required=true)
@@ -95,7 +94,7 @@ public class VCFMerge extends AbstractOutputCommand {
 		    header.addLine("##ngsutilsj_vcf_mergeVersion="+NGSUtils.getVersion());
 		}
 	
-		VCFWriter writer = new VCFWriter(out, header);
+		VCFWriter writer = createWriter(header);
 
 		for (VCFRecord rec: IterUtils.wrap(primary.iterator())) {
 			List<VCFRecord> secondary = new ArrayList<VCFRecord>();
@@ -1,10 +1,13 @@
 package io.compgen.ngsutils.cli.vcf;
 
+import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -14,13 +17,13 @@ import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.common.StringUtils;
-import io.compgen.common.TallyValues;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
 import io.compgen.common.progress.ProgressUtils;
 import io.compgen.ngsutils.support.CloseableFinalizer;
 import io.compgen.ngsutils.vcf.VCFReader;
 import io.compgen.ngsutils.vcf.VCFRecord;
+import io.compgen.ngsutils.vcf.VCFShardExecutor;
 
 
 @Command(name="vcf-stats", desc="Summary statistics about a VCF file", category="vcf")
@@ -31,6 +34,7 @@ public class VCFStats extends AbstractOutputCommand {
     private boolean showFullFilters = false;
     private List<String> infoFields = null;
     private List<String> infoPresentFields = null;
+    private int threads = 1;
     
     @Option(desc="Show full filter combinations", name="filter-combo")
     public void setShowFullFilters(boolean showFullFilters) {
@@ -61,6 +65,14 @@ public class VCFStats extends AbstractOutputCommand {
         }
     }
     
+    @Option(desc="Number of threads to use (the input file must be bgzip compressed and tabix indexed)", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+        if (threads < 1) {
+            throw new CommandArgumentException("--threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
     @UnnamedArg(name = "input.vcf", required=true)
     public void setFilename(String filename) throws CommandArgumentException {
     	this.filename = filename;
@@ -83,6 +95,75 @@ public class VCFStats extends AbstractOutputCommand {
             }}, new CloseableFinalizer<VCFRecord>());
 
 		
+		List<Stats> shards = VCFShardExecutor.run(reader, threads, it, null, new VCFShardExecutor.Task<Stats>() {
+			@Override
+			public Stats run(Iterator<VCFRecord> it, OutputStream out) throws Exception {
+				Stats stats = new Stats();
+				for (VCFRecord rec: IterUtils.wrap(it)) {
+					stats.add(rec);
+				}
+				return stats;
+			}});
+
+		Stats stats = new Stats();
+		for (Stats shard: shards) {
+			stats.merge(shard);
+		}
+
+		reader.close();
+
+		System.out.println("Total variants:\t" + stats.count);
+		System.out.println("Filtered variants:\t" + stats.filtered);
+		System.out.println("Passing variants:\t" + stats.passing);
+		System.out.println();
+		System.out.println("SNV:\t" + (stats.passing - stats.indel - stats.refonly));
+		System.out.println("Indels:\t" + stats.indel);
+		System.out.println("Reference-only:\t" + stats.refonly);
+		System.out.println();
+		System.out.println("Transitions:\t" + stats.tsCount);
+		System.out.println("Transversions:\t" + stats.tvCount);
+		System.out.println("Ts/Tv ratio:\t" + ((double) stats.tsCount / stats.tvCount));
+		System.out.println();
+
+		if (showFullFilters) {
+			System.out.println();
+			System.out.println("[Filter combinations]");
+			for (String filter: stats.fullFilterCounts.keySet()) {
+				System.out.println(filter+": " +stats.fullFilterCounts.get(filter));
+			}
+		} else {
+			System.out.println("[Filters]");
+			for (String filter: stats.filterCounts.keySet()) {
+				System.out.println(filter+": " +stats.filterCounts.get(filter));
+			}
+		}
+
+		if (infoFields != null) {
+            for (int i=0; i< infoFields.size(); i++) {
+    			System.out.println();
+    			System.out.println("["+infoFields.get(i)+"]");
+    			for (String k: stats.infoTally.get(i).keySet()) {
+    				System.out.println(k+"\t"+stats.infoTally.get(i).get(k));
+    			}
+				System.out.println("*missing*\t"+stats.infoTallyMissing[i]);
+            }
+		}
+		if (infoPresentFields != null) {
+            for (int i=0; i< infoPresentFields.size(); i++) {
+    			System.out.println();
+    			System.out.println("["+infoPresentFields.get(i)+"]");
+				System.out.println("Present\t"+stats.infoPresent[i]);
+				System.out.println("Absent\t"+stats.infoAbsent[i]);
+            }
+		}
+		
+	}
+
+
+	/**
+	 * Counts for one shard of the file (these are merged at the end)
+	 */
+	private class Stats {
 		long count = 0;
 		long passing = 0;
 		long filtered = 0;
@@ -91,37 +172,37 @@ public class VCFStats extends AbstractOutputCommand {
 		long tvCount = 0;
 		long indel = 0;
 
-		TallyValues<String> filterCounts = new TallyValues<String>();
-		TallyValues<String> fullFilterCounts = new TallyValues<String>();
-		
-		List<TallyValues<String>> infoTally = new ArrayList<TallyValues<String>>();
-		int[] infoTallyPresent = new int[infoPresentFields == null ? 0:infoPresentFields.size()];
-		int[] infoTallyMissing = new int[infoPresentFields == null ? 0:infoPresentFields.size()];
-		
-		if (infoFields != null) {
-			for (int i=0; i< infoFields.size(); i++) {
-				infoTally.add(new TallyValues<String>());
+		Map<String, Long> filterCounts = new TreeMap<String, Long>();
+		Map<String, Long> fullFilterCounts = new TreeMap<String, Long>();
+
+		List<Map<String, Long>> infoTally = new ArrayList<Map<String, Long>>();
+		long[] infoTallyMissing = new long[infoFields == null ? 0:infoFields.size()];
+		long[] infoPresent = new long[infoPresentFields == null ? 0:infoPresentFields.size()];
+		long[] infoAbsent = new long[infoPresentFields == null ? 0:infoPresentFields.size()];
+
+		Stats() {
+			for (int i=0; i< infoTallyMissing.length; i++) {
+				infoTally.add(new TreeMap<String, Long>());
 			}
 		}
 
-		
-		for (VCFRecord rec: IterUtils.wrap(it)) {
+		void add(VCFRecord rec) {
 			count++;
 
 			if (rec.isFiltered()) {
 				filtered++;
 				for (String filter: rec.getFilters()) {
-					filterCounts.incr(filter);
+					incr(filterCounts, filter, 1);
 				}
 				if (showFullFilters) {
 					List<String> filters = new ArrayList<String>();
 					filters.addAll(rec.getFilters());
 					Collections.sort(filters);
 					String key = StringUtils.join(",", filters);
-					fullFilterCounts.incr(key);
+					incr(fullFilterCounts, key, 1);
 				}
 				if (onlyPassing) {
-					continue;
+					return;
 				}
 			}
 
@@ -144,71 +225,53 @@ public class VCFStats extends AbstractOutputCommand {
             if (infoFields != null) {
 	            for (int i=0; i< infoFields.size(); i++) {
 	            	if (rec.getInfo().contains(infoFields.get(i))) {
-	            		infoTally.get(i).incr(rec.getInfo().get(infoFields.get(i)).toString());
+	            		incr(infoTally.get(i), rec.getInfo().get(infoFields.get(i)).toString(), 1);
 	            	} else {
-	            		infoTally.get(i).incrMissing();
+	            		infoTallyMissing[i]++;
 	            	}
 	            }
             }
             if (infoPresentFields != null) {
 	            for (int i=0; i< infoPresentFields.size(); i++) {
 	            	if (rec.getInfo().contains(infoPresentFields.get(i))) {
-	            		infoTallyPresent[i]++;
+	            		infoPresent[i]++;
 	            	} else {
-	            		infoTallyMissing[i]++;
+	            		infoAbsent[i]++;
 	            	}
 	            }
             }
-			
 		}
 
-		reader.close();
+		void merge(Stats other) {
+			count += other.count;
+			passing += other.passing;
+			filtered += other.filtered;
+			refonly += other.refonly;
+			tsCount += other.tsCount;
+			tvCount += other.tvCount;
+			indel += other.indel;
 
-		System.out.println("Total variants:\t" + count);
-		System.out.println("Filtered variants:\t" + filtered);
-		System.out.println("Passing variants:\t" + passing);
-		System.out.println();
-		System.out.println("SNV:\t" + (passing - indel - refonly));
-		System.out.println("Indels:\t" + indel);
-		System.out.println("Reference-only:\t" + refonly);
-		System.out.println();
-		System.out.println("Transitions:\t" + tsCount);
-		System.out.println("Transversions:\t" + tvCount);
-		System.out.println("Ts/Tv ratio:\t" + ((double) tsCount / tvCount));
-		System.out.println();
-
-		if (showFullFilters) {
-			System.out.println();
-			System.out.println("[Filter combinations]");
-			for (String filter: fullFilterCounts.keySet()) {
-				System.out.println(filter+": " +fullFilterCounts.getCount(filter));
+			for (String k: other.filterCounts.keySet()) {
+				incr(filterCounts, k, other.filterCounts.get(k));
 			}
-		} else {
-			System.out.println("[Filters]");
-			for (String filter: filterCounts.keySet()) {
-				System.out.println(filter+": " +filterCounts.getCount(filter));
+			for (String k: other.fullFilterCounts.keySet()) {
+				incr(fullFilterCounts, k, other.fullFilterCounts.get(k));
+			}
+			for (int i=0; i< infoTally.size(); i++) {
+				for (String k: other.infoTally.get(i).keySet()) {
+					incr(infoTally.get(i), k, other.infoTally.get(i).get(k));
+				}
+				infoTallyMissing[i] += other.infoTallyMissing[i];
+			}
+			for (int i=0; i< infoPresent.length; i++) {
+				infoPresent[i] += other.infoPresent[i];
+				infoAbsent[i] += other.infoAbsent[i];
 			}
 		}
-
-		if (infoFields != null) {
-            for (int i=0; i< infoFields.size(); i++) {
-    			System.out.println();
-    			System.out.println("["+infoFields.get(i)+"]");
-    			for (String k: infoTally.get(i).keySet()) {
-    				System.out.println(k+"\t"+infoTally.get(i).getCount(k));
-    			}
-				System.out.println("*missing*\t"+infoTally.get(i).getMissing());
-            }
-		}
-		if (infoPresentFields != null) {
-            for (int i=0; i< infoPresentFields.size(); i++) {
-    			System.out.println();
-    			System.out.println("["+infoPresentFields.get(i)+"]");
-				System.out.println("Present\t"+infoTallyPresent[i]);
-				System.out.println("Absent\t"+infoTallyMissing[i]);
-            }
-		}
-		
 	}
 
+	private static void incr(Map<String, Long> tally, String key, long n) {
+		Long cur = tally.get(key);
+		tally.put(key, cur == null ? n : cur + n);
+	}
 }
@@ -8,7 +8,6 @@ import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
-import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
 import io.compgen.ngsutils.NGSUtils;
 import io.compgen.ngsutils.vcf.VCFHeader;
@@ -18,7 +17,7 @@ import io.compgen.ngsutils.vcf.VCFWriter;
 
 
 @Command(name="vcf-strip", desc="Remove all annotation and sample information (FILTER,INFO,FORMAT,dbSNP) but keep output in VCF format", category="vcf")
-public class VCFStrip extends AbstractOutputCommand {
+public class VCFStrip extends AbstractVCFOutputCommand {
 	private String filename = "-";
 
     private boolean onlyOutputPass = false;
@@ -133,7 +132,7 @@ public class VCFStrip extends AbstractOutputCommand {
 		    header.addLine("##ngsutilsj_vcf_stripVersion="+NGSUtils.getVersion());
 		}
 	
-		VCFWriter writer = new VCFWriter(out, header);
+		VCFWriter writer = createWriter(header);
 //		VCFWriter writer;
 //		if (out.equals("-")) {
 //			writer = new VCFWriter(System.out, header);
@@ -3,6 +3,9 @@ package io.compgen.ngsutils.fasta;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Set;
+
+import io.compgen.common.StringLineReader;
 
 public abstract class FastaReader {
 
@@ -12,8 +15,26 @@ public abstract class FastaReader {
     public abstract String fetchSequence(String ref, int start, int end) throws IOException;
     public abstract Iterator<FastaRecord> iterator() throws IOException;
     public abstract void close() throws IOException;
+
+    /**
+     * @return the names of the sequences in the file (in order), or null if the file isn't
+     * indexed (FASTA files need a .fai index, 2bit files are always indexed)
+     */
+    public Set<String> getReferenceNames() {
+        return null;
+    }
+
+    /**
+     * @return the length of a sequence, or -1 if it is unknown (or the file isn't indexed)
+     */
+    public long getReferenceLength(String name) {
+        return -1;
+    }
     
     public static FastaReader open(String filename) throws IOException {
+        if (TwoBitFastaFile.isTwoBit(filename)) {
+            return new TwoBitFastaFile(filename);
+        }
         if (new File(filename+".fai").exists()) {
             return new IndexedFastaFile(filename);
         }
@@ -22,4 +43,15 @@ public abstract class FastaReader {
 
     }
 
+    /**
+     * Returns a line reader for a FASTA file. 2bit files are converted to FASTA text as they
+     * are read, so commands that read FASTA files line by line can also use 2bit files.
+     */
+    public static StringLineReader lineReader(String filename) throws IOException {
+        if (TwoBitFastaFile.isTwoBit(filename)) {
+            return new StringLineReader(new TwoBitFastaFile(filename).textStream(TwoBitFastaFile.DEFAULT_WRAP));
+        }
+        return new StringLineReader(filename);
+    }
+
 }
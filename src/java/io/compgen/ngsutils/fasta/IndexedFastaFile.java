@@ -9,9 +9,10 @@ import java.util.Set;
 
 import io.compgen.common.StringLineReader;
 import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.support.ResourceCache;
 
 public class IndexedFastaFile extends BasicFastaReader {
-    public class IndexRecord {
+    public static class IndexRecord {
         public final String name;
         public final long length;
         public final long offset;
@@ -30,9 +31,10 @@ public class IndexedFastaFile extends BasicFastaReader {
     
     private RandomAccessFile file;
 
-    private Map<String, IndexRecord> indexMap = new LinkedHashMap<String, IndexRecord>();
+    // read-only after loading (can be shared by the ResourceCache)
+    private Map<String, IndexRecord> indexMap;
     
-    public IndexedFastaFile(String filename) throws IOException {
+    public IndexedFastaFile(final String filename) throws IOException {
         super(filename);
         
         if (!new File(filename+".fai").exists()) {
@@ -40,16 +42,24 @@ public class IndexedFastaFile extends BasicFastaReader {
         }
         
         file = new RandomAccessFile(filename, "r");
-        for (String line: new StringLineReader(filename+".fai")) {
-            String[] cols = StringUtils.strip(line).split("\t");
-            indexMap.put(cols[0], new IndexRecord(cols[0], Long.parseLong(cols[1]), Long.parseLong(cols[2]), Integer.parseInt(cols[3]), Integer.parseInt(cols[4])));
-        }
+        indexMap = ResourceCache.get("fai", filename+".fai", new ResourceCache.Loader<Map<String, IndexRecord>>() {
+            @Override
+            public Map<String, IndexRecord> load() throws IOException {
+                Map<String, IndexRecord> map = new LinkedHashMap<String, IndexRecord>();
+                for (String line: new StringLineReader(filename+".fai")) {
+                    String[] cols = StringUtils.strip(line).split("\t");
+                    map.put(cols[0], new IndexRecord(cols[0], Long.parseLong(cols[1]), Long.parseLong(cols[2]), Integer.parseInt(cols[3]), Integer.parseInt(cols[4])));
+                }
+                return map;
+            }});
     }
     
+    @Override
     public Set<String> getReferenceNames() {
         return indexMap.keySet();
     }
     
+    @Override
     public long getReferenceLength(String name) {
         if (indexMap.containsKey(name)) {
             return indexMap.get(name).length;
@@ -68,27 +78,32 @@ public class IndexedFastaFile extends BasicFastaReader {
         if (!indexMap.containsKey(ref)) {
             throw new RuntimeException("Invalid reference name! \""+ref+"\" not found in FASTA file!");
         }
-        long pos = indexMap.get(ref).offset;
-        int linenum = start / indexMap.get(ref).lineSeqLength;
-        int lineoff = start % indexMap.get(ref).lineSeqLength;
-        pos += linenum * indexMap.get(ref).lineOffsetLength + lineoff;
-        
-        String out = "";
-        
-        int chars = 0;
-        file.seek(pos);
-        while (chars < end-start) {
-            out += (char)file.readByte();
-            chars++;
+        IndexRecord idx = indexMap.get(ref);
+        if (end <= start) {
+            return "";
+        }
+
+        // read all of the lines for the region at once, then skip the line endings
+        long first = idx.offset + (long) (start / idx.lineSeqLength) * idx.lineOffsetLength + (start % idx.lineSeqLength);
+        long last = idx.offset + (long) ((end - 1) / idx.lineSeqLength) * idx.lineOffsetLength + ((end - 1) % idx.lineSeqLength);
+
+        byte[] buf = new byte[(int) (last - first + 1)];
+        file.seek(first);
+        file.readFully(buf);
+
+        StringBuilder out = new StringBuilder(end - start);
+        int lineoff = start % idx.lineSeqLength;
+        for (int i=0; i<buf.length; i++) {
+            if (lineoff < idx.lineSeqLength) {
+                out.append((char) buf[i]);
+            }
             lineoff++;
-            
-            if (lineoff >= indexMap.get(ref).lineSeqLength) {
-                file.skipBytes(indexMap.get(ref).lineOffsetLength - indexMap.get(ref).lineSeqLength);
+            if (lineoff >= idx.lineOffsetLength) {
                 lineoff = 0;
             }
         }
         
-        return out;
+        return out.toString();
         
     }
     
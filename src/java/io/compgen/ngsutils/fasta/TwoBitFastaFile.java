@@ -0,0 +1,438 @@
+package io.compgen.ngsutils.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.compgen.ngsutils.support.ResourceCache;
+
+/**
+ * Reads a reference genome from a UCSC 2bit file (see TwoBitWriter or UCSC faToTwoBit).
+ *
+ * Bases are packed four per byte, with separate lists of N runs and soft-masked
+ * (lowercase) runs. The file is memory-mapped read-only, so random access is cheap and
+ * processes on the same machine share one copy of the genome in the OS page cache. In one
+ * process (the resident server), the mapped file is shared with the ResourceCache.
+ *
+ * Format: https://genome.ucsc.edu/FAQ/FAQformat.html#format7
+ *
+ * @author mbreese
+ *
+ */
+public class TwoBitFastaFile extends FastaReader {
+    public static final int SIGNATURE = 0x1A412743;
+    public static final int DEFAULT_WRAP = 60;
+
+    // T, C, A, G => 0, 1, 2, 3 (first base in the high bits)
+    private static final byte[] BASES = new byte[] { 'T', 'C', 'A', 'G' };
+    private static final byte[][] DECODE = new byte[256][4];
+    static {
+        for (int i=0; i<256; i++) {
+            for (int j=0; j<4; j++) {
+                DECODE[i][j] = BASES[(i >> (6 - j * 2)) & 0x3];
+            }
+        }
+    }
+
+    /**
+     * One sequence in the file. The N and mask blocks are loaded the first time
+     * the sequence is used.
+     */
+    private static class Seq {
+        final String name;
+        final long offset;
+        final int size;
+
+        private int[] nStarts = null;
+        private int[] nEnds = null;
+        private int[] maskStarts = null;
+        private int[] maskEnds = null;
+        private long dnaOffset = -1;
+
+        Seq(String name, long offset, int size) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The memory-mapped file. This is read-only (once the blocks for a sequence are loaded),
+     * so it can be shared between threads.
+     */
+    private static class TwoBitData {
+        // each segment overlaps the next one, so ints never cross a segment boundary
+        private static final long SEGMENT_SIZE = 1L << 30;
+        private static final int OVERLAP = 8;
+
+        private final MappedByteBuffer[] segments;
+        private final Map<String, Seq> seqs = new LinkedHashMap<String, Seq>();
+
+        TwoBitData(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size();
+                if (length < 16) {
+                    throw new IOException("Invalid 2bit file: "+file);
+                }
+
+                int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+                segments = new MappedByteBuffer[count];
+                for (int i=0; i<count; i++) {
+                    long start = i * SEGMENT_SIZE;
+                    long size = Math.min(length - start, SEGMENT_SIZE + OVERLAP);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                }
+            } finally {
+                // the mapping stays valid after the channel is closed
+                raf.close();
+            }
+
+            ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+            if (getInt(0, ByteOrder.LITTLE_ENDIAN) != SIGNATURE) {
+                if (getInt(0, ByteOrder.BIG_ENDIAN) != SIGNATURE) {
+                    throw new IOException("Invalid 2bit file (bad signature): "+file);
+                }
+                order = ByteOrder.BIG_ENDIAN;
+            }
+            for (MappedByteBuffer seg: segments) {
+                seg.order(order);
+            }
+
+            int version = getInt(4);
+            if (version != 0 && version != 1) {
+                throw new IOException("Unsupported 2bit version ("+version+"): "+file);
+            }
+
+            long seqCount = getInt(8) & 0xFFFFFFFFL;
+            long pos = 16;
+            for (long i=0; i<seqCount; i++) {
+                int nameLen = getByte(pos) & 0xFF;
+                byte[] nameBuf = new byte[nameLen];
+                for (int j=0; j<nameLen; j++) {
+                    nameBuf[j] = getByte(pos + 1 + j);
+                }
+                pos += 1 + nameLen;
+
+                long offset;
+                if (version == 0) {
+                    offset = getInt(pos) & 0xFFFFFFFFL;
+                    pos += 4;
+                } else {
+                    offset = getLong(pos);
+                    pos += 8;
+                }
+
+                String name = new String(nameBuf, "US-ASCII");
+                seqs.put(name, new Seq(name, offset, getInt(offset)));
+            }
+        }
+
+        byte getByte(long pos) {
+            return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+        }
+
+        int getInt(long pos) {
+            return segments[(int) (pos / SEGMENT_SIZE)].getInt((int) (pos % SEGMENT_SIZE));
+        }
+
+        private int getInt(long pos, ByteOrder order) {
+            return segments[(int) (pos / SEGMENT_SIZE)].duplicate().order(order).getInt((int) (pos % SEGMENT_SIZE));
+        }
+
+        long getLong(long pos) {
+            return segments[(int) (pos / SEGMENT_SIZE)].getLong((int) (pos % SEGMENT_SIZE));
+        }
+
+        Seq getSeq(String name) {
+            Seq seq = seqs.get(name);
+            if (seq == null) {
+                throw new RuntimeException("Invalid reference name! \""+name+"\" not found in 2bit file!");
+            }
+            synchronized (seq) {
+                if (seq.dnaOffset == -1) {
+                    long pos = seq.offset + 4;
+                    int nCount = getInt(pos);
+                    seq.nStarts = readInts(pos + 4, nCount);
+                    seq.nEnds = readEnds(pos + 4 + 4L * nCount, seq.nStarts);
+                    pos += 4 + 8L * nCount;
+
+                    int maskCount = getInt(pos);
+                    seq.maskStarts = readInts(pos + 4, maskCount);
+                    seq.maskEnds = readEnds(pos + 4 + 4L * maskCount, seq.maskStarts);
+                    pos += 4 + 8L * maskCount;
+
+                    // reserved
+                    seq.dnaOffset = pos + 4;
+                }
+            }
+            return seq;
+        }
+
+        private int[] readInts(long pos, int count) {
+            int[] vals = new int[count];
+            for (int i=0; i<count; i++) {
+                vals[i] = getInt(pos + 4L * i);
+            }
+            return vals;
+        }
+
+        private int[] readEnds(long pos, int[] starts) {
+            int[] ends = readInts(pos, starts.length);
+            for (int i=0; i<ends.length; i++) {
+                ends[i] += starts[i];
+            }
+            return ends;
+        }
+
+        /**
+         * Writes the bases from [start, end) of seq to buf (as ASCII)
+         */
+        void decode(Seq seq, int start, int end, byte[] buf, int off) {
+            int pos = start;
+            int i = off;
+
+            while (pos < end && (pos & 0x3) != 0) {
+                buf[i++] = DECODE[getByte(seq.dnaOffset + (pos >> 2)) & 0xFF][pos & 0x3];
+                pos++;
+            }
+            while (pos + 4 <= end) {
+                byte[] quad = DECODE[getByte(seq.dnaOffset + (pos >> 2)) & 0xFF];
+                buf[i++] = quad[0];
+                buf[i++] = quad[1];
+                buf[i++] = quad[2];
+                buf[i++] = quad[3];
+                pos += 4;
+            }
+            while (pos < end) {
+                buf[i++] = DECODE[getByte(seq.dnaOffset + (pos >> 2)) & 0xFF][pos & 0x3];
+                pos++;
+            }
+
+            for (int b=firstBlock(seq.nStarts, seq.nEnds, start); b < seq.nStarts.length && seq.nStarts[b] < end; b++) {
+                int from = Math.max(start, seq.nStarts[b]);
+                int to = Math.min(end, seq.nEnds[b]);
+                for (int j=from; j<to; j++) {
+                    buf[off + j - start] = 'N';
+                }
+            }
+
+            for (int b=firstBlock(seq.maskStarts, seq.maskEnds, start); b < seq.maskStarts.length && seq.maskStarts[b] < end; b++) {
+                int from = Math.max(start, seq.maskStarts[b]);
+                int to = Math.min(end, seq.maskEnds[b]);
+                for (int j=from; j<to; j++) {
+                    buf[off + j - start] |= 0x20;
+                }
+            }
+        }
+
+        /**
+         * @return the index of the first block that ends after pos (blocks are sorted)
+         */
+        private static int firstBlock(int[] starts, int[] ends, int pos) {
+            int lo = 0;
+            int hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] <= pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final String filename;
+    private final TwoBitData data;
+    private boolean closed = false;
+
+    public TwoBitFastaFile(final String filename) throws IOException {
+        this.filename = filename;
+        this.data = ResourceCache.get("2bit", filename, new ResourceCache.Loader<TwoBitData>() {
+            @Override
+            public TwoBitData load() throws IOException {
+                return new TwoBitData(new File(filename));
+            }});
+    }
+
+    /**
+     * @return true if the file exists and starts with the 2bit signature (in either byte order)
+     */
+    public static boolean isTwoBit(String filename) {
+        File f = new File(filename);
+        if (!f.isFile() || f.length() < 16) {
+            return false;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            int sig = raf.readInt();
+            raf.close();
+            return sig == SIGNATURE || Integer.reverseBytes(sig) == SIGNATURE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Set<String> getReferenceNames() {
+        return data.seqs.keySet();
+    }
+
+    @Override
+    public long getReferenceLength(String name) {
+        if (data.seqs.containsKey(name)) {
+            return data.seqs.get(name).size;
+        }
+        return -1;
+    }
+
+    /*
+     * start is zero-based
+     */
+    @Override
+    public String fetchSequence(String ref, int start, int end) throws IOException {
+        if (closed) {
+            throw new IOException("FastaReader closed");
+        }
+
+        Seq seq = data.getSeq(ref);
+        start = Math.max(start, 0);
+        end = Math.min(end, seq.size);
+        if (start >= end) {
+            return "";
+        }
+
+        byte[] buf = new byte[end - start];
+        data.decode(seq, start, end, buf, 0);
+        return new String(buf, "US-ASCII");
+    }
+
+    @Override
+    public Iterator<FastaRecord> iterator() throws IOException {
+        if (closed) {
+            throw new IOException("FastaReader closed");
+        }
+
+        final Iterator<String> names = data.seqs.keySet().iterator();
+        return new Iterator<FastaRecord>() {
+            @Override
+            public boolean hasNext() {
+                return names.hasNext();
+            }
+
+            @Override
+            public FastaRecord next() {
+                String name = names.next();
+                try {
+                    return new FastaRecord(name, fetchSequence(name, 0, data.seqs.get(name).size));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    /**
+     * Returns the file as FASTA text (wrapped at {wrap} bases per line). The sequence is
+     * decoded as the stream is read, so the full sequence is never held in memory.
+     */
+    public InputStream textStream(final int wrap) throws IOException {
+        if (closed) {
+            throw new IOException("FastaReader closed");
+        }
+
+        return new InputStream() {
+            // decode about 64KB at a time
+            private final int chunk = Math.max(1, 65536 / wrap) * wrap;
+            private final Iterator<String> names = data.seqs.keySet().iterator();
+            private final byte[] bases = new byte[chunk];
+
+            private byte[] buf = new byte[chunk + chunk / wrap + 1];
+            private int len = 0;
+            private int pos = 0;
+
+            private Seq seq = null;
+            private int seqPos = 0;
+
+            private boolean fill() {
+                pos = 0;
+                len = 0;
+
+                if (seq == null || seqPos >= seq.size) {
+                    if (!names.hasNext()) {
+                        return false;
+                    }
+                    seq = data.getSeq(names.next());
+                    seqPos = 0;
+
+                    byte[] header = (">" + seq.name + "\n").getBytes();
+                    if (header.length > buf.length) {
+                        buf = new byte[header.length];
+                    }
+                    System.arraycopy(header, 0, buf, 0, header.length);
+                    len = header.length;
+                    return true;
+                }
+
+                int end = Math.min(seq.size, seqPos + chunk);
+                data.decode(seq, seqPos, end, bases, 0);
+                for (int i=0; i<end-seqPos; i+=wrap) {
+                    int n = Math.min(wrap, end - seqPos - i);
+                    System.arraycopy(bases, i, buf, len, n);
+                    len += n;
+                    buf[len++] = '\n';
+                }
+                seqPos = end;
+                return true;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (pos >= len && !fill()) {
+                    return -1;
+                }
+                return buf[pos++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int n) throws IOException {
+                if (n == 0) {
+                    return 0;
+                }
+                if (pos >= len && !fill()) {
+                    return -1;
+                }
+                int count = Math.min(n, len - pos);
+                System.arraycopy(buf, pos, b, off, count);
+                pos += count;
+                return count;
+            }
+        };
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mapped file is released when it is garbage collected
+        closed = true;
+    }
+}
@@ -0,0 +1,276 @@
+package io.compgen.ngsutils.fasta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes sequences in the UCSC 2bit format (see TwoBitFastaFile). Sequences are added one
+ * at a time (startSequence, then the bases in any number of chunks).
+ *
+ * The index at the start of the file needs the size of each sequence, so the sequences are
+ * written to a temporary file and copied to the output when the writer is closed. Only one
+ * sequence is kept in memory at a time (about 1/4 of its length).
+ *
+ * Bases other than A, C, G, T are stored as N (lowercase bases are soft-masked).
+ *
+ * @author mbreese
+ *
+ */
+public class TwoBitWriter {
+    private static class IntList {
+        private int[] vals = new int[256];
+        private int len = 0;
+
+        void add(int val) {
+            if (len == vals.length) {
+                vals = Arrays.copyOf(vals, len * 2);
+            }
+            vals[len++] = val;
+        }
+    }
+
+    private final OutputStream out;
+    private final File tmp;
+    private final OutputStream tmpOut;
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<Long> sizes = new ArrayList<Long>();
+    private final Set<String> seen = new HashSet<String>();
+
+    private String name = null;
+    private long pos = 0;
+    private int cur = 0;
+    private byte[] packed = new byte[1024 * 1024];
+    private int packedLen = 0;
+
+    private IntList nStarts;
+    private IntList nSizes;
+    private IntList maskStarts;
+    private IntList maskSizes;
+    private long nStart = -1;
+    private long maskStart = -1;
+
+    private long invalidBases = 0;
+
+    public TwoBitWriter(OutputStream out) throws IOException {
+        this.out = out;
+        this.tmp = File.createTempFile(".ngsutilsj-2bit", ".tmp");
+        this.tmp.deleteOnExit();
+        this.tmpOut = new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 1024);
+    }
+
+    public void startSequence(String name) throws IOException {
+        finishSequence();
+
+        if (name.length() > 255) {
+            throw new IOException("Sequence name is too long for a 2bit file (max 255): "+name);
+        }
+        if (!seen.add(name)) {
+            throw new IOException("Duplicate sequence name: "+name);
+        }
+
+        this.name = name;
+        pos = 0;
+        cur = 0;
+        packedLen = 0;
+        nStarts = new IntList();
+        nSizes = new IntList();
+        maskStarts = new IntList();
+        maskSizes = new IntList();
+        nStart = -1;
+        maskStart = -1;
+    }
+
+    /**
+     * Adds bases to the current sequence (whitespace is ignored)
+     */
+    public void addBases(CharSequence bases) throws IOException {
+        if (name == null) {
+            throw new IOException("Missing sequence name (FASTA header)");
+        }
+
+        for (int i=0; i<bases.length(); i++) {
+            char c = bases.charAt(i);
+            int code;
+            boolean isN = false;
+
+            switch (c) {
+            case 'T':
+            case 't':
+                code = 0;
+                break;
+            case 'C':
+            case 'c':
+                code = 1;
+                break;
+            case 'A':
+            case 'a':
+                code = 2;
+                break;
+            case 'G':
+            case 'g':
+                code = 3;
+                break;
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                continue;
+            case 'N':
+            case 'n':
+                code = 0;
+                isN = true;
+                break;
+            default:
+                code = 0;
+                isN = true;
+                invalidBases++;
+            }
+
+            if (pos == Integer.MAX_VALUE) {
+                throw new IOException("Sequence is too long for a 2bit file: "+name);
+            }
+
+            if (isN && nStart == -1) {
+                nStart = pos;
+            } else if (!isN && nStart > -1) {
+                nStarts.add((int) nStart);
+                nSizes.add((int) (pos - nStart));
+                nStart = -1;
+            }
+
+            boolean isLower = c >= 'a' && c <= 'z';
+            if (isLower && maskStart == -1) {
+                maskStart = pos;
+            } else if (!isLower && maskStart > -1) {
+                maskStarts.add((int) maskStart);
+                maskSizes.add((int) (pos - maskStart));
+                maskStart = -1;
+            }
+
+            cur = (cur << 2) | code;
+            if ((pos & 0x3) == 3) {
+                addPacked(cur);
+                cur = 0;
+            }
+            pos++;
+        }
+    }
+
+    private void addPacked(int b) {
+        if (packedLen == packed.length) {
+            packed = Arrays.copyOf(packed, packedLen * 2);
+        }
+        packed[packedLen++] = (byte) b;
+    }
+
+    private void finishSequence() throws IOException {
+        if (name == null) {
+            return;
+        }
+
+        if ((pos & 0x3) != 0) {
+            addPacked(cur << (2 * (4 - (pos & 0x3))));
+        }
+        if (nStart > -1) {
+            nStarts.add((int) nStart);
+            nSizes.add((int) (pos - nStart));
+        }
+        if (maskStart > -1) {
+            maskStarts.add((int) maskStart);
+            maskSizes.add((int) (pos - maskStart));
+        }
+
+        writeInt(tmpOut, (int) pos);
+        writeInt(tmpOut, nStarts.len);
+        writeInts(tmpOut, nStarts);
+        writeInts(tmpOut, nSizes);
+        writeInt(tmpOut, maskStarts.len);
+        writeInts(tmpOut, maskStarts);
+        writeInts(tmpOut, maskSizes);
+        writeInt(tmpOut, 0);
+        tmpOut.write(packed, 0, packedLen);
+
+        names.add(name);
+        sizes.add(16L + 8L * nStarts.len + 8L * maskStarts.len + packedLen);
+        name = null;
+    }
+
+    /**
+     * @return the number of bases that weren't A, C, G, T, or N (these are written as N)
+     */
+    public long getInvalidBases() {
+        return invalidBases;
+    }
+
+    public void close() throws IOException {
+        finishSequence();
+        tmpOut.close();
+
+        long indexSize = 16;
+        long dataSize = 0;
+        for (int i=0; i<names.size(); i++) {
+            indexSize += 1 + names.get(i).length() + 4;
+            dataSize += sizes.get(i);
+        }
+
+        // version 1 uses 64-bit offsets (for files > 4GB)
+        int version = (indexSize + dataSize > 0xFFFFFFFFL) ? 1 : 0;
+        if (version == 1) {
+            indexSize += 4 * names.size();
+        }
+
+        writeInt(out, TwoBitFastaFile.SIGNATURE);
+        writeInt(out, version);
+        writeInt(out, names.size());
+        writeInt(out, 0);
+
+        long offset = indexSize;
+        for (int i=0; i<names.size(); i++) {
+            byte[] nameBytes = names.get(i).getBytes("US-ASCII");
+            out.write(nameBytes.length);
+            out.write(nameBytes);
+            writeInt(out, (int) offset);
+            if (version == 1) {
+                writeInt(out, (int) (offset >> 32));
+            }
+            offset += sizes.get(i);
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(tmp));
+        byte[] buf = new byte[1024 * 1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        tmp.delete();
+
+        out.flush();
+    }
+
+    private static void writeInts(OutputStream os, IntList vals) throws IOException {
+        for (int i=0; i<vals.len; i++) {
+            writeInt(os, vals.vals[i]);
+        }
+    }
+
+    // little-endian
+    private static void writeInt(OutputStream os, int val) throws IOException {
+        os.write(val & 0xFF);
+        os.write((val >> 8) & 0xFF);
+        os.write((val >> 16) & 0xFF);
+        os.write((val >> 24) & 0xFF);
+    }
+}
@@ -0,0 +1,119 @@
+package io.compgen.ngsutils.fastq;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Finds the first position of any of a set of adapter sequences in a read, using an
+ * Aho-Corasick automaton so that all of the adapters are searched in one pass over the read.
+ * Matching is case-insensitive (adapters and reads are upper-cased).
+ *
+ * @author mbreese
+ *
+ */
+public class AdapterMatcher {
+    private static final int ALPHABET = 128;
+
+    private final int[][] next;
+    // length of the longest adapter that ends at this state (following fail links), or 0
+    private final int[] matchLen;
+    private final int maxLen;
+
+    public AdapterMatcher(String... adapters) {
+        int states = 1;
+        for (String adapter: adapters) {
+            states += adapter.length();
+        }
+
+        int[][] gotoTable = new int[states][ALPHABET];
+        for (int[] row: gotoTable) {
+            Arrays.fill(row, -1);
+        }
+        int[] len = new int[states];
+        int count = 1;
+        int longest = 0;
+
+        for (String adapter: adapters) {
+            if (adapter.length() == 0) {
+                throw new IllegalArgumentException("Adapter sequences can not be empty");
+            }
+            int state = 0;
+            for (int i=0; i<adapter.length(); i++) {
+                int c = symbol(adapter.charAt(i));
+                if (gotoTable[state][c] == -1) {
+                    gotoTable[state][c] = count++;
+                }
+                state = gotoTable[state][c];
+            }
+            len[state] = adapter.length();
+            longest = Math.max(longest, adapter.length());
+        }
+
+        // build the fail links (BFS), and turn the goto table into a full transition table
+        int[] fail = new int[count];
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        for (int c=0; c<ALPHABET; c++) {
+            if (gotoTable[0][c] == -1) {
+                gotoTable[0][c] = 0;
+            } else {
+                fail[gotoTable[0][c]] = 0;
+                queue.add(gotoTable[0][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            // the longest adapter ending at a state starts first, so if this state isn't the end
+            // of an adapter, use the longest suffix that is.
+            if (len[state] == 0) {
+                len[state] = len[fail[state]];
+            }
+            for (int c=0; c<ALPHABET; c++) {
+                int child = gotoTable[state][c];
+                if (child == -1) {
+                    gotoTable[state][c] = gotoTable[fail[state]][c];
+                } else {
+                    fail[child] = gotoTable[fail[state]][c];
+                    queue.add(child);
+                }
+            }
+        }
+
+        this.next = Arrays.copyOf(gotoTable, count);
+        this.matchLen = Arrays.copyOf(len, count);
+        this.maxLen = longest;
+    }
+
+    /**
+     * Returns the start of the first (left-most) adapter in the sequence, or -1. Only
+     * adapters that end before the last base of the sequence are considered.
+     */
+    public int findFirst(String seq) {
+        int best = -1;
+        int state = 0;
+        for (int i=0; i<seq.length()-1; i++) {
+            if (best > -1 && i - maxLen + 1 > best) {
+                // any other match would start after the one we found
+                break;
+            }
+            state = next[state][symbol(seq.charAt(i))];
+            if (matchLen[state] > 0) {
+                int start = i - matchLen[state] + 1;
+                if (best == -1 || start < best) {
+                    best = start;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 32;
+        }
+        if (c >= ALPHABET) {
+            return ALPHABET - 1;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,358 @@
+package io.compgen.ngsutils.fastq;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * QC stats for a set of reads (read length, per-position base calls and quality scores,
+ * GC%, median read quality, and adapter positions). Everything is kept in primitive arrays
+ * and the stats from separate sets of reads can be merged, so reads can be tallied in
+ * batches on separate threads.
+ *
+ * Quantiles, min, and max are calculated the same way as TallyCounts.
+ *
+ * @author mbreese
+ *
+ */
+public class FastqQCStats {
+    public static final String ILLUMINA_ADAPTER = "AGATCGGAAGAG";  // From Universal Adapters, usable on first and second reads
+
+    private static final int BASE_A = 0;
+    private static final int BASE_C = 1;
+    private static final int BASE_G = 2;
+    private static final int BASE_T = 3;
+    private static final int BASE_OTHER = 4;
+    private static final int QUALS = 94;
+
+    private final AdapterMatcher adapters;
+
+    private long readCount = 0;
+    private long badReadCount = 0;
+    private int maxlen = 0;
+
+    private long[] readLength = new long[0];
+    private long[][] baseCounts = new long[0][];
+    private long[][] qualCounts = new long[0][];
+    private long[] gcPct = new long[101];
+    private long[] medianQual = new long[QUALS];
+    private long[] adapterPos = new long[0];
+
+    // scratch space for the per-read quality histogram
+    private int[] readQuals = new int[QUALS];
+
+    /**
+     * @param adapters - for adapter positions (can be null)
+     */
+    public FastqQCStats(AdapterMatcher adapters) {
+        this.adapters = adapters;
+    }
+
+    public void add(FastqRead read) {
+        String seq = read.getSeq();
+        String qual = read.getQual();
+
+        readCount++;
+        if (seq.length() != qual.length()) {
+            badReadCount++;
+        }
+
+        readLength = incr(readLength, qual.length(), 1);
+        if (qual.length() > maxlen) {
+            maxlen = qual.length();
+        }
+
+        // base call frequency and GC%
+        ensurePositions(seq.length());
+        int gc = 0;
+        for (int i=0; i<seq.length(); i++) {
+            switch (seq.charAt(i)) {
+            case 'A':
+            case 'a':
+                baseCounts[i][BASE_A]++;
+                break;
+            case 'C':
+            case 'c':
+                baseCounts[i][BASE_C]++;
+                gc++;
+                break;
+            case 'G':
+            case 'g':
+                baseCounts[i][BASE_G]++;
+                gc++;
+                break;
+            case 'T':
+            case 't':
+                baseCounts[i][BASE_T]++;
+                break;
+            default:
+                baseCounts[i][BASE_OTHER]++;
+                break;
+            }
+        }
+        if (seq.length() > 0) {
+            gcPct[100 * gc / seq.length()]++;
+        }
+
+        // base quality frequency
+        ensurePositions(qual.length());
+        int qualTotal = 0;
+        int qualMin = -1;
+        int qualMax = -1;
+        for (int i=0; i<qual.length(); i++) {
+            int q = qual.charAt(i) - 33;
+            if (q < 0) {
+                // TallyCounts ignores negative values
+                continue;
+            }
+            qualCounts[i] = incr(qualCounts[i], q, 1);
+            if (q >= readQuals.length) {
+                readQuals = Arrays.copyOf(readQuals, q + 1);
+            }
+            readQuals[q]++;
+            qualTotal++;
+            if (qualMin == -1 || q < qualMin) {
+                qualMin = q;
+            }
+            if (q > qualMax) {
+                qualMax = q;
+            }
+        }
+
+        // median quality for the read (counting, not sorting)
+        if (qualTotal > 0) {
+            double target = 0.5 * qualTotal;
+            long acc = 0;
+            int median = qualMax;
+            for (int q=qualMin; q<=qualMax && acc < target; q++) {
+                acc += readQuals[q];
+                if (acc > target) {
+                    median = q;
+                    break;
+                }
+            }
+            medianQual = incr(medianQual, median, 1);
+            for (int q=qualMin; q<=qualMax; q++) {
+                readQuals[q] = 0;
+            }
+        }
+
+        if (adapters != null) {
+            int pos = adapters.findFirst(seq);
+            if (pos > -1) {
+                adapterPos = incr(adapterPos, pos, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the counts from another set of reads to this one.
+     */
+    public void merge(FastqQCStats other) {
+        readCount += other.readCount;
+        badReadCount += other.badReadCount;
+        maxlen = Math.max(maxlen, other.maxlen);
+
+        readLength = merge(readLength, other.readLength);
+        gcPct = merge(gcPct, other.gcPct);
+        medianQual = merge(medianQual, other.medianQual);
+        adapterPos = merge(adapterPos, other.adapterPos);
+
+        ensurePositions(other.baseCounts.length);
+        for (int i=0; i<other.baseCounts.length; i++) {
+            baseCounts[i] = merge(baseCounts[i], other.baseCounts[i]);
+            qualCounts[i] = merge(qualCounts[i], other.qualCounts[i]);
+        }
+    }
+
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Reads where the sequence and quality lengths don't match
+     */
+    public long getBadReadCount() {
+        return badReadCount;
+    }
+
+    /**
+     * Writes the stats for read1 (and read2, if not null) in the fastq-stats report format.
+     */
+    public static void writeReport(OutputStream out, long fragmentCount, FastqQCStats read1, FastqQCStats read2, boolean showAdapters) throws IOException {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Fragment-count:\t"+fragmentCount+"\n");
+        sb.append("Interleaved:\t"+(read2 != null ? "yes":"no")+"\n");
+
+        sb.append("\n");
+        sb.append("read-length\tmin\t5%\t25%\t50%\t75%\t95%\tmax\n");
+        sb.append("read1");
+        appendQuantiles(sb, read1.readLength);
+        if (read2 != null) {
+            sb.append("read2");
+            appendQuantiles(sb, read2.readLength);
+        }
+
+        sb.append("\n");
+        appendBaseFreq(sb, "read1", read1);
+        if (read2 != null) {
+            sb.append("\n");
+            appendBaseFreq(sb, "read2", read2);
+        }
+
+        sb.append("\n");
+        appendBaseQual(sb, "read1", read1);
+        if (read2 != null) {
+            sb.append("\n");
+            appendBaseQual(sb, "read2", read2);
+        }
+
+        sb.append("\n");
+        appendCounts(sb, "gc-pct-read1", read1.gcPct);
+        if (read2 != null) {
+            sb.append("\n");
+            appendCounts(sb, "gc-pct-read2", read2.gcPct);
+        }
+
+        sb.append("\n");
+        appendCounts(sb, "median-read-qual-read1", read1.medianQual);
+        if (read2 != null) {
+            sb.append("\n");
+            appendCounts(sb, "median-read-qual-read2", read2.medianQual);
+        }
+
+        if (showAdapters) {
+            sb.append("\n");
+            appendAdapters(sb, "read1", read1);
+            if (read2 != null) {
+                sb.append("\n");
+                appendAdapters(sb, "read2", read2);
+            }
+        }
+
+        out.write(sb.toString().getBytes());
+    }
+
+    private static void appendBaseFreq(StringBuilder sb, String name, FastqQCStats stats) {
+        sb.append("base-call-freq-"+name+"\tA\tC\tG\tT\n");
+        for (int i=0; i<stats.baseCounts.length && total(stats.baseCounts[i]) > 0; i++) {
+            double total = total(stats.baseCounts[i]);
+            sb.append(i+1);
+            sb.append("\t"+String.format("%.3f", stats.baseCounts[i][BASE_A]/total));
+            sb.append("\t"+String.format("%.3f", stats.baseCounts[i][BASE_C]/total));
+            sb.append("\t"+String.format("%.3f", stats.baseCounts[i][BASE_G]/total));
+            sb.append("\t"+String.format("%.3f", stats.baseCounts[i][BASE_T]/total));
+            sb.append("\n");
+        }
+    }
+
+    private static void appendBaseQual(StringBuilder sb, String name, FastqQCStats stats) {
+        sb.append("base-qual-dist-"+name+"\tmin\t5%\t25%\t50%\t75%\t95%\tmax\n");
+        for (int i=0; i<stats.maxlen; i++) {
+            sb.append(i+1);
+            appendQuantiles(sb, stats.qualCounts[i]);
+        }
+    }
+
+    private static void appendAdapters(StringBuilder sb, String name, FastqQCStats stats) {
+        sb.append("adapter-counts-at-pos-"+name+"\tcount\n");
+        for (int i=0; i<=stats.maxlen; i++) {
+            sb.append((i+1)+"\t"+getCount(stats.adapterPos, i)+"\n");
+        }
+    }
+
+    private static void appendQuantiles(StringBuilder sb, long[] counts) {
+        sb.append("\t"+getMin(counts));
+        sb.append("\t"+getQuantile(counts, 0.05));
+        sb.append("\t"+getQuantile(counts, 0.25));
+        sb.append("\t"+getQuantile(counts, 0.50));
+        sb.append("\t"+getQuantile(counts, 0.75));
+        sb.append("\t"+getQuantile(counts, 0.95));
+        sb.append("\t"+getMax(counts));
+        sb.append("\n");
+    }
+
+    private static void appendCounts(StringBuilder sb, String name, long[] counts) {
+        sb.append(name+"\tcount\n");
+        for (int i=getMin(counts); i<=getMax(counts); i++) {
+            sb.append(i+"\t"+getCount(counts, i)+"\n");
+        }
+    }
+
+    private void ensurePositions(int len) {
+        if (len > baseCounts.length) {
+            int old = baseCounts.length;
+            baseCounts = Arrays.copyOf(baseCounts, len);
+            qualCounts = Arrays.copyOf(qualCounts, len);
+            for (int i=old; i<len; i++) {
+                baseCounts[i] = new long[5];
+                qualCounts[i] = new long[QUALS];
+            }
+        }
+    }
+
+    private static long[] incr(long[] counts, int value, long count) {
+        if (value >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(value + 1, counts.length * 2));
+        }
+        counts[value] += count;
+        return counts;
+    }
+
+    private static long[] merge(long[] counts, long[] other) {
+        if (other.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.length);
+        }
+        for (int i=0; i<other.length; i++) {
+            counts[i] += other[i];
+        }
+        return counts;
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long c: counts) {
+            total += c;
+        }
+        return total;
+    }
+
+    private static long getCount(long[] counts, int value) {
+        if (value < 0 || value >= counts.length) {
+            return 0;
+        }
+        return counts[value];
+    }
+
+    private static int getMin(long[] counts) {
+        for (int i=0; i<counts.length; i++) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int getMax(long[] counts) {
+        for (int i=counts.length-1; i>=0; i--) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int getQuantile(long[] counts, double pct) {
+        double target = pct * total(counts);
+        int max = getMax(counts);
+        long acc = 0;
+        for (int i=getMin(counts); i<=max && acc < target; i++) {
+            acc += getCount(counts, i);
+            if (acc > target) {
+                return i;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,219 @@
+package io.compgen.ngsutils.fastq;
+
+import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.support.SeqUtils;
+
+/**
+ * Finds the overlap between the end of R1 and the start of (reverse-complemented) R2.
+ *
+ *     R1-aaaaaaaaaaaccccc
+ *                   ccccc-R2
+ *
+ * Reads are packed into bit-planes (two bits for the base, one bit for N), 64 bases per
+ * long, so that each candidate overlap is scored with a few XOR/popcount operations
+ * instead of comparing one base at a time. The longest overlap with at most maxMismatches
+ * mismatches is used. N only matches N. Reads with other IUPAC codes are compared one
+ * base at a time.
+ *
+ * The merged read is R1 followed by the rest of R2. Within the overlap, the R1 base (and
+ * quality) is used, unless the bases don't match, in which case the base with the higher
+ * quality score is used.
+ *
+ * If dovetail is set, R2 can also start before R1 (the insert is shorter than the reads,
+ * so each read continues into the adapter):
+ *
+ *       R1-aaaaaaaaaaaXXX
+ *     XXXaaaaaaaaaaa-R2
+ *
+ * In this case, the merged read is only the insert (the overlap), and the adapter bases
+ * are dropped. Candidates are tried from the longest overlap to the shortest.
+ *
+ * @author mbreese
+ *
+ */
+public class ReadOverlap {
+    private static final int HI = 0;
+    private static final int LO = 1;
+    private static final int N = 2;
+
+    public static FastqRead findOverlap(FastqRead one, FastqRead two, int minOverlap, int maxMismatches) {
+        return findOverlap(one, two, minOverlap, maxMismatches, false);
+    }
+
+    public static FastqRead findOverlap(FastqRead one, FastqRead two, int minOverlap, int maxMismatches, boolean dovetail) {
+        String oneS = one.getSeq();
+        String twoS = two.getSeq();
+
+        int len1 = oneS.length();
+        int len2 = twoS.length();
+
+        long[][] planes1 = pack(oneS, false);
+        long[][] planes2 = pack(twoS, true);
+        String twoC = null;
+        if (planes1 == null || planes2 == null) {
+            twoC = SeqUtils.revcomp(twoS);
+        }
+
+        // the insert length (R1 starts at 0, and R2 ends at insertLen)
+        int insertLen = -1;
+        int shorter = Math.min(len1, len2);
+        for (int i = shorter; i >= minOverlap && i > 0 && insertLen == -1; i--) {
+            if (matches(oneS, planes1, twoC, planes2, len2, len1 + len2 - i, maxMismatches)) {
+                insertLen = len1 + len2 - i;
+            } else if (dovetail && i == shorter) {
+                // the shorter read is entirely within the longer one
+                for (int j = Math.max(len1, len2) - 1; j >= shorter && insertLen == -1; j--) {
+                    if (matches(oneS, planes1, twoC, planes2, len2, j, maxMismatches)) {
+                        insertLen = j;
+                    }
+                }
+            } else if (dovetail && i < shorter && matches(oneS, planes1, twoC, planes2, len2, i, maxMismatches)) {
+                insertLen = i;
+            }
+        }
+
+        if (insertLen == -1) {
+            return null;
+        }
+
+        if (twoC == null) {
+            twoC = SeqUtils.revcomp(twoS);
+        }
+        String oneQ = one.getQual();
+        // R2 qualities, in the same order as twoC
+        String twoQ = StringUtils.reverse(two.getQual());
+
+        // R2 (reverse-complemented) starts at this position in R1
+        int offset = insertLen - len2;
+        int end1 = Math.min(len1, insertLen);
+
+        StringBuilder seq = new StringBuilder(oneS.substring(0, end1));
+        StringBuilder qual = new StringBuilder(oneQ.substring(0, end1));
+
+        if (maxMismatches > 0) {
+            for (int pos1 = Math.max(0, offset); pos1 < end1; pos1++) {
+                int pos2 = pos1 - offset;
+                if (seq.charAt(pos1) != twoC.charAt(pos2)) {
+                    if (twoQ.charAt(pos2) > oneQ.charAt(pos1)) {
+                        seq.setCharAt(pos1, twoC.charAt(pos2));
+                        qual.setCharAt(pos1, twoQ.charAt(pos2));
+                    }
+                }
+            }
+        }
+
+        if (insertLen > len1) {
+            seq.append(twoC.substring(len1 - offset));
+            qual.append(twoQ.substring(len1 - offset));
+        }
+
+        return new FastqRead(one.getName(), seq.toString(), qual.toString());
+    }
+
+    /**
+     * Does R1 match R2 (reverse-complemented) for this insert length?
+     */
+    private static boolean matches(String oneS, long[][] planes1, String twoC, long[][] planes2, int len2, int insertLen, int maxMismatches) {
+        int offset = insertLen - len2;
+        int start1 = Math.max(0, offset);
+        int start2 = Math.max(0, -offset);
+        int len = Math.min(oneS.length(), insertLen) - start1;
+
+        int mismatches;
+        if (planes1 != null && planes2 != null) {
+            mismatches = countMismatches(planes1, start1, planes2, start2, len, maxMismatches);
+        } else {
+            mismatches = countMismatchesSlow(oneS, start1, twoC, start2, len, maxMismatches);
+        }
+        return mismatches <= maxMismatches;
+    }
+
+    /**
+     * Packs a sequence into bit-planes. If revcomp is set, the planes are for the
+     * reverse-complement of the sequence. Returns null if there is a base other than A, C, G, T, N.
+     */
+    private static long[][] pack(String seq, boolean revcomp) {
+        int len = seq.length();
+        long[][] planes = new long[3][(len + 63) / 64 + 1];
+
+        for (int i=0; i<len; i++) {
+            int code;
+            switch (seq.charAt(revcomp ? len - 1 - i: i)) {
+            case 'A':
+                code = 0;
+                break;
+            case 'C':
+                code = 1;
+                break;
+            case 'G':
+                code = 2;
+                break;
+            case 'T':
+                code = 3;
+                break;
+            case 'N':
+                code = 4;
+                break;
+            default:
+                return null;
+            }
+
+            if (code == 4) {
+                planes[N][i >>> 6] |= 1L << (i & 63);
+                continue;
+            }
+            if (revcomp) {
+                code = code ^ 3;
+            }
+            if ((code & 2) != 0) {
+                planes[HI][i >>> 6] |= 1L << (i & 63);
+            }
+            if ((code & 1) != 0) {
+                planes[LO][i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return planes;
+    }
+
+    /**
+     * 64 bits from the plane, starting at bit pos.
+     */
+    private static long window(long[] plane, int pos) {
+        int word = pos >>> 6;
+        int shift = pos & 63;
+        if (shift == 0) {
+            return plane[word];
+        }
+        return (plane[word] >>> shift) | (plane[word + 1] << (64 - shift));
+    }
+
+    private static int countMismatches(long[][] one, int start1, long[][] two, int start2, int len, int maxMismatches) {
+        int mismatches = 0;
+        for (int k=0; k<len; k+=64) {
+            long diff = (window(one[HI], start1 + k) ^ window(two[HI], start2 + k))
+                      | (window(one[LO], start1 + k) ^ window(two[LO], start2 + k))
+                      | (window(one[N], start1 + k) ^ window(two[N], start2 + k));
+            if (len - k < 64) {
+                diff &= (1L << (len - k)) - 1;
+            }
+            mismatches += Long.bitCount(diff);
+            if (mismatches > maxMismatches) {
+                return mismatches;
+            }
+        }
+        return mismatches;
+    }
+
+    private static int countMismatchesSlow(String oneS, int start1, String twoC, int start2, int len, int maxMismatches) {
+        int mismatches = 0;
+        for (int j=0; j<len; j++) {
+            if (oneS.charAt(start1 + j) != twoC.charAt(start2 + j)) {
+                mismatches++;
+                if (mismatches > maxMismatches) {
+                    return mismatches;
+                }
+            }
+        }
+        return mismatches;
+    }
+}
@@ -1,23 +1,20 @@
 package io.compgen.ngsutils.fastq.filter;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
 import io.compgen.ngsutils.fastq.FastqRead;
+import io.compgen.ngsutils.support.ReadNameSet;
 
 public class ExcludeListFilter extends AbstractSingleReadFilter {
-	private Set<String> names = new HashSet<String>();
+	private final ReadNameSet names;
 	public ExcludeListFilter(Iterable<FastqRead> parent, boolean verbose, String listFilename) throws FilteringException, IOException {
+		this(parent, verbose, listFilename, false);
+	}
+
+	public ExcludeListFilter(Iterable<FastqRead> parent, boolean verbose, String listFilename, boolean saveIndex) throws FilteringException, IOException {
 		super(parent, verbose);
 
-		BufferedReader br = new BufferedReader(new FileReader(listFilename));
-		for (String line; (line=br.readLine()) != null;) {
-		    names.add(line);
-		}
-		br.close();
+		names = ReadNameSet.load(listFilename, false, saveIndex);
 		
         if (verbose) {
             System.err.println("["+this.getClass().getSimpleName()+"] exclude list: " + listFilename + " (N=" + names.size() +")");
@@ -0,0 +1,358 @@
+package io.compgen.ngsutils.pileup;
+
+import java.io.File;
+import java.io.IOException;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+
+/**
+ * Calculates per-base read depth directly from a coordinate-sorted BAM file.
+ *
+ * This is a replacement for BAMPileup (samtools mpileup) when only the depth at
+ * each position is needed. Aligned blocks from each read are added to a ring-buffered
+ * difference array, and depth is returned as runs of positions with the same depth.
+ *
+ * Reads are filtered by minimum MAPQ and required/filtered flags, and (by default) paired
+ * reads that aren't properly paired are skipped. Aligned bases below the minimum base quality
+ * aren't counted. By default, reads with a deletion or reference skip at a position are
+ * counted, like the depth column from samtools mpileup. Callers that need different
+ * semantics should set setCountDeletions()/setCountGaps() explicitly.
+ *
+ * This isn't identical to mpileup: deletions and reference skips are counted without a base
+ * quality check, BAQ isn't used, and there is no maximum depth.
+ *
+ * @author mbreese
+ *
+ */
+public class BAMDepth {
+    public interface DepthHandler {
+        /**
+         * Called for each run of positions with the same depth, in order. Start is
+         * 0-based, end is exclusive. Runs of zero depth are included.
+         */
+        public void depth(String ref, int start, int end, int depth) throws IOException;
+    }
+
+    private final String filename;
+
+    private int minMappingQual = 0;
+    private int minBaseQual = 0;
+    private int filterFlags = 1796;
+    private int requiredFlags = 0;
+    private boolean countDeletions = true;
+    private boolean countGaps = true;
+    private boolean countOrphans = false;
+
+    public BAMDepth(String filename) {
+        this.filename = filename;
+    }
+
+    public void setMinMappingQual(int minMappingQual) {
+        this.minMappingQual = minMappingQual;
+    }
+
+    public void setMinBaseQual(int minBaseQual) {
+        this.minBaseQual = minBaseQual;
+    }
+
+    public void setFlagFilter(int filterFlags) {
+        this.filterFlags = filterFlags;
+    }
+
+    public void setFlagRequired(int requiredFlags) {
+        this.requiredFlags = requiredFlags;
+    }
+
+    /**
+     * Count reads with a deletion at a position (default: true)
+     */
+    public void setCountDeletions(boolean countDeletions) {
+        this.countDeletions = countDeletions;
+    }
+
+    /**
+     * Count reads with a reference skip (N, RNA splice junction) at a position (default: true)
+     */
+    public void setCountGaps(boolean countGaps) {
+        this.countGaps = countGaps;
+    }
+
+    /**
+     * Count paired reads that aren't properly paired (mpileup -A) (default: false)
+     */
+    public void setCountOrphans(boolean countOrphans) {
+        this.countOrphans = countOrphans;
+    }
+
+    /**
+     * Calculate depth for every reference in the BAM header (whole references, including
+     * zero depth runs).
+     */
+    public void depth(DepthHandler handler) throws IOException {
+        SamReader reader = open();
+        SAMFileHeader header = reader.getFileHeader();
+
+        SAMRecordIterator it = reader.iterator();
+        DepthBuffer buf = null;
+        int lastRefIdx = -1;
+
+        while (it.hasNext()) {
+            SAMRecord read = it.next();
+            int refIdx = read.getReferenceIndex();
+            if (refIdx < 0) {
+                // unmapped reads are at the end
+                break;
+            }
+
+            if (refIdx != lastRefIdx) {
+                if (refIdx < lastRefIdx) {
+                    it.close();
+                    reader.close();
+                    throw new IOException("BAM file is not sorted by coordinate: " + read.getReferenceName() + " found after " + header.getSequence(lastRefIdx).getSequenceName());
+                }
+
+                if (buf != null) {
+                    buf.finish();
+                }
+
+                // references without any reads
+                for (int i=lastRefIdx+1; i<refIdx; i++) {
+                    SAMSequenceRecord seq = header.getSequence(i);
+                    handler.depth(seq.getSequenceName(), 0, seq.getSequenceLength(), 0);
+                }
+
+                SAMSequenceRecord seq = header.getSequence(refIdx);
+                buf = new DepthBuffer(seq.getSequenceName(), 0, seq.getSequenceLength(), handler);
+                lastRefIdx = refIdx;
+            }
+
+            addRead(read, buf);
+        }
+
+        if (buf != null) {
+            buf.finish();
+        }
+        for (int i=lastRefIdx+1; i<header.getSequenceDictionary().size(); i++) {
+            SAMSequenceRecord seq = header.getSequence(i);
+            handler.depth(seq.getSequenceName(), 0, seq.getSequenceLength(), 0);
+        }
+
+        it.close();
+        reader.close();
+    }
+
+    /**
+     * Calculate depth for a region (requires an indexed BAM file). If the region doesn't
+     * have start/end coordinates, the entire reference is used.
+     */
+    public void depth(GenomeSpan region, DepthHandler handler) throws IOException {
+        SamReader reader = open();
+        SAMSequenceRecord seq = reader.getFileHeader().getSequence(region.ref);
+        if (seq == null) {
+            reader.close();
+            throw new IOException("BAM file missing reference: " + region.ref);
+        }
+
+        int start = region.start < 0 ? 0: region.start;
+        int end = region.end <= 0 ? seq.getSequenceLength() : Math.min(region.end, seq.getSequenceLength());
+
+        DepthBuffer buf = new DepthBuffer(region.ref, start, end, handler);
+        SAMRecordIterator it = reader.queryOverlapping(region.ref, start+1, end);
+        while (it.hasNext()) {
+            addRead(it.next(), buf);
+        }
+        buf.finish();
+
+        it.close();
+        reader.close();
+    }
+
+    private SamReader open() {
+        SamReaderFactory factory = SamReaderFactory.makeDefault();
+        factory.validationStringency(ValidationStringency.SILENT);
+        return factory.open(new File(filename));
+    }
+
+    private boolean keepRead(SAMRecord read) {
+        if (read.getReadUnmappedFlag()) {
+            return false;
+        }
+        int flags = read.getFlags();
+        if ((flags & filterFlags) != 0) {
+            return false;
+        }
+        if ((flags & requiredFlags) != requiredFlags) {
+            return false;
+        }
+        if (read.getMappingQuality() < minMappingQual) {
+            return false;
+        }
+        if (!countOrphans && read.getReadPairedFlag() && !read.getProperPairFlag()) {
+            return false;
+        }
+        return true;
+    }
+
+    private void addRead(SAMRecord read, DepthBuffer buf) throws IOException {
+        if (!keepRead(read)) {
+            return;
+        }
+
+        // everything before this read is final
+        buf.flush(read.getAlignmentStart() - 1);
+
+        byte[] quals = read.getBaseQualities();
+        boolean checkQual = minBaseQual > 0 && quals != null && quals.length > 0;
+
+        int refPos = read.getAlignmentStart() - 1;
+        int readPos = 0;
+
+        for (CigarElement el: read.getCigar().getCigarElements()) {
+            int len = el.getLength();
+            switch (el.getOperator()) {
+            case M:
+            case EQ:
+            case X:
+                if (!checkQual) {
+                    buf.add(refPos, refPos + len);
+                } else {
+                    // add runs of bases that pass the quality filter
+                    int runStart = -1;
+                    for (int i=0; i<len; i++) {
+                        if (quals[readPos+i] >= minBaseQual) {
+                            if (runStart == -1) {
+                                runStart = refPos + i;
+                            }
+                        } else if (runStart > -1) {
+                            buf.add(runStart, refPos + i);
+                            runStart = -1;
+                        }
+                    }
+                    if (runStart > -1) {
+                        buf.add(runStart, refPos + len);
+                    }
+                }
+                refPos += len;
+                readPos += len;
+                break;
+            case D:
+                if (countDeletions) {
+                    buf.add(refPos, refPos + len);
+                }
+                refPos += len;
+                break;
+            case N:
+                if (countGaps) {
+                    buf.add(refPos, refPos + len);
+                }
+                refPos += len;
+                break;
+            case I:
+            case S:
+                readPos += len;
+                break;
+            default:
+                // H, P
+                break;
+            }
+        }
+    }
+
+    /**
+     * Difference array over a sliding window of the reference. deltas[i % capacity] holds
+     * the change in depth at position offset+i. The buffer grows if a read extends past
+     * the end of the window (long introns).
+     */
+    private static class DepthBuffer {
+        private final String ref;
+        private final int regionStart;
+        private final int regionEnd;
+        private final DepthHandler handler;
+
+        private int[] deltas = new int[1 << 16];
+        private int mask = deltas.length - 1;
+
+        // first position that hasn't been returned yet
+        private int pos;
+        private int depth = 0;
+
+        private int runStart;
+        private int runDepth = 0;
+
+        public DepthBuffer(String ref, int regionStart, int regionEnd, DepthHandler handler) {
+            this.ref = ref;
+            this.regionStart = regionStart;
+            this.regionEnd = regionEnd;
+            this.handler = handler;
+            this.pos = regionStart;
+            this.runStart = regionStart;
+        }
+
+        public void add(int start, int end) {
+            if (start < pos) {
+                start = pos;
+            }
+            if (end > regionEnd) {
+                end = regionEnd;
+            }
+            if (start >= end) {
+                return;
+            }
+            while (end - pos >= deltas.length) {
+                grow();
+            }
+            deltas[start & mask]++;
+            deltas[end & mask]--;
+        }
+
+        private void grow() {
+            int[] newDeltas = new int[deltas.length * 2];
+            int newMask = newDeltas.length - 1;
+            for (int i=0; i<deltas.length; i++) {
+                newDeltas[(pos + i) & newMask] = deltas[(pos + i) & mask];
+            }
+            deltas = newDeltas;
+            mask = newMask;
+        }
+
+        /**
+         * Returns depth runs for all positions before upTo.
+         */
+        public void flush(int upTo) throws IOException {
+            if (upTo > regionEnd) {
+                upTo = regionEnd;
+            }
+            while (pos < upTo) {
+                int idx = pos & mask;
+                int delta = deltas[idx];
+                if (delta != 0) {
+                    deltas[idx] = 0;
+                    depth += delta;
+                    if (depth != runDepth) {
+                        if (pos > runStart) {
+                            handler.depth(ref, runStart, pos, runDepth);
+                        }
+                        runStart = pos;
+                        runDepth = depth;
+                    }
+                }
+                pos++;
+            }
+        }
+
+        public void finish() throws IOException {
+            flush(regionEnd);
+            if (regionEnd > runStart) {
+                handler.depth(ref, runStart, regionEnd, runDepth);
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.util.List;
 import htsjdk.samtools.util.CloseableIterator;
 import io.compgen.common.StringUtils;
 import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.fasta.TwoBitFastaFile;
 
 public class BAMPileup {
     private final String[] filenames;
@@ -141,6 +142,9 @@ public class BAMPileup {
     }
     
     public CloseableIterator<PileupRecord> pileup(GenomeSpan region) throws IOException {
+        if (refFilename != null && TwoBitFastaFile.isTwoBit(refFilename)) {
+            throw new IOException("samtools mpileup needs a FASTA reference (with a .fai index), not a 2bit file: "+refFilename);
+        }
         
         if (tmpPath != null) {
             return tmpPathPileup(region);
@@ -13,7 +13,15 @@ public class JasparPWM {
 	
 	private static final double[] backgroundRates = new double[] {0.3, 0.2, 0.2, 0.3}; // a c g t
 	
-	private double[] probPermutations = null;
+	// base frequencies used by SeqUtils.generateRandomSeq for the permutations (a c g t)
+	private static final double[] exactBackground = new double[] {0.2, 0.3, 0.3, 0.2};
+
+	// scores are discretized to 1/EXACT_SCALE for the exact score distribution 
+	private static final int EXACT_SCALE = 1000;
+
+	private volatile double[] probPermutations = null;
+	private volatile double[] exactTail = null;
+	private int exactMin = 0;
 	
 	protected String accn;
 	protected String name;
@@ -168,33 +176,148 @@ public class JasparPWM {
 		return ret;
 	}
 	
+	/**
+	 * Score for a single encoded base (0=A, 1=C, 2=G, 3=T) at a motif position.
+	 */
+	public double getScore(int base, int pos) {
+		return pwm[base][pos];
+	}
+
 	public double calcPvalue(double score) {
 		if (probPermutations == null) {
 			buildPermutations();
 		}
 		
-		int i=0;
-		while (score > probPermutations[i] && i < probPermutations.length) {
-			i++;
+		// binary search for the first permuted score >= score
+		int lo = 0;
+		int hi = probPermutations.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (probPermutations[mid] < score) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
 		}
 		
-		return ((double)(probPermutations.length - i)) / probPermutations.length ;
+		return ((double)(probPermutations.length - lo)) / probPermutations.length ;
+		
+	}
+
+	/**
+	 * Exact p-value (P(S >= score)) for a random sequence drawn with the same base frequencies
+	 * used for the permutations. The score distribution is computed once by dynamic programming
+	 * over a discretized score matrix.
+	 */
+	public double calcExactPvalue(double score) {
+		if (exactTail == null) {
+			buildExactDistribution();
+		}
 		
+		long idx = Math.round(score * EXACT_SCALE) - exactMin;
+		if (idx <= 0) {
+			return 1.0;
+		}
+		if (idx >= exactTail.length) {
+			return 0.0;
+		}
+		return exactTail[(int) idx];
+	}
+
+	/**
+	 * Builds the p-value lookup tables up front (otherwise they are built lazily on first use).
+	 * This should be called before scoring from multiple threads.
+	 */
+	public synchronized void preparePvalues(boolean exact) {
+		if (exact) {
+			if (exactTail == null) {
+				buildExactDistribution();
+			}
+		} else if (probPermutations == null) {
+			buildPermutations();
+		}
 	}
 
-	private void buildPermutations() {
+	private synchronized void buildExactDistribution() {
+		if (exactTail != null) {
+			return;
+		}
+
+		int len = pwm[0].length;
+		int[][] scaled = new int[4][len];
+		int min = 0;
+		int max = 0;
+		for (int j=0; j<len; j++) {
+			int colMin = Integer.MAX_VALUE;
+			int colMax = Integer.MIN_VALUE;
+			for (int i=0; i<4; i++) {
+				scaled[i][j] = (int) Math.round(pwm[i][j] * EXACT_SCALE);
+				colMin = Math.min(colMin, scaled[i][j]);
+				colMax = Math.max(colMax, scaled[i][j]);
+			}
+			min += colMin;
+			max += colMax;
+		}
+		
+		// dist[k] is the probability of (partial) score min+k
+		double[] dist = new double[max - min + 1];
+		double[] next = new double[max - min + 1];
+		dist[-min] = 1.0;
+		int curMin = 0;
+		int curMax = 0;
+
+		for (int j=0; j<len; j++) {
+			Arrays.fill(next, 0.0);
+			int nextMin = Integer.MAX_VALUE;
+			int nextMax = Integer.MIN_VALUE;
+			for (int i=0; i<4; i++) {
+				int delta = scaled[i][j];
+				double p = exactBackground[i];
+				for (int s=curMin; s<=curMax; s++) {
+					double val = dist[s - min];
+					if (val > 0) {
+						next[s + delta - min] += val * p;
+					}
+				}
+				nextMin = Math.min(nextMin, curMin + delta);
+				nextMax = Math.max(nextMax, curMax + delta);
+			}
+			double[] tmp = dist;
+			dist = next;
+			next = tmp;
+			curMin = nextMin;
+			curMax = nextMax;
+		}
+
+		// convert to upper tail: P(S >= min+k)
+		double[] tail = new double[dist.length];
+		double acc = 0.0;
+		for (int k=dist.length-1; k>=0; k--) {
+			acc += dist[k];
+			tail[k] = Math.min(acc, 1.0);
+		}
+		
+		exactMin = min;
+		exactTail = tail;
+	}
+
+	private synchronized void buildPermutations() {
+		if (probPermutations != null) {
+			return;
+		}
 		// Because we are generating this for p-values, let's try to be consistent
 		Random rand = new Random(123);
-		probPermutations = new double[MAX_PERMUTATION_COUNT];
+		double[] perms = new double[MAX_PERMUTATION_COUNT];
 		for (int i=0; i< MAX_PERMUTATION_COUNT; i++) {
 			try {
-				probPermutations[i] = calcScore(SeqUtils.generateRandomSeq(pwm[0].length, rand));
+				perms[i] = calcScore(SeqUtils.generateRandomSeq(pwm[0].length, rand));
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
 		}
 		
-		Arrays.sort(probPermutations);
+		Arrays.sort(perms);
+		probPermutations = perms;
 	}
 	
 }
@@ -0,0 +1,152 @@
+package io.compgen.ngsutils.pwm;
+
+/**
+ * Scans an encoded sequence for matches to a PWM on both strands in a single pass.
+ *
+ * The sequence is encoded once into bytes (0=A, 1=C, 2=G, 3=T, 4=other), and the
+ * motif is expanded into forward and reverse-complement lookup matrices, so that
+ * scoring a window never requires building substrings or reverse-complements.
+ *
+ * If a minimum score is given, windows are abandoned as soon as the partial score
+ * plus the best achievable score for the remaining positions can no longer reach it.
+ *
+ * Scores are accumulated in the same order as JasparPWM.calcScore(), so the values
+ * are identical to scoring the (reverse-complemented) substring directly.
+ *
+ * @author mbreese
+ *
+ */
+public class PWMScanner {
+	public static final byte BASE_N = 4;
+
+	private static final byte[] ENCODE = new byte[256];
+	static {
+		for (int i=0; i<256; i++) {
+			ENCODE[i] = BASE_N;
+		}
+		ENCODE['A'] = 0;
+		ENCODE['a'] = 0;
+		ENCODE['C'] = 1;
+		ENCODE['c'] = 1;
+		ENCODE['G'] = 2;
+		ENCODE['g'] = 2;
+		ENCODE['T'] = 3;
+		ENCODE['t'] = 3;
+	}
+
+	public interface PWMHitHandler {
+		public void hit(int start, boolean reverse, double score);
+	}
+
+	private final int len;
+
+	// [pos][base] -- position major, so a window reads contiguous rows
+	private final double[][] fwd;
+	private final double[][] rev;
+
+	// best score achievable for positions pos..len-1
+	private final double[] fwdRemaining;
+	private final double[] revRemaining;
+
+	public PWMScanner(JasparPWM pwm) {
+		this.len = pwm.getLength();
+		this.fwd = new double[len][4];
+		this.rev = new double[len][4];
+
+		for (int i=0; i<len; i++) {
+			for (int b=0; b<4; b++) {
+				fwd[i][b] = pwm.getScore(b, i);
+				// position i of the revcomp is the complement of the base at len-1-i in the window
+				rev[len-1-i][b] = pwm.getScore(3-b, i);
+			}
+		}
+
+		this.fwdRemaining = new double[len+1];
+		this.revRemaining = new double[len+1];
+		for (int i=len-1; i>=0; i--) {
+			fwdRemaining[i] = fwdRemaining[i+1] + max(fwd[i]);
+			revRemaining[i] = revRemaining[i+1] + max(rev[len-1-i]);
+		}
+	}
+
+	private static double max(double[] vals) {
+		double max = vals[0];
+		for (int i=1; i<vals.length; i++) {
+			if (vals[i] > max) {
+				max = vals[i];
+			}
+		}
+		return max;
+	}
+
+	public int getLength() {
+		return len;
+	}
+
+	public static byte[] encode(String seq) {
+		byte[] out = new byte[seq.length()];
+		for (int i=0; i<out.length; i++) {
+			char c = seq.charAt(i);
+			out[i] = c < 256 ? ENCODE[c] : BASE_N;
+		}
+		return out;
+	}
+
+	/**
+	 * Scan windows starting in [from, to) on both strands. Windows that contain a
+	 * non-ACGT base are skipped.
+	 *
+	 * @param seq - encoded sequence (see encode())
+	 * @param minScore - only report hits with a score greater than this value (use Double.NEGATIVE_INFINITY to report all windows)
+	 */
+	public void scan(byte[] seq, int from, int to, double minScore, PWMHitHandler handler) {
+		if (to > seq.length - len + 1) {
+			to = seq.length - len + 1;
+		}
+
+		boolean prune = minScore != Double.NEGATIVE_INFINITY;
+		// small slack so that rounding in the bound can't drop a real hit
+		double bound = minScore - 1e-9;
+
+		// next window start that doesn't include the last seen N
+		int validFrom = from;
+		for (int i=from; i<from+len-1 && i<seq.length; i++) {
+			if (seq[i] == BASE_N) {
+				validFrom = i + 1;
+			}
+		}
+
+		for (int start=from; start<to; start++) {
+			if (seq[start+len-1] == BASE_N) {
+				validFrom = start + len;
+			}
+			if (start < validFrom) {
+				continue;
+			}
+
+			double score = 0.0;
+			int i=0;
+			for (; i<len; i++) {
+				score += fwd[i][seq[start+i]];
+				if (prune && score + fwdRemaining[i+1] <= bound) {
+					break;
+				}
+			}
+			if (i == len && score > minScore) {
+				handler.hit(start, false, score);
+			}
+
+			score = 0.0;
+			i=0;
+			for (; i<len; i++) {
+				score += rev[len-1-i][seq[start+len-1-i]];
+				if (prune && score + revRemaining[i+1] <= bound) {
+					break;
+				}
+			}
+			if (i == len && score > minScore) {
+				handler.hit(start, true, score);
+			}
+		}
+	}
+}
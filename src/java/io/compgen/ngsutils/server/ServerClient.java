@@ -0,0 +1,123 @@
+package io.compgen.ngsutils.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Sends a command to a running server (ngsutilsj server) and copies the server's
+ * stdout/stderr back (and stdin to the server).
+ *
+ * @author mbreese
+ *
+ */
+public class ServerClient {
+    public static final int CONNECT_TIMEOUT_MS = 1000;
+
+    /**
+     * @param server - host:port
+     * @return the exit status of the command, or -1 if the server couldn't be reached
+     */
+    public static int run(String server, String[] args) {
+        String host = "127.0.0.1";
+        int port;
+        try {
+            if (server.contains(":")) {
+                host = server.substring(0, server.lastIndexOf(':'));
+                port = Integer.parseInt(server.substring(server.lastIndexOf(':') + 1));
+            } else {
+                port = Integer.parseInt(server);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("WARNING: Invalid NGSUTILSJ_SERVER value: " + server);
+            return -1;
+        }
+
+        String token = ServerProtocol.readToken();
+        if (token == null) {
+            // the server hasn't been started by this user
+            return -1;
+        }
+
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            return -1;
+        }
+
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.writeInt(ServerProtocol.MAGIC);
+            out.writeUTF(token);
+            out.writeUTF(System.getProperty("user.dir"));
+            out.writeInt(args.length);
+            for (String arg: args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            Thread stdin = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[64 * 1024];
+                    InputStream is = System.in;
+                    try {
+                        int n;
+                        while ((n = is.read(buf)) != -1) {
+                            out.writeInt(n);
+                            out.write(buf, 0, n);
+                            out.flush();
+                        }
+                        out.writeInt(ServerProtocol.EOF);
+                        out.flush();
+                    } catch (IOException e) {
+                        // the server closed the connection
+                    }
+                }}, "stdin");
+            stdin.setDaemon(true);
+            stdin.start();
+
+            byte[] buf = new byte[64 * 1024];
+            while (true) {
+                byte type = in.readByte();
+                int len = in.readInt();
+                if (type == ServerProtocol.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return len;
+                }
+                if (len > buf.length) {
+                    buf = new byte[len];
+                }
+                in.readFully(buf, 0, len);
+                if (type == ServerProtocol.STDOUT) {
+                    System.out.write(buf, 0, len);
+                } else {
+                    System.err.write(buf, 0, len);
+                }
+            }
+        } catch (EOFException e) {
+            System.out.flush();
+            System.err.println("ERROR: Lost connection to server");
+            return 1;
+        } catch (IOException e) {
+            System.out.flush();
+            System.err.println("ERROR: " + e.getMessage());
+            return 1;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package io.compgen.ngsutils.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.impl.AbstractCommand;
+import io.compgen.ngsutils.NGSUtils;
+import io.compgen.ngsutils.support.ResourceCache;
+
+@Command(name="server", desc="Run as a resident server (commands are sent to it by setting NGSUTILSJ_SERVER=host:port)", category="help", experimental=true, doc=""
+        + "This keeps JVMs running so that each command doesn't need to pay for JVM startup and\n"
+        + "JIT warmup. Parsed GTF annotations, BED annotations, and tabix/FASTA indexes are also\n"
+        + "kept between commands (they are re-loaded if the file changes).\n"
+        + "\n"
+        + "To use the server, set NGSUTILSJ_SERVER=host:port and run ngsutilsj as normal. If the\n"
+        + "server can't be reached, the command runs locally.\n"
+        + "\n"
+        + "Each command is sent with the client's working directory, and runs in a worker JVM\n"
+        + "that was started in that directory, so relative paths work as they do for a local\n"
+        + "command. Idle workers are kept (up to --max-idle, least recently used are stopped\n"
+        + "first), so switching between directories doesn't stop the other workers. Commands\n"
+        + "with --metrics get their own worker.\n"
+        + "\n"
+        + "Each worker caches up to --cache-size resources (least recently used are dropped\n"
+        + "first). To clear the cached resources, run: ngsutilsj server --clear (with\n"
+        + "NGSUTILSJ_SERVER set). This stops the idle workers, and busy workers are stopped\n"
+        + "when their command is done.\n"
+        + "\n"
+        + "The server only accepts commands from clients that can read the user's token file\n"
+        + "(~/.ngsutilsj/server-token, created when the server starts). By default, the server\n"
+        + "only listens on the loopback interface. To listen on another address, use\n"
+        + "--allow-remote (clients must have the same token file).")
+public class ServerCmd extends AbstractCommand {
+    private int port = 7890;
+    private String host = "127.0.0.1";
+    private int jobs = 1;
+    private int maxIdle = 8;
+    private int cacheSize = ResourceCache.DEFAULT_MAX_SIZE;
+    private boolean allowRemote = false;
+    private boolean clear = false;
+
+    @Option(desc="Port to listen on", name="port", defaultValue="7890")
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    @Option(desc="Address to listen on (must be a loopback address, unless --allow-remote is given)", name="bind", defaultValue="127.0.0.1")
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    @Option(desc="Allow listening on a non-loopback address", name="allow-remote")
+    public void setAllowRemote(boolean allowRemote) {
+        this.allowRemote = allowRemote;
+    }
+
+    @Option(desc="Number of commands to run at the same time", name="jobs", defaultValue="1")
+    public void setJobs(int jobs) throws CommandArgumentException {
+        if (jobs < 1) {
+            throw new CommandArgumentException("--jobs must be at least 1");
+        }
+        this.jobs = jobs;
+    }
+
+    @Option(desc="Number of idle workers to keep (for all directories)", name="max-idle", defaultValue="8")
+    public void setMaxIdle(int maxIdle) throws CommandArgumentException {
+        if (maxIdle < 0) {
+            throw new CommandArgumentException("--max-idle must be at least 0");
+        }
+        this.maxIdle = maxIdle;
+    }
+
+    @Option(desc="Number of resources (GTF, BED, index files) to cache in each worker", name="cache-size", defaultValue=""+ResourceCache.DEFAULT_MAX_SIZE)
+    public void setCacheSize(int cacheSize) throws CommandArgumentException {
+        if (cacheSize < 0) {
+            throw new CommandArgumentException("--cache-size must be at least 0");
+        }
+        this.cacheSize = cacheSize;
+    }
+
+    @Option(desc="Clear the cached resources in a running server (NGSUTILSJ_SERVER)", name="clear")
+    public void setClear(boolean clear) {
+        this.clear = clear;
+    }
+
+    /**
+     * Is this a request to clear a running server's cache (ngsutilsj server --clear)?
+     */
+    public static boolean isClear(String[] args) {
+        if (args.length == 0 || !args[0].equals("server")) {
+            return false;
+        }
+        for (int i=1; i<args.length; i++) {
+            if (args[i].equals("--clear")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A worker JVM (see ServerWorker)
+     */
+    private static class Worker {
+        private final File cwd;
+        private final int generation;
+        private final Process proc;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        // the current command (stdin from an earlier client is ignored)
+        private int job = 0;
+        // set when the stdin for the current command has been closed (EOF sent)
+        private boolean stdinDone = false;
+
+        private Worker(File cwd, int generation, int cacheSize) throws IOException {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+            // use the same memory settings/properties as the server
+            for (String arg: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (arg.startsWith("-X") || arg.startsWith("-D")) {
+                    cmd.add(arg);
+                }
+            }
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(ServerWorker.class.getName());
+            cmd.add(Integer.toString(cacheSize));
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.directory(cwd);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+            this.cwd = cwd;
+            this.generation = generation;
+            this.proc = pb.start();
+            this.out = new DataOutputStream(new BufferedOutputStream(proc.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(proc.getInputStream()));
+        }
+
+        private int start(String[] args, boolean last) throws IOException {
+            synchronized (out) {
+                job++;
+                stdinDone = false;
+                out.writeInt(args.length);
+                out.writeBoolean(last);
+                out.writeUTF(cwd.getPath());
+                for (String arg: args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+                return job;
+            }
+        }
+
+        private boolean writeStdin(int job, byte[] buf, int len) throws IOException {
+            synchronized (out) {
+                if (job != this.job || stdinDone) {
+                    return false;
+                }
+                if (len == ServerProtocol.EOF) {
+                    stdinDone = true;
+                    out.writeInt(ServerProtocol.EOF);
+                } else {
+                    out.writeInt(len);
+                    out.write(buf, 0, len);
+                }
+                out.flush();
+                return true;
+            }
+        }
+
+        private void closeStdin(int job) throws IOException {
+            writeStdin(job, null, ServerProtocol.EOF);
+        }
+
+        private void stop() {
+            proc.destroy();
+        }
+    }
+
+    // most recently used workers are at the front
+    private final List<Worker> idle = new LinkedList<Worker>();
+    // incremented when the cache is cleared (older workers aren't re-used)
+    private int generation = 0;
+
+    /**
+     * Returns an idle worker that was started in this directory (or starts a new one).
+     * Workers for other directories are left running.
+     */
+    private Worker getWorker(File cwd) throws IOException {
+        int gen;
+        synchronized (idle) {
+            for (Iterator<Worker> it = idle.iterator(); it.hasNext(); ) {
+                Worker w = it.next();
+                if (!w.proc.isAlive()) {
+                    it.remove();
+                } else if (w.cwd.equals(cwd)) {
+                    it.remove();
+                    return w;
+                }
+            }
+            gen = generation;
+        }
+        return new Worker(cwd, gen, cacheSize);
+    }
+
+    private void releaseWorker(Worker w) {
+        synchronized (idle) {
+            if (w.generation != generation) {
+                w.stop();
+                return;
+            }
+            idle.add(0, w);
+            while (idle.size() > maxIdle) {
+                idle.remove(idle.size() - 1).stop();
+            }
+        }
+    }
+
+    /**
+     * Stops the idle workers (and busy workers, once their command is done), which clears
+     * their cached resources.
+     *
+     * @return the number of idle workers stopped
+     */
+    private int clearWorkers() {
+        synchronized (idle) {
+            generation++;
+            int count = idle.size();
+            for (Worker w: idle) {
+                w.stop();
+            }
+            idle.clear();
+            return count;
+        }
+    }
+
+    @Exec
+    public void exec() throws Exception {
+        if (clear) {
+            // a running server handles this (see handle())
+            throw new CommandArgumentException("--clear needs a running server (set NGSUTILSJ_SERVER=host:port)");
+        }
+
+        InetAddress addr = InetAddress.getByName(host);
+        if (!addr.isLoopbackAddress() && !allowRemote) {
+            throw new CommandArgumentException("--bind " + host + " is not a loopback address (use --allow-remote to listen on it)");
+        }
+
+        final byte[] token;
+        try {
+            token = ServerProtocol.createToken().getBytes("UTF-8");
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final Semaphore slots = new Semaphore(jobs);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (idle) {
+                    for (Worker w: idle) {
+                        w.stop();
+                    }
+                }
+            }}));
+
+        ServerSocket server = new ServerSocket(port, 50, addr);
+        System.err.println("ngsutilsj server listening on " + host + ":" + port);
+
+        while (true) {
+            final Socket socket = server.accept();
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket, token, slots);
+                    } catch (InterruptedException | IOException e) {
+                        System.err.println("ERROR: " + e.getMessage());
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }});
+            t.start();
+        }
+    }
+
+    private void handle(Socket socket, byte[] token, Semaphore slots) throws IOException, InterruptedException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readInt() != ServerProtocol.MAGIC) {
+            return;
+        }
+        if (!MessageDigest.isEqual(token, in.readUTF().getBytes("UTF-8"))) {
+            System.err.println("WARNING: Rejected connection from " + socket.getInetAddress() + " (invalid token)");
+            exit(out, "ERROR: Invalid server token (" + ServerProtocol.getTokenFile() + ")", 1);
+            return;
+        }
+
+        File cwd = new File(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i=0; i<args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        if (isClear(args)) {
+            int count = clearWorkers();
+            exit(out, "Cleared the server cache (stopped " + count + " idle worker(s))", 0);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("server")) {
+            exit(out, "ERROR: The server is already running", 1);
+            return;
+        }
+        if (!cwd.isDirectory()) {
+            exit(out, "ERROR: Working directory not found on the server: " + cwd, 1);
+            return;
+        }
+        cwd = cwd.getCanonicalFile();
+
+        slots.acquire();
+        try {
+            run(in, out, cwd, args);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private void run(final DataInputStream in, DataOutputStream out, File cwd, String[] args) throws IOException {
+        // a worker with --metrics writes the metrics when it exits, so it isn't re-used
+        boolean last = NGSUtils.hasMetrics(args);
+
+        final Worker worker = getWorker(cwd);
+        final int job = worker.start(args, last);
+
+        Thread stdin = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buf = new byte[64 * 1024];
+                try {
+                    while (true) {
+                        int len = in.readInt();
+                        if (len > buf.length) {
+                            buf = new byte[len];
+                        }
+                        if (len != ServerProtocol.EOF) {
+                            in.readFully(buf, 0, len);
+                        }
+                        if (!worker.writeStdin(job, buf, len) || len == ServerProtocol.EOF) {
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    // the client closed the connection (or the command is done)
+                }
+            }}, "stdin");
+        stdin.setDaemon(true);
+        stdin.start();
+
+        int status;
+        byte[] buf = new byte[64 * 1024];
+        try {
+            while (true) {
+                byte type = worker.in.readByte();
+                int len = worker.in.readInt();
+                if (type == ServerProtocol.EXIT) {
+                    status = len;
+                    break;
+                }
+                if ((type != ServerProtocol.STDOUT && type != ServerProtocol.STDERR) || len < 0) {
+                    throw new IOException("Invalid output from worker");
+                }
+                if (len > buf.length) {
+                    buf = new byte[len];
+                }
+                worker.in.readFully(buf, 0, len);
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(buf, 0, len);
+                if (type == ServerProtocol.STDERR) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the worker stopped (System.exit() or a crash), so use its exit status
+            if (!(e instanceof EOFException)) {
+                worker.stop();
+            }
+            try {
+                status = worker.proc.waitFor();
+            } catch (InterruptedException e1) {
+                status = 1;
+            }
+            last = true;
+        }
+
+        if (!last) {
+            try {
+                worker.closeStdin(job);
+                releaseWorker(worker);
+            } catch (IOException e) {
+                worker.stop();
+            }
+        }
+
+        out.writeByte(ServerProtocol.EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    private static void exit(DataOutputStream out, String msg, int status) throws IOException {
+        byte[] b = (msg + "\n").getBytes();
+        out.writeByte(ServerProtocol.STDERR);
+        out.writeInt(b.length);
+        out.write(b);
+        out.writeByte(ServerProtocol.EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+}
@@ -0,0 +1,238 @@
+package io.compgen.ngsutils.server;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * Wire format between the client (ngsutilsj with NGSUTILSJ_SERVER set) and the server.
+ *
+ * Client to server:
+ *     int MAGIC, UTF token, UTF cwd, int argc, UTF args[argc]
+ *     stdin: {int len, byte[len]}* ... int -1 (EOF)
+ *
+ * Server to client:
+ *     {byte STDOUT|STDERR, int len, byte[len]}* ... byte EXIT, int status
+ *
+ * The server runs each command in a worker JVM. Jobs are sent to a worker on its stdin and
+ * the output is read from its stdout, using the same frames:
+ *
+ * Server to worker:
+ *     int argc, boolean last, UTF cwd, UTF args[argc]
+ *     stdin: {int len, byte[len]}* ... int -1 (EOF)
+ *
+ * Worker to server:
+ *     {byte STDOUT|STDERR, int len, byte[len]}* ... byte EXIT, int status
+ *
+ * The token is a random value that is stored in a file that only the user can read
+ * (~/.ngsutilsj/server-token). The server only accepts commands from clients that send it.
+ *
+ * @author mbreese
+ *
+ */
+public class ServerProtocol {
+    public static final int MAGIC = 0x4e475332; // NGS2
+
+    public static final byte EXIT = 0;
+    public static final byte STDOUT = 1;
+    public static final byte STDERR = 2;
+
+    public static final int EOF = -1;
+
+    public static File getTokenFile() {
+        return new File(new File(System.getProperty("user.home"), ".ngsutilsj"), "server-token");
+    }
+
+    /**
+     * @return the token for this user, or null if there isn't one (the server hasn't been run)
+     */
+    public static String readToken() {
+        File f = getTokenFile();
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(f));
+            String token = reader.readLine();
+            reader.close();
+            return token == null ? null : token.trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the token for this user, creating it if needed. The file is only readable by
+     * the user (0600).
+     */
+    public static String createToken() throws IOException {
+        File f = getTokenFile();
+        if (!f.exists()) {
+            f.getParentFile().mkdirs();
+
+            byte[] rand = new byte[32];
+            new SecureRandom().nextBytes(rand);
+            StringBuilder sb = new StringBuilder();
+            for (byte b: rand) {
+                sb.append(String.format("%02x", b & 0xFF));
+            }
+
+            try {
+                try {
+                    Files.createFile(f.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                } catch (UnsupportedOperationException e) {
+                    // not a POSIX file system
+                    Files.createFile(f.toPath());
+                    f.setReadable(false, false);
+                    f.setWritable(false, false);
+                    f.setReadable(true, true);
+                    f.setWritable(true, true);
+                }
+                OutputStream os = new FileOutputStream(f);
+                os.write((sb.toString() + "\n").getBytes());
+                os.close();
+            } catch (FileAlreadyExistsException e) {
+                // another server created it first
+            }
+        }
+
+        try {
+            for (PosixFilePermission perm: Files.getPosixFilePermissions(f.toPath())) {
+                if (perm != PosixFilePermission.OWNER_READ && perm != PosixFilePermission.OWNER_WRITE) {
+                    throw new IOException("The server token can be read by other users (run: chmod 600 " + f + ")");
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+
+        String token = readToken();
+        if (token == null || token.equals("")) {
+            throw new IOException("Unable to read the server token: " + f);
+        }
+        return token;
+    }
+
+    /**
+     * Writes data as frames of one type (stdout or stderr) to the client. Frames from
+     * separate streams can be interleaved, so writes are synchronized on the connection.
+     */
+    public static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        public FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Reads stdin frames from the client (as they are needed).
+     */
+    public static class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        private byte[] buf = new byte[0];
+        private int pos = 0;
+        private boolean eof = false;
+
+        public FrameInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean fill() throws IOException {
+            while (!eof && pos >= buf.length) {
+                int len = in.readInt();
+                if (len == EOF) {
+                    eof = true;
+                } else {
+                    buf = new byte[len];
+                    in.readFully(buf);
+                    pos = 0;
+                }
+            }
+            return !eof || pos < buf.length;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Reads (and ignores) the rest of the stream, up to the EOF frame
+         */
+        public synchronized void discard() throws IOException {
+            while (fill()) {
+                pos = buf.length;
+            }
+        }
+
+        @Override
+        public synchronized int available() {
+            return buf.length - pos;
+        }
+
+        @Override
+        public void close() {
+            // the socket is closed by the server when the command is done
+        }
+    }
+}
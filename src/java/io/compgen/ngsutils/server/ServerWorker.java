@@ -0,0 +1,113 @@
+package io.compgen.ngsutils.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import io.compgen.cmdline.MainBuilder;
+import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.NGSUtils;
+import io.compgen.ngsutils.support.ResourceCache;
+
+/**
+ * A worker JVM for the server. The server starts workers in the client's working directory
+ * and sends them commands (one at a time) on stdin. Command output is sent back on stdout
+ * (see ServerProtocol).
+ *
+ * Each command is sent with the client's working directory. A JVM can't change its own
+ * working directory, so the worker only runs commands for the directory it was started in
+ * (the server picks the worker). Workers are re-used for later commands, so cached resources
+ * (ResourceCache) are kept between commands. If a command calls System.exit(), only the
+ * worker stops, and the server reports the exit status to the client.
+ *
+ * @author mbreese
+ *
+ */
+public class ServerWorker {
+    public static void main(String[] args) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024));
+
+        final PrintStream cmdOut = new PrintStream(new BufferedOutputStream(new ServerProtocol.FrameOutputStream(out, ServerProtocol.STDOUT), 64 * 1024), false);
+        final PrintStream cmdErr = new PrintStream(new ServerProtocol.FrameOutputStream(out, ServerProtocol.STDERR), true);
+        System.setOut(cmdOut);
+        System.setErr(cmdErr);
+
+        // if a command calls System.exit(), send any remaining output before the worker stops
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cmdOut.flush();
+                cmdErr.flush();
+            }}));
+
+        ResourceCache.setEnabled(true);
+        if (args.length > 0) {
+            ResourceCache.setMaxSize(Integer.parseInt(args[0]));
+        }
+        File workdir = new File("").getCanonicalFile();
+
+        MainBuilder main = NGSUtils.buildMain();
+
+        while (true) {
+            int argc;
+            try {
+                argc = in.readInt();
+            } catch (EOFException e) {
+                // the server closed the connection
+                System.exit(0);
+                return;
+            }
+            boolean last = in.readBoolean();
+            String cwd = in.readUTF();
+            String[] cmdArgs = new String[argc];
+            for (int i=0; i<argc; i++) {
+                cmdArgs[i] = in.readUTF();
+            }
+
+            ServerProtocol.FrameInputStream stdin = new ServerProtocol.FrameInputStream(in);
+            System.setIn(stdin);
+            NGSUtils.setArgs(StringUtils.join(" ", cmdArgs));
+
+            int status;
+            if (!new File(cwd).getCanonicalFile().equals(workdir)) {
+                // relative paths would be resolved against the wrong directory
+                System.err.println("ERROR: Worker is running in " + workdir + ", not " + cwd);
+                status = 1;
+            } else {
+                try {
+                    // --metrics is only allowed for the last command for a worker (the final
+                    // metrics are written when the JVM exits)
+                    cmdArgs = NGSUtils.startMetrics(cmdArgs, last);
+                    status = NGSUtils.run(main, cmdArgs, false);
+                } catch (IOException | NumberFormatException e) {
+                    System.err.println("ERROR: Unable to setup --metrics: " + e.getMessage());
+                    status = 1;
+                }
+            }
+
+            cmdOut.flush();
+            cmdErr.flush();
+            synchronized (out) {
+                out.writeByte(ServerProtocol.EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+
+            if (last) {
+                System.exit(0);
+            }
+
+            // skip any stdin that the command didn't read
+            stdin.discard();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.compgen.ngsutils.support;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compact set of strings (read names) that only stores a 64-bit hash (fingerprint)
+ * of each value in an open-addressing long[] table, instead of the strings themselves.
+ * This uses ~13-27 bytes per value (depending on how full the table is), compared to
+ * ~100 bytes for a HashSet<String>.
+ *
+ * The table is split into segments, so it isn't limited by the maximum array size. The
+ * table is kept at most 60% full, so 1 billion values use a 2^31 slot table (16GB).
+ *
+ * Because only the fingerprint is kept, contains() can (very rarely) return true for a
+ * value that wasn't added. With 64-bit fingerprints and 1 billion values in the set, the
+ * chance of this for a given lookup is about 1 in 18 billion.
+ *
+ * @author mbreese
+ *
+ */
+public class FingerprintSet {
+    private static final double MAX_LOAD = 0.6;
+
+    // the table is split into segments (arrays are limited to 2^31 elements)
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // 2^36 slots (512GB)
+    private static final long MAX_CAPACITY = 1L << 36;
+
+    private long[][] table;
+    private long capacity;
+    private long mask;
+    private long size = 0;
+
+    public FingerprintSet() {
+        this(1024);
+    }
+
+    public FingerprintSet(long expectedSize) {
+        long capacity = 16;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity = capacity << 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("FingerprintSet can't hold "+expectedSize+" values");
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Returns true if the value wasn't already present.
+     */
+    public boolean add(String value) {
+        return addFingerprint(fingerprint(value));
+    }
+
+    public boolean contains(String value) {
+        return containsFingerprint(fingerprint(value));
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean addFingerprint(long fp) {
+        long idx = fp & mask;
+        long cur;
+        while ((cur = get(idx)) != 0) {
+            if (cur == fp) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        set(idx, fp);
+        size++;
+        if (size > capacity * MAX_LOAD) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean containsFingerprint(long fp) {
+        long idx = fp & mask;
+        long cur;
+        while ((cur = get(idx)) != 0) {
+            if (cur == fp) {
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean remove(String value) {
+        return removeFingerprint(fingerprint(value));
+    }
+
+    public boolean removeFingerprint(long fp) {
+        long idx = fp & mask;
+        long cur;
+        while ((cur = get(idx)) != 0) {
+            if (cur == fp) {
+                // shift the rest of the run back so that lookups don't stop early
+                long next = (idx + 1) & mask;
+                long val;
+                while ((val = get(next)) != 0) {
+                    long home = val & mask;
+                    if (((next - home) & mask) >= ((next - idx) & mask)) {
+                        set(idx, val);
+                        idx = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                set(idx, 0);
+                size--;
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (long[] segment: table) {
+            Arrays.fill(segment, 0);
+        }
+        size = 0;
+    }
+
+    /**
+     * Iterates over the fingerprints in the set (in table order). The set shouldn't be
+     * changed while iterating.
+     */
+    public PrimitiveIterator.OfLong fingerprints() {
+        return new PrimitiveIterator.OfLong() {
+            private long idx = advance(0);
+
+            private long advance(long i) {
+                while (i < capacity && get(i) == 0) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return idx < capacity;
+            }
+
+            @Override
+            public long nextLong() {
+                if (idx >= capacity) {
+                    throw new NoSuchElementException();
+                }
+                long fp = get(idx);
+                idx = advance(idx + 1);
+                return fp;
+            }
+        };
+    }
+
+    private long get(long idx) {
+        return table[(int) (idx >>> SEGMENT_BITS)][(int) (idx & SEGMENT_MASK)];
+    }
+
+    private void set(long idx, long fp) {
+        table[(int) (idx >>> SEGMENT_BITS)][(int) (idx & SEGMENT_MASK)] = fp;
+    }
+
+    private void allocate(long capacity) {
+        int segments = (int) ((capacity + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+        table = new long[segments][];
+        for (int i=0; i<segments; i++) {
+            table[i] = new long[(int) Math.min(SEGMENT_SIZE, capacity)];
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("FingerprintSet is full ("+size+" values)");
+        }
+        long[][] old = table;
+        allocate(capacity << 1);
+        for (long[] segment: old) {
+            for (long fp: segment) {
+                if (fp != 0) {
+                    long idx = fp & mask;
+                    while (get(idx) != 0) {
+                        idx = (idx + 1) & mask;
+                    }
+                    set(idx, fp);
+                }
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the string, with a final bit mix (from MurmurHash3) so that
+     * the low bits can be used for the table index. Never returns 0 (used for empty slots).
+     */
+    public static long fingerprint(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i=0; i<value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        if (h == 0) {
+            return 1;
+        }
+        return h;
+    }
+}
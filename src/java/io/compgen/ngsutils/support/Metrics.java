@@ -0,0 +1,269 @@
+package io.compgen.ngsutils.support;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and timers that core classes (BGZF/tabix readers, VCF reader/writer,
+ * BAM filters, VCF annotators) report into, so that we can see where a long-running
+ * command is spending its time.
+ *
+ * Metrics are off by default. When they are off, counters and timers don't do anything
+ * other than check a flag. When they are on (--metrics FILE), a JSON snapshot of all of
+ * the metrics is appended to the file (one object per line) at a fixed interval and
+ * when the program exits.
+ *
+ * Usage:
+ *
+ *     private static final Metrics.Counter RECORDS = Metrics.counter("vcf.records_read");
+ *     private static final Metrics.Timer PARSE = Metrics.timer("vcf.parse");
+ *
+ *     long t = PARSE.start();
+ *     ...
+ *     PARSE.stop(t);
+ *     RECORDS.incr();
+ *
+ * @author mbreese
+ *
+ */
+public class Metrics {
+    /**
+     * Timers only time one out of every (SAMPLE_MASK+1) calls, since System.nanoTime()
+     * can cost as much as the work being timed. The total time is scaled by the
+     * number of calls.
+     */
+    public static final int SAMPLE_MASK = 0xF;
+    public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private static volatile boolean enabled = false;
+    private static long startTime = 0;
+    private static PrintStream out = null;
+
+    private static Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static Map<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {}
+
+        public void incr() {
+            if (enabled) {
+                value.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (enabled) {
+                value.add(n);
+            }
+        }
+
+        public long getValue() {
+            return value.sum();
+        }
+    }
+
+    public static class Timer {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder sampled = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        // not thread-safe, but only used to pick which calls to time
+        private int tick = 0;
+
+        private Timer() {}
+
+        /**
+         * @return the start time (pass this to stop()), or NOT_SAMPLED
+         */
+        public long start() {
+            if (!enabled) {
+                return NOT_SAMPLED;
+            }
+            calls.increment();
+            if ((tick++ & SAMPLE_MASK) != 0) {
+                return NOT_SAMPLED;
+            }
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            if (start == NOT_SAMPLED) {
+                return;
+            }
+            sampledNanos.add(System.nanoTime() - start);
+            sampled.increment();
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * Estimated total time (seconds)
+         */
+        public double getTotalSeconds() {
+            long n = sampled.sum();
+            if (n == 0) {
+                return 0;
+            }
+            return sampledNanos.sum() / 1000000000.0 / n * calls.sum();
+        }
+    }
+
+    /**
+     * A value that is calculated when the metrics are written (like a ratio of two counters)
+     */
+    public interface Gauge {
+        public double getValue();
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            synchronized (counters) {
+                counter = counters.get(name);
+                if (counter == null) {
+                    counter = new Counter();
+                    counters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            synchronized (timers) {
+                timer = timers.get(name);
+                if (timer == null) {
+                    timer = new Timer();
+                    timers.put(name, timer);
+                }
+            }
+        }
+        return timer;
+    }
+
+    public static void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns on metrics. Snapshots are written to the file every intervalSecs seconds
+     * (if > 0) and when the JVM exits.
+     */
+    public static synchronized void start(String filename, final int intervalSecs) throws IOException {
+        if (enabled) {
+            return;
+        }
+        out = new PrintStream(new FileOutputStream(filename));
+        startTime = System.currentTimeMillis();
+        enabled = true;
+
+        if (intervalSecs > 0) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(intervalSecs * 1000L);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        write(false);
+                    }
+                }}, "metrics");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(true);
+                out.close();
+            }}));
+    }
+
+    private static synchronized void write(boolean isFinal) {
+        long now = System.currentTimeMillis();
+        double elapsed = (now - startTime) / 1000.0;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\": \"" + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(now)) + "\"");
+        sb.append(", \"elapsed_sec\": " + String.format(Locale.US, "%.3f", elapsed));
+        sb.append(", \"final\": " + isFinal);
+
+        sb.append(", \"counters\": {");
+        boolean first = true;
+        for (Map.Entry<String, Counter> e: new TreeMap<String, Counter>(counters).entrySet()) {
+            long val = e.getValue().getValue();
+            if (val == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(quote(e.getKey()) + ": {\"value\": " + val + ", \"per_sec\": " + String.format(Locale.US, "%.1f", elapsed > 0 ? val / elapsed : 0) + "}");
+        }
+        sb.append("}");
+
+        sb.append(", \"timers\": {");
+        first = true;
+        for (Map.Entry<String, Timer> e: new TreeMap<String, Timer>(timers).entrySet()) {
+            long calls = e.getValue().getCalls();
+            if (calls == 0) {
+                continue;
+            }
+            double total = e.getValue().getTotalSeconds();
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(quote(e.getKey()) + ": {\"calls\": " + calls + ", \"total_sec\": " + String.format(Locale.US, "%.3f", total) + ", \"mean_usec\": " + String.format(Locale.US, "%.3f", total * 1000000 / calls) + "}");
+        }
+        sb.append("}");
+
+        sb.append(", \"gauges\": {");
+        first = true;
+        for (Map.Entry<String, Gauge> e: new TreeMap<String, Gauge>(gauges).entrySet()) {
+            double val = e.getValue().getValue();
+            if (Double.isNaN(val) || Double.isInfinite(val)) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(quote(e.getKey()) + ": " + String.format(Locale.US, "%.4f", val));
+        }
+        sb.append("}");
+
+        Runtime rt = Runtime.getRuntime();
+        sb.append(", \"heap_used_mb\": " + ((rt.totalMemory() - rt.freeMemory()) / (1024 * 1024)));
+        sb.append("}");
+
+        out.println(sb.toString());
+        out.flush();
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
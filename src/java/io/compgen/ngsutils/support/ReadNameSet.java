@@ -0,0 +1,217 @@
+package io.compgen.ngsutils.support;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import io.compgen.common.StringLineReader;
+import io.compgen.common.StringUtils;
+
+/**
+ * A read-only set of read names (for include/exclude lists) that is small enough to hold
+ * 100M+ names. Names are stored as sorted 64-bit fingerprints (see FingerprintSet) with a
+ * Bloom filter in front of them, so most names that aren't in the set are rejected without
+ * searching the fingerprints. This uses ~9 bytes per name.
+ *
+ * The set can be saved to an index file (list.fpset) that is memory-mapped when it is
+ * loaded, so it doesn't need to be rebuilt (or read into the heap) each time the same
+ * list is used. The index is only used if it is newer than the list.
+ *
+ * Like FingerprintSet, contains() can (very rarely) be true for a name that isn't in the list.
+ *
+ * @author mbreese
+ *
+ */
+public class ReadNameSet {
+    public static final String INDEX_EXTENSION = ".fpset";
+
+    private static final long MAGIC = 0x4e4753465053310aL; // "NGSFPS1\n"
+    private static final int HEADER_SIZE = 24;
+    private static final int BLOOM_BITS_PER_NAME = 8;
+    private static final int BLOOM_HASHES = 3;
+    // longs per mapped chunk (a single mapping is limited to 2GB)
+    private static final int CHUNK_SHIFT = 27;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final long size;
+    private final long bloomBits;
+    private final LongBuffer[] bloom;
+    private final LongBuffer[] fingerprints;
+
+    private ReadNameSet(long size, long bloomBits, LongBuffer[] bloom, LongBuffer[] fingerprints) {
+        this.size = size;
+        this.bloomBits = bloomBits;
+        this.bloom = bloom;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Loads the names from a text file (one per line, stripped). If there is an index for
+     * the file, it is used instead. If saveIndex is true (and the index is missing or
+     * out of date), the index is written for next time.
+     */
+    public static ReadNameSet load(String filename, boolean saveIndex) throws IOException {
+        return load(filename, true, saveIndex);
+    }
+
+    public static ReadNameSet load(String filename, boolean strip, boolean saveIndex) throws IOException {
+        File list = new File(filename);
+        File index = new File(filename + INDEX_EXTENSION);
+
+        if (index.exists() && list.exists() && index.lastModified() >= list.lastModified()) {
+            return open(index);
+        }
+
+        long[] fps = new long[1024];
+        int count = 0;
+        for (String s: new StringLineReader(filename)) {
+            if (strip) {
+                s = StringUtils.strip(s);
+            }
+            if (count == fps.length) {
+                if (count == Integer.MAX_VALUE - 8) {
+                    throw new IOException("Too many read names in: " + filename);
+                }
+                fps = Arrays.copyOf(fps, (int) Math.min((long) count * 2, Integer.MAX_VALUE - 8));
+            }
+            fps[count++] = FingerprintSet.fingerprint(s);
+        }
+
+        Arrays.sort(fps, 0, count);
+        int uniq = 0;
+        for (int i=0; i<count; i++) {
+            if (uniq == 0 || fps[i] != fps[uniq-1]) {
+                fps[uniq++] = fps[i];
+            }
+        }
+        fps = Arrays.copyOf(fps, uniq);
+
+        long[] bloom = new long[(int) Math.max(1, ((long) uniq * BLOOM_BITS_PER_NAME + 63) / 64)];
+        long bloomBits = (long) bloom.length * 64;
+        for (long fp: fps) {
+            for (int k=0; k<BLOOM_HASHES; k++) {
+                long bit = bloomBit(fp, k, bloomBits);
+                bloom[(int) (bit >>> 6)] |= 1L << (bit & 63);
+            }
+        }
+
+        if (saveIndex) {
+            try {
+                write(index, fps, bloom);
+            } catch (IOException e) {
+                // not fatal, we just won't have an index next time
+                System.err.println("Unable to write index: " + index + " (" + e.getMessage() + ")");
+                index.delete();
+            }
+        }
+
+        return new ReadNameSet(uniq, bloomBits, wrap(bloom), wrap(fps));
+    }
+
+    public boolean contains(String name) {
+        long fp = FingerprintSet.fingerprint(name);
+
+        for (int k=0; k<BLOOM_HASHES; k++) {
+            long bit = bloomBit(fp, k, bloomBits);
+            if ((get(bloom, bit >>> 6) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+
+        long lo = 0;
+        long hi = size - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long val = get(fingerprints, mid);
+            if (val < fp) {
+                lo = mid + 1;
+            } else if (val > fp) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    private static long get(LongBuffer[] chunks, long idx) {
+        return chunks[(int) (idx >>> CHUNK_SHIFT)].get((int) (idx & CHUNK_MASK));
+    }
+
+    private static long bloomBit(long fp, int k, long bloomBits) {
+        // double hashing with the two halves of the fingerprint
+        long h = (fp >>> 32) + k * (fp & 0xffffffffL);
+        return (h & Long.MAX_VALUE) % bloomBits;
+    }
+
+    private static void write(File index, long[] fps, long[] bloom) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+        out.writeLong(MAGIC);
+        out.writeLong(fps.length);
+        out.writeLong(bloom.length);
+        for (long l: bloom) {
+            out.writeLong(l);
+        }
+        for (long l: fps) {
+            out.writeLong(l);
+        }
+        out.close();
+    }
+
+    private static ReadNameSet open(File index) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(index, "r");
+        try {
+            if (raf.readLong() != MAGIC) {
+                throw new IOException("Invalid read name index: " + index);
+            }
+            long size = raf.readLong();
+            long bloomLen = raf.readLong();
+            if (raf.length() != HEADER_SIZE + (bloomLen + size) * 8) {
+                throw new IOException("Invalid read name index (truncated?): " + index);
+            }
+
+            FileChannel channel = new FileInputStream(index).getChannel();
+            try {
+                LongBuffer[] bloom = map(channel, HEADER_SIZE, bloomLen);
+                LongBuffer[] fps = map(channel, HEADER_SIZE + bloomLen * 8, size);
+                return new ReadNameSet(size, bloomLen * 64, bloom, fps);
+            } finally {
+                // the mappings stay valid after the channel is closed
+                channel.close();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static LongBuffer[] wrap(long[] values) {
+        LongBuffer[] chunks = new LongBuffer[(int) Math.max(1, ((long) values.length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i=0; i<chunks.length; i++) {
+            int start = i << CHUNK_SHIFT;
+            chunks[i] = LongBuffer.wrap(values, start, Math.min(values.length - start, 1 << CHUNK_SHIFT)).slice();
+        }
+        return chunks;
+    }
+
+    private static LongBuffer[] map(FileChannel channel, long offset, long count) throws IOException {
+        LongBuffer[] chunks = new LongBuffer[(int) Math.max(1, (count + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i=0; i<chunks.length; i++) {
+            long start = (long) i << CHUNK_SHIFT;
+            long len = Math.min(count - start, 1L << CHUNK_SHIFT);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start * 8, Math.max(0, len) * 8).order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,126 @@
+package io.compgen.ngsutils.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for read-only resources that are expensive to load (parsed GTF annotations,
+ * tabix indexes, FASTA indexes). This is only used by the resident server, so that the
+ * same files don't need to be re-loaded for each command. For normal command-line use,
+ * the cache is disabled and resources are loaded each time.
+ *
+ * Resources are keyed by their type, filename, and file modification time, so if a file
+ * changes, it will be re-loaded. Anything stored here must be safe to use from more than
+ * one thread (or more than one command) at a time.
+ *
+ * At most maxSize resources are kept. When the cache is full, the least recently used
+ * resource is dropped (it is still valid for anything that is using it).
+ *
+ * @author mbreese
+ *
+ */
+public class ResourceCache {
+    public interface Loader<T> {
+        public T load() throws IOException;
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private static boolean enabled = false;
+    private static int maxSize = DEFAULT_MAX_SIZE;
+    private static Map<String, String> currentKeys = new HashMap<String, String>();
+    private static Map<String, Object> cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if (size() > maxSize) {
+                currentKeys.values().remove(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public static void setEnabled(boolean val) {
+        enabled = val;
+    }
+
+    /**
+     * Set the maximum number of resources to keep
+     */
+    public static void setMaxSize(int val) {
+        synchronized (cache) {
+            maxSize = Math.max(val, 0);
+            while (cache.size() > maxSize) {
+                String key = cache.keySet().iterator().next();
+                cache.remove(key);
+                currentKeys.values().remove(key);
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached resource for this file (or loads it).
+     *
+     * @param type - type of resource (the same file can be cached as different resources)
+     * @param filename
+     * @param loader - used to load the resource if it isn't in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String type, String filename, Loader<T> loader) throws IOException {
+        if (!enabled) {
+            return loader.load();
+        }
+
+        File f = new File(filename);
+        if (!f.exists()) {
+            return loader.load();
+        }
+
+        String name = type + ":" + f.getCanonicalPath();
+        String key = name + ":" + f.lastModified() + ":" + f.length();
+
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                return (T) cache.get(key);
+            }
+        }
+
+        // load outside of the lock, so other resources can still be used.
+        // (if two threads load the same file, the last one wins)
+        T val = loader.load();
+
+        synchronized (cache) {
+            String oldKey = currentKeys.get(name);
+            if (oldKey != null && !oldKey.equals(key)) {
+                // the file changed, so drop the old version
+                cache.remove(oldKey);
+            }
+            currentKeys.put(name, key);
+            cache.put(key, val);
+        }
+
+        return val;
+    }
+
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            currentKeys.clear();
+        }
+    }
+
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
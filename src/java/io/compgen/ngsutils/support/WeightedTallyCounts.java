@@ -0,0 +1,85 @@
+package io.compgen.ngsutils.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A primitive (array backed) version of TallyCounts that can add many observations
+ * of the same value at once. Values must be non-negative. getQuantile() and write()
+ * return the same values/format as TallyCounts.
+ *
+ * This is meant for tallying per-base depth, where runs of positions have the same value.
+ *
+ * @author mbreese
+ *
+ */
+public class WeightedTallyCounts {
+    private long[] counts = new long[1024];
+    private long total = 0;
+    private int min = -1;
+    private int max = -1;
+
+    public void incr(int value) {
+        incr(value, 1);
+    }
+
+    public void incr(int value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must be >= 0");
+        }
+        while (value >= counts.length) {
+            long[] tmp = new long[counts.length * 2];
+            System.arraycopy(counts, 0, tmp, 0, counts.length);
+            counts = tmp;
+        }
+        counts[value] += count;
+        total += count;
+
+        if (min == -1 || value < min) {
+            min = value;
+        }
+        if (max == -1 || value > max) {
+            max = value;
+        }
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount(int value) {
+        if (value < 0 || value >= counts.length) {
+            return 0;
+        }
+        return counts[value];
+    }
+
+    public int getQuantile(double pct) {
+        double target = pct * total;
+        long acc = 0;
+        for (int i=min; i<=max && acc < target; i++) {
+            acc += getCount(i);
+            if (acc > target) {
+                return i;
+            }
+        }
+        return max;
+    }
+
+    public void write(OutputStream os) throws IOException {
+        for (int i=min; i<=max; i++) {
+            os.write((""+i+"\t"+getCount(i)+"\n").getBytes());
+        }
+    }
+}
@@ -14,8 +14,21 @@ import java.util.zip.DataFormatException;
 import java.util.zip.GZIPInputStream;
 
 import io.compgen.common.io.DataIO;
+import io.compgen.ngsutils.support.Metrics;
 
 public class BGZFile {
+    private static final Metrics.Counter BLOCKS_INFLATED = Metrics.counter("bgzf.blocks_inflated");
+    private static final Metrics.Counter BYTES_INFLATED = Metrics.counter("bgzf.bytes_inflated");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("bgzf.cache_hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("bgzf.cache_misses");
+    private static final Metrics.Timer INFLATE = Metrics.timer("bgzf.inflate");
+    static {
+        Metrics.gauge("bgzf.cache_hit_rate", new Metrics.Gauge() {
+            @Override
+            public double getValue() {
+                return (double) CACHE_HITS.getValue() / (CACHE_HITS.getValue() + CACHE_MISSES.getValue());
+            }});
+    }
 
     public class BGZBlock {
         public final long pos;
@@ -164,7 +177,10 @@ public class BGZFile {
 
 	public BGZBlock readBlock(long offset) throws IOException {
 	    BGZBlock b = cache.get(offset);
-	    if (b == null) {
+	    if (b != null) {
+	        CACHE_HITS.incr();
+	    } else {
+	        CACHE_MISSES.incr();
 	        if (file.getFilePointer()!=offset) {
 	            if (offset >= file.length()) {
 	                return null;
@@ -178,6 +194,14 @@ public class BGZFile {
         return b;
     }
 
+	/**
+	 * Moves to a (compressed) block offset, so the next call to readCurrentBlock() reads
+	 * the block at that position.
+	 */
+	public void seek(long offset) throws IOException {
+		file.seek(offset);
+	}
+
 	public BGZBlock readCurrentBlock() throws IOException {
 //		System.err.println("reading chunk -- fname  = " + filename+ ", curpos = " + file.getFilePointer() +", length = " + file.length());
 		
@@ -262,6 +286,7 @@ public class BGZFile {
 		file.seek(curOffset);
 		file.readFully(cBuf, 0, cBuf.length);
 
+		long t = INFLATE.start();
 		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(cBuf));
 		byte[] uBuf = new byte[(int) isize];
 		int readPos = 0;
@@ -278,6 +303,9 @@ public class BGZFile {
 		}
 
 		in.close();
+		INFLATE.stop(t);
+		BLOCKS_INFLATED.incr();
+		BYTES_INFLATED.add(readPos);
 //		System.err.println("read chunk -- fname  = " + filename+ ", curpos = " + file.getFilePointer() +", length = " + file.length());
 		return new BGZBlock(curOffset,bsize+1,uBuf);
 	}
@@ -37,4 +37,25 @@ public class BGZInputStream extends InputStream {
 		}		
 		return buf.read();
 	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		// skip over empty blocks
+		while (buf == null || buf.available() == 0) {
+		    BGZBlock block = bgzf.readCurrentBlock();
+		    if (block == null || block.uBuf == null) {
+		        return -1;
+		    }
+            buf = new ByteArrayInputStream(block.uBuf);
+		}
+		return buf.read(b, off, len);
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buf == null ? 0 : buf.available();
+	}
 }
@@ -325,6 +325,8 @@ public class CSIFile implements TabixIndex {
 
 //        int refIdx = 0;
         final List<Chunk> chunks = new ArrayList<Chunk>();
+        // indexes can be shared between threads, so work from a local copy of the last ref
+        int refIdx = this.refIdx;
         if (refIdx >= seqNames.length || refIdx < 0 || !seqNames[refIdx].equals(chrom)) {
             refIdx = 0;
             while (refIdx < seqNames.length && !seqNames[refIdx].equals(chrom)) {
@@ -339,6 +341,7 @@ public class CSIFile implements TabixIndex {
         }
 
 //        System.out.println("refIdx="+refIdx+" => " + seqNames[refIdx]);
+        this.refIdx = refIdx;
         final Ref ref = refs[refIdx];
 
         final long[] possibleBins = reg2bins(start, end, minShift, depth);
@@ -372,6 +375,122 @@ public class CSIFile implements TabixIndex {
         return chunks;
     }
 
+    private int findRef(String chrom) {
+        for (int i = 0; i < seqNames.length; i++) {
+            if (seqNames[i].equals(chrom)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String[] getSeqNames() {
+        return seqNames;
+    }
+
+    @Override
+    public int getMinShift() {
+        return minShift;
+    }
+
+    @Override
+    public long[] getWindowSizes(String chrom) {
+        int refIdx = findRef(chrom);
+        if (refIdx == -1) {
+            return null;
+        }
+        final Bin[] bins = refs[refIdx].bins;
+        final long[] binNums = new long[bins.length];
+        final long[] binSizes = new long[bins.length];
+        for (int i = 0; i < bins.length; i++) {
+            binNums[i] = bins[i].bin;
+            binSizes[i] = chunkSize(bins[i].chunks);
+        }
+        return windowSizes(binNums, binSizes, minShift, depth);
+    }
+
+    @Override
+    public long getStartOffset(String chrom, int start) {
+        int refIdx = findRef(chrom);
+        if (refIdx == -1) {
+            return -1;
+        }
+        final Bin[] bins = refs[refIdx].bins;
+        final long binLimit = ((1L << (depth + 1) * 3) - 1) / 7;
+
+        long offset = -1;
+        for (Bin bin: bins) {
+            if (bin.bin < binLimit) {
+                for (Chunk chunk: bin.chunks) {
+                    if (offset == -1 || chunk.getBegin() < offset) {
+                        offset = chunk.getBegin();
+                    }
+                }
+            }
+        }
+
+        // loffset is the first record that overlaps the bin, so use the smallest bin
+        // containing start that is in the index.
+        long bin = reg2bin(start, start + 1, minShift, depth);
+        while (true) {
+            for (Bin b: bins) {
+                if (b.bin == bin) {
+                    return Math.max(offset, b.lOffset);
+                }
+            }
+            if (bin == 0) {
+                return offset;
+            }
+            bin = (bin - 1) >> 3;
+        }
+    }
+
+    /**
+     * @return the (approximate) compressed size of the chunks
+     */
+    protected static long chunkSize(Chunk[] chunks) {
+        long size = 0;
+        for (Chunk chunk: chunks) {
+            size += Math.max(1, chunk.coffsetEnd - chunk.coffsetBegin);
+        }
+        return size;
+    }
+
+    /**
+     * Adds up the bin sizes for each window of 2^min_shift bases. Each bin is counted in
+     * the window where it starts. Pseudo-bins (past the last real bin) are skipped.
+     */
+    protected static long[] windowSizes(long[] bins, long[] sizes, int min_shift, int depth) {
+        final long binLimit = ((1L << (depth + 1) * 3) - 1) / 7;
+        final long[] windows = new long[bins.length];
+        int nWindows = 0;
+
+        for (int i = 0; i < bins.length; i++) {
+            windows[i] = -1;
+            if (bins[i] >= binLimit) {
+                continue;
+            }
+            // level l has bins [t, t + 8^l), and each bin covers 8^(depth-l) windows
+            int l = 0;
+            long t = 0;
+            while (bins[i] >= t + (1L << l * 3)) {
+                t += 1L << l * 3;
+                l++;
+            }
+            windows[i] = (bins[i] - t) << (depth - l) * 3;
+            nWindows = (int) Math.max(nWindows, windows[i] + 1);
+        }
+
+        final long[] windowSizes = new long[nWindows];
+        for (int i = 0; i < bins.length; i++) {
+            if (windows[i] > -1) {
+                windowSizes[(int) windows[i]] += sizes[i];
+            }
+        }
+        return windowSizes;
+    }
+
     @Override
     public int getSkipLines() {
         return skipLines;
@@ -15,9 +15,11 @@ public class TBIFile implements TabixIndex {
 
     protected class Ref {
         final protected Bin[] bins;
+        final protected long[] intervals;
 
-        public Ref(Bin[] bins) {
+        public Ref(Bin[] bins, long[] intervals) {
             this.bins = bins;
+            this.intervals = intervals;
         }
     }
 
@@ -112,12 +114,13 @@ public class TBIFile implements TabixIndex {
             }
 
             final int nIntv = DataIO.readInt32(in);
+            final long[] intervals = new long[nIntv];
 
             for (int j = 0; j < nIntv; j++) {
-                DataIO.readUint64(in); // ioff, not used (for linear index)
+                intervals[j] = DataIO.readUint64(in); // ioff (linear index)
             }
 
-            refs[i] = new Ref(bins);
+            refs[i] = new Ref(bins, intervals);
         }
 
         if (in.available()>0) {
@@ -302,6 +305,8 @@ public class TBIFile implements TabixIndex {
         
         final List<Chunk> chunks = new ArrayList<Chunk>();
         
+        // indexes can be shared between threads, so work from a local copy of the last ref
+        int refIdx = this.refIdx;
         if (refIdx >= seqNames.length || refIdx < 0 || !seqNames[refIdx].equals(chrom)) {
             refIdx = 0;
         
@@ -316,6 +321,7 @@ public class TBIFile implements TabixIndex {
         }
 
         // System.out.println("refIdx="+refIdx+" => " + seqNames[refIdx]);
+        this.refIdx = refIdx;
         final Ref ref = refs[refIdx];
 
         final long[] possibleBins = reg2bins(start, end);
@@ -340,6 +346,70 @@ public class TBIFile implements TabixIndex {
         }
         return chunks;
     }
+    private int findRef(String chrom) {
+        for (int i = 0; i < seqNames.length; i++) {
+            if (seqNames[i].equals(chrom)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String[] getSeqNames() {
+        return seqNames;
+    }
+
+    @Override
+    public int getMinShift() {
+        return 14;
+    }
+
+    @Override
+    public long[] getWindowSizes(String chrom) {
+        int refIdx = findRef(chrom);
+        if (refIdx == -1) {
+            return null;
+        }
+        final Bin[] bins = refs[refIdx].bins;
+        final long[] binNums = new long[bins.length];
+        final long[] binSizes = new long[bins.length];
+        for (int i = 0; i < bins.length; i++) {
+            binNums[i] = bins[i].bin;
+            binSizes[i] = CSIFile.chunkSize(bins[i].chunks);
+        }
+        // TBI is the same as CSI with min_shift=14, depth=5
+        return CSIFile.windowSizes(binNums, binSizes, 14, 5);
+    }
+
+    @Override
+    public long getStartOffset(String chrom, int start) {
+        int refIdx = findRef(chrom);
+        if (refIdx == -1) {
+            return -1;
+        }
+        final Ref ref = refs[refIdx];
+
+        long offset = -1;
+        for (Bin bin: ref.bins) {
+            // skip the pseudo-bin (37450)
+            if (bin.bin < 37449) {
+                for (Chunk chunk: bin.chunks) {
+                    if (offset == -1 || chunk.getBegin() < offset) {
+                        offset = chunk.getBegin();
+                    }
+                }
+            }
+        }
+
+        // the linear index has the first record that overlaps each 16kb window
+        if (ref.intervals.length > 0) {
+            int window = Math.min(start >> 14, ref.intervals.length - 1);
+            offset = Math.max(offset, ref.intervals[window]);
+        }
+        return offset;
+    }
+
     @Override
     public int getSkipLines() {
         return skipLines;
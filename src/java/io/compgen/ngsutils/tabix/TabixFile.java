@@ -3,14 +3,21 @@ package io.compgen.ngsutils.tabix;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
 import java.util.zip.DataFormatException;
 
 import io.compgen.common.StringLineReader;
 import io.compgen.ngsutils.support.LogUtils;
+import io.compgen.ngsutils.support.Metrics;
+import io.compgen.ngsutils.support.ResourceCache;
 import io.compgen.ngsutils.tabix.BGZFile.BGZBlock;
 
 public class TabixFile {
+    private static final Metrics.Counter QUERIES = Metrics.counter("tabix.queries");
+    private static final Metrics.Timer INDEX_LOOKUP = Metrics.timer("tabix.query");
+
 	protected String filename;
 	protected BGZFile bgzf;
 	protected TabixIndex index;
@@ -28,15 +35,46 @@ public class TabixFile {
 	public TabixFile(String filename, boolean verbose) throws IOException {
 		this.filename = filename;
 		this.bgzf = new BGZFile(filename, verbose);
-        this.index = null;
-        
+        this.index = loadIndex(filename);
+	}
+
+	private TabixFile(TabixFile other) throws IOException {
+		this.filename = other.filename;
+		this.bgzf = new BGZFile(other.filename);
+		this.index = other.index;
+		this.headerNames = other.headerNames;
+	}
+
+	/**
+	 * Returns a new handle for the same file that shares this file's (read-only) index.
+	 * TabixFiles aren't thread-safe, so each thread needs its own handle, but the index
+	 * only needs to be loaded once.
+	 */
+	public TabixFile copy() throws IOException {
+		return new TabixFile(this);
+	}
+
+	/**
+	 * Indexes are read-only once loaded, so they can be shared between TabixFiles
+	 * (when the ResourceCache is enabled).
+	 */
+	private static TabixIndex loadIndex(String filename) throws IOException {
         if (new File(filename+".csi").exists()) {
-            this.index = new CSIFile(new File(filename+".csi"));
+            final File f = new File(filename+".csi");
+            return ResourceCache.get("csi", f.getPath(), new ResourceCache.Loader<TabixIndex>() {
+                @Override
+                public TabixIndex load() throws IOException {
+                    return new CSIFile(f);
+                }});
         } else if (new File(filename+".tbi").exists()) {
-            this.index = new TBIFile(new File(filename+".tbi"));
-        } else {
-            throw new IOException("Missing tabix index (expected *.csi or *.tbi)!");
+            final File f = new File(filename+".tbi");
+            return ResourceCache.get("tbi", f.getPath(), new ResourceCache.Loader<TabixIndex>() {
+                @Override
+                public TabixIndex load() throws IOException {
+                    return new TBIFile(f);
+                }});
         }
+        throw new IOException("Missing tabix index (expected *.csi or *.tbi)!");
 	}
 	
 	public void close() throws IOException {
@@ -44,6 +82,10 @@ public class TabixFile {
 	    this.closed = true;
 	}
 
+	public boolean isClosed() {
+	    return closed;
+	}
+
 	
 	public int findColumnByName(String name) throws IOException {
 		if (index == null) {
@@ -166,9 +208,37 @@ public class TabixFile {
             ref = ref.substring(3);
         }
 
-        return new TabixQueryIterator(ref, start, end, index, bgzf);
+        QUERIES.incr();
+        long t = INDEX_LOOKUP.start();
+        TabixQueryIterator it = new TabixQueryIterator(ref, start, end, index, bgzf);
+        INDEX_LOOKUP.stop(t);
+        return it;
 	}
 
+    /**
+     * Returns the lines that start in the regions (in file order). Each line is only in
+     * one region, so the regions from split() can be read separately.
+     */
+    public Iterator<String> lines(List<TabixRegion> regions) throws IOException {
+		if (closed) {
+			throw new IOException("File closed");
+		}
+		if (index == null) {
+			throw new IOException("Missing TBI or CSI index file!");
+		}
+        return new TabixRegionIterator(regions, index, bgzf);
+    }
+
+    /**
+     * Splits the file into (up to) n shards of about the same size (see TabixRegion.split())
+     */
+    public List<List<TabixRegion>> split(int n, boolean wholeRefs) throws IOException {
+		if (index == null) {
+			throw new IOException("Missing TBI or CSI index file!");
+		}
+        return TabixRegion.split(index, n, wholeRefs);
+    }
+
     public Iterator<String> lines() throws IOException {
 		if (closed) {
 			throw new IOException("File closed");
@@ -192,9 +262,9 @@ public class TabixFile {
                     for (int i=pos; i<buf.length; i++) {
                         if (buf[i] == '\n') {
                             if (buf[i-1] == '\r') {
-                                next = new String(buf, pos, i-pos-1);
+                                next = new String(buf, pos, i-pos-1, StandardCharsets.UTF_8);
                             } else {
-                                next = new String(buf, pos, i-pos);
+                                next = new String(buf, pos, i-pos, StandardCharsets.UTF_8);
                             }
                             pos = i+1;
                             return;
@@ -206,7 +276,7 @@ public class TabixFile {
                     BGZBlock block = bgzf.readCurrentBlock();
                     if (block == null) {
                         if (buf!=null && pos < buf.length) { 
-                            next = new String(buf, pos, buf.length-pos);
+                            next = new String(buf, pos, buf.length-pos, StandardCharsets.UTF_8);
                             pos = buf.length;
                         } else {
                             next = null;
@@ -20,6 +20,13 @@ public interface TabixIndex {
             uoffsetEnd = (int) (end & 0xFFFF);
 
         }
+
+        /**
+         * @return the virtual file offset of the start of the chunk
+         */
+        public long getBegin() {
+            return (coffsetBegin << 16) | uoffsetBegin;
+        }
     }
     
     public List<Chunk> find(String chrom, int start, int end) throws IOException;
@@ -34,4 +41,30 @@ public interface TabixIndex {
     public int getSkipLines();
     
     public boolean isZeroBased();
+
+    /**
+     * @return the reference names (in the same order as the file)
+     */
+    public String[] getSeqNames();
+
+    /**
+     * @return the size of the windows used by getWindowSizes() (2^minShift bases)
+     */
+    public int getMinShift();
+
+    /**
+     * Estimates how the records for a reference are spread through the file. For each
+     * window of 2^minShift bases, this is the compressed size of the records in bins that
+     * start in the window.
+     *
+     * @return the size of each window, or null if the reference isn't in the index
+     */
+    public long[] getWindowSizes(String chrom);
+
+    /**
+     * @param start (zero-based)
+     * @return a virtual file offset at or before the first record that starts at or after
+     *         start, or -1 if the reference isn't in the index
+     */
+    public long getStartOffset(String chrom, int start);
 }
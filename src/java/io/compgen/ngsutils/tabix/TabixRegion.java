@@ -0,0 +1,93 @@
+package io.compgen.ngsutils.tabix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A region of a tabix indexed file: the records on a reference that *start* in [start, end)
+ * (zero-based). Unlike a query, each record is only in one region, so a file can be split
+ * into regions that are processed separately.
+ *
+ * @author mbreese
+ *
+ */
+public class TabixRegion {
+    public final String ref;
+    public final int start;
+    public final int end;
+
+    public TabixRegion(String ref, int start, int end) {
+        this.ref = ref;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String toString() {
+        return ref + ":" + start + "-" + end;
+    }
+
+    /**
+     * Splits an indexed file into (up to) n shards of about the same (compressed) size. Each
+     * shard is a list of regions in file order, and the shards are also in file order. Shards
+     * only split a reference at window boundaries (see TabixIndex.getWindowSizes()).
+     *
+     * If wholeRefs is set, references aren't split (for when records depend on the records
+     * around them).
+     */
+    public static List<List<TabixRegion>> split(TabixIndex index, int n, boolean wholeRefs) {
+        final int shift = index.getMinShift();
+        final List<String> refs = new ArrayList<String>();
+        final List<long[]> sizes = new ArrayList<long[]>();
+
+        long total = 0;
+        for (String ref: index.getSeqNames()) {
+            long[] windows = index.getWindowSizes(ref);
+            if (windows == null || windows.length == 0) {
+                continue;
+            }
+            refs.add(ref);
+            sizes.add(windows);
+            for (long w: windows) {
+                total += w;
+            }
+        }
+
+        final long target = Math.max(1, (total + n - 1) / n);
+        final List<List<TabixRegion>> shards = new ArrayList<List<TabixRegion>>();
+        List<TabixRegion> cur = new ArrayList<TabixRegion>();
+        long acc = 0;
+
+        for (int i = 0; i < refs.size(); i++) {
+            long[] windows = sizes.get(i);
+            int start = 0;
+            for (int j = 0; j < windows.length; j++) {
+                acc += windows[j];
+                if (acc >= target && shards.size() < n - 1 && (!wholeRefs || j + 1 == windows.length)) {
+                    if (j + 1 < windows.length) {
+                        cur.add(new TabixRegion(refs.get(i), toPos(start, shift), toPos(j + 1, shift)));
+                        start = j + 1;
+                    } else {
+                        // records in larger bins can start past the last window
+                        cur.add(new TabixRegion(refs.get(i), toPos(start, shift), Integer.MAX_VALUE));
+                        start = -1;
+                    }
+                    shards.add(cur);
+                    cur = new ArrayList<TabixRegion>();
+                    acc = 0;
+                }
+            }
+            if (start > -1) {
+                cur.add(new TabixRegion(refs.get(i), toPos(start, shift), Integer.MAX_VALUE));
+            }
+        }
+
+        if (cur.size() > 0) {
+            shards.add(cur);
+        }
+        return shards;
+    }
+
+    private static int toPos(long window, int shift) {
+        return (int) Math.min(window << shift, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,188 @@
+package io.compgen.ngsutils.tabix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+import io.compgen.ngsutils.tabix.BGZFile.BGZBlock;
+
+/**
+ * Returns the lines for a list of regions (see TabixRegion) in file order. For each region,
+ * this starts reading at the offset from the index and reads blocks in order until it is
+ * past the end of the region, so lines are only read (and returned) once.
+ *
+ * @author mbreese
+ *
+ */
+public class TabixRegionIterator implements Iterator<String> {
+    private final TabixIndex index;
+    private final BGZFile bgzf;
+    private final List<TabixRegion> regions;
+
+    private int regionIdx = -1;
+    private boolean inRef = false;
+
+    private byte[] buf = null;
+    private int pos = 0;
+
+    private String next = null;
+
+    public TabixRegionIterator(List<TabixRegion> regions, TabixIndex index, BGZFile bgzf) throws IOException {
+        this.regions = regions;
+        this.index = index;
+        this.bgzf = bgzf;
+
+        nextRegion();
+        populate();
+    }
+
+    private boolean nextRegion() throws IOException {
+        while (++regionIdx < regions.size()) {
+            TabixRegion region = regions.get(regionIdx);
+            long offset = index.getStartOffset(region.ref, region.start);
+            if (offset == -1) {
+                continue;
+            }
+            bgzf.seek((offset >> 16) & 0xFFFFFFFFFFFFL);
+            BGZBlock block = bgzf.readCurrentBlock();
+            if (block == null) {
+                continue;
+            }
+            buf = block.uBuf;
+            pos = (int) (offset & 0xFFFF);
+            inRef = false;
+            return true;
+        }
+        return false;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream partial = null;
+        while (true) {
+            if (buf == null || pos >= buf.length) {
+                BGZBlock block = bgzf.readCurrentBlock();
+                if (block == null) {
+                    buf = null;
+                    if (partial != null && partial.size() > 0) {
+                        return new String(partial.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    return null;
+                }
+                buf = block.uBuf;
+                pos = 0;
+                continue;
+            }
+
+            int i = pos;
+            while (i < buf.length && buf[i] != '\n') {
+                i++;
+            }
+
+            if (i < buf.length) {
+                int end = (i > pos && buf[i-1] == '\r') ? i - 1 : i;
+                String line;
+                if (partial == null) {
+                    line = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+                } else {
+                    partial.write(buf, pos, i - pos);
+                    byte[] b = partial.toByteArray();
+                    int len = (b.length > 0 && b[b.length-1] == '\r') ? b.length - 1 : b.length;
+                    line = new String(b, 0, len, StandardCharsets.UTF_8);
+                }
+                pos = i + 1;
+                return line;
+            }
+
+            if (partial == null) {
+                partial = new ByteArrayOutputStream();
+            }
+            partial.write(buf, pos, buf.length - pos);
+            pos = buf.length;
+        }
+    }
+
+    /**
+     * @return the value of a column (one-based), or null if the line doesn't have enough columns
+     */
+    private static String column(String line, int col) {
+        int start = 0;
+        for (int i = 1; i < col; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        int end = line.indexOf('\t', start);
+        return end == -1 ? line.substring(start) : line.substring(start, end);
+    }
+
+    private void populate() throws IOException {
+        next = null;
+        while (regionIdx < regions.size()) {
+            TabixRegion region = regions.get(regionIdx);
+            String line;
+            while ((line = readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == index.getMeta()) {
+                    continue;
+                }
+
+                String ref = column(line, index.getColSeq());
+                String begin = column(line, index.getColBegin());
+                if (ref == null || begin == null) {
+                    throw new IOException("Invalid line (missing columns): " + line);
+                }
+
+                if (!ref.equals(region.ref)) {
+                    if (inRef) {
+                        // moved on to the next reference
+                        break;
+                    }
+                    continue;
+                }
+                inRef = true;
+
+                int b;
+                try {
+                    b = Integer.parseInt(begin);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid position: " + begin, e);
+                }
+                if (!index.isZeroBased()) {
+                    // convert one-based begin coord (in bgzip file)
+                    b--;
+                }
+
+                if (b < region.start) {
+                    continue;
+                }
+                if (b >= region.end) {
+                    break;
+                }
+
+                next = line;
+                return;
+            }
+            if (!nextRegion()) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        String cur = next;
+        try {
+            populate();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return cur;
+    }
+}
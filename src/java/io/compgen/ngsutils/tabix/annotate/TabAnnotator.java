@@ -28,4 +28,12 @@ public interface TabAnnotator {
     public String getValue(String chrom, int start, int end, String[] qCols) throws IOException;
 
     public void close() throws IOException;
+
+    /**
+     * Returns a new annotator with the same settings, but with its own file handles, so
+     * that it can be used from another thread.
+     * @return
+     * @throws IOException
+     */
+    public TabAnnotator copy() throws IOException;
 }
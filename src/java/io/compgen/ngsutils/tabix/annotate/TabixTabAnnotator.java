@@ -15,9 +15,15 @@ import io.compgen.common.StringUtils;
 import io.compgen.ngsutils.tabix.TabixFile;
 
 public class TabixTabAnnotator implements TabAnnotator {
-    private static Map<String, TabixFile> cache = new HashMap<String, TabixFile>();
+    // TabixFiles aren't thread-safe, so each thread (in server mode, each command) has its own
+    private static ThreadLocal<Map<String, TabixFile>> cache = new ThreadLocal<Map<String, TabixFile>>() {
+        @Override
+        protected Map<String, TabixFile> initialValue() {
+            return new HashMap<String, TabixFile>();
+        }};
 
     private String name;
+    private String fname;
     private TabixFile tabix;
     private int col;
     private boolean collapse;
@@ -27,13 +33,19 @@ public class TabixTabAnnotator implements TabAnnotator {
     private boolean count;
     
     public TabixTabAnnotator(String name, String fname, int col) throws IOException {
+        this(name, fname, getTabixFile(fname), col);
+    }
+
+    private TabixTabAnnotator(String name, String fname, TabixFile tabix, int col) {
         this.name = name;
-        this.tabix = getTabixFile(fname);
+        this.fname = fname;
+        this.tabix = tabix;
         this.col = col;
     }
 
     public TabixTabAnnotator(String name, String fname, String colName) throws IOException {
         this.name = name;
+        this.fname = fname;
         this.tabix = getTabixFile(fname);
         
         int col = this.tabix.findColumnByName(colName);
@@ -49,10 +61,11 @@ public class TabixTabAnnotator implements TabAnnotator {
     }
 
     private static TabixFile getTabixFile(String filename) throws IOException {
-        if (!cache.containsKey(filename)) {
-            cache.put(filename, new TabixFile(filename));
+        Map<String, TabixFile> files = cache.get();
+        if (!files.containsKey(filename) || files.get(filename).isClosed()) {
+            files.put(filename, new TabixFile(filename));
         }
-        return cache.get(filename);
+        return files.get(filename);
     }
 
     
@@ -172,5 +185,16 @@ public class TabixTabAnnotator implements TabAnnotator {
     public void close() throws IOException {
         tabix.close();
     }
+
+    @Override
+    public TabAnnotator copy() throws IOException {
+        TabixTabAnnotator tta = new TabixTabAnnotator(name, fname, new TabixFile(fname), col);
+        tta.collapse = collapse;
+        tta.first = first;
+        tta.mean = mean;
+        tta.median = median;
+        tta.count = count;
+        return tta;
+    }
     
 }
@@ -16,7 +16,12 @@ import io.compgen.ngsutils.vcf.VCFParseException;
 import io.compgen.ngsutils.vcf.VCFRecord;
 
 public class TabixVCFAnnotator implements TabAnnotator {
-    private static Map<String, TabixFile> cache = new HashMap<String, TabixFile>();
+    // TabixFiles aren't thread-safe, so each thread (in server mode, each command) has its own
+    private static ThreadLocal<Map<String, TabixFile>> cache = new ThreadLocal<Map<String, TabixFile>>() {
+        @Override
+        protected Map<String, TabixFile> initialValue() {
+            return new HashMap<String, TabixFile>();
+        }};
     
     final protected String name;
     final protected String filename;
@@ -27,6 +32,10 @@ public class TabixVCFAnnotator implements TabAnnotator {
     final protected int refCol;
     
     public TabixVCFAnnotator(String name, String filename, String infoVal, boolean passing, int refCol, int altCol) throws IOException {
+        this(name, filename, getTabixFile(filename), infoVal, passing, refCol, altCol);
+    }
+
+    protected TabixVCFAnnotator(String name, String filename, TabixFile vcfTabix, String infoVal, boolean passing, int refCol, int altCol) {
         this.name = name;
         this.filename = filename;
         if (infoVal != null && !infoVal.equals("")) {
@@ -36,7 +45,7 @@ public class TabixVCFAnnotator implements TabAnnotator {
         }
 
         this.passingOnly = passing;
-        this.vcfTabix = getTabixFile(filename);
+        this.vcfTabix = vcfTabix;
         
         this.refCol = refCol;
         this.altCol = altCol;
@@ -48,10 +57,11 @@ public class TabixVCFAnnotator implements TabAnnotator {
     }
     
     private static TabixFile getTabixFile(String filename) throws IOException {
-        if (!cache.containsKey(filename)) {
-            cache.put(filename, new TabixFile(filename));
+        Map<String, TabixFile> files = cache.get();
+        if (!files.containsKey(filename) || files.get(filename).isClosed()) {
+            files.put(filename, new TabixFile(filename));
         }
-        return cache.get(filename);     
+        return files.get(filename);     
     }
     
     @Override
@@ -59,6 +69,11 @@ public class TabixVCFAnnotator implements TabAnnotator {
         vcfTabix.close();
     }
 
+    @Override
+    public TabAnnotator copy() throws IOException {
+        return new TabixVCFAnnotator(name, filename, new TabixFile(filename), infoVal, passingOnly, refCol, altCol);
+    }
+
     @Override
     public String getValue(String chrom, int start, int end, String[] qCols) throws IOException {
 //        System.err.println("Query: " + chrom+":"+start);
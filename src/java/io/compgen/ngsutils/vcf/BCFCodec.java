@@ -0,0 +1,393 @@
+package io.compgen.ngsutils.vcf;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Typed values for BCF2 (v2.2) records. All values are little-endian.
+ *
+ * Each value (or vector of values) starts with a type descriptor byte:
+ * (count &lt;&lt; 4 | type). If the count is &gt;= 15, the count is set to 15 and the real
+ * count follows as a typed integer.
+ *
+ * See: https://samtools.github.io/hts-specs/VCFv4.3.pdf (section 6)
+ *
+ * @author mbreese
+ *
+ */
+public class BCFCodec {
+    public static final byte[] MAGIC = new byte[] { 'B', 'C', 'F', 2, 2 };
+
+    public static final int TYPE_MISSING = 0;
+    public static final int TYPE_INT8 = 1;
+    public static final int TYPE_INT16 = 2;
+    public static final int TYPE_INT32 = 3;
+    public static final int TYPE_FLOAT = 5;
+    public static final int TYPE_CHAR = 7;
+
+    public static final int INT8_MISSING = -128;
+    public static final int INT8_EOV = -127;
+    public static final int INT8_MIN = -120;
+    public static final int INT16_MISSING = -32768;
+    public static final int INT16_EOV = -32767;
+    public static final int INT16_MIN = -32760;
+    public static final int INT32_MISSING = Integer.MIN_VALUE;
+    public static final int INT32_EOV = Integer.MIN_VALUE + 1;
+    public static final int INT32_MIN = Integer.MIN_VALUE + 8;
+    public static final int FLOAT_MISSING = 0x7F800001;
+    public static final int FLOAT_EOV = 0x7F800002;
+
+    /**
+     * Formats a float for VCF text output (shortest value that reads back as the same float,
+     * without an exponent or a trailing ".0").
+     */
+    public static String formatFloat(float f) {
+        if (Float.isNaN(f)) {
+            return "nan";
+        }
+        if (Float.isInfinite(f)) {
+            return f > 0 ? "inf" : "-inf";
+        }
+        String s = Float.toString(f);
+        if (s.indexOf('E') > -1) {
+            s = new BigDecimal(s).toPlainString();
+        }
+        if (s.indexOf('.') > -1) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            s = s.substring(0, end);
+        }
+        return s;
+    }
+
+    /**
+     * Reads typed values from a record buffer
+     */
+    public static class Decoder {
+        private final byte[] buf;
+        private int pos;
+        private final int end;
+
+        // set by readDescriptor()
+        public int type;
+        public int count;
+
+        public Decoder(byte[] buf) {
+            this(buf, 0, buf.length);
+        }
+
+        public Decoder(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        public boolean hasRemaining() {
+            return pos < end;
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public int readInt8() {
+            return buf[pos++];
+        }
+
+        public int readInt16() {
+            int v = (buf[pos] & 0xFF) | (buf[pos + 1] << 8);
+            pos += 2;
+            return v;
+        }
+
+        public int readInt32() {
+            int v = (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8) | ((buf[pos + 2] & 0xFF) << 16) | (buf[pos + 3] << 24);
+            pos += 4;
+            return v;
+        }
+
+        public float readFloat() {
+            return Float.intBitsToFloat(readInt32());
+        }
+
+        public void readDescriptor() {
+            int b = buf[pos++] & 0xFF;
+            type = b & 0x0F;
+            count = b >> 4;
+            if (count == 15) {
+                int t = type;
+                count = readTypedInt();
+                type = t;
+            }
+        }
+
+        public int readTypedInt() {
+            readDescriptor();
+            return readInt(type);
+        }
+
+        /**
+         * Reads one integer value, with missing and end-of-vector values converted to
+         * INT32_MISSING and INT32_EOV.
+         */
+        public int readInt(int type) {
+            switch (type) {
+            case TYPE_INT8: {
+                int v = readInt8();
+                return v == INT8_MISSING ? INT32_MISSING : v == INT8_EOV ? INT32_EOV : v;
+            }
+            case TYPE_INT16: {
+                int v = readInt16();
+                return v == INT16_MISSING ? INT32_MISSING : v == INT16_EOV ? INT32_EOV : v;
+            }
+            case TYPE_INT32:
+                return readInt32();
+            default:
+                throw new IllegalStateException("Expected an integer type (" + type + ")");
+            }
+        }
+
+        public String readString(int count) {
+            int len = 0;
+            while (len < count && buf[pos + len] != 0) {
+                len++;
+            }
+            String s = new String(buf, pos, len, java.nio.charset.StandardCharsets.UTF_8);
+            pos += count;
+            return s;
+        }
+
+        public String readTypedString() {
+            readDescriptor();
+            if (type == TYPE_MISSING) {
+                return "";
+            }
+            return readString(count);
+        }
+
+        public void skip(int type, int count) {
+            pos += size(type) * count;
+        }
+
+        /**
+         * Reads count values of the given type as VCF text (comma-separated, missing values
+         * as '.'), or null for a flag (no values).
+         */
+        public String readValues(int type, int count) {
+            if (type == TYPE_MISSING || count == 0) {
+                return null;
+            }
+            if (type == TYPE_CHAR) {
+                return readString(count);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            int start = pos;
+            for (int i=0; i<count; i++) {
+                String val;
+                if (type == TYPE_FLOAT) {
+                    int bits = readInt32();
+                    if (bits == FLOAT_EOV) {
+                        break;
+                    }
+                    val = bits == FLOAT_MISSING ? VCFRecord.MISSING : formatFloat(Float.intBitsToFloat(bits));
+                } else {
+                    int v = readInt(type);
+                    if (v == INT32_EOV) {
+                        break;
+                    }
+                    val = v == INT32_MISSING ? VCFRecord.MISSING : Integer.toString(v);
+                }
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(val);
+            }
+            // skip any padding after the end of the vector
+            pos = start + size(type) * count;
+            if (sb.length() == 0) {
+                return VCFRecord.MISSING;
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Reads a GT value (ploidy values of (allele+1)&lt;&lt;1 | phased)
+         */
+        public String readGenotype(int type, int count) {
+            StringBuilder sb = new StringBuilder();
+            int start = pos;
+            for (int i=0; i<count; i++) {
+                int v = readInt(type);
+                if (v == INT32_EOV) {
+                    break;
+                }
+                if (i > 0) {
+                    sb.append((v & 1) == 1 ? '|' : '/');
+                }
+                if (v == INT32_MISSING || (v >> 1) == 0) {
+                    sb.append('.');
+                } else {
+                    sb.append((v >> 1) - 1);
+                }
+            }
+            pos = start + size(type) * count;
+            if (sb.length() == 0) {
+                return VCFRecord.MISSING;
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Writes typed values to a (growable) record buffer
+     */
+    public static class Encoder {
+        private byte[] buf = new byte[4096];
+        private int len = 0;
+
+        public void reset() {
+            len = 0;
+        }
+
+        public int size() {
+            return len;
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+
+        public void writeBytes(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, buf, len, n);
+            len += n;
+        }
+
+        public void writeInt8(int v) {
+            ensure(1);
+            buf[len++] = (byte) v;
+        }
+
+        public void writeInt16(int v) {
+            ensure(2);
+            buf[len++] = (byte) v;
+            buf[len++] = (byte) (v >> 8);
+        }
+
+        public void writeInt32(int v) {
+            ensure(4);
+            buf[len++] = (byte) v;
+            buf[len++] = (byte) (v >> 8);
+            buf[len++] = (byte) (v >> 16);
+            buf[len++] = (byte) (v >> 24);
+        }
+
+        public void writeFloat(float f) {
+            writeInt32(Float.floatToRawIntBits(f));
+        }
+
+        public void writeDescriptor(int type, int count) {
+            if (count < 15) {
+                writeInt8((count << 4) | type);
+            } else {
+                writeInt8((15 << 4) | type);
+                writeTypedInt(count);
+            }
+        }
+
+        public void writeTypedInt(int v) {
+            int type = intType(v, v);
+            writeDescriptor(type, 1);
+            writeInt(type, v);
+        }
+
+        /**
+         * Writes an int value as the given type (INT32_MISSING and INT32_EOV are converted to
+         * the missing/EOV values for the type).
+         */
+        public void writeInt(int type, int v) {
+            switch (type) {
+            case TYPE_INT8:
+                writeInt8(v == INT32_MISSING ? INT8_MISSING : v == INT32_EOV ? INT8_EOV : v);
+                break;
+            case TYPE_INT16:
+                writeInt16(v == INT32_MISSING ? INT16_MISSING : v == INT32_EOV ? INT16_EOV : v);
+                break;
+            default:
+                writeInt32(v);
+                break;
+            }
+        }
+
+        public void writeTypedInts(int[] vals, int n) {
+            int min = 0;
+            int max = 0;
+            for (int i=0; i<n; i++) {
+                if (vals[i] != INT32_MISSING && vals[i] != INT32_EOV) {
+                    min = Math.min(min, vals[i]);
+                    max = Math.max(max, vals[i]);
+                }
+            }
+            int type = intType(min, max);
+            writeDescriptor(type, n);
+            for (int i=0; i<n; i++) {
+                writeInt(type, vals[i]);
+            }
+        }
+
+        public void writeTypedString(String s) {
+            byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            writeDescriptor(TYPE_CHAR, b.length);
+            writeBytes(b, 0, b.length);
+        }
+
+        /**
+         * Writes a string padded with NULs to the given length
+         */
+        public void writeString(byte[] b, int width) {
+            ensure(width);
+            System.arraycopy(b, 0, buf, len, b.length);
+            Arrays.fill(buf, len + b.length, len + width, (byte) 0);
+            len += width;
+        }
+    }
+
+    /**
+     * The smallest integer type that can hold the values
+     */
+    public static int intType(int min, int max) {
+        if (min >= INT8_MIN && max <= Byte.MAX_VALUE) {
+            return TYPE_INT8;
+        } else if (min >= INT16_MIN && max <= Short.MAX_VALUE) {
+            return TYPE_INT16;
+        }
+        return TYPE_INT32;
+    }
+
+    public static int size(int type) {
+        switch (type) {
+        case TYPE_INT8:
+        case TYPE_CHAR:
+            return 1;
+        case TYPE_INT16:
+            return 2;
+        case TYPE_INT32:
+        case TYPE_FLOAT:
+            return 4;
+        default:
+            return 0;
+        }
+    }
+}
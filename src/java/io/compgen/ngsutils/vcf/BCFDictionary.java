@@ -0,0 +1,122 @@
+package io.compgen.ngsutils.vcf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The string (FILTER/INFO/FORMAT) and contig dictionaries for a BCF file. These are
+ * built from the header lines in the order they appear: PASS is always string 0, and an
+ * explicit IDX=n value in a header line takes precedence.
+ *
+ * @author mbreese
+ *
+ */
+public class BCFDictionary {
+    public static final Pattern IDX_PATTERN = Pattern.compile(",IDX=(\\d+)$");
+
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIdx = new HashMap<String, Integer>();
+    private final List<String> contigs = new ArrayList<String>();
+    private final Map<String, Integer> contigIdx = new HashMap<String, Integer>();
+
+    public static BCFDictionary build(List<String> lines) throws VCFParseException {
+        BCFDictionary dict = new BCFDictionary();
+        dict.addString(VCFRecord.PASS, 0);
+
+        for (String line: lines) {
+            String prefix = null;
+            if (line.startsWith("##INFO=<")) {
+                prefix = "##INFO=<";
+            } else if (line.startsWith("##FORMAT=<")) {
+                prefix = "##FORMAT=<";
+            } else if (line.startsWith("##FILTER=<")) {
+                prefix = "##FILTER=<";
+            } else if (line.startsWith("##contig=<")) {
+                prefix = "##contig=<";
+            }
+
+            if (prefix == null || !line.endsWith(">")) {
+                continue;
+            }
+
+            // ID is the first value, and bcftools adds IDX as the last value
+            String body = line.substring(prefix.length(), line.length()-1);
+            if (!body.startsWith("ID=")) {
+                throw new VCFParseException("Missing ID in header line: " + line);
+            }
+            String id = body.indexOf(',') > -1 ? body.substring(3, body.indexOf(',')) : body.substring(3);
+            int idx = -1;
+            Matcher m = IDX_PATTERN.matcher(body);
+            if (m.find()) {
+                idx = Integer.parseInt(m.group(1));
+            }
+
+            if (prefix.equals("##contig=<")) {
+                dict.addContig(id, idx);
+            } else {
+                dict.addString(id, idx);
+            }
+        }
+        return dict;
+    }
+
+    private void addString(String id, int idx) {
+        add(strings, stringIdx, id, idx);
+    }
+
+    private void addContig(String id, int idx) {
+        add(contigs, contigIdx, id, idx);
+    }
+
+    private static void add(List<String> list, Map<String, Integer> index, String id, int idx) {
+        if (index.containsKey(id)) {
+            return;
+        }
+        if (idx < 0) {
+            idx = list.size();
+        }
+        while (list.size() <= idx) {
+            list.add(null);
+        }
+        list.set(idx, id);
+        index.put(id, idx);
+    }
+
+    public String getString(int idx) throws VCFParseException {
+        if (idx < 0 || idx >= strings.size() || strings.get(idx) == null) {
+            throw new VCFParseException("Unknown BCF dictionary index: " + idx);
+        }
+        return strings.get(idx);
+    }
+
+    /**
+     * @return the index of the string, or -1 if it isn't defined in the header
+     */
+    public int getStringIdx(String id) {
+        Integer idx = stringIdx.get(id);
+        return idx == null ? -1 : idx;
+    }
+
+    public String getContig(int idx) throws VCFParseException {
+        if (idx < 0 || idx >= contigs.size() || contigs.get(idx) == null) {
+            throw new VCFParseException("Unknown BCF contig index: " + idx);
+        }
+        return contigs.get(idx);
+    }
+
+    /**
+     * @return the index of the contig, or -1 if it isn't defined in the header
+     */
+    public int getContigIdx(String id) {
+        Integer idx = contigIdx.get(id);
+        return idx == null ? -1 : idx;
+    }
+
+    public int stringCount() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,222 @@
+package io.compgen.ngsutils.vcf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.compgen.common.StringUtils;
+
+/**
+ * Reads BCF2 records (from an already decompressed stream) as VCFRecords. The shared
+ * (site) fields are decoded for each record, but the per-sample fields are only decoded
+ * when they are used (see BCFRecord).
+ *
+ * @author mbreese
+ *
+ */
+public class BCFReader {
+    private final InputStream in;
+    private final BCFDictionary dict;
+    private final List<String> headerLines = new ArrayList<String>();
+
+    private byte[] shared = new byte[4096];
+    private final byte[] lenBuf = new byte[8];
+
+    public BCFReader(InputStream in) throws IOException, VCFParseException {
+        this.in = in;
+
+        byte[] magic = new byte[BCFCodec.MAGIC.length];
+        readFully(magic, magic.length);
+        if (!Arrays.equals(magic, BCFCodec.MAGIC)) {
+            throw new VCFParseException("Unsupported BCF version (expected BCF 2.2)");
+        }
+
+        readFully(lenBuf, 4);
+        int textLen = new BCFCodec.Decoder(lenBuf).readInt32();
+        byte[] text = new byte[textLen];
+        readFully(text, textLen);
+
+        int len = textLen;
+        while (len > 0 && text[len - 1] == 0) {
+            len--;
+        }
+        for (String line: new String(text, 0, len, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                headerLines.add(line);
+            }
+        }
+
+        dict = BCFDictionary.build(headerLines);
+    }
+
+    /**
+     * @return the header lines (including ##fileformat and #CHROM)
+     */
+    public List<String> getHeaderLines() {
+        return headerLines;
+    }
+
+    public BCFDictionary getDictionary() {
+        return dict;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readFully(byte[] buf, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = in.read(buf, off, len - off);
+            if (n == -1) {
+                if (off == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated BCF file");
+            }
+            off += n;
+        }
+        return true;
+    }
+
+    /**
+     * The sample values are only decoded when they are used, so check that the FORMAT keys
+     * are in the dictionary and the values fit in the buffer here. After this, decoding the
+     * samples can't fail.
+     */
+    private void checkSamples(byte[] indiv, int nFmt, int nSample, String chrom, int pos) throws VCFParseException {
+        BCFCodec.Decoder dec = new BCFCodec.Decoder(indiv);
+        try {
+            for (int i=0; i<nFmt; i++) {
+                dict.getString(dec.readTypedInt());
+                dec.readDescriptor();
+                if (dec.type != BCFCodec.TYPE_MISSING && BCFCodec.size(dec.type) == 0) {
+                    throw new VCFParseException("Unknown BCF type: " + dec.type);
+                }
+                dec.skip(dec.type, dec.count * nSample);
+            }
+            if (dec.position() > indiv.length) {
+                throw new VCFParseException("Truncated BCF sample values");
+            }
+        } catch (VCFParseException e) {
+            throw new VCFParseException(e.getMessage() + " (" + chrom + ":" + pos + ")", e);
+        } catch (ArrayIndexOutOfBoundsException | IllegalStateException e) {
+            throw new VCFParseException("Truncated BCF sample values (" + chrom + ":" + pos + ")", e);
+        }
+    }
+
+    /**
+     * @return the next record, or null at the end of the file
+     */
+    public VCFRecord next(VCFHeader header, boolean removeID) throws IOException, VCFParseException {
+        if (!readFully(lenBuf, 8)) {
+            return null;
+        }
+        BCFCodec.Decoder lens = new BCFCodec.Decoder(lenBuf);
+        int sharedLen = lens.readInt32();
+        int indivLen = lens.readInt32();
+
+        if (shared.length < sharedLen) {
+            shared = new byte[sharedLen];
+        }
+        if (!readFully(shared, sharedLen)) {
+            throw new EOFException("Truncated BCF file");
+        }
+        byte[] indiv = new byte[indivLen];
+        if (!readFully(indiv, indivLen)) {
+            throw new EOFException("Truncated BCF file");
+        }
+
+        BCFCodec.Decoder dec = new BCFCodec.Decoder(shared, 0, sharedLen);
+        String chrom = dict.getContig(dec.readInt32());
+        int pos = dec.readInt32() + 1;
+        dec.readInt32(); // rlen
+        int qualBits = dec.readInt32();
+        int nAlleleInfo = dec.readInt32();
+        int nFmtSample = dec.readInt32();
+
+        int nInfo = nAlleleInfo & 0xFFFF;
+        int nAllele = nAlleleInfo >>> 16;
+        int nSample = nFmtSample & 0xFFFFFF;
+        int nFmt = nFmtSample >>> 24;
+
+        String dbSNPID = dec.readTypedString();
+        if (removeID || dbSNPID.equals("") || dbSNPID.equals(VCFRecord.MISSING)) {
+            dbSNPID = null;
+        }
+
+        String ref = "";
+        List<String> alts = null;
+        List<String> altOrig = new ArrayList<String>();
+        for (int i=0; i<nAllele; i++) {
+            String allele = dec.readTypedString();
+            if (i == 0) {
+                ref = allele;
+            } else {
+                altOrig.add(allele);
+                if (!allele.equals(VCFRecord.MISSING)) {
+                    if (alts == null) {
+                        alts = new ArrayList<String>();
+                    }
+                    alts.add(allele);
+                }
+            }
+        }
+
+        double qual = -1;
+        if (qualBits != BCFCodec.FLOAT_MISSING) {
+            qual = Double.parseDouble(BCFCodec.formatFloat(Float.intBitsToFloat(qualBits)));
+        }
+
+        // if filters is null => PASS
+        // if filters is not null, but empty => MISSING (no FILTER values)
+        List<String> filters = null;
+        dec.readDescriptor();
+        int filterType = dec.type;
+        int filterCount = dec.count;
+        if (filterCount == 0) {
+            filters = new ArrayList<String>();
+        }
+        for (int i=0; i<filterCount; i++) {
+            int idx = dec.readInt(filterType);
+            if (idx == BCFCodec.INT32_EOV || idx == BCFCodec.INT32_MISSING || idx == 0) {
+                continue;
+            }
+            String f = dict.getString(idx);
+            if (header == null || header.isFilterAllowed(f)) {
+                if (filters == null) {
+                    filters = new ArrayList<String>();
+                }
+                filters.add(f);
+            }
+        }
+
+        VCFAttributes info = new VCFAttributes();
+        try {
+            for (int i=0; i<nInfo; i++) {
+                String key = dict.getString(dec.readTypedInt());
+                dec.readDescriptor();
+                String val = dec.readValues(dec.type, dec.count);
+                if (header == null || header.isInfoAllowed(key)) {
+                    VCFAnnotationDef def = header == null ? null: header.getInfoDef(key);
+                    if (val == null || val.equals("") || (def != null && def.type.equals("Flag"))) {
+                        info.put(key, VCFAttributeValue.EMPTY);
+                    } else {
+                        info.put(key, VCFAttributeValue.parse(val));
+                    }
+                }
+            }
+        } catch (VCFAttributeException e) {
+            throw new VCFParseException(e);
+        }
+
+        checkSamples(indiv, nFmt, nSample, chrom, pos);
+
+        String alt = altOrig.size() == 0 ? VCFRecord.MISSING : StringUtils.join(",", altOrig);
+        return new BCFRecord(chrom, pos, dbSNPID, ref, alts, qual, filters, info, alt, dict, header, indiv, nFmt, nSample);
+    }
+}
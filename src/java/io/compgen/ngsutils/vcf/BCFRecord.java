@@ -0,0 +1,121 @@
+package io.compgen.ngsutils.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A VCFRecord read from a BCF file. The per-sample (FORMAT) values are kept in their
+ * binary form until they are needed, so commands that only look at the site (INFO/FILTER)
+ * values don't pay for decoding every sample. If the samples are never decoded, BCFWriter
+ * can also copy the binary values directly.
+ *
+ * @author mbreese
+ *
+ */
+public class BCFRecord extends VCFRecord {
+    private final BCFDictionary dict;
+    private final VCFHeader header;
+    private final int nFmt;
+    private final int nSample;
+    private byte[] indiv;
+
+    protected BCFRecord(String chrom, int pos, String dbSNPID, String ref, List<String> alt, double qual,
+            List<String> filters, VCFAttributes info, String altOrig, BCFDictionary dict, VCFHeader header,
+            byte[] indiv, int nFmt, int nSample) {
+        super(chrom, pos, dbSNPID, ref, alt, qual, filters, info, null, altOrig);
+        this.dict = dict;
+        this.header = header;
+        this.indiv = indiv;
+        this.nFmt = nFmt;
+        this.nSample = nSample;
+    }
+
+    /**
+     * @return the undecoded sample values, or null if the samples have already been decoded
+     */
+    protected byte[] getRawSamples() {
+        return indiv;
+    }
+
+    protected BCFDictionary getDictionary() {
+        return dict;
+    }
+
+    protected int getFormatCount() {
+        return nFmt;
+    }
+
+    protected int getSampleCount() {
+        return nSample;
+    }
+
+    private void decodeSamples() {
+        if (indiv == null) {
+            return;
+        }
+        byte[] raw = indiv;
+        indiv = null;
+
+        if (nFmt == 0) {
+            return;
+        }
+
+        List<VCFAttributes> samples = new ArrayList<VCFAttributes>(nSample);
+        for (int i=0; i<nSample; i++) {
+            samples.add(new VCFAttributes());
+        }
+
+        try {
+            BCFCodec.Decoder dec = new BCFCodec.Decoder(raw);
+            for (int i=0; i<nFmt; i++) {
+                String key = dict.getString(dec.readTypedInt());
+                dec.readDescriptor();
+                int type = dec.type;
+                int count = dec.count;
+
+                if (header != null && !header.isFormatAllowed(key)) {
+                    dec.skip(type, count * nSample);
+                    continue;
+                }
+
+                for (VCFAttributes sample: samples) {
+                    String val;
+                    if (key.equals("GT") && type != BCFCodec.TYPE_CHAR) {
+                        val = dec.readGenotype(type, count);
+                    } else {
+                        val = dec.readValues(type, count);
+                    }
+                    if (val == null || val.equals("")) {
+                        val = MISSING;
+                    }
+                    sample.put(key, VCFAttributeValue.parse(val));
+                }
+            }
+        } catch (VCFParseException | VCFAttributeException e) {
+            // the values were checked when the record was read (BCFReader.checkSamples)
+            throw new IllegalStateException("Unable to decode BCF samples (" + chrom + ":" + pos + ")", e);
+        }
+
+        sampleAttributes = samples;
+    }
+
+    @Override
+    public List<VCFAttributes> getSampleAttributes() {
+        decodeSamples();
+        return super.getSampleAttributes();
+    }
+
+    @Override
+    public void addSampleAttributes(VCFAttributes attrs) {
+        decodeSamples();
+        super.addSampleAttributes(attrs);
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        decodeSamples();
+        super.write(out);
+    }
+}
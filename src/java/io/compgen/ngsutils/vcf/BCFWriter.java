@@ -0,0 +1,423 @@
+package io.compgen.ngsutils.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Writes records as BGZF-compressed BCF2 (v2.2).
+ *
+ * The string/contig dictionaries are built from the header as it is written, so all
+ * contigs must have ##contig lines and all INFO/FORMAT/FILTER values must be defined in
+ * the header. Values are encoded using the header Type, falling back to a string if a
+ * value doesn't parse.
+ *
+ * @author mbreese
+ *
+ */
+public class BCFWriter extends VCFWriter {
+    private BCFDictionary dict = null;
+    private final BCFCodec.Encoder shared = new BCFCodec.Encoder();
+    private final BCFCodec.Encoder indiv = new BCFCodec.Encoder();
+    private final byte[] lenBuf = new byte[8];
+
+    private final OutputStream raw;
+
+    public BCFWriter(OutputStream stream, VCFHeader header) throws FileNotFoundException {
+        super(new BlockCompressedOutputStream(stream, null), header);
+        this.raw = stream;
+    }
+
+    /**
+     * Shard writers share the dictionary and write complete BGZF blocks (without the EOF
+     * block), so the shards can be copied into the output without recompressing them.
+     */
+    @Override
+    public VCFWriter shardWriter(OutputStream stream) throws IOException {
+        checkHeader();
+        BCFWriter writer = new BCFWriter(stream, header);
+        writer.dict = dict;
+        writer.headerWritten = true;
+        writer.shard = true;
+        return writer;
+    }
+
+    /**
+     * @return the underlying (compressed) stream, after flushing any pending blocks
+     */
+    @Override
+    public OutputStream getStream() throws IOException {
+        checkHeader();
+        out.flush();
+        return raw;
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        header.write(baos, true);
+
+        // existing IDX values (from a BCF input) are dropped -- the dictionary is rebuilt in header order
+        List<String> lines = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        for (String line: new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (line.endsWith(">")) {
+                line = BCFDictionary.IDX_PATTERN.matcher(line.substring(0, line.length()-1)).replaceFirst("") + ">";
+            }
+            lines.add(line);
+            sb.append(line);
+            sb.append('\n');
+        }
+        sb.append('\0');
+
+        try {
+            dict = BCFDictionary.build(lines);
+        } catch (VCFParseException e) {
+            throw new IOException(e);
+        }
+
+        byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(BCFCodec.MAGIC);
+        writeInt32(text.length);
+        out.write(text);
+    }
+
+    private void writeInt32(int v) throws IOException {
+        lenBuf[0] = (byte) v;
+        lenBuf[1] = (byte) (v >> 8);
+        lenBuf[2] = (byte) (v >> 16);
+        lenBuf[3] = (byte) (v >> 24);
+        out.write(lenBuf, 0, 4);
+    }
+
+    @Override
+    protected void writeRecord(VCFRecord record) throws IOException {
+        shared.reset();
+        indiv.reset();
+
+        int nFmt = 0;
+        int nSample = 0;
+
+        byte[] raw = null;
+        if (record instanceof BCFRecord) {
+            raw = rawSamples((BCFRecord) record);
+        }
+        if (raw != null) {
+            nFmt = ((BCFRecord) record).getFormatCount();
+            nSample = ((BCFRecord) record).getSampleCount();
+            indiv.writeBytes(raw, 0, raw.length);
+        } else {
+            List<VCFAttributes> samples = record.getSampleAttributes();
+            if (samples != null && samples.size() > 0) {
+                List<String> keys = samples.get(0).getKeys();
+                nFmt = keys.size();
+                nSample = samples.size();
+                for (String key: keys) {
+                    encodeFormat(key, samples);
+                }
+            }
+        }
+
+        int contig = dict.getContigIdx(record.getChrom());
+        if (contig == -1) {
+            throw new IOException("Missing ##contig header line for: " + record.getChrom() + " (required for BCF output)");
+        }
+
+        VCFAttributes info = record.getInfo();
+        List<String> infoKeys = info == null ? new ArrayList<String>() : info.getKeys();
+        List<String> alts = record.getAlt();
+        int nAllele = 1 + (alts == null ? 0 : alts.size());
+
+        shared.writeInt32(contig);
+        shared.writeInt32(record.getPos() - 1);
+        shared.writeInt32(refLength(record));
+        if (record.getQual() == -1) {
+            shared.writeInt32(BCFCodec.FLOAT_MISSING);
+        } else {
+            shared.writeFloat((float) record.getQual());
+        }
+        shared.writeInt32((nAllele << 16) | infoKeys.size());
+        shared.writeInt32((nFmt << 24) | nSample);
+
+        shared.writeTypedString(record.getDbSNPID() == null ? VCFRecord.MISSING : record.getDbSNPID());
+        shared.writeTypedString(record.getRef());
+        if (alts != null) {
+            for (String alt: alts) {
+                shared.writeTypedString(alt);
+            }
+        }
+
+        List<String> filters = record.getFilters();
+        if (filters == null) {
+            // PASS
+            shared.writeTypedInts(new int[] { 0 }, 1);
+        } else if (filters.size() == 0) {
+            // missing (.)
+            shared.writeDescriptor(BCFCodec.TYPE_MISSING, 0);
+        } else {
+            int[] idx = new int[filters.size()];
+            for (int i=0; i<idx.length; i++) {
+                idx[i] = stringIdx(filters.get(i), "FILTER");
+            }
+            shared.writeTypedInts(idx, idx.length);
+        }
+
+        for (String key: infoKeys) {
+            shared.writeTypedInt(stringIdx(key, "INFO"));
+            encodeInfo(info.get(key), header.getInfoDef(key));
+        }
+
+        writeInt32(shared.size());
+        writeInt32(indiv.size());
+        out.write(shared.getBuffer(), 0, shared.size());
+        out.write(indiv.getBuffer(), 0, indiv.size());
+    }
+
+    private int stringIdx(String id, String type) throws IOException {
+        int idx = dict.getStringIdx(id);
+        if (idx == -1) {
+            throw new IOException("Missing ##" + type + " header line for: " + id + " (required for BCF output)");
+        }
+        return idx;
+    }
+
+    private static int refLength(VCFRecord record) {
+        VCFAttributes info = record.getInfo();
+        if (info != null && info.contains("END")) {
+            try {
+                return info.get("END").asInt() - record.getPos() + 1;
+            } catch (NumberFormatException e) {
+                // use the REF length
+            }
+        }
+        return record.getRef().length();
+    }
+
+    /**
+     * The binary sample values from a BCF input can be copied as-is if they haven't been decoded,
+     * all of the FORMAT keys are still present, and they have the same dictionary index.
+     */
+    private byte[] rawSamples(BCFRecord record) {
+        byte[] raw = record.getRawSamples();
+        if (raw == null) {
+            return null;
+        }
+
+        BCFDictionary src = record.getDictionary();
+        BCFCodec.Decoder dec = new BCFCodec.Decoder(raw);
+        try {
+            for (int i=0; i<record.getFormatCount(); i++) {
+                int idx = dec.readTypedInt();
+                String key = src.getString(idx);
+                if (dict.getStringIdx(key) != idx || !header.isFormatAllowed(key)) {
+                    return null;
+                }
+                dec.readDescriptor();
+                dec.skip(dec.type, dec.count * record.getSampleCount());
+            }
+        } catch (VCFParseException e) {
+            return null;
+        }
+        return raw;
+    }
+
+    private void encodeInfo(VCFAttributeValue value, VCFAnnotationDef def) {
+        if (value == VCFAttributeValue.EMPTY || (def != null && def.type.equals("Flag"))) {
+            // flags (and keys without a value) don't have any values
+            shared.writeDescriptor(BCFCodec.TYPE_MISSING, 0);
+            return;
+        }
+
+        String s = value.toString();
+        if (def != null && def.type.equals("Integer")) {
+            int[] vals = parseInts(s);
+            if (vals != null) {
+                shared.writeTypedInts(vals, vals.length);
+                return;
+            }
+        } else if (def != null && def.type.equals("Float")) {
+            int[] vals = parseFloats(s);
+            if (vals != null) {
+                shared.writeDescriptor(BCFCodec.TYPE_FLOAT, vals.length);
+                for (int v: vals) {
+                    shared.writeInt32(v);
+                }
+                return;
+            }
+        }
+        shared.writeTypedString(s);
+    }
+
+    private void encodeFormat(String key, List<VCFAttributes> samples) throws IOException {
+        indiv.writeTypedInt(stringIdx(key, "FORMAT"));
+
+        String[] vals = new String[samples.size()];
+        for (int i=0; i<vals.length; i++) {
+            VCFAttributeValue v = samples.get(i).get(key);
+            vals[i] = v == null ? VCFRecord.MISSING : v.toString();
+        }
+
+        VCFAnnotationDef def = header.getFormatDef(key);
+        int[][] parsed = new int[vals.length][];
+        int type = -1;
+
+        if (key.equals("GT")) {
+            type = BCFCodec.TYPE_INT8;
+            for (int i=0; i<vals.length && parsed != null; i++) {
+                parsed[i] = parseGenotype(vals[i]);
+                if (parsed[i] == null) {
+                    parsed = null;
+                }
+            }
+        } else if (def != null && def.type.equals("Integer")) {
+            type = BCFCodec.TYPE_INT8;
+            for (int i=0; i<vals.length && parsed != null; i++) {
+                parsed[i] = parseInts(vals[i]);
+                if (parsed[i] == null) {
+                    parsed = null;
+                }
+            }
+        } else if (def != null && def.type.equals("Float")) {
+            type = BCFCodec.TYPE_FLOAT;
+            for (int i=0; i<vals.length && parsed != null; i++) {
+                parsed[i] = parseFloats(vals[i]);
+                if (parsed[i] == null) {
+                    parsed = null;
+                }
+            }
+        } else {
+            parsed = null;
+        }
+
+        if (parsed == null) {
+            byte[][] bytes = new byte[vals.length][];
+            int width = 1;
+            for (int i=0; i<vals.length; i++) {
+                bytes[i] = vals[i].getBytes(StandardCharsets.UTF_8);
+                width = Math.max(width, bytes[i].length);
+            }
+            indiv.writeDescriptor(BCFCodec.TYPE_CHAR, width);
+            for (byte[] b: bytes) {
+                indiv.writeString(b, width);
+            }
+            return;
+        }
+
+        int width = 1;
+        int min = 0;
+        int max = 0;
+        for (int[] p: parsed) {
+            width = Math.max(width, p.length);
+            if (type != BCFCodec.TYPE_FLOAT) {
+                for (int v: p) {
+                    if (v != BCFCodec.INT32_MISSING) {
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                }
+            }
+        }
+        if (type != BCFCodec.TYPE_FLOAT) {
+            type = BCFCodec.intType(min, max);
+        }
+
+        indiv.writeDescriptor(type, width);
+        for (int[] p: parsed) {
+            for (int j=0; j<width; j++) {
+                if (type == BCFCodec.TYPE_FLOAT) {
+                    indiv.writeInt32(j < p.length ? p[j] : BCFCodec.FLOAT_EOV);
+                } else {
+                    indiv.writeInt(type, j < p.length ? p[j] : BCFCodec.INT32_EOV);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values, or null if any of the values aren't integers
+     */
+    private static int[] parseInts(String s) {
+        String[] spl = s.split(",");
+        int[] vals = new int[spl.length];
+        try {
+            for (int i=0; i<spl.length; i++) {
+                vals[i] = spl[i].equals(VCFRecord.MISSING) ? BCFCodec.INT32_MISSING : Integer.parseInt(spl[i]);
+                if (vals[i] != BCFCodec.INT32_MISSING && vals[i] < BCFCodec.INT32_MIN) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return vals;
+    }
+
+    /**
+     * @return the float values (as int bits), or null if any of the values aren't numbers
+     */
+    private static int[] parseFloats(String s) {
+        String[] spl = s.split(",");
+        int[] vals = new int[spl.length];
+        try {
+            for (int i=0; i<spl.length; i++) {
+                if (spl[i].equals(VCFRecord.MISSING)) {
+                    vals[i] = BCFCodec.FLOAT_MISSING;
+                } else {
+                    float f = Float.parseFloat(spl[i]);
+                    if (Float.isNaN(f) || Float.isInfinite(f)) {
+                        return null;
+                    }
+                    vals[i] = Float.floatToIntBits(f);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return vals;
+    }
+
+    /**
+     * GT values are encoded as (allele+1)&lt;&lt;1 | phased, with 0 for a missing allele.
+     *
+     * @return the encoded values, or null if the value isn't a valid genotype
+     */
+    private static int[] parseGenotype(String s) {
+        List<Integer> vals = new ArrayList<Integer>();
+        int phased = 0;
+        int start = 0;
+        for (int i=0; i<=s.length(); i++) {
+            if (i == s.length() || s.charAt(i) == '/' || s.charAt(i) == '|') {
+                String allele = s.substring(start, i);
+                int v;
+                if (allele.equals(VCFRecord.MISSING)) {
+                    v = 0;
+                } else {
+                    try {
+                        v = (Integer.parseInt(allele) + 1) << 1;
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    if (v < 0) {
+                        return null;
+                    }
+                }
+                vals.add(v | phased);
+                if (i < s.length()) {
+                    phased = s.charAt(i) == '|' ? 1 : 0;
+                }
+                start = i + 1;
+            }
+        }
+        int[] out = new int[vals.size()];
+        for (int i=0; i<out.length; i++) {
+            out[i] = vals.get(i);
+        }
+        return out;
+    }
+}
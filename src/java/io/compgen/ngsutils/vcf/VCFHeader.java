@@ -5,11 +5,11 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.compgen.common.ListBuilder;
 import io.compgen.common.StringUtils;
@@ -33,12 +33,13 @@ public class VCFHeader {
     private Set<String> removeFormat = null;
 //    private Set<String> removeSample = null;
 
-    private Set<String> allowedFilterCache = new HashSet<String>();
-    private Set<String> blockedFilterCache = new HashSet<String>();
-    private Set<String> allowedInfoCache = new HashSet<String>();
-    private Set<String> blockedInfoCache = new HashSet<String>();
-    private Set<String> allowedFormatCache = new HashSet<String>();
-    private Set<String> blockedFormatCache = new HashSet<String>();
+    // records can be read from multiple threads (see VCFShardExecutor)
+    private Set<String> allowedFilterCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> blockedFilterCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> allowedInfoCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> blockedInfoCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> allowedFormatCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> blockedFormatCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     
 	public VCFHeader(String fileformat, List<String> input, String headerLine, Set<String> removeFilter, Set<String> removeInfo, Set<String> removeFormat, Set<String> removeSample) throws VCFParseException {
 		if (fileformat == null) {
@@ -1,6 +1,8 @@
 package io.compgen.ngsutils.vcf;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,15 +16,24 @@ import java.util.List;
 import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
+import io.compgen.ngsutils.support.Metrics;
 import io.compgen.ngsutils.tabix.BGZFile;
 import io.compgen.ngsutils.tabix.BGZInputStream;
+import io.compgen.ngsutils.tabix.TabixFile;
+import io.compgen.ngsutils.tabix.TabixRegion;
 
 public class VCFReader {
+    private static final Metrics.Counter RECORDS_READ = Metrics.counter("vcf.records_read");
+    private static final Metrics.Timer READ_LINE = Metrics.timer("vcf.read_line");
+    private static final Metrics.Timer PARSE = Metrics.timer("vcf.parse");
+
 	protected BufferedReader in;
+	protected BCFReader bcf = null;
 	protected VCFHeader header=null;
 	private boolean closed = false;
     private FileChannel channel = null;
     private String filename = null;
+    private TabixFile tabix = null; // for reading shards (see iterator(regions))
 	
     protected boolean removeID = false;
     protected Set<String> removeFilter = null;
@@ -33,22 +44,22 @@ public class VCFReader {
 	public VCFReader(String filename) throws IOException, VCFParseException {
         if (filename.equals("-")) {
             this.filename = "<stdin>";
-            in = new BufferedReader(new InputStreamReader(System.in));
+            open(System.in, true);
         } else if (BGZFile.isBGZFile(filename)) {
             this.filename = filename;
             BGZFile bgzf = new BGZFile(filename);
             channel = bgzf.getChannel();
-            in = new BufferedReader(new InputStreamReader(new BGZInputStream(bgzf)));               
+            open(new BGZInputStream(bgzf), false);
         } else if (isGZipFile(filename)){
             this.filename = filename;
             FileInputStream fis = new FileInputStream(filename);
             channel = fis.getChannel();
-            in = new BufferedReader(new InputStreamReader(new GZIPInputStream(fis)));
+            open(new GZIPInputStream(fis), false);
         } else {
             this.filename = filename;
             FileInputStream fis = new FileInputStream(filename);
             channel = fis.getChannel();
-            in = new BufferedReader(new InputStreamReader(fis));
+            open(fis, false);
         }
 
 //        if (filename.equals("-")) {
@@ -82,16 +93,139 @@ public class VCFReader {
 	}
 	
 	public VCFReader(InputStream stream) throws IOException, VCFParseException {
-		in = new BufferedReader(new InputStreamReader(stream));
+		open(stream, true);
 //		readHeader();
 	}
 
+	/**
+	 * Checks the magic bytes of the (decompressed) stream to see if this is a VCF or BCF file.
+	 * For stdin, we also need to check for gzip/bgzip compression.
+	 */
+	private void open(InputStream stream, boolean checkGZip) throws IOException, VCFParseException {
+		BufferedInputStream bis = new BufferedInputStream(stream);
+		byte[] magic = peek(bis, 3);
+		
+		if (checkGZip && magic.length >= 2 && magic[0] == 0x1f && magic[1] == (byte) 0x8B) {
+			bis = new BufferedInputStream(new GZIPInputStream(bis));
+			magic = peek(bis, 3);
+		}
+		
+		if (magic.length == 3 && magic[0] == 'B' && magic[1] == 'C' && magic[2] == 'F') {
+			bcf = new BCFReader(bis);
+		} else {
+			in = new BufferedReader(new InputStreamReader(bis));
+		}
+	}
+
+	private static byte[] peek(BufferedInputStream bis, int len) throws IOException {
+		byte[] buf = new byte[len];
+		bis.mark(len);
+		int n = 0;
+		while (n < len) {
+			int r = bis.read(buf, n, len - n);
+			if (r == -1) {
+				break;
+			}
+			n += r;
+		}
+		bis.reset();
+		return n == len ? buf : Arrays.copyOf(buf, n);
+	}
+
+	public boolean isBCF() {
+		return bcf != null;
+	}
+
+	/**
+	 * @return true if the file can be read by region (a bgzip compressed VCF file with a *.tbi or *.csi index)
+	 */
+	public boolean isIndexed() {
+		if (bcf != null || channel == null || !BGZFile.isBGZFile(filename)) {
+			return false;
+		}
+		return new File(filename+".tbi").exists() || new File(filename+".csi").exists();
+	}
+
+	/**
+	 * Splits an indexed file into (up to) n shards of about the same size. Each shard is a list
+	 * of regions that can be read with iterator(regions). If wholeRefs is set, chromosomes
+	 * aren't split between shards.
+	 */
+	public List<List<TabixRegion>> split(int n, boolean wholeRefs) throws IOException {
+		return getTabixFile().split(n, wholeRefs);
+	}
+
+	/**
+	 * Returns the records that start in the regions (see split()). Each call opens its own
+	 * copy of the file (sharing the index), so shards can be read from separate threads
+	 * (with the same header).
+	 */
+	public Iterator<VCFRecord> iterator(List<TabixRegion> regions) throws IOException, VCFParseException {
+		if (header == null) {
+			readHeader();
+		}
+		final TabixFile tabix = getTabixFile().copy();
+		final Iterator<String> lines = tabix.lines(regions);
+
+		return new Iterator<VCFRecord> () {
+			VCFRecord next = null;
+			boolean first = true;
+
+			@Override
+			public boolean hasNext() {
+				if (first) {
+					populateNext();
+				}
+				return next != null;
+			}
+
+			@Override
+			public VCFRecord next() {
+				if (first) {
+					populateNext();
+				}
+				VCFRecord cur = next;
+				populateNext();
+				return cur;
+			}
+
+			private void populateNext() {
+				first = false;
+				next = null;
+				try {
+					if (!lines.hasNext()) {
+						if (!tabix.isClosed()) {
+							tabix.close();
+						}
+						return;
+					}
+					String line = lines.next();
+
+					long t = PARSE.start();
+					next = VCFRecord.parseLine(line, removeID, header);
+					PARSE.stop(t);
+					RECORDS_READ.incr();
+
+				} catch (IOException | VCFParseException e) {
+					next = null;
+					e.printStackTrace(System.err);
+				}
+			}
+		};
+	}
+
 	private void readHeader() throws IOException, VCFParseException {
 		String fileformat=null;
 		List<String> lines = new ArrayList<String>();
 		String headerLine = null;
+		Iterator<String> bcfLines = bcf == null ? null : bcf.getHeaderLines().iterator();
 		while (headerLine == null) {
-			String line = in.readLine();
+			String line;
+			if (bcfLines == null) {
+				line = in.readLine();
+			} else {
+				line = bcfLines.hasNext() ? bcfLines.next() : null;
+			}
 			//System.err.println(line);
 			if (line == null || line.equals("")) {
 				throw new IOException("Bad VCF header? Missing header line?");
@@ -117,10 +251,27 @@ public class VCFReader {
 		
 	}
 	
+	/**
+	 * The index is only loaded once (and shared by the shards)
+	 */
+	private synchronized TabixFile getTabixFile() throws IOException {
+		if (tabix == null) {
+			tabix = new TabixFile(filename);
+		}
+		return tabix;
+	}
+
 	public void close() throws IOException {
 		if (!closed) {			
 			closed = true;
-			in.close();
+			if (tabix != null) {
+				tabix.close();
+			}
+			if (bcf != null) {
+				bcf.close();
+			} else {
+				in.close();
+			}
 		}
 	}
 	
@@ -159,13 +310,28 @@ public class VCFReader {
 						return;
 					}
 					
+					if (bcf != null) {
+						long t = PARSE.start();
+						next = bcf.next(header, removeID);
+						PARSE.stop(t);
+						if (next != null) {
+							RECORDS_READ.incr();
+						}
+						return;
+					}
+
+					long t = READ_LINE.start();
 					String line = in.readLine();
+					READ_LINE.stop(t);
 					if (line == null) {
 						next = null;
 						return;
 					}
 					
+					t = PARSE.start();
 					next = VCFRecord.parseLine(line, removeID, header);
+					PARSE.stop(t);
+					RECORDS_READ.incr();
 					
 					
 				} catch (IOException | VCFParseException e) {
@@ -130,54 +130,10 @@ public class VCFRecord {
 	}
 
     public void write(OutputStream out) throws IOException{
-		List<String> outcols = new ArrayList<String>();
-		
-		outcols.add(chrom);
-		outcols.add(""+pos);
-		if (dbSNPID == null) {
-            outcols.add(MISSING);
-		} else {
-			outcols.add(dbSNPID);
-		}
-		outcols.add(ref);
-		
-		if (alt == null || alt.size() == 0) {
-			outcols.add(MISSING);
-		} else {
-			outcols.add(StringUtils.join(",", alt));
-		}
-		
-		if (qual == -1) {
-			outcols.add(MISSING);
-		} else {
-			String qstr = ""+qual;
-			if (qstr.endsWith(".0")) {
-				qstr = qstr.substring(0,  qstr.length()-2);
-			}
-			outcols.add(qstr);
-		}
-
-		
-        if (filters != null && filters.size() == 0) {
-            outcols.add(MISSING);
-        } else if (!isFiltered()) {
-            outcols.add(PASS);
-		} else {
-          outcols.add(StringUtils.join(";", filters));
-		}
-		
-	    outcols.add(info.toString());
-        
-		if (sampleAttributes != null && sampleAttributes.size() > 0) {
-			List<String> keyOrder = sampleAttributes.get(0).getKeys();
-            outcols.add(StringUtils.join(":", keyOrder));
-			
-			for (VCFAttributes attrs: sampleAttributes) {
-                outcols.add(attrs.toString(keyOrder));
-			}
-		}
-		
-		StringUtils.writeOutputStream(out, StringUtils.join("\t", outcols)+"\n");
+		VCFRecordEncoder encoder = new VCFRecordEncoder();
+		encoder.encode(this);
+		encoder.writeTo(out);
+		out.flush();
 	}
 
     public static VCFRecord parseLine(String line) throws VCFParseException {
@@ -218,7 +174,9 @@ public class VCFRecord {
 		
 		List<String> filters = null;
 		if (cols.length > 6) {
-			if (!cols[6].equals(PASS)) {
+			if (cols[6].equals(MISSING)) {
+			    filters = new ArrayList<String>();
+			} else if (!cols[6].equals(PASS)) {
 			    // if filters is null => PASS
 			    // if filters is not null, but empty => MISSING
 	
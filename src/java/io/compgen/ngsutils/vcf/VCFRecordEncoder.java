@@ -0,0 +1,222 @@
+package io.compgen.ngsutils.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Writes VCF records (as text) directly to a reusable byte buffer. Fields are written as
+ * bytes as they are read from the record, so there are no intermediate column lists or
+ * joined strings. The buffer can be written to a stream after each record or after many.
+ *
+ * The output is the same as the old String based VCFRecord.write(): QUAL values that are
+ * whole numbers don't have a trailing ".0", missing values are ".", etc.
+ *
+ * @author mbreese
+ *
+ */
+public class VCFRecordEncoder {
+    private static final byte[] MISSING = VCFRecord.MISSING.getBytes();
+    private static final byte[] PASS = VCFRecord.PASS.getBytes();
+
+    // Double.toString() switches to scientific notation at 10^7
+    private static final double MAX_PLAIN_QUAL = 1e7;
+
+    private byte[] buf;
+    private int len = 0;
+
+    public VCFRecordEncoder() {
+        this(1024);
+    }
+
+    public VCFRecordEncoder(int size) {
+        this.buf = new byte[size];
+    }
+
+    public void reset() {
+        len = 0;
+    }
+
+    public int size() {
+        return len;
+    }
+
+    /**
+     * Writes the buffer to the stream and resets it
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (len > 0) {
+            out.write(buf, 0, len);
+            len = 0;
+        }
+    }
+
+    public void encode(VCFRecord record) {
+        writeString(record.getChrom());
+        writeByte('\t');
+        writeInt(record.getPos());
+        writeByte('\t');
+
+        if (record.getDbSNPID() == null) {
+            writeBytes(MISSING);
+        } else {
+            writeString(record.getDbSNPID());
+        }
+        writeByte('\t');
+        writeString(record.getRef());
+        writeByte('\t');
+
+        List<String> alt = record.getAlt();
+        if (alt == null || alt.size() == 0) {
+            writeBytes(MISSING);
+        } else {
+            writeList(alt, ',');
+        }
+        writeByte('\t');
+
+        writeQual(record.getQual());
+        writeByte('\t');
+
+        List<String> filters = record.getFilters();
+        if (filters != null && filters.size() == 0) {
+            writeBytes(MISSING);
+        } else if (!record.isFiltered()) {
+            writeBytes(PASS);
+        } else {
+            writeList(filters, ';');
+        }
+        writeByte('\t');
+
+        writeInfo(record.getInfo());
+
+        List<VCFAttributes> samples = record.getSampleAttributes();
+        if (samples != null && samples.size() > 0) {
+            List<String> keyOrder = samples.get(0).getKeys();
+            writeByte('\t');
+            writeList(keyOrder, ':');
+
+            for (VCFAttributes attrs: samples) {
+                writeByte('\t');
+                for (int i=0; i<keyOrder.size(); i++) {
+                    if (i > 0) {
+                        writeByte(':');
+                    }
+                    VCFAttributeValue val = attrs.get(keyOrder.get(i));
+                    writeValue(val == null ? VCFAttributeValue.MISSING : val);
+                }
+            }
+        }
+        writeByte('\n');
+    }
+
+    private void writeInfo(VCFAttributes info) {
+        if (info == null || info.attributes.size() == 0) {
+            writeBytes(MISSING);
+            return;
+        }
+
+        boolean first = true;
+        for (Entry<String, VCFAttributeValue> kv: info.attributes.entrySet()) {
+            if (!first) {
+                writeByte(';');
+            }
+            first = false;
+
+            writeString(kv.getKey());
+            if (kv.getValue() != VCFAttributeValue.EMPTY) {
+                writeByte('=');
+                writeValue(kv.getValue());
+            }
+        }
+    }
+
+    private void writeValue(VCFAttributeValue val) {
+        String s = val.toString();
+        writeString(s == null ? "null" : s);
+    }
+
+    /**
+     * QUAL is written like Double.toString(), but whole numbers are written without the
+     * trailing ".0" (30.0 => 30).
+     */
+    private void writeQual(double qual) {
+        if (qual == -1) {
+            writeBytes(MISSING);
+        } else if (qual == Math.rint(qual) && Math.abs(qual) < MAX_PLAIN_QUAL) {
+            if (qual == 0 && Double.doubleToRawLongBits(qual) != 0) {
+                // -0.0
+                writeByte('-');
+            }
+            writeInt((long) qual);
+        } else {
+            writeString(Double.toString(qual));
+        }
+    }
+
+    private void writeList(List<String> vals, char sep) {
+        for (int i=0; i<vals.size(); i++) {
+            if (i > 0) {
+                writeByte(sep);
+            }
+            writeString(vals.get(i));
+        }
+    }
+
+    private void writeString(String s) {
+        int n = s.length();
+        ensure(n);
+        int start = len;
+        for (int i=0; i<n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // not ASCII, so use the default encoding (the same as String.getBytes())
+                len = start;
+                writeBytes(s.getBytes());
+                return;
+            }
+            buf[len++] = (byte) c;
+        }
+    }
+
+    private void writeInt(long v) {
+        if (v < 0) {
+            writeByte('-');
+            if (v == Long.MIN_VALUE) {
+                writeString(Long.toString(v).substring(1));
+                return;
+            }
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long tmp = v; tmp >= 10; tmp /= 10) {
+            digits++;
+        }
+
+        ensure(digits);
+        for (int i=len + digits - 1; i>=len; i--) {
+            buf[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        len += digits;
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.compgen.ngsutils.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.compgen.ngsutils.tabix.TabixRegion;
+
+/**
+ * Runs a task over separate regions (shards) of an indexed VCF file in parallel.
+ *
+ * The file is split using the tabix index (see TabixRegion.split()) and each shard reads
+ * the file with its own file handle. The output for each shard is written to a temporary
+ * file, and these are added to the final output in order, so the output is the same as
+ * running the task once for the whole file. The value returned by each task (counts, etc)
+ * is returned to the caller to be merged.
+ *
+ * If there is only one thread, or the file can't be split (stdin, BCF, or a VCF file without
+ * a tabix index), the task is run once on the current thread.
+ *
+ * @author mbreese
+ *
+ */
+public class VCFShardExecutor {
+    // use more shards than threads so that one slow shard doesn't hold up the others
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Task<T> {
+        /**
+         * Processes the records for one shard. Any output should be written to out (but out
+         * shouldn't be closed).
+         */
+        public T run(Iterator<VCFRecord> it, OutputStream out) throws Exception;
+    }
+
+    public interface Output {
+        /**
+         * @return the stream to write to when the task is run for the whole file
+         */
+        public OutputStream getStream() throws IOException;
+
+        /**
+         * Adds the output from a shard. Shards are added in order.
+         */
+        public void append(InputStream in) throws IOException;
+    }
+
+    /**
+     * An Output that writes shards directly to a stream (for text output that doesn't have a
+     * separate header)
+     */
+    public static Output streamOutput(final OutputStream out) {
+        return new Output() {
+            @Override
+            public OutputStream getStream() {
+                return out;
+            }
+
+            @Override
+            public void append(InputStream in) throws IOException {
+                copy(in, out);
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so that closing it only flushes it (for writers, like TabWriter, that
+     * can only be flushed by closing them).
+     */
+    public static OutputStream noClose(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    public static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    public static <T> List<T> run(VCFReader reader, int threads, Iterator<VCFRecord> it, Output output, Task<T> task) throws Exception {
+        return run(reader, threads, false, it, output, task);
+    }
+
+    /**
+     * Runs the task for each shard of the file.
+     *
+     * @param reader - the file (the header should already be read)
+     * @param threads - number of threads to use
+     * @param wholeRefs - don't split chromosomes between shards (if the task needs to see all of
+     *                    the records for a chromosome)
+     * @param it - the records to use when the file isn't split (this can have a progress meter)
+     * @param output - where to write the output from each shard (can be null if there is no output)
+     * @param task - the task to run for each shard
+     * @return the result from each shard (in order)
+     */
+    public static <T> List<T> run(final VCFReader reader, int threads, boolean wholeRefs, Iterator<VCFRecord> it, final Output output, final Task<T> task) throws Exception {
+        List<T> results = new ArrayList<T>();
+        if (threads > 1 && !reader.isIndexed()) {
+            System.err.println("WARNING: Input isn't a bgzip compressed VCF file with a tabix index, so it can't be split (using 1 thread)");
+            threads = 1;
+        }
+
+        List<List<TabixRegion>> shards = null;
+        if (threads > 1) {
+            shards = reader.split(threads * SHARDS_PER_THREAD, wholeRefs);
+        }
+
+        if (shards == null || shards.size() < 2) {
+            results.add(task.run(it, output == null ? null : output.getStream()));
+            return results;
+        }
+
+        if (output != null) {
+            // write the header (if there is one) before the shards start
+            output.getStream();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        final List<File> tmpFiles = new ArrayList<File>();
+
+        try {
+            for (final List<TabixRegion> shard: shards) {
+                final File tmp = output == null ? null : File.createTempFile(".ngsutilsj-shard", ".tmp");
+                if (tmp != null) {
+                    tmp.deleteOnExit();
+                    tmpFiles.add(tmp);
+                }
+                futures.add(pool.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        OutputStream out = tmp == null ? null : new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+                        T result = task.run(reader.iterator(shard), out);
+                        if (out != null) {
+                            out.close();
+                        }
+                        return result;
+                    }}));
+            }
+
+            for (int i=0; i<futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                if (output != null) {
+                    InputStream in = new FileInputStream(tmpFiles.get(i));
+                    output.append(in);
+                    in.close();
+                    tmpFiles.get(i).delete();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            for (File tmp: tmpFiles) {
+                tmp.delete();
+            }
+        }
+
+        return results;
+    }
+}
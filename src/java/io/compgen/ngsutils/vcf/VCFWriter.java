@@ -3,12 +3,23 @@ package io.compgen.ngsutils.vcf;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
-public class VCFWriter {
-	final private VCFHeader header;
+import io.compgen.ngsutils.support.Metrics;
+
+public class VCFWriter implements VCFShardExecutor.Output {
+    private static final Metrics.Counter RECORDS_WRITTEN = Metrics.counter("vcf.records_written");
+    private static final Metrics.Timer WRITE = Metrics.timer("vcf.write");
+
+    // records are encoded into a buffer, which is written to the stream once it is this big
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+	final protected VCFHeader header;
 	protected boolean headerWritten = false;
+	protected boolean shard = false;
 	protected OutputStream out;
+	private final VCFRecordEncoder encoder = new VCFRecordEncoder(FLUSH_SIZE + 4096);
 	
 	public VCFWriter(String filename, VCFHeader header) throws FileNotFoundException {
 		this.header = header;
@@ -20,21 +31,62 @@ public class VCFWriter {
 		out = stream;
 	}
 
+	/**
+	 * Returns a writer for one shard of the output (see VCFShardExecutor). The shard writer
+	 * only writes records (no header), and closing it doesn't close the stream.
+	 */
+	public VCFWriter shardWriter(OutputStream stream) throws IOException {
+		VCFWriter writer = new VCFWriter(stream, header);
+		writer.headerWritten = true;
+		writer.shard = true;
+		return writer;
+	}
+
+	@Override
+	public OutputStream getStream() throws IOException {
+		checkHeader();
+		encoder.writeTo(out);
+		return out;
+	}
+
+	@Override
+	public void append(InputStream in) throws IOException {
+		VCFShardExecutor.copy(in, getStream());
+	}
+
 	public void close() throws IOException {
-		if (!headerWritten) {
-			header.write(out, true);
-			headerWritten = true;
-		}
+		checkHeader();
+		encoder.writeTo(out);
 		out.flush();
-		out.close();
+		if (!shard) {
+			out.close();
+		}
 	}
 	
 	public void write(VCFRecord record) throws IOException {
+		checkHeader();
+		
+		long t = WRITE.start();
+		writeRecord(record);
+		WRITE.stop(t);
+		RECORDS_WRITTEN.incr();
+	}
+
+	protected void checkHeader() throws IOException {
 		if (!headerWritten) {
-			header.write(out, true);
+			writeHeader();
 			headerWritten = true;
 		}
-		
-		record.write(out);
+	}
+
+	protected void writeHeader() throws IOException {
+		header.write(out, true);
+	}
+
+	protected void writeRecord(VCFRecord record) throws IOException {
+		encoder.encode(record);
+		if (encoder.size() >= FLUSH_SIZE) {
+			encoder.writeTo(out);
+		}
 	}
 }
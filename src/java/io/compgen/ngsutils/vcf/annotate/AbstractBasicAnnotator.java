@@ -1,5 +1,6 @@
 package io.compgen.ngsutils.vcf.annotate;
 
+import io.compgen.ngsutils.support.Metrics;
 import io.compgen.ngsutils.vcf.VCFAttributeValue;
 import io.compgen.ngsutils.vcf.VCFHeader;
 import io.compgen.ngsutils.vcf.VCFRecord;
@@ -11,6 +12,8 @@ public abstract class AbstractBasicAnnotator implements VCFAnnotator {
     protected String altChrom = null;
     protected String altPos = null;
     protected String endPosKey = null;
+    
+    private Metrics.Timer timer = Metrics.timer("vcf.annotate." + getClass().getSimpleName());
 	
 	protected abstract void annotate(VCFRecord record) throws VCFAnnotatorException;
 	public abstract void setHeaderInner(VCFHeader header) throws VCFAnnotatorException;
@@ -30,6 +33,50 @@ public abstract class AbstractBasicAnnotator implements VCFAnnotator {
 	public void close() throws VCFAnnotatorException {
 	}
 
+	/**
+	 * By default, copies share this annotator (and call its annotate()), but have their own
+	 * parent. This is only safe if annotate() doesn't change any state, so annotators that
+	 * have mutable state or open files (FisherStrandBias, FlankingBases, TabixAnnotation,
+	 * VCFAnnotation) override this and return a new annotator (see initCopy()).
+	 */
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		return new Copy();
+	}
+
+	/**
+	 * Sets up a new annotator (from copy()) with the same header and settings as this one.
+	 * The header has already been updated, so setHeaderInner() isn't called again.
+	 */
+	protected <T extends AbstractBasicAnnotator> T initCopy(T copy) {
+		copy.header = header;
+		copy.altChrom = altChrom;
+		copy.altPos = altPos;
+		copy.endPosKey = endPosKey;
+		return copy;
+	}
+
+	private class Copy extends AbstractBasicAnnotator {
+		private Copy() {
+			AbstractBasicAnnotator.this.initCopy(this);
+			((AbstractBasicAnnotator) this).timer = AbstractBasicAnnotator.this.timer;
+		}
+
+		@Override
+		protected void annotate(VCFRecord record) throws VCFAnnotatorException {
+			AbstractBasicAnnotator.this.annotate(record);
+		}
+
+		@Override
+		public void setHeaderInner(VCFHeader header) throws VCFAnnotatorException {
+		}
+
+		@Override
+		public void close() throws VCFAnnotatorException {
+			// the shared annotator is closed by its owner
+		}
+	}
+
 	@Override
 	public VCFRecord next() throws VCFAnnotatorException {
 		if (parent == null) {
@@ -37,7 +84,9 @@ public abstract class AbstractBasicAnnotator implements VCFAnnotator {
 		}
 		VCFRecord next = parent.next();
 		if (next != null) {
+			long t = timer.start();
 			annotate(next);
+			timer.stop(t);
 		}
 		return next;
 	}
@@ -10,6 +10,7 @@ import io.compgen.common.StringUtils;
 import io.compgen.ngsutils.annotation.BedAnnotationSource;
 import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.bed.BedRecord;
+import io.compgen.ngsutils.support.ResourceCache;
 import io.compgen.ngsutils.vcf.VCFAnnotationDef;
 import io.compgen.ngsutils.vcf.VCFAttributeException;
 import io.compgen.ngsutils.vcf.VCFAttributeValue;
@@ -39,7 +40,15 @@ public class BEDAnnotation extends AbstractBasicAnnotator {
 		this.bed = getBEDSource(filename);
 	}
 
-	private static BedAnnotationSource getBEDSource(String filename) throws IOException {
+	private static BedAnnotationSource getBEDSource(final String filename) throws IOException {
+		if (ResourceCache.isEnabled()) {
+			// BED annotations are read-only, so they can be shared between commands
+			return ResourceCache.get("bed", filename, new ResourceCache.Loader<BedAnnotationSource>() {
+				@Override
+				public BedAnnotationSource load() throws IOException {
+					return new BedAnnotationSource(filename);
+				}});
+		}
 		if (!cache.containsKey(filename)) {
 			cache.put(filename, new BedAnnotationSource(filename));
 		}
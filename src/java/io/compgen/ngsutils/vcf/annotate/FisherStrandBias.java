@@ -16,6 +16,14 @@ import io.compgen.ngsutils.vcf.VCFRecord;
 public class FisherStrandBias extends AbstractBasicAnnotator {
 	protected FisherExact fisher = new FisherExact();
 
+	/**
+	 * FisherExact caches values between calls, so each copy needs its own
+	 */
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		return initCopy(new FisherStrandBias());
+	}
+
 	public VCFAnnotationDef getAnnotationType() throws VCFAnnotatorException {
 		try {
 			return VCFAnnotationDef.format("CG_FSB", "A", "Float", "Sample-based Fisher Strand Bias for alt alleles (Phred-scale)");
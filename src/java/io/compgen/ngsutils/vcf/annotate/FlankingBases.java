@@ -5,7 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.compgen.common.StringUtils;
-import io.compgen.ngsutils.fasta.IndexedFastaFile;
+import io.compgen.ngsutils.fasta.FastaReader;
 import io.compgen.ngsutils.support.SeqUtils;
 import io.compgen.ngsutils.vcf.VCFAnnotationDef;
 import io.compgen.ngsutils.vcf.VCFAttributeException;
@@ -16,11 +16,18 @@ import io.compgen.ngsutils.vcf.VCFRecord;
 
 public class FlankingBases extends AbstractBasicAnnotator {
 	
-	protected IndexedFastaFile ref;
+	protected final String fasta;
+	protected FastaReader ref;
 	protected int size;
 	
 	public FlankingBases(String fasta, int size) throws IOException {
-		ref = new IndexedFastaFile(fasta);
+		this.fasta = fasta;
+		ref = FastaReader.open(fasta);
+		if (ref.getReferenceNames() == null) {
+			// an unindexed FASTA file would be read from the start for every variant
+			ref.close();
+			throw new IOException("The reference FASTA file must be indexed (missing "+fasta+".fai) or a 2bit file: "+fasta);
+		}
 		this.size = size;
 	}
 	
@@ -29,6 +36,27 @@ public class FlankingBases extends AbstractBasicAnnotator {
 	}
 	
 
+	/**
+	 * FastaReaders aren't thread-safe, so each copy opens its own
+	 */
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		try {
+			return initCopy(new FlankingBases(fasta, size));
+		} catch (IOException e) {
+			throw new VCFAnnotatorException(e);
+		}
+	}
+
+	@Override
+	public void close() throws VCFAnnotatorException {
+		try {
+			ref.close();
+		} catch (IOException e) {
+			throw new VCFAnnotatorException(e);
+		}
+	}
+
 	@Override
 	public void setHeaderInner(VCFHeader header) throws VCFAnnotatorException {
 		try {
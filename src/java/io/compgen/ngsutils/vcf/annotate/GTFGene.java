@@ -21,7 +21,7 @@ public class GTFGene extends AbstractBasicAnnotator {
 	
 	public GTFGene(String filename) throws IOException {
 		this.filename = filename;
-		this.gtf = new GTFAnnotationSource(filename);
+		this.gtf = GTFAnnotationSource.load(filename);
 	}
 	
 
@@ -35,6 +35,15 @@ public class NullAnnotator implements VCFAnnotator {
 
 	}
 
+	/**
+	 * Reads records from an iterator (a shard of the file, see VCFShardExecutor)
+	 */
+	public NullAnnotator(Iterator<VCFRecord> it, boolean onlyPassing) {
+		this.it = it;
+		this.channel = null;
+		this.onlyPassing = onlyPassing;
+	}
+
 	@Override
 	public void setHeader(VCFHeader header) throws VCFAnnotatorException {
 	}
@@ -58,6 +67,11 @@ public class NullAnnotator implements VCFAnnotator {
 	public void close() throws VCFAnnotatorException {
 	}
 
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		throw new VCFAnnotatorException("The record source can't be copied");
+	}
+
     @Override
     public void setAltChrom(String key) throws VCFAnnotatorException {
     }
@@ -99,9 +99,31 @@ public class TabixAnnotation extends AbstractBasicAnnotator {
         this.colDefString = null;
     }
 
+    private TabixAnnotation(TabixAnnotation other) throws IOException {
+        this.name = other.name;
+        this.filename = other.filename;
+        this.tabix = other.tabix.copy();
+        this.colNum = other.colNum;
+        this.altColNum = other.altColNum;
+        this.isNumber = other.isNumber;
+        this.collapse = other.collapse;
+        this.colDefString = other.colDefString;
+    }
+
+    /**
+     * Each copy has its own file handle (sharing the index)
+     */
+    @Override
+    public VCFAnnotator copy() throws VCFAnnotatorException {
+        try {
+            return initCopy(new TabixAnnotation(this));
+        } catch (IOException e) {
+            throw new VCFAnnotatorException(e);
+        }
+    }
 
     private static TabixFile getTabixFile(String filename) throws IOException {
-        if (!cache.containsKey(filename)) {
+        if (!cache.containsKey(filename) || cache.get(filename).isClosed()) {
             cache.put(filename, new TabixFile(filename));
         }
         return cache.get(filename);
@@ -44,9 +44,30 @@ public class VCFAnnotation extends AbstractBasicAnnotator {
 	public VCFAnnotation(String name, String filename, String infoVal) throws IOException {
 		this(name, filename, infoVal, false, false);
 	}
+
+	private VCFAnnotation(VCFAnnotation other) throws IOException {
+		this.name = other.name;
+		this.filename = other.filename;
+		this.infoVal = other.infoVal;
+		this.exactMatch = other.exactMatch;
+		this.passingOnly = other.passingOnly;
+		this.vcfTabix = other.vcfTabix.copy();
+	}
+
+	/**
+	 * Each copy has its own file handle (sharing the index)
+	 */
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		try {
+			return initCopy(new VCFAnnotation(this));
+		} catch (IOException e) {
+			throw new VCFAnnotatorException(e);
+		}
+	}
 	
 	private static TabixFile getTabixFile(String filename) throws IOException {
-		if (!cache.containsKey(filename)) {
+		if (!cache.containsKey(filename) || cache.get(filename).isClosed()) {
 			cache.put(filename, new TabixFile(filename));
 		}
 		return cache.get(filename);		
@@ -12,4 +12,12 @@ public interface VCFAnnotator {
     public void setAltChrom(String key) throws VCFAnnotatorException;
     public void setAltPos(String key) throws VCFAnnotatorException;
 	public void setEndPos(String endPos) throws VCFAnnotatorException;
+
+	/**
+	 * Returns an annotator with the same settings and header (but no parent), so that a
+	 * separate chain can be used for each thread.
+	 * @return
+	 * @throws VCFAnnotatorException
+	 */
+	public VCFAnnotator copy() throws VCFAnnotatorException;
 }
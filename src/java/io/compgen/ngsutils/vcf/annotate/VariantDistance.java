@@ -94,6 +94,12 @@ public class VariantDistance implements VCFAnnotator {
 	public void close() throws VCFAnnotatorException {
 	}
 
+	@Override
+	public VCFAnnotator copy() throws VCFAnnotatorException {
+		// distances are reset for each chromosome, so this only needs a new state
+		return new VariantDistance();
+	}
+
     @Override
     public void setAltChrom(String key) throws VCFAnnotatorException {
     }
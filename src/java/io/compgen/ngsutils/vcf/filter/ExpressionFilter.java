@@ -0,0 +1,213 @@
+package io.compgen.ngsutils.vcf.filter;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.JexlException;
+import org.apache.commons.logging.impl.NoOpLog;
+
+import io.compgen.ngsutils.vcf.VCFAttributeValue;
+import io.compgen.ngsutils.vcf.VCFAttributes;
+import io.compgen.ngsutils.vcf.VCFHeader;
+import io.compgen.ngsutils.vcf.VCFRecord;
+
+/**
+ * Filter using a boolean (JEXL) expression. If the expression is true, the record is filtered.
+ *
+ * Available variables: CHROM, POS, ID, REF, ALT (list), QUAL, INFO.KEY, and
+ * SAMPLE.NAME.KEY (or SAMPLE['NAME'].KEY). INFO flags are true if present. Numeric values
+ * are returned as numbers, values with more than one item (A,B) are returned as lists,
+ * and missing values are null (comparisons with null are false, so records missing a value
+ * aren't filtered). Values are only parsed when the expression uses them.
+ *
+ * Example: INFO.DP < 10 || SAMPLE.TUMOR.AD[1] < 3
+ *
+ * @author mbreese
+ *
+ */
+public class ExpressionFilter extends VCFAbstractFilter {
+    // missing values are common, so don't log warnings for null properties
+    private static final JexlEngine engine = new JexlEngine(null, null, null, new NoOpLog());
+    static {
+        engine.setLenient(true);
+        engine.setSilent(false);
+        engine.setCache(64);
+    }
+
+    private final Expression expression;
+    private List<String> sampleNames = null;
+
+    public ExpressionFilter(String id, String expression) throws VCFFilterException {
+        super(id, "Expression: " + expression.replaceAll("\"", "'"));
+        try {
+            this.expression = engine.createExpression(expression);
+        } catch (JexlException e) {
+            throw new VCFFilterException("Unable to parse expression: " + expression + " (" + e.getMessage() + ")");
+        }
+    }
+
+    @Override
+    public void setHeader(VCFHeader header) throws VCFFilterException {
+        super.setHeader(header);
+        sampleNames = header.getSamples();
+        if (sampleNames == null) {
+            sampleNames = new ArrayList<String>();
+        }
+    }
+
+    @Override
+    protected boolean innerFilter(VCFRecord record) throws VCFFilterException {
+        Object result;
+        try {
+            result = expression.evaluate(new RecordContext(record));
+        } catch (JexlException e) {
+            throw new VCFFilterException("Error evaluating expression: " + expression.getExpression() + " at "+record.getChrom()+":"+record.getPos()+" (" + e.getMessage() + ")");
+        }
+
+        if (result instanceof Boolean) {
+            return (Boolean) result;
+        }
+        throw new VCFFilterException("Expression must return true or false: " + expression.getExpression());
+    }
+
+    private class RecordContext implements JexlContext {
+        private final VCFRecord record;
+        private AttributeMap info = null;
+        private Map<String, AttributeMap> samples = null;
+
+        private RecordContext(VCFRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public Object get(String name) {
+            switch (name) {
+            case "CHROM":
+                return record.getChrom();
+            case "POS":
+                return record.getPos();
+            case "ID":
+                return record.getDbSNPID();
+            case "REF":
+                return record.getRef();
+            case "ALT":
+                return record.getAlt();
+            case "QUAL":
+                return record.getQual();
+            case "INFO":
+                if (info == null) {
+                    info = new AttributeMap(record.getInfo());
+                }
+                return info;
+            case "SAMPLE":
+                if (samples == null) {
+                    samples = new HashMap<String, AttributeMap>();
+                    for (int i=0; i<sampleNames.size() && i<record.getSampleAttributes().size(); i++) {
+                        samples.put(sampleNames.get(i), new AttributeMap(record.getSampleAttributes().get(i)));
+                    }
+                }
+                return samples;
+            default:
+                return null;
+            }
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            throw new UnsupportedOperationException("Variables can not be set in a filter expression");
+        }
+
+        @Override
+        public boolean has(String name) {
+            switch (name) {
+            case "CHROM":
+            case "POS":
+            case "ID":
+            case "REF":
+            case "ALT":
+            case "QUAL":
+            case "INFO":
+            case "SAMPLE":
+                return true;
+            default:
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Read-only view of VCF attributes that converts values as they are requested
+     * (and keeps the converted value).
+     */
+    private static class AttributeMap extends AbstractMap<String, Object> {
+        private final VCFAttributes attrs;
+        private final Map<String, Object> parsed = new HashMap<String, Object>();
+
+        private AttributeMap(VCFAttributes attrs) {
+            this.attrs = attrs;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (parsed.containsKey(key)) {
+                return parsed.get(key);
+            }
+            Object val = convert(attrs.get((String) key));
+            parsed.put((String) key, val);
+            return val;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return attrs.contains((String) key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> all = new HashMap<String, Object>();
+            for (String key: attrs.getKeys()) {
+                all.put(key, get(key));
+            }
+            return Collections.unmodifiableMap(all).entrySet();
+        }
+
+        private static Object convert(VCFAttributeValue val) {
+            if (val == null || val.isMissing()) {
+                return null;
+            }
+            if (val == VCFAttributeValue.EMPTY) {
+                // INFO flag
+                return Boolean.TRUE;
+            }
+
+            String s = val.toString();
+            if (s.indexOf(',') > -1) {
+                List<Object> vals = new ArrayList<Object>();
+                for (String v: s.split(",", -1)) {
+                    vals.add(convertSingle(v));
+                }
+                return vals;
+            }
+            return convertSingle(s);
+        }
+
+        private static Object convertSingle(String s) {
+            if (s.equals("") || s.equals(".")) {
+                return null;
+            }
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                return s;
+            }
+        }
+    }
+}
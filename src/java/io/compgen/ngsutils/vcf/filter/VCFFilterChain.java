@@ -0,0 +1,257 @@
+package io.compgen.ngsutils.vcf.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.compgen.ngsutils.vcf.VCFAttributeException;
+import io.compgen.ngsutils.vcf.VCFAttributeValue;
+import io.compgen.ngsutils.vcf.VCFAttributes;
+import io.compgen.ngsutils.vcf.VCFHeader;
+import io.compgen.ngsutils.vcf.VCFRecord;
+
+/**
+ * A set of filters that are applied to each record together.
+ *
+ * When the header is set, the numeric filters (lt, lte, gt, gte) are compiled so that
+ * filters on the same field (KEY/SAMPLE/ALLELE) share one parsed value. Each field is
+ * parsed at most once per sample per record, and only when a filter needs it. Each filter
+ * still stops at the first sample that matches.
+ *
+ * Filters are applied in the order they were added, so the FILTER column is the same
+ * as applying each filter separately.
+ *
+ * @author mbreese
+ *
+ */
+public class VCFFilterChain {
+    private List<VCFFilter> filters = new ArrayList<VCFFilter>();
+    private CompiledFilter[] compiled = null;
+    private ParsedField[] fields = null;
+
+    public void add(VCFFilter filter) {
+        filters.add(filter);
+    }
+
+    public List<VCFFilter> getFilters() {
+        return filters;
+    }
+
+    public void setHeader(VCFHeader header) throws VCFFilterException {
+        for (VCFFilter filter: filters) {
+            filter.setHeader(header);
+        }
+        compile();
+    }
+
+    /**
+     * Returns a chain with the same filters (and header), but with its own parsed values, so
+     * that it can be used from another thread. The filters themselves are shared.
+     */
+    public VCFFilterChain copy() throws VCFFilterException {
+        if (compiled == null) {
+            throw new VCFFilterException("Missing VCF header for filters");
+        }
+        VCFFilterChain chain = new VCFFilterChain();
+        chain.filters.addAll(filters);
+        chain.compile();
+        return chain;
+    }
+
+    private void compile() {
+        Map<String, ParsedField> fieldMap = new HashMap<String, ParsedField>();
+        compiled = new CompiledFilter[filters.size()];
+
+        for (int i=0; i<filters.size(); i++) {
+            VCFFilter filter = filters.get(i);
+
+            if (filter instanceof LessThan) {
+                LessThan math = (LessThan) filter;
+                boolean info = math.sampleName != null && math.sampleName.equals("INFO");
+                String fieldKey = math.key + "\t" + (info ? "INFO" : math.sampleIdx) + "\t" + math.alleleName;
+                if (!fieldMap.containsKey(fieldKey)) {
+                    fieldMap.put(fieldKey, new ParsedField(math.key, info, math.sampleIdx, math.alleleName));
+                }
+                compiled[i] = new MathTest(math, fieldMap.get(fieldKey));
+            } else {
+                compiled[i] = new PlainFilter(filter);
+            }
+        }
+
+        fields = fieldMap.values().toArray(new ParsedField[fieldMap.size()]);
+    }
+
+    public void filter(VCFRecord record) throws VCFFilterException {
+        if (compiled == null) {
+            throw new VCFFilterException("Missing VCF header for filters");
+        }
+
+        for (ParsedField field: fields) {
+            field.reset(record);
+        }
+
+        for (CompiledFilter filter: compiled) {
+            if (filter.test(record)) {
+                record.addFilter(filter.getID());
+            }
+        }
+    }
+
+    public void close() {
+        for (VCFFilter filter: filters) {
+            filter.close();
+        }
+    }
+
+    private interface CompiledFilter {
+        public boolean test(VCFRecord record) throws VCFFilterException;
+        public String getID();
+    }
+
+    private class PlainFilter implements CompiledFilter {
+        private final VCFAbstractFilter abstractFilter;
+        private final VCFFilter filter;
+
+        private PlainFilter(VCFFilter filter) {
+            this.filter = filter;
+            if (filter instanceof VCFAbstractFilter) {
+                this.abstractFilter = (VCFAbstractFilter) filter;
+            } else {
+                this.abstractFilter = null;
+            }
+        }
+
+        @Override
+        public boolean test(VCFRecord record) throws VCFFilterException {
+            if (abstractFilter != null) {
+                return abstractFilter.innerFilter(record);
+            }
+
+            // filter sets the FILTER value itself
+            filter.filter(record);
+            return false;
+        }
+
+        @Override
+        public String getID() {
+            return filter.getID();
+        }
+    }
+
+    private class MathTest implements CompiledFilter {
+        private final LessThan filter;
+        private final ParsedField field;
+
+        private MathTest(LessThan filter, ParsedField field) {
+            this.filter = filter;
+            this.field = field;
+        }
+
+        @Override
+        public boolean test(VCFRecord record) throws VCFFilterException {
+            // same logic as LessThan.filter(), but using the shared parsed value
+            for (int i=0; i<field.size(); i++) {
+                if (field.isPresent(i)) {
+                    double d = field.getValue(i);
+                    if (Double.isNaN(d) || filter.operation(d)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getID() {
+            return filter.getID();
+        }
+    }
+
+    /**
+     * A numeric value (KEY/SAMPLE/ALLELE) for the current record. Values for each
+     * sample are parsed when they are first needed.
+     */
+    private class ParsedField {
+        private static final byte UNPARSED = 0;
+        private static final byte MISSING = 1;
+        private static final byte PRESENT = 2;
+
+        private final String key;
+        private final boolean info;
+        private final int sampleIdx;
+        private final String alleleName;
+
+        private VCFAttributeValue[] raw = new VCFAttributeValue[0];
+        private byte[] state = new byte[0];
+        private double[] values = new double[0];
+        private int size = 0;
+
+        private ParsedField(String key, boolean info, int sampleIdx, String alleleName) {
+            this.key = key;
+            this.info = info;
+            this.sampleIdx = sampleIdx;
+            this.alleleName = alleleName;
+        }
+
+        private void reset(VCFRecord record) {
+            if (info) {
+                resize(1);
+                raw[0] = record.getInfo().get(key);
+            } else if (sampleIdx < 0) {
+                List<VCFAttributes> samples = record.getSampleAttributes();
+                resize(samples.size());
+                for (int i=0; i<size; i++) {
+                    raw[i] = samples.get(i).get(key);
+                }
+            } else {
+                resize(1);
+                raw[0] = record.getSampleAttributes().get(sampleIdx).get(key);
+            }
+
+            for (int i=0; i<size; i++) {
+                state[i] = UNPARSED;
+            }
+        }
+
+        private void resize(int newSize) {
+            if (newSize > raw.length) {
+                raw = new VCFAttributeValue[newSize];
+                state = new byte[newSize];
+                values = new double[newSize];
+            }
+            size = newSize;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private boolean isPresent(int i) throws VCFFilterException {
+            parse(i);
+            return state[i] == PRESENT;
+        }
+
+        private double getValue(int i) throws VCFFilterException {
+            parse(i);
+            return values[i];
+        }
+
+        private void parse(int i) throws VCFFilterException {
+            if (state[i] != UNPARSED) {
+                return;
+            }
+            VCFAttributeValue val = raw[i];
+            if (val == null || val.isMissing()) {
+                state[i] = MISSING;
+                return;
+            }
+            try {
+                values[i] = val.asDouble(alleleName);
+            } catch (VCFAttributeException e) {
+                throw new VCFFilterException(e);
+            }
+            state[i] = PRESENT;
+        }
+    }
+}
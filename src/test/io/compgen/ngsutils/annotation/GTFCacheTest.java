@@ -0,0 +1,183 @@
+package io.compgen.ngsutils.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.compgen.common.IterUtils;
+import io.compgen.ngsutils.annotation.GTFAnnotationSource.GTFExon;
+import io.compgen.ngsutils.annotation.GTFAnnotationSource.GTFGene;
+import io.compgen.ngsutils.annotation.GTFAnnotationSource.GTFTranscript;
+import io.compgen.ngsutils.bam.Strand;
+
+/**
+ * Annotations loaded from the GTF cache should match the parsed GTF file, and the cache
+ * should only be written to the cache directory.
+ */
+public class GTFCacheTest {
+    private File tmpdir;
+    private File gtfdir;
+    private File cachedir;
+    private File gtf;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("gtf-cache-test").toFile();
+        gtfdir = new File(tmpdir, "gtf");
+        cachedir = new File(tmpdir, "cache");
+        gtfdir.mkdir();
+
+        Random rand = new Random(1234);
+        gtf = new File(gtfdir, "genes.gtf");
+        FileWriter fw = new FileWriter(gtf);
+        fw.write("#test\n");
+        for (int c=1; c<=3; c++) {
+            int pos = 1000;
+            for (int g=0; g<40; g++) {
+                String strand = rand.nextBoolean() ? "+" : "-";
+                String geneAttr = "gene_id \"g"+c+"_"+g+"\"; gene_name \"G"+c+"_"+g+"\";";
+                if (g % 3 != 0) {
+                    geneAttr += " gene_biotype \"protein_coding\";";
+                }
+                for (int t=0; t<1+rand.nextInt(3); t++) {
+                    String attr = geneAttr + " transcript_id \"t"+c+"_"+g+"_"+t+"\";";
+                    int start = pos + rand.nextInt(50);
+                    for (int e=0; e<1+rand.nextInt(4); e++) {
+                        int end = start + 10 + rand.nextInt(200);
+                        fw.write("chr"+c+"\ttest\texon\t"+(start+1)+"\t"+end+"\t.\t"+strand+"\t.\t"+attr+" exon_number \""+(e+1)+"\";\n");
+                        if (t == 0 && g % 3 != 0) {
+                            fw.write("chr"+c+"\ttest\tCDS\t"+(start+6)+"\t"+(end-2)+"\t.\t"+strand+"\t0\t"+attr+" exon_number \""+(e+1)+"\"; tag \"x\";\n");
+                        }
+                        start = end + 20 + rand.nextInt(300);
+                    }
+                }
+                // some genes overlap
+                pos += rand.nextInt(2000);
+            }
+        }
+        fw.close();
+
+        GTFAnnotationSource.setCacheDir(cachedir);
+    }
+
+    @After
+    public void tearDown() {
+        GTFAnnotationSource.setCacheDir(null);
+        for (File dir: new File[] { cachedir, gtfdir }) {
+            if (dir.isDirectory()) {
+                for (File f: dir.listFiles()) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private static String exons(List<GTFExon> exons) {
+        String s = "";
+        for (GTFExon exon: exons) {
+            s += " " + exon.getStart() + "-" + exon.getEnd() + "[" + exon.getAttribute("exon_number") + "," + exon.getAttribute("tag") + "]";
+        }
+        return s;
+    }
+
+    private static List<String> describe(GTFAnnotationSource ann) {
+        List<String> out = new ArrayList<String>();
+        for (GenomeAnnotation<GTFGene> ga: IterUtils.wrap(ann.iterator())) {
+            GTFGene gene = ga.getValue();
+            out.add(ga.getCoordinates() + " " + gene);
+            List<String> txpts = new ArrayList<String>();
+            for (GTFTranscript txpt: gene.getTranscripts()) {
+                txpts.add(txpt.getTranscriptId() + " " + txpt.getStart() + "-" + txpt.getEnd() + " cds:" + txpt.getCdsStart() + "-" + txpt.getCdsEnd()
+                        + " exons:" + exons(txpt.getExons()) + " cds:" + exons(txpt.cds));
+            }
+            Collections.sort(txpts);
+            out.addAll(txpts);
+        }
+        return out;
+    }
+
+    private static List<String> find(GTFAnnotationSource ann) {
+        List<String> out = new ArrayList<String>();
+        for (int c=1; c<=3; c++) {
+            for (int pos=0; pos<80000; pos+=137) {
+                for (Strand strand: new Strand[] { Strand.NONE, Strand.PLUS, Strand.MINUS }) {
+                    List<String> ids = new ArrayList<String>();
+                    for (GTFGene gene: ann.findAnnotation(new GenomeSpan("chr"+c, pos, pos+300, strand))) {
+                        ids.add(gene.getGeneId());
+                    }
+                    // results are returned from a HashSet, so the order isn't fixed
+                    Collections.sort(ids);
+                    out.add("chr"+c+":"+pos+strand+" "+ids);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static String geneName(GTFAnnotationSource ann, String geneId) {
+        for (GenomeAnnotation<GTFGene> ga: IterUtils.wrap(ann.iterator())) {
+            if (ga.getValue().getGeneId().equals(geneId)) {
+                return ga.getValue().getGeneName();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCacheMatchesGTF() throws IOException {
+        GTFAnnotationSource parsed = new GTFAnnotationSource(gtf.getPath());
+        assertEquals(120, parsed.size());
+
+        // first load writes the cache, second load reads it
+        GTFAnnotationSource.load(gtf.getPath());
+        assertEquals(1, cachedir.listFiles().length);
+        assertTrue(cachedir.listFiles()[0].getName().endsWith(".gtfcache"));
+        GTFAnnotationSource cached = GTFAnnotationSource.load(gtf.getPath());
+
+        assertEquals(describe(parsed), describe(cached));
+        assertEquals(find(parsed), find(cached));
+        assertEquals(parsed.getAnnotationNames().length, cached.getAnnotationNames().length);
+
+        // nothing is written next to the GTF file
+        assertEquals(1, gtfdir.listFiles().length);
+    }
+
+    @Test
+    public void testCacheIsUsed() throws IOException {
+        GTFAnnotationSource.load(gtf.getPath());
+
+        // same size and modification time, so the (old) cache should still be used
+        long mtime = gtf.lastModified();
+        String contents = new String(Files.readAllBytes(gtf.toPath()), "UTF-8");
+        Files.write(gtf.toPath(), contents.replace("gene_name \"G1_0\"", "gene_name \"X1_0\"").getBytes("UTF-8"));
+        gtf.setLastModified(mtime);
+        assertEquals("G1_0", geneName(GTFAnnotationSource.load(gtf.getPath()), "g1_0"));
+
+        // once the GTF file changes, the cache is rebuilt
+        gtf.setLastModified(mtime + 10000);
+        assertEquals("X1_0", geneName(new GTFAnnotationSource(gtf.getPath()), "g1_0"));
+        assertEquals("X1_0", geneName(GTFAnnotationSource.load(gtf.getPath()), "g1_0"));
+    }
+
+    @Test
+    public void testNoCacheDir() throws IOException {
+        GTFAnnotationSource.setCacheDir(null);
+        GTFAnnotationSource.load(gtf.getPath());
+        assertEquals(1, gtfdir.listFiles().length);
+        assertTrue(!cachedir.exists());
+    }
+}
@@ -0,0 +1,170 @@
+package io.compgen.ngsutils.bam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.compgen.ngsutils.fastq.FastqRead;
+import io.compgen.ngsutils.support.FingerprintSet;
+
+public class FastqPairSpillTest {
+    private File tmpdir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("fastq-pair-spill-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private static String repeat(char c, int len) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<len; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static String toString(FastqRead read) {
+        return read.getName()+" "+read.getSeq().length()+" "+read.getQual().length()+" "+read.getComment()+" "+read.getAttribute("RGID");
+    }
+
+    /**
+     * Adds 2000 pairs (in random order, some without a mate), plus a few singles and
+     * exported names, and returns the expected output (pairs in order, sorted by name).
+     */
+    private List<String> populate(FastqPairSpill spill, boolean deduplicate) throws IOException {
+        Random rand = new Random(1234);
+        List<FastqRead[]> pairs = new ArrayList<FastqRead[]>();
+        List<String> expected = new ArrayList<String>();
+        for (int i=0; i<2000; i++) {
+            String name = "read"+i;
+            // long reads are over the 64KB limit of writeUTF
+            int len = i % 500 == 0 ? 70000 : 50 + rand.nextInt(50);
+            String comment = i % 3 == 0 ? null : "comment"+i;
+            FastqRead r1 = new FastqRead(name, repeat('A', len), repeat('I', len), comment);
+            FastqRead r2 = new FastqRead(name, repeat('C', len), repeat('#', len), comment);
+            if (i % 2 == 0) {
+                r1.setAttribute("RGID", "rg1");
+                r2.setAttribute("RGID", "rg1");
+            }
+            pairs.add(new FastqRead[] { r1, r2 });
+            if (i % 100 != 7) {
+                expected.add(toString(r1)+"|"+toString(r2));
+            }
+        }
+
+        FingerprintSet exported = new FingerprintSet();
+        for (int i=0; i<20; i++) {
+            exported.add("exported"+i);
+        }
+
+        List<FastqRead[]> adds = new ArrayList<FastqRead[]>();
+        for (int i=0; i<pairs.size(); i++) {
+            adds.add(new FastqRead[] { pairs.get(i)[0], null });
+            if (i % 100 != 7) {
+                // some reads don't have a mate
+                adds.add(new FastqRead[] { null, pairs.get(i)[1] });
+            }
+        }
+        Collections.shuffle(adds, rand);
+        for (FastqRead[] add: adds) {
+            if (add[0] != null) {
+                spill.add(add[0], true);
+            } else {
+                spill.add(add[1], false);
+            }
+        }
+
+        if (deduplicate) {
+            spill.addExported(exported);
+            for (int i=0; i<20; i++) {
+                // already exported
+                spill.addSingle(new FastqRead("exported"+i, "ACGT", "IIII"));
+            }
+            // duplicate pair (the first pair for a name is kept)
+            spill.add(new FastqRead("read1", "GG", "II"), true);
+            spill.add(new FastqRead("read1", "TT", "II"), false);
+            FastqRead single = new FastqRead("single", "ACGT", "IIII");
+            spill.addSingle(single);
+            expected.add(toString(single));
+        }
+
+        Collections.sort(expected);
+        return expected;
+    }
+
+    private List<String> pairAll(FastqPairSpill spill) throws IOException {
+        List<String> out = new ArrayList<String>();
+        FastqRead read;
+        while ((read = spill.next()) != null) {
+            if (read.getName().equals("single")) {
+                out.add(toString(read));
+            } else {
+                FastqRead mate = spill.next();
+                assertEquals(read.getName(), mate.getName());
+                // first read is always returned first
+                assertEquals('A', read.getSeq().charAt(0));
+                out.add(toString(read)+"|"+toString(mate));
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private void testPairs(int threads, boolean deduplicate) throws IOException {
+        // small partitions, so that they are split again
+        FastqPairSpill spill = new FastqPairSpill(4, 100, tmpdir, deduplicate, threads);
+        List<String> expected = populate(spill, deduplicate);
+        spill.finish();
+        assertEquals(expected, pairAll(spill));
+        assertNull(spill.next());
+        spill.close();
+        assertEquals(0, tmpdir.listFiles().length);
+    }
+
+    @Test
+    public void testPairs() throws IOException {
+        testPairs(1, false);
+    }
+
+    @Test
+    public void testPairsThreads() throws IOException {
+        testPairs(3, false);
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException {
+        testPairs(1, true);
+        testPairs(3, true);
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException {
+        for (int threads: new int[] { 1, 3 }) {
+            FastqPairSpill spill = new FastqPairSpill(32, 1000, tmpdir, false, threads);
+            populate(spill, false);
+            spill.finish();
+            spill.next();
+            spill.close();
+            assertEquals(0, tmpdir.listFiles().length);
+        }
+    }
+}
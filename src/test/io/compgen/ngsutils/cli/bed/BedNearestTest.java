@@ -0,0 +1,205 @@
+package io.compgen.ngsutils.cli.bed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.bam.Strand;
+
+/**
+ * bed-nearest --sorted should find the same nearest regions as the in-memory search
+ * (and a brute-force search).
+ */
+public class BedNearestTest {
+    private File tmpdir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("bed-nearest-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private static class Region {
+        String name;
+        GenomeSpan coord;
+
+        Region(String name, GenomeSpan coord) {
+            this.name = name;
+            this.coord = coord;
+        }
+    }
+
+    private static List<Region> randomRegions(Random rand, String prefix, String strands, int count, int maxLen) {
+        List<Region> regions = new ArrayList<Region>();
+        for (int c=1; c<=3; c++) {
+            List<Region> ref = new ArrayList<Region>();
+            // chr2 has no reference regions
+            int n = (prefix.equals("ref") && c == 2) ? 0 : count;
+            for (int i=0; i<n; i++) {
+                int start = rand.nextInt(20000);
+                int end = start + 1 + rand.nextInt(maxLen);
+                Strand strand = Strand.parse(""+strands.charAt(rand.nextInt(strands.length())));
+                ref.add(new Region(prefix+c+"_"+i, new GenomeSpan("chr"+c, start, end, strand)));
+            }
+            Collections.sort(ref, new Comparator<Region>() {
+                @Override
+                public int compare(Region a, Region b) {
+                    return Integer.compare(a.coord.start, b.coord.start);
+                }});
+            regions.addAll(ref);
+        }
+        return regions;
+    }
+
+    private File write(String name, List<Region> regions) throws IOException {
+        File f = new File(tmpdir, name);
+        FileWriter fw = new FileWriter(f);
+        for (Region r: regions) {
+            fw.write(r.coord.ref+"\t"+r.coord.start+"\t"+r.coord.end+"\t"+r.name+"\t0\t"+(r.coord.strand == Strand.NONE ? "." : r.coord.strand.toString())+"\n");
+        }
+        fw.close();
+        return f;
+    }
+
+    private List<String[]> nearest(File ref, File query, boolean sorted, int up, int down, boolean ns) throws Exception {
+        File out = new File(tmpdir, "out.txt");
+        BedNearest cmd = new BedNearest();
+        cmd.setFilenames(new String[] { ref.getPath(), query.getPath() });
+        cmd.setSorted(sorted);
+        cmd.setIgnoreStrand(ns);
+        if (up > -1) {
+            cmd.setExtendUp(up);
+        }
+        if (down > -1) {
+            cmd.setExtendDown(down);
+        }
+        cmd.setOutputName(out.getPath());
+        cmd.exec();
+        cmd.close();
+
+        List<String[]> lines = new ArrayList<String[]>();
+        for (String line: Files.readAllLines(out.toPath())) {
+            lines.add(line.split("\t", -1));
+        }
+        return lines;
+    }
+
+    /**
+     * The nearest distance (signed, relative to the reference strand) and the names of all
+     * reference regions at that distance, or null if there isn't one within the limits.
+     */
+    private static Set<String> bruteForce(List<Region> refs, GenomeSpan query, int up, int down, int[] bestDist) throws Exception {
+        up = up < 0 ? Integer.MAX_VALUE : up;
+        down = down < 0 ? Integer.MAX_VALUE : down;
+        Set<String> best = null;
+        for (Region r: refs) {
+            if (!r.coord.ref.equals(query.ref) || !query.strand.matches(r.coord.strand)) {
+                continue;
+            }
+            int dist = r.coord.distanceTo(query);
+            if (r.coord.strand == Strand.MINUS) {
+                dist = -dist;
+            }
+            if ((dist < 0 && dist < -up) || (dist > 0 && dist > down)) {
+                continue;
+            }
+            if (best == null || Math.abs(dist) < Math.abs(bestDist[0])) {
+                best = new HashSet<String>();
+                bestDist[0] = dist;
+            }
+            if (Math.abs(dist) == Math.abs(bestDist[0])) {
+                best.add(r.name);
+            }
+        }
+        return best;
+    }
+
+    private void testParity(String strands, int up, int down, boolean ns) throws Exception {
+        Random rand = new Random(strands.hashCode() * 31 + up * 7 + down + (ns ? 1 : 0));
+        for (int iter=0; iter<10; iter++) {
+            List<Region> refs = randomRegions(rand, "ref", strands, 150, 200);
+            List<Region> queries = randomRegions(rand, "q", strands, 150, 50);
+            File ref = write("ref.bed", refs);
+            File query = write("query.bed", queries);
+
+            List<String[]> sorted = nearest(ref, query, true, up, down, ns);
+            // in-memory needs limits (no limit is the same as 0)
+            List<String[]> inMemory = (up > -1 || down > -1) ? nearest(ref, query, false, up, down, ns) : null;
+
+            assertEquals(queries.size(), sorted.size());
+            for (int i=0; i<queries.size(); i++) {
+                GenomeSpan q = queries.get(i).coord;
+                if (ns) {
+                    q = q.clone(Strand.NONE);
+                }
+                int[] dist = new int[1];
+                Set<String> expected = bruteForce(refs, q, up, down, dist);
+
+                List<String[]> results = new ArrayList<String[]>();
+                results.add(sorted.get(i));
+                if (inMemory != null) {
+                    results.add(inMemory.get(i));
+                }
+                for (String[] cols: results) {
+                    assertEquals(queries.get(i).name, cols[3]);
+                    if (expected == null) {
+                        assertEquals("*", cols[6]);
+                    } else {
+                        assertTrue((cols == sorted.get(i) ? "sorted " : "in-memory ") + queries.get(i).name + " " + q + " => " + cols[6] + " " + expected + " " + dist[0], expected.contains(cols[6]));
+                        assertEquals(Math.abs(dist[0]), Math.abs(Integer.parseInt(cols[7])));
+                    }
+                }
+                if (inMemory != null && (expected == null || expected.size() == 1)) {
+                    // ties can be broken differently, otherwise the output is the same
+                    assertEquals(String.join("\t", inMemory.get(i)), String.join("\t", sorted.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStranded() throws Exception {
+        testParity("+-", 100, 100, false);
+        testParity("+-", 0, 500, false);
+    }
+
+    @Test
+    public void testMixedStrands() throws Exception {
+        testParity("+-.", 50, 200, false);
+        testParity("+-.", 1000, 0, false);
+    }
+
+    @Test
+    public void testIgnoreStrand() throws Exception {
+        testParity("+-.", 100, 100, true);
+    }
+
+    @Test
+    public void testNoLimits() throws Exception {
+        testParity("+-.", -1, -1, false);
+        testParity(".", -1, -1, false);
+    }
+}
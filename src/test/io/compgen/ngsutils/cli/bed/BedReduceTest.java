@@ -0,0 +1,200 @@
+package io.compgen.ngsutils.cli.bed;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * bed-reduce should give the same output in-memory, with --sorted, and with --external,
+ * and this should match a brute-force merge.
+ */
+public class BedReduceTest {
+    private File tmpdir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("bed-reduce-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private static class Region {
+        String ref;
+        int start;
+        int end;
+        char strand;
+        TreeSet<String> names = new TreeSet<String>();
+        double score;
+
+        Region(String ref, int start, int end, char strand, String name, double score) {
+            this.ref = ref;
+            this.start = start;
+            this.end = end;
+            this.strand = strand;
+            this.names.add(name);
+            this.score = score;
+        }
+
+        boolean overlaps(Region o, int extend, boolean ns) {
+            if (!ref.equals(o.ref)) {
+                return false;
+            }
+            if (!ns && strand != '.' && o.strand != '.' && strand != o.strand) {
+                return false;
+            }
+            return start - extend < o.end + extend && o.start - extend < end + extend;
+        }
+    }
+
+    /**
+     * Merges overlapping regions until nothing else overlaps. Merging regions from
+     * different strands gives a region without a strand.
+     */
+    private static List<String> bruteForce(List<Region> regions, int extend, boolean ns) {
+        List<Region> merged = new ArrayList<Region>(regions);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i=0; i<merged.size() && !changed; i++) {
+                for (int j=i+1; j<merged.size() && !changed; j++) {
+                    Region a = merged.get(i);
+                    Region b = merged.get(j);
+                    if (a.overlaps(b, extend, ns)) {
+                        Region m = new Region(a.ref, Math.min(a.start, b.start), Math.max(a.end, b.end), a.strand == b.strand ? a.strand : '.', a.names.first(), a.score + b.score);
+                        m.names.clear();
+                        m.names.addAll(a.names);
+                        m.names.addAll(b.names);
+                        merged.remove(j);
+                        merged.set(i, m);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // compare coordinates (not extended), strand, score, and the set of names
+        List<String> out = new ArrayList<String>();
+        for (Region r: merged) {
+            out.add(r.ref+"\t"+r.start+"\t"+r.end+"\t"+String.join("|", r.names)+"\t"+(int)r.score+"\t"+(r.strand == '.' ? "." : ""+r.strand));
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private List<String> reduce(File bed, String mode, int extend, boolean ns) throws Exception {
+        File out = new File(tmpdir, "out.bed");
+        BedReduce cmd = new BedReduce();
+        cmd.setFilename(bed.getPath());
+        cmd.setExtend(extend);
+        cmd.setNoStrand(ns);
+        if (mode.equals("sorted")) {
+            cmd.setSorted(true);
+        } else if (mode.equals("external")) {
+            cmd.setExternal(true);
+            cmd.setBufferSize(7);
+            cmd.setTmpDir(tmpdir.getPath());
+        }
+        cmd.setOutputName(out.getPath());
+        cmd.exec();
+        cmd.close();
+        return Files.readAllLines(out.toPath());
+    }
+
+    /**
+     * Normalizes an output line so it can be compared to the brute-force merge (names are
+     * sorted, as they are merged in a different order).
+     */
+    private static List<String> normalize(List<String> lines) {
+        List<String> out = new ArrayList<String>();
+        for (String line: lines) {
+            String[] cols = line.split("\t");
+            TreeSet<String> names = new TreeSet<String>();
+            for (String name: cols[3].split("\\|")) {
+                names.add(name);
+            }
+            out.add(cols[0]+"\t"+cols[1]+"\t"+cols[2]+"\t"+String.join("|", names)+"\t"+cols[4]+"\t"+cols[5]);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private void testParity(String strands, int extend, boolean ns) throws Exception {
+        Random rand = new Random(strands.hashCode() + extend);
+        for (int iter=0; iter<20; iter++) {
+            List<Region> regions = new ArrayList<Region>();
+            List<String> lines = new ArrayList<String>();
+            for (int c=1; c<=2; c++) {
+                List<Region> ref = new ArrayList<Region>();
+                for (int i=0; i<100; i++) {
+                    int start = 100 + rand.nextInt(3000);
+                    int end = start + 1 + rand.nextInt(rand.nextInt(10) == 0 ? 400 : 60);
+                    char strand = strands.charAt(rand.nextInt(strands.length()));
+                    ref.add(new Region("chr"+c, start, end, strand, "n"+regions.size()+"_"+i, 1 + rand.nextInt(5)));
+                }
+                Collections.sort(ref, new Comparator<Region>() {
+                    @Override
+                    public int compare(Region a, Region b) {
+                        return a.start != b.start ? Integer.compare(a.start, b.start) : Integer.compare(a.end, b.end);
+                    }});
+                for (Region r: ref) {
+                    lines.add(r.ref+"\t"+r.start+"\t"+r.end+"\t"+r.names.first()+"\t"+(int)r.score+"\t"+r.strand);
+                }
+                regions.addAll(ref);
+            }
+
+            File bed = new File(tmpdir, "in.bed");
+            FileWriter fw = new FileWriter(bed);
+            for (String line: lines) {
+                fw.write(line+"\n");
+            }
+            fw.close();
+
+            List<String> inMemory = reduce(bed, "memory", extend, ns);
+            assertEquals(inMemory, reduce(bed, "sorted", extend, ns));
+            assertEquals(inMemory, reduce(bed, "external", extend, ns));
+            assertEquals(bruteForce(regions, extend, ns), normalize(inMemory));
+        }
+    }
+
+    @Test
+    public void testStranded() throws Exception {
+        testParity("+-", 0, false);
+        testParity("+-", 5, false);
+    }
+
+    @Test
+    public void testMixedStrands() throws Exception {
+        testParity("+-.", 0, false);
+        testParity("+-.", 5, false);
+    }
+
+    @Test
+    public void testUnstranded() throws Exception {
+        testParity(".", 0, false);
+    }
+
+    @Test
+    public void testIgnoreStrand() throws Exception {
+        testParity("+-.", 0, true);
+        testParity("+-", 10, true);
+    }
+}
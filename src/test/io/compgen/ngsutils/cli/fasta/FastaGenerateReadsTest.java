@@ -0,0 +1,184 @@
+package io.compgen.ngsutils.cli.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.compgen.ngsutils.fasta.TwoBitWriter;
+
+/**
+ * fasta-genreads should give the same output as the original String based version, with
+ * and without --threads, and for FASTA and 2bit inputs.
+ */
+public class FastaGenerateReadsTest {
+    private File tmpdir;
+    private File fasta;
+    private File twoBit;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("genreads-test").toFile();
+        Random rand = new Random(49);
+
+        fasta = new File(tmpdir, "ref.fa");
+        twoBit = new File(tmpdir, "ref.2bit");
+        FileWriter fa = new FileWriter(fasta);
+        FileWriter fai = new FileWriter(new File(tmpdir, "ref.fa.fai"));
+        TwoBitWriter tb = new TwoBitWriter(new FileOutputStream(twoBit));
+
+        int[] lengths = new int[] { 5000, 21, 20, 1, 777, 3000 };
+        long offset = 0;
+        for (int i=0; i<lengths.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < lengths[i]) {
+                int len = 1 + rand.nextInt(30);
+                boolean n = rand.nextInt(5) == 0;
+                boolean lower = rand.nextInt(4) == 0;
+                for (int j=0; j<len && sb.length() < lengths[i]; j++) {
+                    char base = n ? 'N' : "ACGT".charAt(rand.nextInt(4));
+                    sb.append(lower ? Character.toLowerCase(base) : base);
+                }
+            }
+            String seq = sb.toString();
+
+            String name = ">chr"+i+" description\n";
+            fa.write(name);
+            offset += name.length();
+            fai.write("chr"+i+"\t"+seq.length()+"\t"+offset+"\t60\t61\n");
+            for (int j=0; j<seq.length(); j+=60) {
+                String line = seq.substring(j, Math.min(j+60, seq.length()))+"\n";
+                fa.write(line);
+                offset += line.length();
+            }
+
+            tb.startSequence("chr"+i);
+            tb.addBases(seq);
+        }
+        fa.close();
+        fai.close();
+        tb.close();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    /**
+     * The original version of fasta-genreads (String buffers)
+     */
+    private static String original(File fasta, int readLength, int windowStep, int maxWildcard, char qualScore) throws IOException {
+        StringBuilder out = new StringBuilder();
+        String current = null;
+        String qualString = "";
+        for (int i=0; i<readLength; i++) {
+            qualString += qualScore;
+        }
+
+        String buffer = "";
+        int pos = 0;
+        for (String line: Files.readAllLines(fasta.toPath())) {
+            if (line.charAt(0) == '>') {
+                if (!buffer.equals("")) {
+                    buffer = "";
+                    pos = 0;
+                }
+                current = line.substring(1).split("\\W",2)[0];
+            } else {
+                buffer += line;
+                while (buffer.length() > readLength) {
+                    String read = buffer.substring(0, readLength);
+                    String qual = qualString;
+
+                    int count = 0;
+                    if (read.indexOf('N')>-1 || read.indexOf('n') > -1) {
+                        qual = "";
+                        for (int i=0;i<readLength; i++) {
+                            if (read.charAt(i) == 'N' || read.charAt(i) == 'n') {
+                                qual+='#';
+                                count ++;
+                            } else {
+                                qual += qualScore;
+                            }
+                        }
+                    }
+
+                    if (count <= maxWildcard) {
+                        out.append("@"+current+":"+pos+"-"+(pos+readLength)+"\n");
+                        out.append(read);
+                        out.append("\n+\n"+qual+"\n");
+                    }
+
+                    buffer = buffer.substring(windowStep);
+                    pos += windowStep;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private String genreads(File input, int readLength, int windowStep, int maxWildcard, int threads) throws Exception {
+        File out = new File(tmpdir, "out.fq");
+        FastaGenerateReads cmd = new FastaGenerateReads();
+        cmd.setFilename(input.getPath());
+        cmd.setReadLength(readLength);
+        cmd.setWindowStep(windowStep);
+        cmd.setMaxWildcard(maxWildcard);
+        cmd.setQualScore(30);
+        cmd.setThreads(threads);
+        cmd.setOutputName(out.getPath());
+        cmd.exec();
+        cmd.close();
+        return new String(Files.readAllBytes(out.toPath()), "UTF-8");
+    }
+
+    private void testParams(int readLength, int windowStep, int maxWildcard) throws Exception {
+        String expected = original(fasta, readLength, windowStep, maxWildcard, (char) (30+33));
+        assertTrue(expected.length() > 0);
+        assertEquals(expected, genreads(fasta, readLength, windowStep, maxWildcard, 1));
+        assertEquals(expected, genreads(fasta, readLength, windowStep, maxWildcard, 3));
+        assertEquals(expected, genreads(twoBit, readLength, windowStep, maxWildcard, 1));
+        assertEquals(expected, genreads(twoBit, readLength, windowStep, maxWildcard, 2));
+    }
+
+    @Test
+    public void testSameAsOriginal() throws Exception {
+        testParams(20, 1, 0);
+        testParams(20, 7, 3);
+        testParams(50, 50, 100);
+        testParams(100, 13, 5);
+    }
+
+    @Test
+    public void testTempFilesRemoved() throws Exception {
+        File[] before = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        genreads(fasta, 20, 5, 0, 2);
+        File[] after = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        int count = 0;
+        for (File f: after) {
+            if (f.getName().startsWith(".ngsutilsj-genreads")) {
+                count++;
+            }
+        }
+        for (File f: before) {
+            if (f.getName().startsWith(".ngsutilsj-genreads")) {
+                count--;
+            }
+        }
+        assertEquals(0, count);
+    }
+}
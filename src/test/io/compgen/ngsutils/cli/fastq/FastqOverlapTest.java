@@ -13,7 +13,8 @@ class FastqOverlapTest {
     	FastqRead one = new FastqRead("test_one", "AAAAAAAAAAAACGT", "123456789012345");
     	FastqRead two = new FastqRead("test_one", "AAAAAAAAAAAAAAA", "123456789012345");
     	FastqRead tre = new FastqRead("test_one", "ACGTAAAAAAAAAAA", "123456789012345");
-    	FastqRead qua = new FastqRead("test_one", "TTTGCACCCCCCCCC", "abcdefghijklmno");
+    	// reverse-complement: AAACGTGGGGGGGGG (qualities: onmlkjihgfedcba)
+    	FastqRead qua = new FastqRead("test_one", "CCCCCCCCCACGTTT", "abcdefghijklmno");
     	
     	FastqRead over1 = FastqOverlap.findOverlapRead(one,  one,  5, false);
     	assertNull(over1);
@@ -26,8 +27,58 @@ class FastqOverlapTest {
     	
     	FastqRead over4 = FastqOverlap.findOverlapRead(one,  qua,  5, false);
     	assertNotNull(over4);
-    	assertEquals(over4.getSeq(),  "AAAAAAAAAAAACGTGGGGGGGGG");
-    	assertEquals(over4.getQual(), "123456789012345ghijklmno");
+    	assertEquals("AAAAAAAAAAAACGTGGGGGGGGG", over4.getSeq());
+    	assertEquals("123456789012345ihgfedcba", over4.getQual());
+	}
+
+	@Test
+	void testFindOverlapReadMismatch() {
+    	FastqRead one = new FastqRead("test_one", "AAAAAAAAAAAACGT", "123456789012345");
+    	// reverse-complement: AAACTTGGGGGGGGG (qualities: onmlkjihgfedcba), one mismatch (T)
+    	FastqRead two = new FastqRead("test_one", "CCCCCCCCCAAGTTT", "abcdefghijklmno");
+
+    	assertNull(FastqOverlap.findOverlapRead(one, two, 5, 0, false));
+
+    	// the R2 base has the higher quality (k > 4)
+    	FastqRead over = FastqOverlap.findOverlapRead(one, two, 5, 1, false);
+    	assertNotNull(over);
+    	assertEquals("AAAAAAAAAAAACTTGGGGGGGGG", over.getSeq());
+    	assertEquals("1234567890123k5ihgfedcba", over.getQual());
+	}
+
+	@Test
+	void testFindOverlapReadDovetail() {
+		// insert: ACGTTGCAAGGT, followed by adapter bases
+    	FastqRead one = new FastqRead("test_one", "ACGTTGCAAGGTCCC", "ABCDEFGHIJKLMNO");
+    	// reverse-complement: GGGACGTTGCAAGGT
+    	FastqRead two = new FastqRead("test_one", "ACCTTGCAACGTCCC", "abcdefghijklmno");
+
+    	assertNull(FastqOverlap.findOverlapRead(one, two, 5, false));
+
+    	FastqRead over = FastqOverlap.findOverlapRead(one, two, 5, true);
+    	assertNotNull(over);
+    	assertEquals("ACGTTGCAAGGT", over.getSeq());
+    	assertEquals("ABCDEFGHIJKL", over.getQual());
+
+    	// same with an IUPAC code in the adapter (compared one base at a time)
+    	FastqRead oneR = new FastqRead("test_one", "ACGTTGCAAGGTCCR", "ABCDEFGHIJKLMNO");
+    	over = FastqOverlap.findOverlapRead(oneR, two, 5, true);
+    	assertNotNull(over);
+    	assertEquals("ACGTTGCAAGGT", over.getSeq());
+
+    	// R2 is shorter, and is entirely within R1 (R1 continues into the adapter)
+    	FastqRead shortTwo = new FastqRead("test_one", "ACCTTGCAACGT", "abcdefghijkl");
+    	assertNull(FastqOverlap.findOverlapRead(one, shortTwo, 5, false));
+    	over = FastqOverlap.findOverlapRead(one, shortTwo, 5, true);
+    	assertNotNull(over);
+    	assertEquals("ACGTTGCAAGGT", over.getSeq());
+
+    	// the qualities of mismatched bases come from the reversed R2 qualities
+    	FastqRead twoMismatch = new FastqRead("test_one", "ACCTTGCAACGACCC", "abcdefghijklmno");
+    	over = FastqOverlap.findOverlapRead(one, twoMismatch, 5, 1, true);
+    	assertNotNull(over);
+    	assertEquals("TCGTTGCAAGGT", over.getSeq());
+    	assertEquals("lBCDEFGHIJKL", over.getQual());
 	}
 
 }
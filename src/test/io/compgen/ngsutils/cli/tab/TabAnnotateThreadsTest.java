@@ -0,0 +1,94 @@
+package io.compgen.ngsutils.cli.tab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import io.compgen.ngsutils.tabix.TabixTestUtils;
+
+/**
+ * tab-annotate --threads N should give the same output as --threads 1, and compressed
+ * output should be a complete BGZF file.
+ */
+public class TabAnnotateThreadsTest {
+    private File tmpdir;
+    private File input;
+    private File regions;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("tab-annotate-test").toFile();
+        Random rand = new Random(1234);
+
+        List<String> lines = new ArrayList<String>();
+        List<String> regionLines = new ArrayList<String>();
+        for (int c=1; c<=3; c++) {
+            int pos = 10;
+            for (int i=0; i<3000; i++) {
+                lines.add("chr"+c+"\t"+pos+"\t"+(pos+1)+"\tline"+i+"\t\u00e9");
+                if (rand.nextInt(5) == 0) {
+                    regionLines.add("chr"+c+"\t"+(pos-5)+"\t"+(pos+rand.nextInt(500))+"\tregion"+regionLines.size());
+                }
+                pos += 20 + rand.nextInt(60);
+            }
+        }
+        input = TabixTestUtils.writeBED(new File(tmpdir, "input.bed.gz"), lines);
+        regions = TabixTestUtils.writeBED(new File(tmpdir, "regions.bed.gz"), regionLines);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private byte[] annotate(int threads) throws Exception {
+        File out = new File(tmpdir, "out-"+threads+".txt.gz");
+        TabAnnotate cmd = new TabAnnotate();
+        cmd.setTabix("REGION:"+regions.getPath()+",4,collapse");
+        cmd.setTabix("FLAG:"+regions.getPath());
+        cmd.setThreads(threads);
+        cmd.setOutputName(out.getPath());
+        cmd.setFilename(input.getPath());
+        cmd.exec();
+
+        // the BGZF EOF block is only written when the output is closed
+        assertEquals(BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK, BlockCompressedInputStream.checkTermination(out));
+
+        GZIPInputStream in = new GZIPInputStream(new FileInputStream(out));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[64*1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            baos.write(buf, 0, n);
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testThreadsMatchSingleThread() throws Exception {
+        byte[] single = annotate(1);
+        String s = new String(single, "UTF-8");
+        assertTrue(s.contains("region"));
+        assertTrue(s.contains("\u00e9"));
+        assertArrayEquals(single, annotate(4));
+    }
+}
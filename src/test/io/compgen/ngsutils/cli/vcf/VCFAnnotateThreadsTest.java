@@ -0,0 +1,156 @@
+package io.compgen.ngsutils.cli.vcf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.compgen.ngsutils.tabix.TabixTestUtils;
+
+/**
+ * vcf-annotate --threads N should give the same output as --threads 1
+ */
+public class VCFAnnotateThreadsTest {
+    private static final String BASES = "ACGT";
+
+    private File tmpdir;
+    private File vcf;
+    private File bed;
+    private File known;
+    private File fasta;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("vcf-annotate-test").toFile();
+        Random rand = new Random(1234);
+
+        StringBuilder[] refs = new StringBuilder[3];
+        for (int i=0; i<refs.length; i++) {
+            refs[i] = new StringBuilder();
+            for (int j=0; j<400000; j++) {
+                refs[i].append(BASES.charAt(rand.nextInt(4)));
+            }
+        }
+
+        List<String> lines = new ArrayList<String>();
+        List<String> knownLines = new ArrayList<String>();
+        List<String> bedLines = new ArrayList<String>();
+        lines.add("##fileformat=VCFv4.2");
+        lines.add("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        lines.add("##FORMAT=<ID=SAC,Number=.,Type=Integer,Description=\"Strand allele counts\">");
+        for (int i=0; i<refs.length; i++) {
+            lines.add("##contig=<ID=chr"+(i+1)+",length="+refs[i].length()+">");
+        }
+        lines.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2");
+        knownLines.add("##fileformat=VCFv4.2");
+        knownLines.add("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">");
+        knownLines.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+
+        for (int i=0; i<refs.length; i++) {
+            String chrom = "chr"+(i+1);
+            int pos = 10;
+            while (pos < refs[i].length() - 10) {
+                char ref = refs[i].charAt(pos-1);
+                char alt = BASES.charAt((BASES.indexOf(ref) + 1 + rand.nextInt(3)) % 4);
+                // large, varied counts, so that the Fisher test cache is resized while other threads use it
+                String sac1 = rand.nextInt(2000)+","+rand.nextInt(2000)+","+rand.nextInt(5000)+","+rand.nextInt(100);
+                String sac2 = rand.nextInt(200)+","+rand.nextInt(200)+","+rand.nextInt(20)+","+rand.nextInt(3000);
+                lines.add(chrom+"\t"+pos+"\t.\t"+ref+"\t"+alt+"\t50\tPASS\t.\tGT:SAC\t0/1:"+sac1+"\t0/1:"+sac2);
+
+                if (rand.nextInt(3) == 0) {
+                    knownLines.add(chrom+"\t"+pos+"\trs"+pos+"\t"+ref+"\t"+alt+"\t.\tPASS\tAF=0."+rand.nextInt(100));
+                }
+                if (rand.nextInt(10) == 0) {
+                    bedLines.add(chrom+"\t"+(pos-5)+"\t"+(pos+rand.nextInt(500))+"\tregion"+bedLines.size());
+                }
+                pos += 20 + rand.nextInt(60);
+            }
+        }
+
+        vcf = TabixTestUtils.writeVCF(new File(tmpdir, "input.vcf.gz"), lines);
+        known = TabixTestUtils.writeVCF(new File(tmpdir, "known.vcf.gz"), knownLines);
+        bed = TabixTestUtils.writeBED(new File(tmpdir, "regions.bed.gz"), bedLines);
+
+        fasta = new File(tmpdir, "ref.fa");
+        FileWriter fa = new FileWriter(fasta);
+        FileWriter fai = new FileWriter(new File(tmpdir, "ref.fa.fai"));
+        long offset = 0;
+        for (int i=0; i<refs.length; i++) {
+            String name = ">chr"+(i+1)+"\n";
+            fa.write(name);
+            offset += name.length();
+            fai.write("chr"+(i+1)+"\t"+refs[i].length()+"\t"+offset+"\t60\t61\n");
+            for (int j=0; j<refs[i].length(); j+=60) {
+                String line = refs[i].substring(j, Math.min(j+60, refs[i].length()))+"\n";
+                fa.write(line);
+                offset += line.length();
+            }
+        }
+        fa.close();
+        fai.close();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    private byte[] annotate(int threads, boolean bcf) throws Exception {
+        File out = new File(tmpdir, "out-"+threads+(bcf ? ".bcf": ".vcf"));
+        VCFAnnotateCmd cmd = new VCFAnnotateCmd();
+        cmd.setFisherStrandBias();
+        cmd.setMinorStrandPct();
+        cmd.setVAF();
+        cmd.setTsTv();
+        cmd.setFlanking(fasta.getPath()+":2");
+        cmd.setTabix("REGION:"+bed.getPath()+",4");
+        cmd.setVCF("KNOWN_AF:AF:"+known.getPath());
+        cmd.setVCFID(known.getPath());
+        cmd.setThreads(threads);
+        cmd.setOutputName(out.getPath());
+        cmd.setFilename(vcf.getPath());
+        cmd.exec();
+
+        if (bcf) {
+            // BGZF blocks are split differently by each shard, so compare the uncompressed bytes
+            GZIPInputStream in = new GZIPInputStream(new FileInputStream(out));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[64*1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                baos.write(buf, 0, n);
+            }
+            in.close();
+            return baos.toByteArray();
+        }
+        return Files.readAllBytes(out.toPath());
+    }
+
+    @Test
+    public void testThreadsMatchSingleThread() throws Exception {
+        byte[] single = annotate(1, false);
+        assertTrue(new String(single, "UTF-8").contains("CG_FSB"));
+        assertArrayEquals(single, annotate(4, false));
+    }
+
+    @Test
+    public void testThreadsMatchSingleThreadBCF() throws Exception {
+        assertArrayEquals(annotate(1, true), annotate(3, true));
+    }
+}
@@ -0,0 +1,149 @@
+package io.compgen.ngsutils.fasta;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Slices from a 2bit file should be the same as from the FASTA file it was made from
+ */
+public class TwoBitFastaFileTest {
+    private static final int[] LENGTHS = new int[] { 1, 15, 16, 17, 1000, 123457 };
+
+    private File tmpdir;
+    private File fasta;
+    private File twoBit;
+    private String[] seqs;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpdir = Files.createTempDirectory("twobit-test").toFile();
+        Random rand = new Random(48);
+
+        seqs = new String[LENGTHS.length];
+        for (int i=0; i<LENGTHS.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < LENGTHS[i]) {
+                // runs of N, soft-masked (lowercase) bases, and unmasked bases
+                int len = 1 + rand.nextInt(rand.nextInt(5) == 0 ? 2000 : 40);
+                int type = rand.nextInt(6);
+                for (int j=0; j<len && sb.length() < LENGTHS[i]; j++) {
+                    char base = "ACGT".charAt(rand.nextInt(4));
+                    if (type == 0) {
+                        base = 'N';
+                    } else if (type == 1) {
+                        base = 'n';
+                    } else if (type == 2) {
+                        base = Character.toLowerCase(base);
+                    }
+                    sb.append(base);
+                }
+            }
+            seqs[i] = sb.toString();
+        }
+
+        fasta = new File(tmpdir, "ref.fa");
+        FileWriter fa = new FileWriter(fasta);
+        FileWriter fai = new FileWriter(new File(tmpdir, "ref.fa.fai"));
+        long offset = 0;
+        for (int i=0; i<seqs.length; i++) {
+            String name = ">seq"+i+"\n";
+            fa.write(name);
+            offset += name.length();
+            fai.write("seq"+i+"\t"+seqs[i].length()+"\t"+offset+"\t60\t61\n");
+            for (int j=0; j<seqs[i].length(); j+=60) {
+                String line = seqs[i].substring(j, Math.min(j+60, seqs[i].length()))+"\n";
+                fa.write(line);
+                offset += line.length();
+            }
+        }
+        fa.close();
+        fai.close();
+
+        twoBit = new File(tmpdir, "ref.2bit");
+        TwoBitWriter writer = new TwoBitWriter(new FileOutputStream(twoBit));
+        for (int i=0; i<seqs.length; i++) {
+            writer.startSequence("seq"+i);
+            // add the bases in uneven chunks
+            int pos = 0;
+            while (pos < seqs[i].length()) {
+                int end = Math.min(seqs[i].length(), pos + 1 + rand.nextInt(5000));
+                writer.addBases(seqs[i].substring(pos, end));
+                pos = end;
+            }
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: tmpdir.listFiles()) {
+            f.delete();
+        }
+        tmpdir.delete();
+    }
+
+    @Test
+    public void testSlices() throws IOException {
+        FastaReader fa = FastaReader.open(fasta.getPath());
+        FastaReader tb = FastaReader.open(twoBit.getPath());
+        assertEquals(IndexedFastaFile.class, fa.getClass());
+        assertEquals(TwoBitFastaFile.class, tb.getClass());
+
+        Random rand = new Random(1);
+        for (int i=0; i<seqs.length; i++) {
+            String ref = "seq"+i;
+            assertEquals(seqs[i].length(), tb.getReferenceLength(ref));
+            assertEquals(seqs[i], tb.fetchSequence(ref, 0, seqs[i].length()));
+
+            for (int j=0; j<2000; j++) {
+                int start = rand.nextInt(seqs[i].length());
+                int end = start + 1 + rand.nextInt(Math.min(seqs[i].length() - start, rand.nextBoolean() ? 20 : 3000));
+                assertEquals(ref+":"+start+"-"+end, fa.fetchSequence(ref, start, end), tb.fetchSequence(ref, start, end));
+            }
+        }
+        fa.close();
+        tb.close();
+    }
+
+    @Test
+    public void testIterator() throws IOException {
+        TwoBitFastaFile tb = new TwoBitFastaFile(twoBit.getPath());
+        int i = 0;
+        for (Iterator<FastaRecord> it = tb.iterator(); it.hasNext(); ) {
+            FastaRecord rec = it.next();
+            assertEquals("seq"+i, rec.name);
+            assertEquals(seqs[i], rec.seq);
+            i++;
+        }
+        assertEquals(seqs.length, i);
+        tb.close();
+    }
+
+    @Test
+    public void testTextStream() throws IOException {
+        TwoBitFastaFile tb = new TwoBitFastaFile(twoBit.getPath());
+        InputStream in = tb.textStream(60);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            baos.write(buf, 0, n);
+        }
+        in.close();
+        tb.close();
+        assertEquals(new String(Files.readAllBytes(fasta.toPath()), "US-ASCII"), new String(baos.toByteArray(), "US-ASCII"));
+    }
+}
@@ -0,0 +1,82 @@
+package io.compgen.ngsutils.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceCacheTest {
+    private File[] files = new File[4];
+    private int loads = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i=0; i<files.length; i++) {
+            files[i] = File.createTempFile("resource-cache-test", ".txt");
+        }
+        ResourceCache.setEnabled(true);
+        ResourceCache.setMaxSize(2);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: files) {
+            f.delete();
+        }
+        ResourceCache.clear();
+        ResourceCache.setMaxSize(ResourceCache.DEFAULT_MAX_SIZE);
+        ResourceCache.setEnabled(false);
+    }
+
+    private String get(final int i) throws IOException {
+        return ResourceCache.get("test", files[i].getPath(), new ResourceCache.Loader<String>() {
+            @Override
+            public String load() throws IOException {
+                loads++;
+                return "file" + i;
+            }});
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() throws IOException {
+        assertEquals("file0", get(0));
+        assertEquals("file1", get(1));
+        assertEquals("file0", get(0));
+        assertEquals(2, loads);
+
+        // file1 is the least recently used
+        assertEquals("file2", get(2));
+        assertEquals(2, ResourceCache.size());
+        assertEquals("file0", get(0));
+        assertEquals(3, loads);
+        assertEquals("file1", get(1));
+        assertEquals(4, loads);
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        get(0);
+        get(1);
+        ResourceCache.clear();
+        assertEquals(0, ResourceCache.size());
+        get(0);
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void testShrink() throws IOException {
+        ResourceCache.setMaxSize(4);
+        for (int i=0; i<4; i++) {
+            get(i);
+        }
+        get(0);
+        ResourceCache.setMaxSize(1);
+        assertEquals(1, ResourceCache.size());
+        get(0);
+        assertEquals(4, loads);
+    }
+}
@@ -0,0 +1,74 @@
+package io.compgen.ngsutils.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+/**
+ * Writes bgzip compressed files with a tabix index (*.tbi) for tests
+ *
+ * @author mbreese
+ *
+ */
+public class TabixTestUtils {
+    /**
+     * Writes a bgzip compressed VCF file and its index. Lines starting with '#' are
+     * written as-is (header lines).
+     */
+    public static File writeVCF(File file, List<String> lines) throws IOException {
+        return write(file, lines, TabixFormat.VCF, true);
+    }
+
+    /**
+     * Writes a bgzip compressed BED file and its index.
+     */
+    public static File writeBED(File file, List<String> lines) throws IOException {
+        return write(file, lines, TabixFormat.BED, false);
+    }
+
+    private static File write(File file, List<String> lines, TabixFormat format, boolean vcf) throws IOException {
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(file);
+        TabixIndexCreator indexer = new TabixIndexCreator(format);
+
+        for (String line: lines) {
+            long pos = out.getFilePointer();
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            if (line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] cols = line.split("\t");
+            // features are one-based (VCF: the end is from the length of the ref allele)
+            final int start = vcf ? Integer.parseInt(cols[1]) : Integer.parseInt(cols[1]) + 1;
+            final int end = vcf ? start + cols[3].length() - 1 : Integer.parseInt(cols[2]);
+
+            indexer.addFeature(new Feature() {
+                @Override
+                public String getChr() {
+                    return cols[0];
+                }
+
+                @Override
+                public int getStart() {
+                    return start;
+                }
+
+                @Override
+                public int getEnd() {
+                    return end;
+                }}, pos);
+        }
+        out.flush();
+        Index index = indexer.finalizeIndex(out.getFilePointer());
+        out.close();
+        index.writeBasedOnFeatureFile(file);
+        return file;
+    }
+}
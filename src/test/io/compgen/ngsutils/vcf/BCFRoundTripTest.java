@@ -0,0 +1,198 @@
+package io.compgen.ngsutils.vcf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * VCF -> BCF -> VCF should give the same records as VCF -> VCF
+ */
+public class BCFRoundTripTest {
+    private static final String HEADER = ""
+            + "##fileformat=VCFv4.2\n"
+            + "##contig=<ID=chr1,length=1000>\n"
+            + "##contig=<ID=chr2,length=1000>\n"
+            + "##FILTER=<ID=q10,Description=\"Low quality\">\n"
+            + "##FILTER=<ID=lowdp,Description=\"Low depth\">\n"
+            + "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP\">\n"
+            + "##INFO=<ID=SOMATIC,Number=0,Type=Flag,Description=\"Somatic\">\n"
+            + "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+            + "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">\n"
+            + "##INFO=<ID=GENE,Number=.,Type=String,Description=\"Gene\">\n"
+            + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+            + "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">\n"
+            + "##FORMAT=<ID=VAF,Number=A,Type=Float,Description=\"Variant allele frequency\">\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2\n";
+
+    private static final String[] RECORDS = new String[] {
+        // flags
+        "chr1\t10\trs1\tA\tG\t50\tPASS\tDB\tGT:AD:VAF\t0/1:10,5:0.333\t0/0:12,0:0",
+        "chr1\t20\t.\tC\tT\t30\tPASS\tDP=10;DB;SOMATIC;GENE=ABC\tGT:AD:VAF\t0/1:3,7:0.7\t1/1:0,9:1",
+        // missing FILTER, QUAL, and ID
+        "chr1\t30\t.\tG\tA\t.\t.\tDP=4\tGT:AD:VAF\t0/1:2,2:0.5\t./.:.:.",
+        // filtered
+        "chr1\t40\t.\tT\tC\t5\tq10;lowdp\tDP=2\tGT:AD:VAF\t0|1:1,1:0.5\t0|0:2,0:0",
+        // missing values
+        "chr2\t5\t.\tA\tC\t20\tPASS\tDP=.;AF=.\tGT:AD:VAF\t.:.,.:.\t0/1:.,3:.",
+        // multi-allelic
+        "chr2\t50\t.\tA\tC,G,T\t60\tPASS\tDP=30;AF=0.1,0.2,0.3;DB\tGT:AD:VAF\t1/2:0,5,6,1:0.4,0.5,0.1\t0/3:8,.,0,4:0,.,0.333",
+        "chr2\t60\t.\tAT\tA,ATT\t40\t.\tAF=0.5,.;GENE=X,Y\tGT:AD:VAF\t1/2:0,4,4:0.5,0.5\t./.:.:.",
+    };
+
+    private static String text(String[] records) {
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (String rec: records) {
+            sb.append(rec);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] copy(InputStream in, VCFWriterFactory factory) throws Exception {
+        VCFReader reader = new VCFReader(in);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        VCFWriter writer = factory.create(baos, reader.getHeader());
+        for (Iterator<VCFRecord> it = reader.iterator(); it.hasNext(); ) {
+            writer.write(it.next());
+        }
+        writer.close();
+        reader.close();
+        return baos.toByteArray();
+    }
+
+    private interface VCFWriterFactory {
+        public VCFWriter create(ByteArrayOutputStream out, VCFHeader header) throws IOException;
+    }
+
+    private static final VCFWriterFactory VCF = new VCFWriterFactory() {
+        @Override
+        public VCFWriter create(ByteArrayOutputStream out, VCFHeader header) throws IOException {
+            return new VCFWriter(out, header);
+        }};
+
+    private static final VCFWriterFactory BCF = new VCFWriterFactory() {
+        @Override
+        public VCFWriter create(ByteArrayOutputStream out, VCFHeader header) throws IOException {
+            return new BCFWriter(out, header);
+        }};
+
+    private static List<String> records(byte[] vcf) throws IOException {
+        List<String> out = new ArrayList<String>();
+        for (String line: new String(vcf, "UTF-8").split("\n")) {
+            if (!line.startsWith("#")) {
+                out.add(line);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] input = text(RECORDS).getBytes("UTF-8");
+        List<String> expected = records(copy(new ByteArrayInputStream(input), VCF));
+        assertEquals(RECORDS.length, expected.size());
+
+        byte[] bcf = copy(new ByteArrayInputStream(input), BCF);
+        assertEquals(expected, records(copy(new ByteArrayInputStream(bcf), VCF)));
+
+        // BCF -> BCF (samples are copied without decoding them)
+        byte[] bcf2 = copy(new ByteArrayInputStream(bcf), BCF);
+        assertEquals(expected, records(copy(new ByteArrayInputStream(bcf2), VCF)));
+    }
+
+    @Test
+    public void testMissingFilter() throws Exception {
+        List<String> out = records(copy(new ByteArrayInputStream(copy(new ByteArrayInputStream(text(RECORDS).getBytes("UTF-8")), BCF)), VCF));
+        assertEquals(".", out.get(2).split("\t")[6]);
+        assertEquals(".", out.get(6).split("\t")[6]);
+        assertEquals("PASS", out.get(0).split("\t")[6]);
+        assertEquals("q10;lowdp", out.get(3).split("\t")[6]);
+    }
+
+    @Test
+    public void testMultiAllelic() throws Exception {
+        List<String> out = records(copy(new ByteArrayInputStream(copy(new ByteArrayInputStream(text(RECORDS).getBytes("UTF-8")), BCF)), VCF));
+        String[] cols = out.get(5).split("\t");
+        assertEquals("C,G,T", cols[4]);
+        assertEquals("DP=30;AF=0.1,0.2,0.3;DB", cols[7]);
+        assertEquals("1/2:0,5,6,1:0.4,0.5,0.1", cols[9]);
+        assertEquals("0/3:8,.,0,4:0,.,0.333", cols[10]);
+    }
+
+    /**
+     * A bad FORMAT key is reported when the record is read (not when the samples are used)
+     */
+    @Test
+    public void testBadFormatKey() throws Exception {
+        byte[] raw = decompress(copy(new ByteArrayInputStream(text(new String[] { RECORDS[0] }).getBytes("UTF-8")), BCF));
+
+        BCFCodec.Decoder dec = new BCFCodec.Decoder(raw);
+        dec.skip(BCFCodec.TYPE_INT8, BCFCodec.MAGIC.length);
+        dec.skip(BCFCodec.TYPE_CHAR, dec.readInt32());
+        int sharedLen = dec.readInt32();
+        dec.readInt32();
+        dec.skip(BCFCodec.TYPE_CHAR, sharedLen);
+        // typed int for the first FORMAT key
+        raw[dec.position() + 1] = 99;
+
+        BCFReader reader = new BCFReader(new ByteArrayInputStream(raw));
+        try {
+            reader.next(null, false);
+            fail("Expected a VCFParseException");
+        } catch (VCFParseException e) {
+            assertTrue(e.getMessage().contains("chr1:10"));
+        }
+    }
+
+    private static byte[] decompress(byte[] bgzf) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bgzf));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Flags are written without any values (type 0, count 0), not as an int8 value
+     */
+    @Test
+    public void testFlagEncoding() throws Exception {
+        byte[] raw = decompress(copy(new ByteArrayInputStream(text(new String[] { RECORDS[0] }).getBytes("UTF-8")), BCF));
+
+        BCFCodec.Decoder dec = new BCFCodec.Decoder(raw);
+        dec.skip(BCFCodec.TYPE_INT8, BCFCodec.MAGIC.length);
+        dec.skip(BCFCodec.TYPE_CHAR, dec.readInt32());
+
+        dec.readInt32(); // l_shared
+        dec.readInt32(); // l_indiv
+        dec.skip(BCFCodec.TYPE_INT32, 4); // CHROM, POS, rlen, QUAL
+        int nInfo = dec.readInt32() & 0xFFFF;
+        dec.readInt32();
+        assertEquals(1, nInfo);
+        dec.readTypedString(); // ID
+        dec.readTypedString(); // REF
+        dec.readTypedString(); // ALT
+        dec.readDescriptor();  // FILTER
+        dec.skip(dec.type, dec.count);
+
+        dec.readTypedInt(); // DB
+        dec.readDescriptor();
+        assertEquals(BCFCodec.TYPE_MISSING, dec.type);
+        assertEquals(0, dec.count);
+        assertTrue(dec.position() < raw.length);
+    }
+}
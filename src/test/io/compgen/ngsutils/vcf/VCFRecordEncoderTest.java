@@ -0,0 +1,155 @@
+package io.compgen.ngsutils.vcf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.compgen.common.StringUtils;
+
+/**
+ * VCFRecordEncoder should write the same bytes as the old String based VCFRecord.write()
+ */
+public class VCFRecordEncoderTest {
+    private static final double[] QUALS = new double[] { -1, 0, -0.0, 30, 30.5, 0.1, 99.99, 1e-5, 9999999, 1e7, 1.5e8, 123456789.25, -3, Double.MAX_VALUE };
+    private static final String[] STRINGS = new String[] { "A", "chr1", "rs123", "g\u00e8ne", "ACGT", "x_y-z", "\u0394" };
+
+    /**
+     * The old VCFRecord.write()
+     */
+    private static byte[] oldWrite(VCFRecord rec) {
+        List<String> outcols = new ArrayList<String>();
+        outcols.add(rec.getChrom());
+        outcols.add(""+rec.getPos());
+        outcols.add(rec.getDbSNPID() == null ? VCFRecord.MISSING : rec.getDbSNPID());
+        outcols.add(rec.getRef());
+        if (rec.getAlt() == null || rec.getAlt().size() == 0) {
+            outcols.add(VCFRecord.MISSING);
+        } else {
+            outcols.add(StringUtils.join(",", rec.getAlt()));
+        }
+        if (rec.getQual() == -1) {
+            outcols.add(VCFRecord.MISSING);
+        } else {
+            String qstr = ""+rec.getQual();
+            if (qstr.endsWith(".0")) {
+                qstr = qstr.substring(0,  qstr.length()-2);
+            }
+            outcols.add(qstr);
+        }
+        if (rec.getFilters() != null && rec.getFilters().size() == 0) {
+            outcols.add(VCFRecord.MISSING);
+        } else if (!rec.isFiltered()) {
+            outcols.add(VCFRecord.PASS);
+        } else {
+            outcols.add(StringUtils.join(";", rec.getFilters()));
+        }
+        outcols.add(rec.getInfo().toString());
+        List<VCFAttributes> samples = rec.getSampleAttributes();
+        if (samples != null && samples.size() > 0) {
+            List<String> keyOrder = samples.get(0).getKeys();
+            outcols.add(StringUtils.join(":", keyOrder));
+            for (VCFAttributes attrs: samples) {
+                outcols.add(attrs.toString(keyOrder));
+            }
+        }
+        return (StringUtils.join("\t", outcols)+"\n").getBytes();
+    }
+
+    private static String pick(Random rand, String[] vals) {
+        return vals[rand.nextInt(vals.length)];
+    }
+
+    private static VCFRecord randomRecord(Random rand) throws Exception {
+        List<String> alts = null;
+        int nAlt = rand.nextInt(4);
+        if (nAlt > 0) {
+            alts = new ArrayList<String>();
+            for (int i=0; i<nAlt; i++) {
+                alts.add(pick(rand, STRINGS));
+            }
+        }
+
+        List<String> filters = null;
+        int f = rand.nextInt(4);
+        if (f == 1) {
+            filters = new ArrayList<String>();
+        } else if (f > 1) {
+            filters = new ArrayList<String>();
+            for (int i=0; i<f-1; i++) {
+                filters.add(pick(rand, STRINGS));
+            }
+        }
+
+        double qual = rand.nextInt(3) == 0 ? QUALS[rand.nextInt(QUALS.length)] : rand.nextInt(2) == 0 ? rand.nextInt(1000) : rand.nextDouble() * 1000;
+
+        VCFAttributes info = new VCFAttributes();
+        int nInfo = rand.nextInt(4);
+        for (int i=0; i<nInfo; i++) {
+            if (rand.nextInt(3) == 0) {
+                info.putFlag("FLAG"+i);
+            } else {
+                info.put("KEY"+i, VCFAttributeValue.parse(pick(rand, STRINGS)+","+rand.nextInt(100)));
+            }
+        }
+
+        List<VCFAttributes> samples = null;
+        int nSamples = rand.nextInt(3);
+        if (nSamples > 0) {
+            samples = new ArrayList<VCFAttributes>();
+            for (int i=0; i<nSamples; i++) {
+                VCFAttributes s = new VCFAttributes();
+                s.put("GT", VCFAttributeValue.parse(rand.nextInt(2)+"/"+rand.nextInt(2)));
+                // later samples can be missing keys
+                if (i == 0 || rand.nextBoolean()) {
+                    s.put("DP", VCFAttributeValue.parse(""+rand.nextInt(500)));
+                }
+                s.put("AD", VCFAttributeValue.parse(rand.nextInt(2) == 0 ? "." : rand.nextInt(50)+","+rand.nextInt(50)));
+                samples.add(s);
+            }
+        }
+
+        String id = rand.nextInt(3) == 0 ? null : pick(rand, STRINGS);
+        return new VCFRecord(pick(rand, STRINGS), rand.nextInt(Integer.MAX_VALUE), id, pick(rand, STRINGS), alts, qual, filters, info, samples, null);
+    }
+
+    @Test
+    public void testSameAsOldWrite() throws Exception {
+        Random rand = new Random(47);
+        VCFRecordEncoder encoder = new VCFRecordEncoder(16);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+
+        for (int i=0; i<5000; i++) {
+            VCFRecord rec = randomRecord(rand);
+            byte[] old = oldWrite(rec);
+            expected.write(old);
+
+            ByteArrayOutputStream single = new ByteArrayOutputStream();
+            rec.write(single);
+            assertEquals(new String(old, "UTF-8"), new String(single.toByteArray(), "UTF-8"));
+
+            // many records in one buffer
+            encoder.encode(rec);
+            if (rand.nextInt(20) == 0) {
+                encoder.writeTo(actual);
+            }
+        }
+        encoder.writeTo(actual);
+        assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(actual.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testQual() throws Exception {
+        for (double qual: QUALS) {
+            VCFRecord rec = new VCFRecord("chr1", 1, null, "A", null, qual, null, new VCFAttributes(), null, null);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            rec.write(out);
+            assertEquals(new String(oldWrite(rec), "UTF-8"), new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+}
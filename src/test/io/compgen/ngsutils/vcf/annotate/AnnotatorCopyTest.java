@@ -0,0 +1,71 @@
+package io.compgen.ngsutils.vcf.annotate;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.compgen.ngsutils.tabix.TabixTestUtils;
+
+/**
+ * Copies (for other threads) of annotators with mutable state shouldn't share that state
+ */
+public class AnnotatorCopyTest {
+
+    @Test
+    public void testFisherStrandBiasCopy() throws Exception {
+        FisherStrandBias fsb = new FisherStrandBias();
+        VCFAnnotator copy = fsb.copy();
+        assertTrue(copy instanceof FisherStrandBias);
+        assertNotSame(fsb.fisher, ((FisherStrandBias) copy).fisher);
+    }
+
+    @Test
+    public void testFileCopies() throws Exception {
+        File tmpdir = Files.createTempDirectory("annotator-copy-test").toFile();
+        try {
+            File fasta = new File(tmpdir, "ref.fa");
+            FileWriter fw = new FileWriter(fasta);
+            fw.write(">chr1\nACGTACGTAC\n");
+            fw.close();
+            fw = new FileWriter(new File(tmpdir, "ref.fa.fai"));
+            fw.write("chr1\t10\t6\t10\t11\n");
+            fw.close();
+
+            FlankingBases flanking = new FlankingBases(fasta.getPath());
+            VCFAnnotator flankingCopy = flanking.copy();
+            assertNotSame(flanking.ref, ((FlankingBases) flankingCopy).ref);
+            flankingCopy.close();
+            flanking.close();
+
+            File vcf = TabixTestUtils.writeVCF(new File(tmpdir, "test.vcf.gz"), Arrays.asList(
+                    "##fileformat=VCFv4.2",
+                    "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+                    "chr1\t5\trs1\tA\tC\t.\tPASS\t."));
+            VCFAnnotation vcfAnn = new VCFAnnotation("TEST", vcf.getPath(), null);
+            VCFAnnotator vcfCopy = vcfAnn.copy();
+            assertNotSame(vcfAnn.vcfTabix, ((VCFAnnotation) vcfCopy).vcfTabix);
+            vcfCopy.close();
+            assertTrue(!vcfAnn.vcfTabix.isClosed());
+            vcfAnn.close();
+
+            File bed = TabixTestUtils.writeBED(new File(tmpdir, "test.bed.gz"), Arrays.asList("chr1\t1\t8\tregion1"));
+            TabixAnnotation tabAnn = new TabixAnnotation("TEST", bed.getPath(), 3, false, -1, false);
+            VCFAnnotator tabCopy = tabAnn.copy();
+            assertNotSame(tabAnn.tabix, ((TabixAnnotation) tabCopy).tabix);
+            tabCopy.close();
+            assertTrue(!tabAnn.tabix.isClosed());
+            tabAnn.close();
+        } finally {
+            for (File f: tmpdir.listFiles()) {
+                f.delete();
+            }
+            tmpdir.delete();
+        }
+    }
+}